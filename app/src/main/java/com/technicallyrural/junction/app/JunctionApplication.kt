@@ -5,6 +5,7 @@ import com.android.messaging.BugleApplication
 import com.technicallyrural.junction.app.matrix.MatrixConfigRepository
 import com.technicallyrural.junction.app.observer.OutboundMessageObserverImpl
 import com.technicallyrural.junction.app.service.MatrixSyncService
+import com.technicallyrural.junction.app.worker.CompactionWorker
 import com.technicallyrural.junction.core.CoreSmsRegistry
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
@@ -46,6 +47,9 @@ class JunctionApplication : BugleApplication() {
         // Register Matrix status indicator injector
         registerActivityLifecycleCallbacks(com.technicallyrural.junction.app.ui.MatrixStatusInjector())
 
+        // Keep the bridge database within its retention period
+        CompactionWorker.schedule(this)
+
         // Check for Matrix credentials and auto-start service if configured
         autoStartMatrixService()
     }
@@ -4,11 +4,20 @@ import android.content.Context
 import android.content.SharedPreferences
 import androidx.security.crypto.EncryptedSharedPreferences
 import androidx.security.crypto.MasterKey
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.flow.update
 
 /**
  * Repository for Matrix configuration persistence.
  *
  * Uses EncryptedSharedPreferences to securely store sensitive data like access tokens.
+ *
+ * Every value read from EncryptedSharedPreferences is decrypted, so the configuration is read
+ * once and kept as an immutable snapshot in [config]. Writes through this repository replace
+ * the snapshot at once, and a preference change listener keeps it in step with the stored
+ * values, so reading the configuration never does crypto or disk I/O.
  */
 class MatrixConfigRepository(context: Context) {
 
@@ -30,10 +39,32 @@ class MatrixConfigRepository(context: Context) {
         context.getSharedPreferences(PREFS_NAME_FALLBACK, Context.MODE_PRIVATE)
     }
 
+    private val _config = MutableStateFlow(readConfig())
+
+    /**
+     * Current Matrix configuration.
+     */
+    val config: StateFlow<MatrixConfig> = _config.asStateFlow()
+
+    // Held here because SharedPreferences only keeps a weak reference to listeners
+    private val changeListener =
+        SharedPreferences.OnSharedPreferenceChangeListener { prefs, key ->
+            _config.update { current -> applyChange(current, prefs, key) }
+        }
+
+    init {
+        sharedPreferences.registerOnSharedPreferenceChangeListener(changeListener)
+    }
+
     /**
-     * Load the current Matrix configuration.
+     * Load the current Matrix configuration. Returns the cached snapshot; nothing is read
+     * from storage.
      */
     fun loadConfig(): MatrixConfig {
+        return _config.value
+    }
+
+    private fun readConfig(): MatrixConfig {
         return MatrixConfig(
             serverUrl = sharedPreferences.getString(KEY_SERVER_URL, "") ?: "",
             userId = sharedPreferences.getString(KEY_USER_ID, "") ?: "",
@@ -46,6 +77,31 @@ class MatrixConfigRepository(context: Context) {
         )
     }
 
+    /**
+     * [current] with the stored value of [key] applied. Only the changed key is read; a null
+     * key (preferences cleared) reads everything again.
+     */
+    private fun applyChange(
+        current: MatrixConfig,
+        prefs: SharedPreferences,
+        key: String?
+    ): MatrixConfig {
+        return when (key) {
+            null -> readConfig()
+            KEY_SERVER_URL -> current.copy(serverUrl = prefs.getString(key, "") ?: "")
+            KEY_USER_ID -> current.copy(userId = prefs.getString(key, "") ?: "")
+            KEY_USERNAME -> current.copy(username = prefs.getString(key, "") ?: "")
+            KEY_ACCESS_TOKEN -> current.copy(accessToken = prefs.getString(key, "") ?: "")
+            KEY_DEVICE_ID -> current.copy(deviceId = prefs.getString(key, "") ?: "")
+            KEY_ENABLED -> current.copy(enabled = prefs.getBoolean(key, false))
+            KEY_LAST_CONNECTED -> current.copy(lastConnectedTimestamp = prefs.getLong(key, 0L))
+            KEY_GROUP_SHORT_CODES -> current.copy(
+                groupShortCodesByService = prefs.getBoolean(key, true)
+            )
+            else -> current
+        }
+    }
+
     /**
      * Save Matrix configuration.
      */
@@ -61,6 +117,7 @@ class MatrixConfigRepository(context: Context) {
             putBoolean(KEY_GROUP_SHORT_CODES, config.groupShortCodesByService)
             apply()
         }
+        _config.value = config
     }
 
     /**
@@ -68,15 +125,18 @@ class MatrixConfigRepository(context: Context) {
      */
     fun clearConfig() {
         sharedPreferences.edit().clear().apply()
+        _config.value = MatrixConfig.EMPTY
     }
 
     /**
      * Update last connected timestamp to current time.
      */
     fun updateLastConnected() {
+        val now = System.currentTimeMillis()
         sharedPreferences.edit()
-            .putLong(KEY_LAST_CONNECTED, System.currentTimeMillis())
+            .putLong(KEY_LAST_CONNECTED, now)
             .apply()
+        _config.update { it.copy(lastConnectedTimestamp = now) }
     }
 
     companion object {
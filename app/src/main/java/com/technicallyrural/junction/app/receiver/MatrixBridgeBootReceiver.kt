@@ -8,7 +8,7 @@ import android.provider.Telephony
 import android.util.Log
 import androidx.work.*
 import com.technicallyrural.junction.app.matrix.MatrixConfigRepository
-import com.technicallyrural.junction.app.worker.RetryPendingMatrixMessagesWorker
+import com.technicallyrural.junction.app.worker.OutboxScheduler
 import com.technicallyrural.junction.matrix.MatrixRegistry
 import com.technicallyrural.junction.matrix.MatrixSendResult
 import com.technicallyrural.junction.persistence.repository.MessageRepository
@@ -17,7 +17,6 @@ import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.SupervisorJob
 import kotlinx.coroutines.launch
-import java.util.concurrent.TimeUnit
 
 /**
  * Boot receiver for recovering unbridged messages after crashes or reboots.
@@ -81,7 +80,7 @@ class MatrixBridgeBootReceiver : BroadcastReceiver() {
             if (!MatrixRegistry.isInitialized) {
                 Log.d(TAG, "MatrixRegistry not initialized, skipping boot scan")
                 // Schedule retry for later
-                scheduleRetryWorker(context)
+                OutboxScheduler.getInstance(context).schedule()
                 return
             }
 
@@ -101,7 +100,7 @@ class MatrixBridgeBootReceiver : BroadcastReceiver() {
             }
 
             // Schedule WorkManager to retry any pending messages
-            scheduleRetryWorker(context)
+            OutboxScheduler.getInstance(context).schedule()
 
         } catch (e: Exception) {
             Log.e(TAG, "Error scanning for unbridged messages", e)
@@ -187,7 +186,8 @@ class MatrixBridgeBootReceiver : BroadcastReceiver() {
                 phoneNumber = sms.address,
                 messageBody = sms.body,
                 timestamp = sms.timestamp,
-                isGroup = false
+                isGroup = false,
+                transactionId = record.matrixTxnId
             )
 
             when (result) {
@@ -213,28 +213,6 @@ class MatrixBridgeBootReceiver : BroadcastReceiver() {
         }
     }
 
-    /**
-     * Schedule WorkManager retry for pending messages.
-     */
-    private fun scheduleRetryWorker(context: Context) {
-        val workRequest = OneTimeWorkRequestBuilder<RetryPendingMatrixMessagesWorker>()
-            .setInitialDelay(60, TimeUnit.SECONDS)
-            .setBackoffCriteria(
-                BackoffPolicy.EXPONENTIAL,
-                5,
-                TimeUnit.SECONDS
-            )
-            .build()
-
-        WorkManager.getInstance(context).enqueueUniqueWork(
-            "retry_matrix_bridge",
-            ExistingWorkPolicy.KEEP,
-            workRequest
-        )
-
-        Log.d(TAG, "Scheduled WorkManager retry for pending messages")
-    }
-
     /**
      * Data class for unbridged SMS from AOSP database.
      */
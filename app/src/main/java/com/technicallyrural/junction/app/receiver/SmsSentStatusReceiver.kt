@@ -9,7 +9,7 @@ import android.provider.Telephony
 import android.util.Log
 import androidx.work.*
 import com.technicallyrural.junction.app.matrix.MatrixConfigRepository
-import com.technicallyrural.junction.app.worker.RetryPendingMatrixMessagesWorker
+import com.technicallyrural.junction.app.worker.OutboxScheduler
 import com.technicallyrural.junction.matrix.MatrixRegistry
 import com.technicallyrural.junction.matrix.MatrixSendResult
 import com.technicallyrural.junction.persistence.repository.MessageRepository
@@ -18,7 +18,6 @@ import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.SupervisorJob
 import kotlinx.coroutines.launch
-import java.util.concurrent.TimeUnit
 
 /**
  * Receives MESSAGE_SENT_ACTION broadcasts when SMS/MMS is sent via carrier.
@@ -197,7 +196,8 @@ class SmsSentStatusReceiver : BroadcastReceiver() {
                 phoneNumber = message.address,
                 messageBody = message.body,
                 timestamp = message.timestamp,
-                isGroup = false
+                isGroup = false,
+                transactionId = record.matrixTxnId
             )
 
             when (result) {
@@ -217,8 +217,8 @@ class SmsSentStatusReceiver : BroadcastReceiver() {
                         dedupKey = record.dedupKey,
                         failureReason = result.error.name
                     )
-                    // Schedule WorkManager retry
-                    scheduleRetryWorker(context)
+                    // Schedule outbox retry
+                    OutboxScheduler.getInstance(context).schedule()
                 }
             }
 
@@ -275,30 +275,6 @@ class SmsSentStatusReceiver : BroadcastReceiver() {
         return null
     }
 
-    /**
-     * Schedule WorkManager retry job for failed Matrix sends.
-     *
-     * Uses exponential backoff to avoid overwhelming Matrix server.
-     */
-    private fun scheduleRetryWorker(context: Context) {
-        val workRequest = OneTimeWorkRequestBuilder<RetryPendingMatrixMessagesWorker>()
-            .setInitialDelay(30, TimeUnit.SECONDS)
-            .setBackoffCriteria(
-                BackoffPolicy.EXPONENTIAL,
-                5,
-                TimeUnit.SECONDS
-            )
-            .build()
-
-        WorkManager.getInstance(context).enqueueUniqueWork(
-            "retry_matrix_bridge",
-            ExistingWorkPolicy.KEEP, // Don't restart if already scheduled
-            workRequest
-        )
-
-        Log.d(TAG, "Scheduled WorkManager retry for failed Matrix sends")
-    }
-
     /**
      * Data class for SMS message from AOSP database.
      */
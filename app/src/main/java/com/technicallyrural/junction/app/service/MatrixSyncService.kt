@@ -5,38 +5,29 @@ import android.app.NotificationChannel
 import android.app.NotificationManager
 import android.app.PendingIntent
 import android.app.Service
-import android.content.BroadcastReceiver
 import android.content.Context
 import android.content.Intent
-import android.content.IntentFilter
 import android.os.IBinder
 import android.util.Log
 import androidx.core.app.NotificationCompat
-import androidx.work.ExistingPeriodicWorkPolicy
-import androidx.work.PeriodicWorkRequestBuilder
 import androidx.work.WorkManager
-import com.technicallyrural.junction.app.worker.MatrixIdleCheckWorker
-import java.util.concurrent.TimeUnit
 import com.technicallyrural.junction.app.R
 import com.technicallyrural.junction.app.matrix.MatrixConfigRepository
 import com.technicallyrural.junction.app.ui.MatrixConfigActivity
+import com.technicallyrural.junction.app.worker.OutboxScheduler
 import com.technicallyrural.junction.matrix.MatrixRegistry
 import com.technicallyrural.junction.matrix.impl.SimpleRoomMapper
+import com.technicallyrural.junction.matrix.impl.SyncScheduler
 import com.technicallyrural.junction.matrix.impl.TrixnityClientManager
 import com.technicallyrural.junction.matrix.impl.TrixnityClientManagerSingleton
 import com.technicallyrural.junction.matrix.impl.TrixnityMatrixBridge
-import com.technicallyrural.junction.core.CoreSmsRegistry
-import com.technicallyrural.junction.core.transport.SendResult
-import com.technicallyrural.junction.persistence.repository.MessageRepository
+import com.technicallyrural.junction.matrix.impl.TrixnityPresenceService
 import com.technicallyrural.junction.persistence.repository.RoomMappingRepository
-import com.technicallyrural.junction.persistence.util.AospThreadIdExtractor
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.Job
 import kotlinx.coroutines.SupervisorJob
 import kotlinx.coroutines.cancel
-import kotlinx.coroutines.delay
-import kotlinx.coroutines.isActive
 import kotlinx.coroutines.launch
 
 /**
@@ -45,7 +36,7 @@ import kotlinx.coroutines.launch
  * Responsibilities:
  * - Keep Matrix sync loop running in background
  * - Bridge incoming Matrix messages to SMS
- * - Send periodic presence/status updates
+ * - Publish device status to the control room on change
  * - Maintain persistent notification
  *
  * Lifecycle:
@@ -57,23 +48,28 @@ class MatrixSyncService : Service() {
 
     private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
     private var syncJob: Job? = null
-    private var presenceJob: Job? = null
+    private var dispatchJob: Job? = null
 
     private lateinit var clientManager: TrixnityClientManager
     private var bridge: TrixnityMatrixBridge? = null
+    private var presenceService: TrixnityPresenceService? = null
     private lateinit var configRepository: MatrixConfigRepository
+    private val smsDispatcher by lazy { MatrixToSmsDispatcher(applicationContext, scope) }
 
-    // Idle mode detection
-    private var screenReceiver: BroadcastReceiver? = null
-    private var idleTimer: Job? = null
-    private var isIdleMode = false
-    private val idleTimeoutMs = 15 * 60 * 1000L // 15 minutes
+    private var metricsJob: Job? = null
+    private var serverUrl: String? = null
 
     companion object {
         private const val TAG = "MatrixSyncService"
         private const val CHANNEL_ID = "matrix_sync"
         private const val NOTIFICATION_ID = 1001
 
+        /**
+         * Periodic work enqueued by the idle check worker that SyncScheduler replaced. Installs
+         * from before still have it scheduled, against a worker class that no longer exists.
+         */
+        private const val LEGACY_IDLE_CHECK_WORK = "matrix_idle_check"
+
         const val ACTION_START_SYNC = "com.technicallyrural.junction.START_MATRIX_SYNC"
         const val ACTION_STOP_SYNC = "com.technicallyrural.junction.STOP_MATRIX_SYNC"
 
@@ -105,14 +101,17 @@ class MatrixSyncService : Service() {
         configRepository = MatrixConfigRepository.getInstance(this)
         clientManager = TrixnityClientManagerSingleton.getInstance(this)
 
+        // SyncScheduler drives sync now; a no-op once the old work is gone
+        WorkManager.getInstance(this).cancelUniqueWork(LEGACY_IDLE_CHECK_WORK)
+
         // Create notification channel
         createNotificationChannel()
 
         // Start foreground with notification
         startForeground(NOTIFICATION_ID, createNotification("Connecting..."))
 
-        // Register screen on/off receiver for idle detection
-        registerScreenReceiver()
+        // Reflect the sync profile in the notification
+        observeSyncMetrics()
     }
 
     override fun onStartCommand(intent: Intent?, flags: Int, startId: Int): Int {
@@ -133,9 +132,9 @@ class MatrixSyncService : Service() {
     override fun onDestroy() {
         Log.d(TAG, "MatrixSyncService destroyed")
         stopMatrixSync()
-        unregisterScreenReceiver()
-        cancelIdleMode()
+        metricsJob?.cancel()
         scope.cancel()
+        RoomMappingRepository.getInstance(this).flushLastUsedOnShutdown()
         super.onDestroy()
     }
 
@@ -164,6 +163,10 @@ class MatrixSyncService : Service() {
                     return@launch
                 }
 
+                // A restart replaces the bridge and presence service; stop the old ones first so
+                // their timeline collector and publish loop don't run alongside the new ones
+                releaseBridge()
+
                 // Initialize bridge
                 val serverDomain = config.serverUrl
                     .removePrefix("https://")
@@ -187,18 +190,24 @@ class MatrixSyncService : Service() {
                 // Store bridge instance
                 bridge = matrixBridge
 
+                val presence = TrixnityPresenceService(
+                    applicationContext,
+                    matrixBridge,
+                    clientManager.syncScheduler
+                )
+                presenceService = presence
+
                 // Register bridge in MatrixRegistry for app-wide access
-                // Use bridge for presence service (it has updatePresence method)
-                val presenceService = BridgePresenceServiceAdapter(matrixBridge)
                 MatrixRegistry.initialize(
                     matrixBridge = matrixBridge,
                     roomMapper = roomMapper,
-                    presenceService = presenceService
+                    presenceService = presence
                 )
 
                 Log.d(TAG, "MatrixRegistry initialized")
 
                 // Start sync
+                serverUrl = config.serverUrl
                 updateNotification("Connected to ${config.serverUrl}")
                 Log.d(TAG, "Starting Matrix sync...")
 
@@ -210,6 +219,11 @@ class MatrixSyncService : Service() {
                 // Start presence updates
                 startPresenceUpdates()
 
+                // Retry anything left pending while Matrix was unavailable
+                val outbox = OutboxScheduler.getInstance(applicationContext)
+                outbox.homeserver.recordSuccess()
+                outbox.schedule()
+
             } catch (e: Exception) {
                 Log.e(TAG, "Error starting Matrix sync", e)
                 updateNotification("Sync error: ${e.message}")
@@ -219,125 +233,27 @@ class MatrixSyncService : Service() {
     }
 
     /**
-     * Subscribe to incoming Matrix messages and bridge to SMS with persistent deduplication.
+     * Start draining incoming Matrix messages to SMS.
      */
     private fun subscribeToMatrixMessages() {
         val bridgeInstance = bridge ?: return
 
-        scope.launch {
-            bridgeInstance.observeMatrixMessages().collect { matrixMessage ->
-                try {
-                    Log.d(TAG, "Matrix message from ${matrixMessage.sender}, eventId=${matrixMessage.eventId}")
-
-                    // Get conversation ID from room mapping
-                    val roomRepo = RoomMappingRepository.getInstance(applicationContext)
-                    val conversationId = roomRepo.getConversationForRoom(matrixMessage.roomId)
-                    if (conversationId == null) {
-                        Log.w(TAG, "No conversation mapping for room ${matrixMessage.roomId}")
-                        return@collect
-                    }
-
-                    // Get participants for this conversation
-                    val participants = roomRepo.getParticipants(conversationId)
-                    if (participants.isNullOrEmpty()) {
-                        Log.w(TAG, "No participants for conversation $conversationId")
-                        return@collect
-                    }
-
-                    // Get our phone number
-                    val ownNumber = AospThreadIdExtractor.getOwnPhoneNumber(applicationContext) ?: "unknown"
-
-                    // Initialize repository
-                    val messageRepo = MessageRepository.getInstance(applicationContext)
-
-                    // Record send attempt (with deduplication by event ID)
-                    val record = messageRepo.recordMatrixToSmsSend(
-                        matrixEventId = matrixMessage.eventId,
-                        matrixRoomId = matrixMessage.roomId,
-                        conversationId = conversationId,
-                        senderAddress = matrixMessage.sender,
-                        recipientAddresses = participants.filter { it != ownNumber },
-                        body = matrixMessage.body,
-                        timestamp = matrixMessage.timestamp,
-                        isGroup = participants.size > 1
-                    )
-
-                    if (record == null) {
-                        Log.w(TAG, "Duplicate Matrix event detected (id=${matrixMessage.eventId}), skipping SMS send")
-                        return@collect
-                    }
-
-                    // For now, send to first participant (1:1 SMS)
-                    // TODO: Group SMS support in Phase 1
-                    val recipient = participants.firstOrNull() ?: return@collect
-
-                    Log.d(TAG, "Matrix → SMS: $recipient (eventId=${matrixMessage.eventId})")
-
-                    // Send SMS via CoreSmsRegistry
-                    if (!CoreSmsRegistry.isInitialized) {
-                        Log.e(TAG, "CoreSmsRegistry not initialized, cannot send SMS")
-                        messageRepo.recordSmsSendFailure(
-                            matrixEventId = matrixMessage.eventId,
-                            failureReason = "CoreSmsRegistry not initialized"
-                        )
-                        return@collect
-                    }
-
-                    val result = CoreSmsRegistry.smsTransport.sendSms(
-                        destinationAddress = recipient,
-                        message = matrixMessage.body
-                    )
-
-                    when (result) {
-                        is SendResult.Success -> {
-                            Log.d(TAG, "Matrix message bridged to SMS: $recipient, eventId=${matrixMessage.eventId}")
-                            // Confirm send
-                            messageRepo.confirmSmsSend(
-                                matrixEventId = matrixMessage.eventId,
-                                smsMessageId = result.messageId ?: 0L
-                            )
-                        }
-                        is SendResult.Failure -> {
-                            Log.e(TAG, "Failed to send SMS for eventId=${matrixMessage.eventId}: ${result.error}")
-                            // Record failure
-                            messageRepo.recordSmsSendFailure(
-                                matrixEventId = matrixMessage.eventId,
-                                failureReason = result.error.name
-                            )
-                        }
-                    }
-
-                } catch (e: Exception) {
-                    Log.e(TAG, "Error processing Matrix message eventId=${matrixMessage.eventId}", e)
-                }
-            }
-        }
+        dispatchJob?.cancel()
+        dispatchJob = smsDispatcher.start(bridgeInstance)
     }
 
     /**
-     * Send periodic presence updates to control room.
+     * Start publishing device status to the control room. The presence service publishes
+     * on meaningful connectivity/signal changes and on a heartbeat, not on a fixed timer.
      */
     private fun startPresenceUpdates() {
-        val bridgeInstance = bridge ?: return
+        val presence = presenceService ?: return
 
-        presenceJob?.cancel()
-
-        presenceJob = scope.launch {
-            while (isActive) {
-                try {
-                    // TODO: Get actual connectivity status
-                    val dataConnected = true // Placeholder
-                    val cellSignal = 4 // Placeholder (0-4 bars)
-
-                    bridgeInstance.updatePresence(dataConnected, cellSignal)
-                    Log.d(TAG, "Sent presence update")
-
-                } catch (e: Exception) {
-                    Log.e(TAG, "Error sending presence update", e)
-                }
-
-                // Send updates every 5 minutes
-                delay(5 * 60 * 1000L)
+        scope.launch {
+            try {
+                presence.startMonitoring()
+            } catch (e: Exception) {
+                Log.e(TAG, "Error starting presence monitoring", e)
             }
         }
     }
@@ -347,11 +263,11 @@ class MatrixSyncService : Service() {
      */
     private fun stopMatrixSync() {
         syncJob?.cancel()
-        presenceJob?.cancel()
+        dispatchJob?.cancel()
 
         scope.launch {
             try {
-                bridge?.stopSync()
+                releaseBridge()
                 MatrixRegistry.clear()
                 Log.d(TAG, "Matrix sync stopped, registry cleared")
             } catch (e: Exception) {
@@ -360,6 +276,20 @@ class MatrixSyncService : Service() {
         }
     }
 
+    /**
+     * Stop the current presence service and bridge, if any, and forget them.
+     */
+    private suspend fun releaseBridge() {
+        presenceService?.stopMonitoring()
+        presenceService = null
+
+        bridge?.let {
+            it.stopSync()
+            it.close()
+        }
+        bridge = null
+    }
+
     /**
      * Create notification channel for service.
      */
@@ -389,10 +319,9 @@ class MatrixSyncService : Service() {
             PendingIntent.FLAG_IMMUTABLE
         )
 
-        val title = if (isIdleMode) {
-            "Matrix Bridge (Idle)"
-        } else {
-            "Matrix Bridge (Active)"
+        val title = when (clientManager.syncScheduler.metrics.value.profile) {
+            SyncScheduler.SyncProfile.IDLE, SyncScheduler.SyncProfile.DOZE -> "Matrix Bridge (Idle)"
+            else -> "Matrix Bridge (Active)"
         }
 
         return NotificationCompat.Builder(this, CHANNEL_ID)
@@ -413,199 +342,29 @@ class MatrixSyncService : Service() {
     }
 
     // ========================================================================
-    // IDLE MODE DETECTION (Battery Optimization)
+    // SYNC METRICS
     // ========================================================================
 
     /**
-     * Register broadcast receiver for screen on/off events.
+     * Log sync metrics and update the notification when the sync profile changes.
+     * Scheduling itself is done by [SyncScheduler].
      */
-    private fun registerScreenReceiver() {
-        screenReceiver = object : BroadcastReceiver() {
-            override fun onReceive(context: Context, intent: Intent) {
-                when (intent.action) {
-                    Intent.ACTION_SCREEN_ON -> {
-                        Log.d(TAG, "Screen ON - resuming active sync")
-                        resumeActiveMode()
-                    }
-                    Intent.ACTION_SCREEN_OFF -> {
-                        Log.d(TAG, "Screen OFF - scheduling idle mode")
-                        scheduleIdleMode()
-                    }
-                }
-            }
-        }
-
-        val filter = IntentFilter().apply {
-            addAction(Intent.ACTION_SCREEN_ON)
-            addAction(Intent.ACTION_SCREEN_OFF)
-        }
-
-        registerReceiver(screenReceiver, filter)
-        Log.d(TAG, "Screen receiver registered for idle detection")
-    }
-
-    /**
-     * Unregister screen receiver.
-     */
-    private fun unregisterScreenReceiver() {
-        screenReceiver?.let {
-            try {
-                unregisterReceiver(it)
-                Log.d(TAG, "Screen receiver unregistered")
-            } catch (e: Exception) {
-                Log.w(TAG, "Error unregistering screen receiver", e)
+    private fun observeSyncMetrics() {
+        metricsJob?.cancel()
+
+        metricsJob = scope.launch {
+            var lastProfile: SyncScheduler.SyncProfile? = null
+            clientManager.syncScheduler.metrics.collect { metrics ->
+                if (metrics.profile == lastProfile) return@collect
+                lastProfile = metrics.profile
+
+                Log.d(
+                    TAG,
+                    "Sync profile ${metrics.profile}: ${metrics.syncsLastHour} syncs in the " +
+                        "last hour, median latency ${metrics.medianLatencyMs ?: "-"} ms"
+                )
+                serverUrl?.let { updateNotification("Connected to $it") }
             }
         }
-        screenReceiver = null
-    }
-
-    /**
-     * Schedule transition to idle mode after timeout.
-     */
-    private fun scheduleIdleMode() {
-        // Cancel existing timer
-        idleTimer?.cancel()
-
-        // Schedule idle mode after 15 minutes
-        idleTimer = scope.launch {
-            delay(idleTimeoutMs)
-            enterIdleMode()
-        }
-
-        Log.d(TAG, "Idle mode scheduled in ${idleTimeoutMs / 1000 / 60} minutes")
-    }
-
-    /**
-     * Enter idle mode: Stop continuous sync, start periodic WorkManager checks.
-     */
-    private fun enterIdleMode() {
-        if (isIdleMode) {
-            Log.d(TAG, "Already in idle mode")
-            return
-        }
-
-        Log.d(TAG, "Entering idle mode")
-        isIdleMode = true
-
-        scope.launch {
-            // Stop continuous sync to save battery
-            bridge?.stopSync()
-            Log.d(TAG, "Continuous sync stopped")
-
-            // Schedule periodic checks every 15 minutes
-            schedulePeriodicChecks()
-
-            // Update notification
-            updateNotification("Idle mode - checking every 15 min")
-        }
-    }
-
-    /**
-     * Resume active mode: Stop periodic checks, start continuous sync.
-     */
-    private fun resumeActiveMode() {
-        // Cancel idle timer if screen turned on before timeout
-        idleTimer?.cancel()
-
-        if (!isIdleMode) {
-            Log.d(TAG, "Already in active mode")
-            return
-        }
-
-        Log.d(TAG, "Resuming active mode")
-        isIdleMode = false
-
-        scope.launch {
-            // Cancel periodic checks
-            cancelPeriodicChecks()
-
-            // Resume continuous sync
-            bridge?.startSync()
-            Log.d(TAG, "Continuous sync resumed")
-
-            // Restart presence updates
-            startPresenceUpdates()
-
-            // Update notification
-            val config = configRepository.loadConfig()
-            updateNotification("Connected to ${config.serverUrl}")
-        }
-    }
-
-    /**
-     * Schedule WorkManager periodic checks for idle mode.
-     */
-    private fun schedulePeriodicChecks() {
-        val workRequest = PeriodicWorkRequestBuilder<MatrixIdleCheckWorker>(
-            repeatInterval = 15,
-            repeatIntervalTimeUnit = TimeUnit.MINUTES
-        ).build()
-
-        WorkManager.getInstance(applicationContext).enqueueUniquePeriodicWork(
-            MatrixIdleCheckWorker.WORK_NAME,
-            ExistingPeriodicWorkPolicy.REPLACE,
-            workRequest
-        )
-
-        Log.d(TAG, "Periodic checks scheduled (every 15 min)")
-    }
-
-    /**
-     * Cancel WorkManager periodic checks.
-     */
-    private fun cancelPeriodicChecks() {
-        WorkManager.getInstance(applicationContext)
-            .cancelUniqueWork(MatrixIdleCheckWorker.WORK_NAME)
-
-        Log.d(TAG, "Periodic checks cancelled")
-    }
-
-    /**
-     * Cancel idle mode timer and WorkManager.
-     */
-    private fun cancelIdleMode() {
-        idleTimer?.cancel()
-        cancelPeriodicChecks()
-    }
-}
-
-/**
- * Adapter that wraps MatrixBridge to provide MatrixPresenceService interface.
- * Since MatrixBridge has updatePresence method, we delegate to it.
- */
-private class BridgePresenceServiceAdapter(
-    private val bridge: com.technicallyrural.junction.matrix.MatrixBridge
-) : com.technicallyrural.junction.matrix.MatrixPresenceService {
-
-    override val deviceStatus: kotlinx.coroutines.flow.Flow<com.technicallyrural.junction.matrix.DeviceStatus>
-        get() = kotlinx.coroutines.flow.flowOf(
-            com.technicallyrural.junction.matrix.DeviceStatus(
-                dataConnected = false,
-                connectionType = com.technicallyrural.junction.matrix.ConnectionType.NONE,
-                cellSignal = 0,
-                wifiConnected = false,
-                lastUpdate = 0L
-            )
-        )
-
-    override suspend fun sendImmediateUpdate() {
-        // Delegate to bridge's updatePresence
-        bridge.updatePresence(dataConnected = true, cellSignal = 4)
-    }
-
-    override suspend fun getOrCreateControlRoom(): String? {
-        return bridge.getControlRoomId()
-    }
-
-    override fun isMonitoring(): Boolean {
-        return bridge.isSyncing()
-    }
-
-    override suspend fun startMonitoring() {
-        // No-op: monitoring is handled by sync service
-    }
-
-    override suspend fun stopMonitoring() {
-        // No-op: monitoring is handled by sync service
     }
 }
@@ -0,0 +1,270 @@
+package com.technicallyrural.junction.app.service
+
+import android.content.Context
+import android.util.Log
+import com.technicallyrural.junction.app.worker.OutboxScheduler
+import com.technicallyrural.junction.core.CoreSmsRegistry
+import com.technicallyrural.junction.core.transport.MmsPart
+import com.technicallyrural.junction.core.transport.SendError
+import com.technicallyrural.junction.core.transport.SendResult
+import com.technicallyrural.junction.core.transport.SmsTransport
+import com.technicallyrural.junction.matrix.MatrixBridge
+import com.technicallyrural.junction.matrix.MatrixInboundMessage
+import com.technicallyrural.junction.persistence.repository.MessageRepository
+import com.technicallyrural.junction.persistence.repository.RoomMappingRepository
+import com.technicallyrural.junction.persistence.util.AospThreadIdExtractor
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.isActive
+import kotlinx.coroutines.launch
+
+/**
+ * Result of sending one message to each of its recipients.
+ *
+ * @param results Result per recipient address; a group MMS gives every recipient its one result
+ */
+data class DispatchResult(val results: Map<String, SendResult>) {
+
+    /** Recipients whose send failed, with the error */
+    val failures: Map<String, SendError>
+        get() = results.mapNotNull { (recipient, result) ->
+            (result as? SendResult.Failure)?.let { recipient to it.error }
+        }.toMap()
+
+    val allSucceeded: Boolean
+        get() = results.values.all { it is SendResult.Success }
+
+    /** Message id of the first successful send, if any recipient succeeded */
+    val firstMessageId: Long?
+        get() = results.values.firstNotNullOfOrNull { (it as? SendResult.Success)?.messageId }
+}
+
+/**
+ * Bridges Matrix messages to SMS/MMS with persistent deduplication.
+ *
+ * Messages are drained in batches from the bridge's durable inbound queue, and a batch is only
+ * acknowledged once every message in it has been processed. The next batch isn't read until
+ * then, so a stalled SMS side leaves messages queued on disk instead of in memory.
+ *
+ * Within a batch, messages are spread over a few lanes by room, so different rooms are sent
+ * concurrently while each room's messages go out in the order they arrived.
+ *
+ * A group room is sent as one group MMS when group MMS is enabled, and otherwise as an SMS
+ * to each participant. SMS are split with [SmsTransport.divideMessage], and every part counts
+ * against [SmsSendRateLimiter] so a busy room can't trip the platform's outgoing SMS limit.
+ * Failed sends are retried by [OutboxScheduler], to the recipients that weren't sent to.
+ *
+ * @param context Application context
+ * @param scope Scope the dispatcher runs in; cancelling it stops the dispatcher
+ */
+class MatrixToSmsDispatcher(
+    private val context: Context,
+    private val scope: CoroutineScope
+) {
+
+    companion object {
+        private const val TAG = "MatrixToSmsDispatcher"
+
+        /** Messages read from the inbound queue at a time */
+        private const val BATCH_SIZE = 100
+        private const val QUEUE_RETRY_MS = 5000L
+
+        /** Rooms sent concurrently; each radio send blocks its lane until it completes */
+        private const val LANE_COUNT = 4
+
+        /** Android's default SmsUsageMonitor limit: 30 SMS per minute */
+        private const val MAX_SMS_PARTS_PER_WINDOW = 30
+        private const val SMS_WINDOW_MS = 60 * 1000L
+
+        // Shared with outbox retries, since the platform limit is per app
+        private val rateLimiter = SmsSendRateLimiter(MAX_SMS_PARTS_PER_WINDOW, SMS_WINDOW_MS)
+
+        /**
+         * Send [body] to [recipients]. Every recipient is sent to even if an earlier send failed,
+         * and each gets its own result.
+         *
+         * @param beforeSend Called before each send, including its rate limit wait
+         * @param onSent Called with the recipients of each send that was accepted
+         */
+        internal suspend fun send(
+            transport: SmsTransport,
+            recipients: List<String>,
+            body: String,
+            beforeSend: suspend () -> Unit = {},
+            onSent: suspend (List<String>) -> Unit = {}
+        ): DispatchResult {
+            if (recipients.size > 1 && transport.isGroupMmsEnabled()) {
+                beforeSend()
+                val result = transport.sendMms(recipients, null, listOf(MmsPart.Text(body)))
+                if (result is SendResult.Success) onSent(recipients)
+                return DispatchResult(recipients.associateWith { result })
+            }
+
+            val parts = transport.divideMessage(body)
+            val results = LinkedHashMap<String, SendResult>()
+            for (recipient in recipients) {
+                beforeSend()
+                rateLimiter.acquire(parts.size)
+                val result = if (parts.size > 1) {
+                    transport.sendMultipartSms(recipient, parts)
+                } else {
+                    transport.sendSms(recipient, body)
+                }
+                if (result is SendResult.Failure) {
+                    Log.w(TAG, "SMS to one of ${recipients.size} recipient(s) failed: ${result.error}")
+                } else {
+                    onSent(listOf(recipient))
+                }
+                results[recipient] = result
+            }
+            return DispatchResult(results)
+        }
+
+        /**
+         * [send] for a recorded message. The message stays claimed for the whole send, so the
+         * outbox doesn't pick it up while it's rate limited, and each recipient is recorded as
+         * sent as soon as its send is accepted.
+         */
+        internal suspend fun sendRecorded(
+            transport: SmsTransport,
+            messageRepo: MessageRepository,
+            messageId: Long,
+            recipients: List<String>,
+            body: String
+        ): DispatchResult {
+            return send(
+                transport,
+                recipients,
+                body,
+                beforeSend = { messageRepo.claimForSend(messageId) },
+                onSent = { sent -> messageRepo.markRecipientsSent(messageId, sent) }
+            )
+        }
+    }
+
+    /**
+     * Start draining [bridge]'s inbound queue. Cancel the returned job to stop.
+     */
+    fun start(bridge: MatrixBridge): Job {
+        return scope.launch {
+            while (isActive) {
+                try {
+                    val batch = bridge.receiveMatrixMessages(BATCH_SIZE)
+                    Log.d(TAG, "Processing ${batch.size} queued Matrix message(s)")
+                    processBatch(batch)
+                    bridge.acknowledgeMatrixMessages(batch)
+                } catch (e: CancellationException) {
+                    throw e
+                } catch (e: Exception) {
+                    Log.e(TAG, "Error draining inbound Matrix queue", e)
+                    delay(QUEUE_RETRY_MS)
+                }
+            }
+        }
+    }
+
+    /**
+     * Process [batch] on up to [LANE_COUNT] lanes, keeping each room's messages in order.
+     * Returns once every message has been processed.
+     */
+    private suspend fun processBatch(batch: List<MatrixInboundMessage>) = coroutineScope {
+        batch.groupBy { (it.roomId.hashCode() and Int.MAX_VALUE) % LANE_COUNT }
+            .values
+            .forEach { lane ->
+                launch {
+                    for (message in lane) {
+                        try {
+                            process(message)
+                        } catch (e: CancellationException) {
+                            throw e
+                        } catch (e: Exception) {
+                            Log.e(TAG, "Error processing Matrix message eventId=${message.eventId}", e)
+                        }
+                    }
+                }
+            }
+    }
+
+    private suspend fun process(matrixMessage: MatrixInboundMessage) {
+        Log.d(TAG, "Matrix message from ${matrixMessage.sender}, eventId=${matrixMessage.eventId}")
+
+        // Get conversation and participants from the in-memory room mappings
+        val mapping = RoomMappingRepository.getInstance(context)
+            .loadedSnapshot()
+            .byRoomId[matrixMessage.roomId]
+        if (mapping == null) {
+            Log.w(TAG, "No conversation mapping for room ${matrixMessage.roomId}")
+            return
+        }
+        val conversationId = mapping.conversationId
+
+        // Participants without our own number
+        val ownNumber = AospThreadIdExtractor.getOwnPhoneNumber(context) ?: "unknown"
+        val recipients = mapping.participants.filter { it != ownNumber }
+        if (recipients.isEmpty()) {
+            Log.w(TAG, "No participants for conversation $conversationId")
+            return
+        }
+
+        val messageRepo = MessageRepository.getInstance(context)
+
+        // Record send attempt (with deduplication by event ID)
+        val record = messageRepo.recordMatrixToSmsSend(
+            matrixEventId = matrixMessage.eventId,
+            matrixRoomId = matrixMessage.roomId,
+            conversationId = conversationId,
+            senderAddress = matrixMessage.sender,
+            recipientAddresses = recipients,
+            body = matrixMessage.body,
+            timestamp = matrixMessage.timestamp,
+            isGroup = recipients.size > 1
+        )
+
+        if (record == null) {
+            Log.w(TAG, "Duplicate Matrix event detected (id=${matrixMessage.eventId}), skipping SMS send")
+            return
+        }
+
+        if (!CoreSmsRegistry.isInitialized) {
+            Log.e(TAG, "CoreSmsRegistry not initialized, cannot send SMS")
+            messageRepo.recordSmsSendFailure(
+                matrixEventId = matrixMessage.eventId,
+                failureReason = "CoreSmsRegistry not initialized"
+            )
+            OutboxScheduler.getInstance(context).schedule()
+            return
+        }
+
+        Log.d(TAG, "Matrix → SMS: ${recipients.size} recipient(s) (eventId=${matrixMessage.eventId})")
+
+        val result = sendRecorded(
+            CoreSmsRegistry.smsTransport,
+            messageRepo,
+            record.id,
+            recipients,
+            matrixMessage.body
+        )
+        if (result.allSucceeded) {
+            Log.d(TAG, "Matrix message bridged to SMS, eventId=${matrixMessage.eventId}")
+            messageRepo.confirmSmsSend(
+                matrixEventId = matrixMessage.eventId,
+                smsMessageId = result.firstMessageId
+            )
+        } else {
+            val failures = result.failures
+            Log.e(
+                TAG,
+                "SMS to ${failures.size} of ${recipients.size} recipient(s) failed for " +
+                    "eventId=${matrixMessage.eventId}: ${failures.values.toSet()}"
+            )
+            messageRepo.recordSmsSendFailure(
+                matrixEventId = matrixMessage.eventId,
+                failureReason = failures.values.first().name
+            )
+            OutboxScheduler.getInstance(context).schedule()
+        }
+    }
+}
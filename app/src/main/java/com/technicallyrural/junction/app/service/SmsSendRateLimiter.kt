@@ -0,0 +1,53 @@
+package com.technicallyrural.junction.app.service
+
+import android.os.SystemClock
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+
+/**
+ * Sliding-window limit on outgoing SMS parts.
+ *
+ * Android's SmsUsageMonitor allows an app a fixed number of SMS per window before it starts
+ * asking the user to confirm each send, which a headless bridge can't answer. Callers wait
+ * here instead, in the order they arrived.
+ *
+ * @param maxParts Parts allowed per window
+ * @param windowMs Length of the window in milliseconds
+ */
+class SmsSendRateLimiter(
+    private val maxParts: Int,
+    private val windowMs: Long,
+    private val clock: () -> Long = SystemClock::elapsedRealtime
+) {
+
+    private val mutex = Mutex()
+    private val sendTimes = ArrayDeque<Long>()
+
+    /**
+     * Suspend until [parts] more SMS parts can be sent, and count them as sent.
+     * A message with more parts than the whole window allows waits for an empty window.
+     */
+    suspend fun acquire(parts: Int) {
+        val count = parts.coerceIn(1, maxParts)
+
+        // Holding the lock while waiting keeps later callers queued behind this one
+        mutex.withLock {
+            while (true) {
+                val now = clock()
+                while (sendTimes.isNotEmpty() && now - sendTimes.first() >= windowMs) {
+                    sendTimes.removeFirst()
+                }
+
+                if (sendTimes.size + count <= maxParts) {
+                    repeat(count) { sendTimes.addLast(now) }
+                    return
+                }
+
+                // Wait until enough of the oldest sends leave the window
+                val oldestNeeded = sendTimes[sendTimes.size + count - maxParts - 1]
+                delay(oldestNeeded + windowMs - now)
+            }
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.technicallyrural.junction.app.service
+
+import android.content.ContentUris
+import android.content.Context
+import android.util.Log
+import com.android.messaging.adapter.SmsStorageAdapter.StoredSms
+import com.technicallyrural.junction.app.matrix.MatrixConfigRepository
+import com.technicallyrural.junction.app.worker.OutboxScheduler
+import com.technicallyrural.junction.matrix.MatrixRegistry
+import com.technicallyrural.junction.matrix.MatrixSendResult
+import com.technicallyrural.junction.persistence.repository.MessageRepository
+import com.technicallyrural.junction.persistence.util.AospThreadIdExtractor
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withTimeoutOrNull
+
+/**
+ * Forwards incoming SMS to Matrix with persistent deduplication.
+ *
+ * [SmsDeliverReceiver][com.technicallyrural.junction.app.receiver.SmsDeliverReceiver] hands
+ * over each SMS as it is being stored. Once AOSP has stored it, the stored row and body are
+ * bridged directly, so there is no wait and no telephony query to find the message again.
+ * SMS are forwarded one at a time in the order they were delivered.
+ */
+class SmsToMatrixForwarder private constructor(private val context: Context) {
+
+    companion object {
+        private const val TAG = "SmsToMatrixForwarder"
+
+        /** Longest to wait for AOSP to store a message before giving up on bridging it */
+        private const val STORE_TIMEOUT_MS = 30 * 1000L
+
+        @Volatile
+        private var INSTANCE: SmsToMatrixForwarder? = null
+
+        fun getInstance(context: Context): SmsToMatrixForwarder {
+            return INSTANCE ?: synchronized(this) {
+                INSTANCE ?: SmsToMatrixForwarder(context.applicationContext).also {
+                    INSTANCE = it
+                }
+            }
+        }
+    }
+
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+
+    // Messages being stored, in delivery order
+    private val pending = Channel<Deferred<StoredSms?>>(Channel.UNLIMITED)
+
+    init {
+        scope.launch {
+            for (stored in pending) {
+                try {
+                    val sms = withTimeoutOrNull(STORE_TIMEOUT_MS) { stored.await() }
+                    if (sms == null) {
+                        Log.w(TAG, "SMS was not stored, not forwarding it")
+                        continue
+                    }
+                    forward(sms)
+                } catch (e: CancellationException) {
+                    throw e
+                } catch (e: Exception) {
+                    Log.e(TAG, "Error bridging SMS to Matrix", e)
+                }
+            }
+        }
+    }
+
+    /**
+     * Forward the SMS once it is stored.
+     */
+    fun enqueue(stored: Deferred<StoredSms?>) {
+        pending.trySend(stored)
+    }
+
+    private suspend fun forward(sms: StoredSms) {
+        // Check if Matrix is enabled
+        val config = MatrixConfigRepository.getInstance(context).loadConfig()
+        if (!config.enabled || !config.isAuthenticated()) {
+            Log.d(TAG, "Matrix not enabled, skipping bridge")
+            return
+        }
+
+        // Check if Matrix bridge is initialized
+        if (!MatrixRegistry.isInitialized) {
+            Log.d(TAG, "MatrixRegistry not initialized, skipping bridge")
+            return
+        }
+
+        val smsMessageId = ContentUris.parseId(sms.uri)
+        val sender = sms.address
+
+        // Get conversation ID from AOSP thread system
+        val conversationId = AospThreadIdExtractor.getThreadIdForAddress(context, sender)
+
+        // Get our phone number (recipient)
+        val ownNumber = AospThreadIdExtractor.getOwnPhoneNumber(context) ?: "unknown"
+
+        val messageRepo = MessageRepository.getInstance(context)
+
+        // Record send attempt (with deduplication)
+        // Use SMS message ID for deduplication to prevent duplicate bridging
+        val record = messageRepo.recordSmsToMatrixSend(
+            conversationId = conversationId,
+            senderAddress = sender,
+            recipientAddresses = listOf(ownNumber),
+            body = sms.body,
+            timestamp = sms.timestamp,
+            isGroup = false,
+            smsMessageId = smsMessageId
+        )
+
+        if (record == null) {
+            Log.w(TAG, "Duplicate SMS detected, skipping Matrix forward (id=$smsMessageId)")
+            return
+        }
+
+        Log.d(TAG, "SMS → Matrix: $sender (dedupKey=${record.dedupKey}, smsId=$smsMessageId)")
+
+        // Send to Matrix via registry
+        val result = MatrixRegistry.matrixBridge.sendToMatrix(
+            phoneNumber = sender,
+            messageBody = sms.body,
+            timestamp = sms.timestamp,
+            isGroup = false,
+            transactionId = record.matrixTxnId
+        )
+
+        when (result) {
+            is MatrixSendResult.Success -> {
+                Log.d(TAG, "SMS forwarded to Matrix: eventId=${result.eventId}")
+                messageRepo.confirmMatrixSend(
+                    dedupKey = record.dedupKey,
+                    matrixEventId = result.eventId,
+                    matrixRoomId = result.roomId ?: ""
+                )
+            }
+            is MatrixSendResult.Failure -> {
+                Log.e(TAG, "Matrix send failed: ${result.error}")
+                messageRepo.recordMatrixSendFailure(
+                    dedupKey = record.dedupKey,
+                    failureReason = result.error.name
+                )
+                OutboxScheduler.getInstance(context).schedule()
+            }
+        }
+    }
+}
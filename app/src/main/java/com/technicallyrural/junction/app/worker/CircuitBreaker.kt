@@ -0,0 +1,68 @@
+package com.technicallyrural.junction.app.worker
+
+import android.util.Log
+
+/**
+ * Stops retries to a destination (the homeserver, or the radio) that keeps failing, so one
+ * outage isn't paid for once per pending message.
+ *
+ * After [failureThreshold] consecutive failures the breaker opens and no attempts are made
+ * until [reopensAt]. The next attempt after that is a trial: success closes the breaker, and
+ * failure opens it again for twice as long, up to [maxOpenMs].
+ *
+ * @param name Destination name for logging
+ */
+class CircuitBreaker(
+    private val name: String,
+    private val failureThreshold: Int = 3,
+    private val minOpenMs: Long = 60 * 1000L,
+    private val maxOpenMs: Long = 30 * 60 * 1000L
+) {
+
+    companion object {
+        private const val TAG = "CircuitBreaker"
+    }
+
+    private var consecutiveFailures = 0
+
+    /**
+     * Time (epoch milliseconds) an open breaker allows its next attempt; 0 while closed.
+     */
+    @get:Synchronized
+    var reopensAt = 0L
+        private set
+
+    @Synchronized
+    fun allowsAttempt(now: Long = System.currentTimeMillis()): Boolean {
+        return now >= reopensAt
+    }
+
+    @Synchronized
+    fun recordSuccess() {
+        if (reopensAt != 0L) Log.d(TAG, "$name breaker closed")
+        consecutiveFailures = 0
+        reopensAt = 0L
+    }
+
+    @Synchronized
+    fun recordFailure(now: Long = System.currentTimeMillis()) {
+        consecutiveFailures++
+        if (consecutiveFailures >= failureThreshold) open(now)
+    }
+
+    /**
+     * Open the breaker now, e.g. because the destination is known to be unavailable.
+     */
+    @Synchronized
+    fun trip(now: Long = System.currentTimeMillis()) {
+        consecutiveFailures = maxOf(consecutiveFailures + 1, failureThreshold)
+        open(now)
+    }
+
+    private fun open(now: Long) {
+        val doublings = (consecutiveFailures - failureThreshold).coerceIn(0, 16)
+        val openMs = (minOpenMs shl doublings).coerceAtMost(maxOpenMs)
+        reopensAt = now + openMs
+        Log.w(TAG, "$name breaker open for ${openMs / 1000}s after $consecutiveFailures failure(s)")
+    }
+}
@@ -0,0 +1,62 @@
+package com.technicallyrural.junction.app.worker
+
+import android.content.Context
+import android.util.Log
+import androidx.work.Constraints
+import androidx.work.CoroutineWorker
+import androidx.work.ExistingPeriodicWorkPolicy
+import androidx.work.PeriodicWorkRequestBuilder
+import androidx.work.WorkManager
+import androidx.work.WorkerParameters
+import com.technicallyrural.junction.persistence.repository.RetentionCompactor
+import java.util.concurrent.TimeUnit
+
+/**
+ * WorkManager worker that runs [RetentionCompactor] once a day while the device is idle,
+ * so the bridge database stays small without compaction competing with live traffic.
+ */
+class CompactionWorker(
+    context: Context,
+    params: WorkerParameters
+) : CoroutineWorker(context, params) {
+
+    companion object {
+        private const val TAG = "CompactionWorker"
+        private const val WORK_NAME = "compact_bridge_database"
+
+        /**
+         * Schedule the daily compaction, keeping the existing schedule if there is one.
+         */
+        fun schedule(context: Context) {
+            val constraints = Constraints.Builder()
+                .setRequiresDeviceIdle(true)
+                .setRequiresBatteryNotLow(true)
+                .build()
+
+            val workRequest = PeriodicWorkRequestBuilder<CompactionWorker>(1, TimeUnit.DAYS)
+                .setConstraints(constraints)
+                .build()
+
+            WorkManager.getInstance(context).enqueueUniquePeriodicWork(
+                WORK_NAME,
+                ExistingPeriodicWorkPolicy.KEEP,
+                workRequest
+            )
+        }
+    }
+
+    override suspend fun doWork(): Result {
+        return try {
+            val result = RetentionCompactor.getInstance(applicationContext).compact()
+            Log.d(
+                TAG,
+                "Compaction complete: messages=${result.messagesDeleted}, " +
+                    "mediaFiles=${result.mediaFilesDeleted}, bytes=${result.bytesReclaimed}"
+            )
+            Result.success()
+        } catch (e: Exception) {
+            Log.e(TAG, "Error compacting bridge database", e)
+            Result.retry()
+        }
+    }
+}
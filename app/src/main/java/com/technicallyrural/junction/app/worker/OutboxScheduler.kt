@@ -0,0 +1,123 @@
+package com.technicallyrural.junction.app.worker
+
+import android.content.Context
+import android.util.Log
+import androidx.work.ExistingWorkPolicy
+import androidx.work.OneTimeWorkRequestBuilder
+import androidx.work.WorkManager
+import com.technicallyrural.junction.persistence.model.Direction
+import com.technicallyrural.junction.persistence.repository.MessageRepository
+import java.util.concurrent.TimeUnit
+
+/**
+ * Schedules retry passes over the pending messages in `bridged_messages`, in both directions.
+ *
+ * Each pending message carries its own retry time (see
+ * [RetryBackoff][com.technicallyrural.junction.persistence.util.RetryBackoff]), and a pass
+ * ([RetryPendingMatrixMessagesWorker]) only reads messages that are due. The pass is scheduled
+ * for the earliest retry time of any pending message, and is moved earlier when a new failure
+ * is due sooner.
+ *
+ * Each direction has a [CircuitBreaker] for its destination: [homeserver] for SMS → Matrix and
+ * [radio] for Matrix → SMS. While one is open, that direction's messages wait for it instead
+ * of each failing on its own.
+ */
+class OutboxScheduler private constructor(private val context: Context) {
+
+    companion object {
+        private const val TAG = "OutboxScheduler"
+        private const val WORK_NAME = "retry_matrix_bridge"
+
+        @Volatile
+        private var INSTANCE: OutboxScheduler? = null
+
+        fun getInstance(context: Context): OutboxScheduler {
+            return INSTANCE ?: synchronized(this) {
+                INSTANCE ?: OutboxScheduler(context.applicationContext).also {
+                    INSTANCE = it
+                }
+            }
+        }
+    }
+
+    val homeserver = CircuitBreaker("Homeserver")
+    val radio = CircuitBreaker("Radio")
+
+    private val messageRepo = MessageRepository.getInstance(context)
+
+    // When the enqueued pass runs; Long.MAX_VALUE if none is known to be enqueued
+    private var scheduledAt = Long.MAX_VALUE
+    private var passRunning = false
+    // Earliest wake requested while a pass was running
+    private var requestedAt = Long.MAX_VALUE
+
+    fun breakerFor(direction: Direction): CircuitBreaker {
+        return when (direction) {
+            Direction.SMS_TO_MATRIX -> homeserver
+            Direction.MATRIX_TO_SMS -> radio
+        }
+    }
+
+    /**
+     * Make sure a pass is scheduled for the earliest pending retry. Call after recording a
+     * failed send.
+     */
+    suspend fun schedule() {
+        val dueAt = nextDueAt() ?: return
+        synchronized(this) {
+            if (passRunning) {
+                // The running pass schedules the next one when it finishes
+                requestedAt = minOf(requestedAt, dueAt)
+                return
+            }
+            if (dueAt >= scheduledAt) return
+
+            enqueue(dueAt, ExistingWorkPolicy.REPLACE)
+        }
+    }
+
+    @Synchronized
+    internal fun onPassStarted() {
+        passRunning = true
+        scheduledAt = Long.MAX_VALUE
+        requestedAt = Long.MAX_VALUE
+    }
+
+    internal suspend fun onPassFinished() {
+        val dueAt = nextDueAt()
+        synchronized(this) {
+            passRunning = false
+            val wakeAt = minOf(dueAt ?: Long.MAX_VALUE, requestedAt)
+            if (wakeAt == Long.MAX_VALUE) {
+                Log.d(TAG, "No pending messages left")
+                return
+            }
+
+            // Runs after this pass's work completes
+            enqueue(wakeAt, ExistingWorkPolicy.APPEND_OR_REPLACE)
+        }
+    }
+
+    /**
+     * Earliest time a pending message can be retried, allowing for open breakers.
+     */
+    private suspend fun nextDueAt(): Long? {
+        return Direction.entries.mapNotNull { direction ->
+            messageRepo.getNextAttemptAt(direction)?.let {
+                maxOf(it, breakerFor(direction).reopensAt)
+            }
+        }.minOrNull()
+    }
+
+    private fun enqueue(dueAt: Long, policy: ExistingWorkPolicy) {
+        val delayMs = (dueAt - System.currentTimeMillis()).coerceAtLeast(0)
+        val workRequest = OneTimeWorkRequestBuilder<RetryPendingMatrixMessagesWorker>()
+            .setInitialDelay(delayMs, TimeUnit.MILLISECONDS)
+            .build()
+
+        WorkManager.getInstance(context).enqueueUniqueWork(WORK_NAME, policy, workRequest)
+        scheduledAt = dueAt
+
+        Log.d(TAG, "Retry pass scheduled in ${delayMs / 1000}s")
+    }
+}
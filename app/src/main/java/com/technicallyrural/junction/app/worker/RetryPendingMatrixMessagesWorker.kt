@@ -5,29 +5,36 @@ import android.util.Log
 import androidx.work.CoroutineWorker
 import androidx.work.WorkerParameters
 import com.technicallyrural.junction.app.matrix.MatrixConfigRepository
+import com.technicallyrural.junction.app.service.DispatchResult
+import com.technicallyrural.junction.app.service.MatrixToSmsDispatcher
+import com.technicallyrural.junction.core.CoreSmsRegistry
+import com.technicallyrural.junction.core.transport.SendError
+import com.technicallyrural.junction.core.transport.SendResult
 import com.technicallyrural.junction.matrix.MatrixRegistry
+import com.technicallyrural.junction.matrix.MatrixSendError
 import com.technicallyrural.junction.matrix.MatrixSendResult
 import com.technicallyrural.junction.persistence.model.Direction
 import com.technicallyrural.junction.persistence.repository.MessageRepository
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.NonCancellable
+import kotlinx.coroutines.withContext
 
 /**
- * WorkManager worker for retrying failed Matrix sends.
+ * WorkManager worker for one retry pass over the pending messages, in both directions.
  *
  * This worker:
- * 1. Queries all pending messages (PENDING status, retry count < MAX_RETRIES)
- * 2. Attempts to send each to Matrix
- * 3. Updates status based on result (CONFIRMED or increments retry count)
- * 4. Automatically reschedules on failure via WorkManager backoff policy
+ * 1. Queries the pending messages that are due (retry time passed), per direction
+ * 2. Skips a direction while its destination's [CircuitBreaker] is open
+ * 3. Retries each message: SMS → Matrix re-reads the SMS from telephony, Matrix → SMS
+ *    resends the stored payload to the recipients that weren't sent it yet
+ * 4. Records the result; a failure schedules the message's next attempt with backoff
+ * 5. Asks [OutboxScheduler] to schedule the next pass for the earliest retry time
  *
- * Scheduled by:
- * - SmsSentStatusReceiver when outbound SMS → Matrix send fails
- * - MatrixSyncService when Matrix → SMS send fails
- * - MatrixBridgeBootReceiver after scanning for unbridged messages
+ * A failed message never fails the pass, so messages that succeeded aren't sent again.
  *
  * Reliability guarantees:
  * - Idempotent (safe to run multiple times)
  * - Crash-safe (queries database for pending state)
- * - Exponential backoff (via WorkManager configuration)
  * - Max retry limit prevents infinite loops
  */
 class RetryPendingMatrixMessagesWorker(
@@ -37,131 +44,215 @@ class RetryPendingMatrixMessagesWorker(
 
     companion object {
         private const val TAG = "RetryMatrixWorker"
+
+        /** Due messages retried per direction per pass; any left over get the next pass */
+        private const val BATCH_SIZE = 50
+
+        /** Errors that mean the homeserver can't be reached, rather than a problem with one message */
+        private val HOMESERVER_ERRORS = setOf(
+            MatrixSendError.NOT_CONNECTED,
+            MatrixSendError.SEND_FAILED,
+            MatrixSendError.UNAUTHORIZED
+        )
+
+        /** Errors that mean no SMS can be sent right now */
+        private val RADIO_ERRORS = setOf(
+            SendError.NO_SERVICE,
+            SendError.RADIO_OFF,
+            SendError.NO_DEFAULT_SMS_APP,
+            SendError.PERMISSION_DENIED
+        )
     }
 
+    private val messageRepo = MessageRepository.getInstance(applicationContext)
+
     override suspend fun doWork(): Result {
-        Log.d(TAG, "Starting retry of pending Matrix messages")
+        val outbox = OutboxScheduler.getInstance(applicationContext)
+        outbox.onPassStarted()
 
         try {
-            // Check if Matrix is enabled
-            val config = MatrixConfigRepository.getInstance(applicationContext).loadConfig()
-            if (!config.enabled || !config.isAuthenticated()) {
-                Log.d(TAG, "Matrix not enabled, skipping retry")
-                return Result.success()
+            retrySmsToMatrix(outbox.homeserver)
+            retryMatrixToSms(outbox.radio)
+        } catch (e: CancellationException) {
+            throw e
+        } catch (e: Exception) {
+            Log.e(TAG, "Error in retry worker", e)
+        } finally {
+            withContext(NonCancellable) { outbox.onPassFinished() }
+        }
+
+        return Result.success()
+    }
+
+    private suspend fun retrySmsToMatrix(breaker: CircuitBreaker) {
+        if (!breaker.allowsAttempt()) return
+
+        val config = MatrixConfigRepository.getInstance(applicationContext).loadConfig()
+        if (!config.enabled || !config.isAuthenticated() || !MatrixRegistry.isInitialized) {
+            Log.d(TAG, "Matrix not available, deferring SMS → Matrix retries")
+            breaker.trip()
+            return
+        }
+
+        val due = messageRepo.getDueMessages(Direction.SMS_TO_MATRIX, limit = BATCH_SIZE)
+        Log.d(TAG, "Found ${due.size} SMS → Matrix message(s) due for retry")
+
+        var successCount = 0
+        for (message in due) {
+            if (!breaker.allowsAttempt()) {
+                Log.w(TAG, "Homeserver breaker open, deferring remaining SMS → Matrix retries")
+                break
             }
 
-            // Check if Matrix bridge is initialized
-            if (!MatrixRegistry.isInitialized) {
-                Log.d(TAG, "MatrixRegistry not initialized, skipping retry")
-                return Result.retry()
+            // The body isn't stored; re-read the SMS from telephony. MMS have no SMS ID and
+            // are marked failed when their live send fails, but one interrupted by a crash
+            // ends up here
+            val smsMessageId = message.smsMessageId
+            if (smsMessageId == null) {
+                Log.e(TAG, "No SMS to re-read for retry of ${message.dedupKey}")
+                messageRepo.abandon(message.id, "NO_SMS_MESSAGE_ID")
+                continue
+            }
+            val sms = readSms(smsMessageId)
+            if (sms == null) {
+                Log.e(TAG, "Cannot read SMS for retry: smsMessageId=${message.smsMessageId}")
+                messageRepo.abandon(message.id, "SMS_NOT_FOUND")
+                continue
             }
 
-            val messageRepo = MessageRepository.getInstance(applicationContext)
-
-            // Get all pending outbound messages (SMS → Matrix)
-            val pendingOutbound = messageRepo.getPendingMessages(Direction.SMS_TO_MATRIX)
-            Log.d(TAG, "Found ${pendingOutbound.size} pending outbound messages")
-
-            var successCount = 0
-            var failureCount = 0
-
-            pendingOutbound.forEach { message ->
-                try {
-                    Log.d(TAG, "Retrying outbound message: dedupKey=${message.dedupKey}")
-
-                    // Get recipient from participants
-                    val participants = messageRepo.getParticipants(message.id)
-                    val recipient = participants.firstOrNull { it.participantType == com.technicallyrural.junction.persistence.entity.ParticipantType.RECIPIENT }
-
-                    if (recipient == null) {
-                        Log.e(TAG, "No recipient found for message ${message.id}")
-                        failureCount++
-                        return@forEach
-                    }
-
-                    // Reconstruct message body from hash (not stored in entity)
-                    // For retry, we need to re-read from AOSP database
-                    val smsMessage = message.smsMessageId?.let { readSmsBody(it) }
-                    if (smsMessage == null) {
-                        Log.e(TAG, "Cannot read SMS body for retry: smsMessageId=${message.smsMessageId}")
-                        messageRepo.recordMatrixSendFailure(
-                            dedupKey = message.dedupKey,
-                            failureReason = "SMS_NOT_FOUND"
-                        )
-                        failureCount++
-                        return@forEach
-                    }
-
-                    // Send to Matrix via registry
-                    val result = MatrixRegistry.matrixBridge.sendToMatrix(
-                        phoneNumber = recipient.phoneNumber,
-                        messageBody = smsMessage,
-                        timestamp = message.timestamp,
-                        isGroup = message.isGroup
-                    )
+            val result = try {
+                MatrixRegistry.matrixBridge.sendToMatrix(
+                    phoneNumber = sms.address,
+                    messageBody = sms.body,
+                    timestamp = message.timestamp,
+                    isGroup = message.isGroup,
+                    transactionId = message.matrixTxnId
+                )
+            } catch (e: CancellationException) {
+                throw e
+            } catch (e: Exception) {
+                Log.e(TAG, "Error retrying message ${message.dedupKey}", e)
+                MatrixSendResult.Failure(MatrixSendError.UNKNOWN)
+            }
 
-                    when (result) {
-                        is MatrixSendResult.Success -> {
-                            Log.d(TAG, "Retry succeeded: eventId=${result.eventId}")
-                            messageRepo.confirmMatrixSend(
-                                dedupKey = message.dedupKey,
-                                matrixEventId = result.eventId,
-                                matrixRoomId = result.roomId ?: ""
-                            )
-                            successCount++
-                        }
-                        is MatrixSendResult.Failure -> {
-                            Log.e(TAG, "Retry failed: ${result.error}")
-                            messageRepo.recordMatrixSendFailure(
-                                dedupKey = message.dedupKey,
-                                failureReason = result.error.name
-                            )
-                            failureCount++
-                        }
-                    }
-
-                } catch (e: Exception) {
-                    Log.e(TAG, "Error retrying message ${message.dedupKey}", e)
-                    failureCount++
+            when (result) {
+                is MatrixSendResult.Success -> {
+                    breaker.recordSuccess()
+                    messageRepo.confirmMatrixSend(
+                        dedupKey = message.dedupKey,
+                        matrixEventId = result.eventId,
+                        matrixRoomId = result.roomId ?: ""
+                    )
+                    successCount++
+                }
+                is MatrixSendResult.Failure -> {
+                    Log.e(TAG, "Retry failed: ${result.error}")
+                    if (result.error in HOMESERVER_ERRORS) breaker.recordFailure()
+                    messageRepo.recordMatrixSendFailure(
+                        dedupKey = message.dedupKey,
+                        failureReason = result.error.name
+                    )
                 }
             }
+        }
 
-            // Get all pending inbound messages (Matrix → SMS)
-            val pendingInbound = messageRepo.getPendingMessages(Direction.MATRIX_TO_SMS)
-            Log.d(TAG, "Found ${pendingInbound.size} pending inbound messages")
+        Log.d(TAG, "SMS → Matrix retry complete: success=$successCount of ${due.size}")
+    }
 
-            // TODO: Implement Matrix → SMS retry when that direction is implemented
+    private suspend fun retryMatrixToSms(breaker: CircuitBreaker) {
+        if (!breaker.allowsAttempt()) return
 
-            Log.d(TAG, "Retry complete: success=$successCount, failed=$failureCount")
+        if (!CoreSmsRegistry.isInitialized) {
+            Log.d(TAG, "CoreSmsRegistry not initialized, deferring Matrix → SMS retries")
+            breaker.trip()
+            return
+        }
 
-            return if (failureCount > 0) {
-                // Some messages failed, schedule another retry
-                Result.retry()
-            } else {
-                Result.success()
+        val due = messageRepo.getDueMessages(Direction.MATRIX_TO_SMS, limit = BATCH_SIZE)
+        Log.d(TAG, "Found ${due.size} Matrix → SMS message(s) due for retry")
+
+        var successCount = 0
+        for (message in due) {
+            if (!breaker.allowsAttempt()) {
+                Log.w(TAG, "Radio breaker open, deferring remaining Matrix → SMS retries")
+                break
             }
 
-        } catch (e: Exception) {
-            Log.e(TAG, "Error in retry worker", e)
-            return Result.retry()
+            val matrixEventId = message.matrixEventId
+            val body = message.payload
+            if (matrixEventId == null || body == null) {
+                Log.e(TAG, "Cannot rebuild Matrix → SMS message ${message.id} for retry")
+                messageRepo.abandon(message.id, "PAYLOAD_MISSING")
+                continue
+            }
+
+            // Recipients an earlier attempt reached aren't sent to again
+            val recipients = messageRepo.getUnsentRecipients(message.id)
+            if (recipients.isEmpty()) {
+                Log.d(TAG, "Every recipient of Matrix event $matrixEventId was already sent to")
+                messageRepo.confirmSmsSend(matrixEventId = matrixEventId, smsMessageId = null)
+                successCount++
+                continue
+            }
+
+            val result = try {
+                MatrixToSmsDispatcher.sendRecorded(
+                    CoreSmsRegistry.smsTransport,
+                    messageRepo,
+                    message.id,
+                    recipients,
+                    body
+                )
+            } catch (e: CancellationException) {
+                throw e
+            } catch (e: Exception) {
+                Log.e(TAG, "Error retrying Matrix event $matrixEventId", e)
+                DispatchResult(recipients.associateWith { SendResult.Failure(SendError.UNKNOWN) })
+            }
+
+            if (result.allSucceeded) {
+                breaker.recordSuccess()
+                messageRepo.confirmSmsSend(
+                    matrixEventId = matrixEventId,
+                    smsMessageId = result.firstMessageId
+                )
+                successCount++
+            } else {
+                val errors = result.failures.values
+                Log.e(TAG, "Retry failed for ${errors.size} of ${recipients.size} recipient(s): ${errors.toSet()}")
+                if (errors.any { it in RADIO_ERRORS }) breaker.recordFailure()
+                messageRepo.recordSmsSendFailure(
+                    matrixEventId = matrixEventId,
+                    failureReason = errors.first().name
+                )
+            }
         }
+
+        Log.d(TAG, "Matrix → SMS retry complete: success=$successCount of ${due.size}")
     }
 
     /**
-     * Read SMS message body from AOSP database.
+     * Read an SMS's address and body from the telephony provider.
      *
-     * Used during retry to reconstruct message content.
+     * The address is the other party for both received and sent SMS.
      */
-    private fun readSmsBody(smsMessageId: Long): String? {
+    private fun readSms(smsMessageId: Long): TelephonySms? {
         val uri = android.net.Uri.parse("content://sms/$smsMessageId")
-        val projection = arrayOf(android.provider.Telephony.Sms.BODY)
+        val projection = arrayOf(
+            android.provider.Telephony.Sms.ADDRESS,
+            android.provider.Telephony.Sms.BODY
+        )
 
         applicationContext.contentResolver.query(uri, projection, null, null, null)?.use { cursor ->
             if (cursor.moveToFirst()) {
-                return cursor.getString(cursor.getColumnIndexOrThrow(android.provider.Telephony.Sms.BODY))
+                val address = cursor.getString(0) ?: return null
+                val body = cursor.getString(1) ?: return null
+                return TelephonySms(address, body)
             }
         }
 
         return null
     }
+
+    private data class TelephonySms(val address: String, val body: String)
 }
@@ -0,0 +1,89 @@
+package com.technicallyrural.junction.app.service
+
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.test.TestScope
+import kotlinx.coroutines.test.advanceTimeBy
+import kotlinx.coroutines.test.advanceUntilIdle
+import kotlinx.coroutines.test.currentTime
+import kotlinx.coroutines.test.runTest
+import org.junit.Assert.*
+import org.junit.Test
+
+/**
+ * Unit tests for [SmsSendRateLimiter], on the test scheduler's virtual clock.
+ */
+@OptIn(ExperimentalCoroutinesApi::class)
+class SmsSendRateLimiterTest {
+
+    private fun TestScope.limiter(maxParts: Int) =
+        SmsSendRateLimiter(maxParts, WINDOW_MS) { currentTime }
+
+    @Test
+    fun `parts within the limit don't wait`() = runTest {
+        val limiter = limiter(30)
+
+        limiter.acquire(10)
+        limiter.acquire(10)
+        limiter.acquire(10)
+
+        assertEquals(0L, currentTime)
+    }
+
+    @Test
+    fun `send over the limit waits for the oldest part to leave the window`() = runTest {
+        val limiter = limiter(2)
+        limiter.acquire(1)
+        advanceTimeBy(300)
+        limiter.acquire(1)
+
+        limiter.acquire(1)
+
+        assertEquals(WINDOW_MS, currentTime)
+    }
+
+    @Test
+    fun `multipart send waits until all its parts fit`() = runTest {
+        val limiter = limiter(3)
+        limiter.acquire(2)
+        advanceTimeBy(500)
+        limiter.acquire(1)
+
+        limiter.acquire(2)
+
+        assertEquals("Both parts from the start of the window must expire", WINDOW_MS, currentTime)
+    }
+
+    @Test
+    fun `message larger than the window waits for an empty window`() = runTest {
+        val limiter = limiter(3)
+        limiter.acquire(1)
+
+        limiter.acquire(10)
+
+        assertEquals(WINDOW_MS, currentTime)
+    }
+
+    @Test
+    fun `waiting callers are served in arrival order`() = runTest {
+        val limiter = limiter(1)
+        limiter.acquire(1)
+        val sentAt = mutableListOf<Pair<String, Long>>()
+
+        launch {
+            limiter.acquire(1)
+            sentAt += "first" to currentTime
+        }
+        launch {
+            limiter.acquire(1)
+            sentAt += "second" to currentTime
+        }
+        advanceUntilIdle()
+
+        assertEquals(listOf("first" to WINDOW_MS, "second" to 2 * WINDOW_MS), sentAt)
+    }
+
+    companion object {
+        private const val WINDOW_MS = 1000L
+    }
+}
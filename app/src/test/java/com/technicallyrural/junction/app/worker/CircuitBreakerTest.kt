@@ -0,0 +1,91 @@
+package com.technicallyrural.junction.app.worker
+
+import org.junit.Assert.*
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+
+/**
+ * Robolectric tests for [CircuitBreaker].
+ */
+@RunWith(RobolectricTestRunner::class)
+@Config(sdk = [33])
+class CircuitBreakerTest {
+
+    private fun breaker() = CircuitBreaker("test", THRESHOLD, MIN_OPEN_MS, MAX_OPEN_MS)
+
+    @Test
+    fun `failures below the threshold keep it closed`() {
+        val breaker = breaker()
+
+        repeat(THRESHOLD - 1) { breaker.recordFailure(now = 0) }
+
+        assertTrue(breaker.allowsAttempt(now = 0))
+        assertEquals(0L, breaker.reopensAt)
+    }
+
+    @Test
+    fun `opens at the threshold until the open time passes`() {
+        val breaker = breaker()
+
+        repeat(THRESHOLD) { breaker.recordFailure(now = 0) }
+
+        assertFalse(breaker.allowsAttempt(now = 0))
+        assertFalse(breaker.allowsAttempt(now = MIN_OPEN_MS - 1))
+        assertTrue("Trial attempt should be allowed", breaker.allowsAttempt(now = MIN_OPEN_MS))
+    }
+
+    @Test
+    fun `failed trial reopens for twice as long`() {
+        val breaker = breaker()
+        repeat(THRESHOLD) { breaker.recordFailure(now = 0) }
+
+        breaker.recordFailure(now = MIN_OPEN_MS)
+
+        assertEquals(MIN_OPEN_MS + 2 * MIN_OPEN_MS, breaker.reopensAt)
+        assertFalse(breaker.allowsAttempt(now = MIN_OPEN_MS))
+    }
+
+    @Test
+    fun `open time doubles up to the maximum`() {
+        val breaker = breaker()
+        repeat(THRESHOLD - 1) { breaker.recordFailure(now = 0) }
+
+        val openTimes = (0 until 6).map {
+            breaker.recordFailure(now = 0)
+            breaker.reopensAt
+        }
+
+        assertEquals(listOf(1_000L, 2_000L, 4_000L, 5_000L, 5_000L, 5_000L), openTimes)
+    }
+
+    @Test
+    fun `successful trial closes it`() {
+        val breaker = breaker()
+        repeat(THRESHOLD) { breaker.recordFailure(now = 0) }
+
+        breaker.recordSuccess()
+
+        assertTrue(breaker.allowsAttempt(now = 0))
+        assertEquals(0L, breaker.reopensAt)
+        breaker.recordFailure(now = 0)
+        assertTrue("Failure count should start over", breaker.allowsAttempt(now = 0))
+    }
+
+    @Test
+    fun `trip opens it at once`() {
+        val breaker = breaker()
+
+        breaker.trip(now = 0)
+
+        assertEquals(MIN_OPEN_MS, breaker.reopensAt)
+        assertFalse(breaker.allowsAttempt(now = 0))
+    }
+
+    companion object {
+        private const val THRESHOLD = 3
+        private const val MIN_OPEN_MS = 1_000L
+        private const val MAX_OPEN_MS = 5_000L
+    }
+}
@@ -27,13 +27,18 @@ interface MatrixBridge {
      * @param messageBody SMS message content
      * @param timestamp Message timestamp (milliseconds since epoch)
      * @param isGroup Whether this is a group message
-     * @return Result indicating success or failure
+     * @param transactionId Matrix transaction ID for the send. Sending again with the same ID
+     *   returns the event already sent instead of posting a duplicate, so retries should pass
+     *   the ID persisted with the message. Null sends with a fresh ID.
+     * @return Result indicating success or failure; on success, [MatrixSendResult.Success.eventId]
+     *   is the event ID assigned by the homeserver
      */
     suspend fun sendToMatrix(
         phoneNumber: String,
         messageBody: String,
         timestamp: Long,
-        isGroup: Boolean = false
+        isGroup: Boolean = false,
+        transactionId: String? = null
     ): MatrixSendResult
 
     /**
@@ -43,22 +48,39 @@ interface MatrixBridge {
      * @param messageBody Optional text content
      * @param attachments List of media attachments
      * @param timestamp Message timestamp
-     * @return Result indicating success or failure
+     * @param transactionId Matrix transaction ID for the send, as for [sendToMatrix]. Each event
+     *   of the MMS gets its own ID derived from it.
+     * @return Result indicating success or failure; on success, the ID of the MMS's last event
      */
     suspend fun sendMmsToMatrix(
         phoneNumber: String,
         messageBody: String?,
         attachments: List<MatrixAttachment>,
-        timestamp: Long
+        timestamp: Long,
+        transactionId: String? = null
     ): MatrixSendResult
 
     /**
-     * Observe incoming Matrix messages that should be bridged to SMS.
+     * Receive the next batch of incoming Matrix messages that should be bridged to SMS.
      *
-     * This flow emits messages from Matrix rooms that are mapped to phone numbers.
+     * Messages from Matrix rooms that are mapped to phone numbers are persisted in a durable
+     * queue as they arrive from sync, so they survive a stalled SMS side and process death.
      * The app layer is responsible for sending these as actual SMS via SmsTransport.
+     *
+     * Suspends until at least one message is queued. Returns the oldest messages in arrival
+     * order; they stay queued until acknowledged, so a batch that was being processed when
+     * the process died is received again on the next start.
+     *
+     * @param maxCount Maximum number of messages to return
+     */
+    suspend fun receiveMatrixMessages(maxCount: Int): List<MatrixInboundMessage>
+
+    /**
+     * Remove processed messages from the inbound queue.
+     *
+     * @param messages Messages returned by [receiveMatrixMessages] that have been processed
      */
-    fun observeMatrixMessages(): Flow<MatrixInboundMessage>
+    suspend fun acknowledgeMatrixMessages(messages: List<MatrixInboundMessage>)
 
     /**
      * Update device presence/status in Matrix.
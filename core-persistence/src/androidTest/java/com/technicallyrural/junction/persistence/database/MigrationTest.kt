@@ -0,0 +1,209 @@
+package com.technicallyrural.junction.persistence.database
+
+import android.database.sqlite.SQLiteDatabase
+import androidx.room.Room
+import androidx.sqlite.db.SupportSQLiteDatabase
+import androidx.test.platform.app.InstrumentationRegistry
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+
+/**
+ * Migration tests for [JunctionDatabase].
+ *
+ * There is no destructive fallback, so a broken migration crashes the app on upgrade. Each
+ * test builds a version 1 database and opens it with [JunctionDatabase.ALL_MIGRATIONS]. Room
+ * validates the migrated tables, columns, foreign keys and indexes against the entities as it
+ * opens the database, and fails the open on any difference, as it would on a device.
+ *
+ * The version 1 database is built from the SQL Room generated for the version 1 entities,
+ * since version 1 was released before schemas were exported.
+ */
+class MigrationTest {
+
+    private val context = InstrumentationRegistry.getInstrumentation().targetContext
+
+    @Before
+    fun setUp() {
+        context.deleteDatabase(TEST_DB)
+        createVersion1()
+    }
+
+    @After
+    fun tearDown() {
+        context.deleteDatabase(TEST_DB)
+    }
+
+    @Test
+    fun migrateFrom1PassesRoomValidation() {
+        migrated { db ->
+            assertEquals(LATEST_VERSION, db.version)
+        }
+    }
+
+    @Test
+    fun migratedIndexesMatchCreatedDatabase() {
+        val migratedIndexes = migrated { indexesOf(it) }
+
+        val created = Room.inMemoryDatabaseBuilder(context, JunctionDatabase::class.java).build()
+        val createdIndexes = try {
+            indexesOf(created.openHelper.writableDatabase)
+        } finally {
+            created.close()
+        }
+
+        assertEquals(createdIndexes, migratedIndexes)
+    }
+
+    @Test
+    fun migrationKeepsExistingRows() {
+        migrated { db ->
+            db.query(
+                "SELECT dedup_key, status, next_attempt_at, matrix_txn_id FROM bridged_messages"
+            ).use { cursor ->
+                assertTrue(cursor.moveToFirst())
+                assertEquals("sms:1", cursor.getString(0))
+                assertEquals("PENDING", cursor.getString(1))
+                assertEquals(0L, cursor.getLong(2))
+                assertTrue(cursor.isNull(3))
+            }
+            db.query("SELECT phone_number, sent_at FROM message_participants").use { cursor ->
+                assertTrue(cursor.moveToFirst())
+                assertEquals("+15550100", cursor.getString(0))
+                assertTrue(cursor.isNull(1))
+            }
+        }
+    }
+
+    /**
+     * Open [TEST_DB] with every migration and run [block] on it. Opening runs the migrations
+     * and Room's schema validation.
+     */
+    private fun <T> migrated(block: (SupportSQLiteDatabase) -> T): T {
+        val database = Room.databaseBuilder(context, JunctionDatabase::class.java, TEST_DB)
+            .addMigrations(*JunctionDatabase.ALL_MIGRATIONS)
+            .build()
+        return try {
+            block(database.openHelper.writableDatabase)
+        } finally {
+            database.close()
+        }
+    }
+
+    /**
+     * Create [TEST_DB] at version 1, with one message and its participant.
+     */
+    private fun createVersion1() {
+        val file = context.getDatabasePath(TEST_DB)
+        file.parentFile?.mkdirs()
+
+        SQLiteDatabase.openOrCreateDatabase(file, null).use { db ->
+            VERSION_1_SCHEMA.forEach(db::execSQL)
+            db.execSQL(
+                "INSERT INTO bridged_messages (id, dedup_key, conversation_id, timestamp, " +
+                    "body_hash, direction, is_group, status, retry_count, created_at, updated_at) " +
+                    "VALUES (1, 'sms:1', '+15550100', 1000, 'hash', 'SMS_TO_MATRIX', 0, " +
+                    "'PENDING', 0, 1000, 1000)"
+            )
+            db.execSQL(
+                "INSERT INTO message_participants (message_id, phone_number, participant_type) " +
+                    "VALUES (1, '+15550100', 'SENDER')"
+            )
+            db.version = 1
+        }
+    }
+
+    /**
+     * Each index by name, as its table, uniqueness and columns in order.
+     */
+    private fun indexesOf(db: SupportSQLiteDatabase): Map<String, String> {
+        val tables = db.query(
+            "SELECT name FROM sqlite_master WHERE type = 'table' " +
+                "AND name NOT LIKE 'sqlite_%' AND name NOT IN ('android_metadata', 'room_master_table')"
+        ).use { cursor ->
+            buildList { while (cursor.moveToNext()) add(cursor.getString(0)) }
+        }
+
+        val indexes = sortedMapOf<String, String>()
+        for (table in tables) {
+            db.query("PRAGMA index_list(`$table`)").use { list ->
+                val nameColumn = list.getColumnIndexOrThrow("name")
+                val uniqueColumn = list.getColumnIndexOrThrow("unique")
+                while (list.moveToNext()) {
+                    val name = list.getString(nameColumn)
+                    if (name.startsWith("sqlite_autoindex")) continue
+                    val columns = db.query("PRAGMA index_info(`$name`)").use { info ->
+                        val columnName = info.getColumnIndexOrThrow("name")
+                        buildList { while (info.moveToNext()) add(info.getString(columnName)) }
+                    }
+                    val unique = if (list.getInt(uniqueColumn) == 1) " UNIQUE" else ""
+                    indexes[name] = "$table$unique $columns"
+                }
+            }
+        }
+        return indexes
+    }
+
+    companion object {
+        private const val TEST_DB = "migration-test.db"
+        private const val LATEST_VERSION = 8
+
+        private val VERSION_1_SCHEMA = listOf(
+            "CREATE TABLE IF NOT EXISTS `bridged_messages` (" +
+                "`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, `dedup_key` TEXT NOT NULL, " +
+                "`conversation_id` TEXT NOT NULL, `timestamp` INTEGER NOT NULL, " +
+                "`body_hash` TEXT NOT NULL, `direction` TEXT NOT NULL, `is_group` INTEGER NOT NULL, " +
+                "`sms_message_id` INTEGER, `matrix_event_id` TEXT, `matrix_room_id` TEXT, " +
+                "`status` TEXT NOT NULL, `failure_reason` TEXT, `retry_count` INTEGER NOT NULL, " +
+                "`created_at` INTEGER NOT NULL, `updated_at` INTEGER NOT NULL)",
+            "CREATE UNIQUE INDEX IF NOT EXISTS `index_bridged_messages_dedup_key` " +
+                "ON `bridged_messages` (`dedup_key`)",
+            "CREATE INDEX IF NOT EXISTS `index_bridged_messages_conversation_id_timestamp` " +
+                "ON `bridged_messages` (`conversation_id`, `timestamp`)",
+            "CREATE INDEX IF NOT EXISTS `index_bridged_messages_matrix_event_id` " +
+                "ON `bridged_messages` (`matrix_event_id`)",
+            "CREATE INDEX IF NOT EXISTS `index_bridged_messages_status` " +
+                "ON `bridged_messages` (`status`)",
+            "CREATE INDEX IF NOT EXISTS `index_bridged_messages_direction_status` " +
+                "ON `bridged_messages` (`direction`, `status`)",
+
+            "CREATE TABLE IF NOT EXISTS `message_participants` (" +
+                "`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, `message_id` INTEGER NOT NULL, " +
+                "`phone_number` TEXT NOT NULL, `participant_type` TEXT NOT NULL, " +
+                "FOREIGN KEY(`message_id`) REFERENCES `bridged_messages`(`id`) " +
+                "ON UPDATE NO ACTION ON DELETE CASCADE )",
+            "CREATE INDEX IF NOT EXISTS `index_message_participants_message_id` " +
+                "ON `message_participants` (`message_id`)",
+            "CREATE INDEX IF NOT EXISTS `index_message_participants_phone_number` " +
+                "ON `message_participants` (`phone_number`)",
+            "CREATE UNIQUE INDEX IF NOT EXISTS `index_message_participants_message_id_phone_number` " +
+                "ON `message_participants` (`message_id`, `phone_number`)",
+
+            "CREATE TABLE IF NOT EXISTS `room_mappings` (" +
+                "`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, `conversation_id` TEXT NOT NULL, " +
+                "`participants_json` TEXT NOT NULL, `matrix_room_id` TEXT NOT NULL, " +
+                "`matrix_alias` TEXT, `is_group` INTEGER NOT NULL, `last_used` INTEGER NOT NULL, " +
+                "`created_at` INTEGER NOT NULL)",
+            "CREATE UNIQUE INDEX IF NOT EXISTS `index_room_mappings_conversation_id` " +
+                "ON `room_mappings` (`conversation_id`)",
+            "CREATE UNIQUE INDEX IF NOT EXISTS `index_room_mappings_matrix_room_id` " +
+                "ON `room_mappings` (`matrix_room_id`)",
+            "CREATE INDEX IF NOT EXISTS `index_room_mappings_last_used` " +
+                "ON `room_mappings` (`last_used`)",
+
+            "CREATE TABLE IF NOT EXISTS `mms_media` (" +
+                "`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, `message_id` INTEGER NOT NULL, " +
+                "`local_uri` TEXT NOT NULL, `mxc_uri` TEXT, `mime_type` TEXT NOT NULL, " +
+                "`filename` TEXT, `file_size` INTEGER NOT NULL, `upload_status` TEXT NOT NULL, " +
+                "`failure_reason` TEXT, `created_at` INTEGER NOT NULL, " +
+                "FOREIGN KEY(`message_id`) REFERENCES `bridged_messages`(`id`) " +
+                "ON UPDATE NO ACTION ON DELETE CASCADE )",
+            "CREATE INDEX IF NOT EXISTS `index_mms_media_message_id` " +
+                "ON `mms_media` (`message_id`)",
+            "CREATE INDEX IF NOT EXISTS `index_mms_media_mxc_uri` ON `mms_media` (`mxc_uri`)",
+            "CREATE INDEX IF NOT EXISTS `index_mms_media_upload_status` " +
+                "ON `mms_media` (`upload_status`)"
+        )
+    }
+}
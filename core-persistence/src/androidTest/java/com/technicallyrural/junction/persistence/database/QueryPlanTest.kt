@@ -0,0 +1,78 @@
+package com.technicallyrural.junction.persistence.database
+
+import androidx.room.Room
+import androidx.sqlite.db.SupportSQLiteDatabase
+import androidx.test.platform.app.InstrumentationRegistry
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+
+/**
+ * Query plan tests for the hot [com.technicallyrural.junction.persistence.dao.BridgedMessageDao]
+ * queries: each must search its index, check every WHERE term there, and need no sort.
+ *
+ * The SQL is copied from the DAO; a change to either must be made in both.
+ */
+class QueryPlanTest {
+
+    private lateinit var database: JunctionDatabase
+    private lateinit var db: SupportSQLiteDatabase
+
+    @Before
+    fun setUp() {
+        val context = InstrumentationRegistry.getInstrumentation().targetContext
+        database = Room.inMemoryDatabaseBuilder(context, JunctionDatabase::class.java).build()
+        db = database.openHelper.writableDatabase
+    }
+
+    @After
+    fun tearDown() {
+        database.close()
+    }
+
+    @Test
+    fun findPendingMessagesUsesStatusIndex() {
+        assertSearchesIndex(
+            "SELECT * FROM bridged_messages WHERE status = ? AND retry_count < ? " +
+                "ORDER BY created_at ASC",
+            arrayOf<Any>("PENDING", 5),
+            "index_bridged_messages_status_created_at_retry_count"
+        )
+    }
+
+    @Test
+    fun findPendingByDirectionUsesDirectionIndex() {
+        assertSearchesIndex(
+            "SELECT * FROM bridged_messages WHERE direction = ? AND status = ? " +
+                "AND retry_count < ? ORDER BY created_at ASC",
+            arrayOf<Any>("SMS_TO_MATRIX", "PENDING", 5),
+            "index_bridged_messages_direction_status_created_at_retry_count"
+        )
+    }
+
+    @Test
+    fun findDueUsesNextAttemptIndex() {
+        assertSearchesIndex(
+            "SELECT * FROM bridged_messages WHERE status = ? AND direction = ? " +
+                "AND next_attempt_at <= ? ORDER BY next_attempt_at ASC LIMIT ?",
+            arrayOf<Any>("PENDING", "SMS_TO_MATRIX", 0L, 50),
+            "index_bridged_messages_status_direction_next_attempt_at"
+        )
+    }
+
+    /**
+     * Assert the plan for [sql] searches [index] only: no table scan and no temporary sort.
+     * Every WHERE column is in the index, so the row is only read for the result.
+     */
+    private fun assertSearchesIndex(sql: String, args: Array<Any>, index: String) {
+        val plan = db.query("EXPLAIN QUERY PLAN $sql", args).use { cursor ->
+            val detail = cursor.getColumnIndexOrThrow("detail")
+            buildList { while (cursor.moveToNext()) add(cursor.getString(detail)) }
+        }
+
+        assertTrue("Expected $index in $plan", plan.any { "USING INDEX $index" in it })
+        assertFalse("Unexpected scan in $plan", plan.any { it.startsWith("SCAN") })
+        assertFalse("Unexpected sort in $plan", plan.any { "TEMP B-TREE" in it })
+    }
+}
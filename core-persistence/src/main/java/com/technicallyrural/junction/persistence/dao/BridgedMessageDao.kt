@@ -3,7 +3,9 @@ package com.technicallyrural.junction.persistence.dao
 import androidx.room.*
 import com.technicallyrural.junction.persistence.entity.BridgedMessageEntity
 import com.technicallyrural.junction.persistence.model.Direction
+import com.technicallyrural.junction.persistence.model.IdRange
 import com.technicallyrural.junction.persistence.model.Status
+import com.technicallyrural.junction.persistence.model.StatusCount
 
 /**
  * Data Access Object for BridgedMessageEntity.
@@ -17,6 +19,9 @@ interface BridgedMessageDao {
     @Update
     suspend fun update(message: BridgedMessageEntity)
 
+    @Query("SELECT * FROM bridged_messages WHERE id = :id LIMIT 1")
+    suspend fun findById(id: Long): BridgedMessageEntity?
+
     @Query("SELECT * FROM bridged_messages WHERE dedup_key = :dedupKey LIMIT 1")
     suspend fun findByDedupKey(dedupKey: String): BridgedMessageEntity?
 
@@ -26,6 +31,9 @@ interface BridgedMessageDao {
     @Query("SELECT * FROM bridged_messages WHERE matrix_event_id = :eventId LIMIT 1")
     suspend fun findByMatrixEventId(eventId: String): BridgedMessageEntity?
 
+    @Query("SELECT * FROM bridged_messages WHERE matrix_txn_id = :txnId LIMIT 1")
+    suspend fun findByMatrixTxnId(txnId: String): BridgedMessageEntity?
+
     @Query("SELECT EXISTS(SELECT 1 FROM bridged_messages WHERE dedup_key = :dedupKey)")
     suspend fun existsByDedupKey(dedupKey: String): Boolean
 
@@ -59,6 +67,58 @@ interface BridgedMessageDao {
         maxRetries: Int = 5
     ): List<BridgedMessageEntity>
 
+    /**
+     * Pending messages in [direction] whose retry time has come, soonest first.
+     */
+    @Query("""
+        SELECT * FROM bridged_messages
+        WHERE status = :status
+        AND direction = :direction
+        AND next_attempt_at <= :now
+        ORDER BY next_attempt_at ASC
+        LIMIT :limit
+    """)
+    suspend fun findDue(
+        direction: Direction,
+        now: Long,
+        limit: Int,
+        status: Status = Status.PENDING
+    ): List<BridgedMessageEntity>
+
+    /**
+     * Earliest retry time of the pending messages in [direction], or null if there are none.
+     */
+    @Query("""
+        SELECT MIN(next_attempt_at) FROM bridged_messages
+        WHERE status = :status
+        AND direction = :direction
+    """)
+    suspend fun findNextAttemptAt(
+        direction: Direction,
+        status: Status = Status.PENDING
+    ): Long?
+
+    /**
+     * Give the message sent with Matrix transaction ID [txnId] the ID [newTxnId] instead.
+     */
+    @Query("UPDATE bridged_messages SET matrix_txn_id = :newTxnId WHERE matrix_txn_id = :txnId")
+    suspend fun updateMatrixTxnId(txnId: String, newTxnId: String): Int
+
+    /**
+     * Move a pending message's retry time to [nextAttemptAt].
+     */
+    @Query("""
+        UPDATE bridged_messages
+        SET next_attempt_at = :nextAttemptAt
+        WHERE id = :id
+        AND status = :status
+    """)
+    suspend fun updateNextAttemptAt(
+        id: Long,
+        nextAttemptAt: Long,
+        status: Status = Status.PENDING
+    ): Int
+
     @Query("""
         SELECT * FROM bridged_messages
         WHERE conversation_id = :conversationId
@@ -70,13 +130,36 @@ interface BridgedMessageDao {
         limit: Int = 100
     ): List<BridgedMessageEntity>
 
+    /**
+     * Lowest and highest ids of finished (CONFIRMED or FAILED) messages last updated before
+     * [cutoffTimestamp], read from the status + updated_at index.
+     */
+    @Query("""
+        SELECT MIN(id) AS first_id, MAX(id) AS last_id FROM bridged_messages
+        WHERE status IN ('CONFIRMED', 'FAILED')
+        AND updated_at < :cutoffTimestamp
+    """)
+    suspend fun findExpiredIdRange(cutoffTimestamp: Long): IdRange
+
+    /**
+     * Delete finished messages last updated before [cutoffTimestamp] with ids in
+     * [fromId, toId). Their participants and media rows are deleted by foreign key cascade.
+     */
     @Query("""
         DELETE FROM bridged_messages
-        WHERE status = 'CONFIRMED'
+        WHERE id >= :fromId AND id < :toId
+        AND status IN ('CONFIRMED', 'FAILED')
         AND updated_at < :cutoffTimestamp
     """)
-    suspend fun deleteOldConfirmed(cutoffTimestamp: Long)
+    suspend fun deleteExpiredInRange(fromId: Long, toId: Long, cutoffTimestamp: Long): Int
 
     @Query("SELECT COUNT(*) FROM bridged_messages WHERE status = :status")
     suspend fun countByStatus(status: Status): Int
+
+    /**
+     * Message count per status, in one pass over the status index. Statuses with no
+     * messages are left out.
+     */
+    @Query("SELECT status, COUNT(*) AS count FROM bridged_messages GROUP BY status")
+    suspend fun countGroupedByStatus(): List<StatusCount>
 }
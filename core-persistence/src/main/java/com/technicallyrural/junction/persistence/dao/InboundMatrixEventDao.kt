@@ -0,0 +1,27 @@
+package com.technicallyrural.junction.persistence.dao
+
+import androidx.room.*
+import com.technicallyrural.junction.persistence.entity.InboundMatrixEventEntity
+import kotlinx.coroutines.flow.Flow
+
+/**
+ * Data Access Object for InboundMatrixEventEntity.
+ */
+@Dao
+interface InboundMatrixEventDao {
+
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    suspend fun insertAll(events: List<InboundMatrixEventEntity>)
+
+    @Query("SELECT * FROM inbound_matrix_events ORDER BY id ASC LIMIT :limit")
+    suspend fun getOldest(limit: Int): List<InboundMatrixEventEntity>
+
+    @Query("DELETE FROM inbound_matrix_events WHERE event_id IN (:eventIds)")
+    suspend fun deleteByEventIds(eventIds: List<String>)
+
+    @Query("SELECT COUNT(*) FROM inbound_matrix_events")
+    suspend fun count(): Int
+
+    @Query("SELECT COUNT(*) FROM inbound_matrix_events")
+    fun observeCount(): Flow<Int>
+}
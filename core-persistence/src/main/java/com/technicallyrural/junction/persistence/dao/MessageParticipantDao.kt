@@ -33,6 +33,29 @@ interface MessageParticipantDao {
     """)
     suspend fun getRecipientsForMessage(messageId: Long): List<MessageParticipantEntity>
 
+    /**
+     * Recipients of [messageId] that haven't been sent the message yet.
+     */
+    @Query("""
+        SELECT phone_number FROM message_participants
+        WHERE message_id = :messageId
+        AND participant_type = 'RECIPIENT'
+        AND sent_at IS NULL
+    """)
+    suspend fun getUnsentRecipients(messageId: Long): List<String>
+
+    /**
+     * Record that [messageId] was sent to the recipients in [phoneNumbers] at [sentAt].
+     */
+    @Query("""
+        UPDATE message_participants
+        SET sent_at = :sentAt
+        WHERE message_id = :messageId
+        AND participant_type = 'RECIPIENT'
+        AND phone_number IN (:phoneNumbers)
+    """)
+    suspend fun markSent(messageId: Long, phoneNumbers: List<String>, sentAt: Long)
+
     @Query("""
         SELECT DISTINCT message_id FROM message_participants
         WHERE phone_number = :phoneNumber
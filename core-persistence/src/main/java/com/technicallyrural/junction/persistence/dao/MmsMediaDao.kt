@@ -35,6 +35,40 @@ interface MmsMediaDao {
     @Query("UPDATE mms_media SET upload_status = :status, failure_reason = :reason WHERE id = :id")
     suspend fun updateUploadFailure(id: Long, status: UploadStatus, reason: String)
 
+    @Query("""
+        SELECT mxc_uri FROM mms_media
+        WHERE content_hash = :contentHash AND mxc_uri IS NOT NULL
+        LIMIT 1
+    """)
+    suspend fun findMxcUriByContentHash(contentHash: String): String?
+
+    @Query("""
+        UPDATE mms_media
+        SET content_hash = :contentHash, mxc_uri = :mxcUri, upload_status = :status
+        WHERE local_uri = :localUri
+    """)
+    suspend fun markUploadedByLocalUri(
+        localUri: String,
+        contentHash: String,
+        mxcUri: String,
+        status: UploadStatus = UploadStatus.UPLOADED
+    ): Int
+
+    /**
+     * Local URIs of the media of messages [BridgedMessageDao.deleteExpiredInRange] would delete.
+     */
+    @Query("""
+        SELECT m.local_uri FROM mms_media m
+        INNER JOIN bridged_messages b ON b.id = m.message_id
+        WHERE b.id >= :fromId AND b.id < :toId
+        AND b.status IN ('CONFIRMED', 'FAILED')
+        AND b.updated_at < :cutoffTimestamp
+    """)
+    suspend fun findExpiredLocalUris(fromId: Long, toId: Long, cutoffTimestamp: Long): List<String>
+
+    @Query("SELECT EXISTS(SELECT 1 FROM mms_media WHERE local_uri = :localUri)")
+    suspend fun existsByLocalUri(localUri: String): Boolean
+
     @Query("DELETE FROM mms_media WHERE message_id = :messageId")
     suspend fun deleteForMessage(messageId: Long)
 }
@@ -21,6 +21,16 @@ interface RoomMappingDao {
     @Query("UPDATE room_mappings SET last_used = :timestamp WHERE conversation_id = :conversationId")
     suspend fun updateLastUsed(conversationId: String, timestamp: Long)
 
+    /**
+     * Update last-used timestamps for several conversations in one transaction.
+     */
+    @Transaction
+    suspend fun updateLastUsed(timestamps: Map<String, Long>) {
+        for ((conversationId, timestamp) in timestamps) {
+            updateLastUsed(conversationId, timestamp)
+        }
+    }
+
     @Query("SELECT * FROM room_mappings ORDER BY last_used DESC")
     suspend fun getAllMappings(): List<RoomMappingEntity>
 
@@ -5,11 +5,15 @@ import androidx.room.Database
 import androidx.room.Room
 import androidx.room.RoomDatabase
 import androidx.room.TypeConverters
+import androidx.room.migration.Migration
+import androidx.sqlite.db.SupportSQLiteDatabase
 import com.technicallyrural.junction.persistence.dao.BridgedMessageDao
+import com.technicallyrural.junction.persistence.dao.InboundMatrixEventDao
 import com.technicallyrural.junction.persistence.dao.MessageParticipantDao
 import com.technicallyrural.junction.persistence.dao.RoomMappingDao
 import com.technicallyrural.junction.persistence.dao.MmsMediaDao
 import com.technicallyrural.junction.persistence.entity.BridgedMessageEntity
+import com.technicallyrural.junction.persistence.entity.InboundMatrixEventEntity
 import com.technicallyrural.junction.persistence.entity.MessageParticipantEntity
 import com.technicallyrural.junction.persistence.entity.RoomMappingEntity
 import com.technicallyrural.junction.persistence.entity.MmsMediaEntity
@@ -23,15 +27,38 @@ import com.technicallyrural.junction.persistence.model.Converters
  * - MessageParticipantEntity: Multi-participant support for group messages
  * - RoomMappingEntity: Conversation ↔ Matrix room mapping
  * - MmsMediaEntity: MMS media tracking
+ *
+ * Version 2: Durable inbound queue
+ * - InboundMatrixEventEntity: Matrix messages waiting to be bridged to SMS
+ *
+ * Version 3: Media dedup
+ * - MmsMediaEntity.contentHash: content hash for reusing uploaded media
+ *
+ * Version 4: Send outbox
+ * - BridgedMessageEntity.nextAttemptAt: per-message retry time, indexed for the due query
+ * - BridgedMessageEntity.payload: Matrix → SMS body kept until the send is confirmed
+ *
+ * Version 5: Query indexes
+ * - BridgedMessageEntity: indexes matching the pending, lookup and cleanup queries
+ *
+ * Version 6: Idempotent Matrix sends
+ * - BridgedMessageEntity.matrixTxnId: transaction ID reused by every send attempt
+ *
+ * Version 7: Per-recipient send state
+ * - MessageParticipantEntity.sentAt: when the SMS to a recipient was accepted
+ *
+ * Version 8: Pending query indexes
+ * - BridgedMessageEntity: retry_count added to the pending message indexes
  */
 @Database(
     entities = [
         BridgedMessageEntity::class,
         MessageParticipantEntity::class,
         RoomMappingEntity::class,
-        MmsMediaEntity::class
+        MmsMediaEntity::class,
+        InboundMatrixEventEntity::class
     ],
-    version = 1,
+    version = 8,
     exportSchema = true
 )
 @TypeConverters(Converters::class)
@@ -41,10 +68,172 @@ abstract class JunctionDatabase : RoomDatabase() {
     abstract fun messageParticipantDao(): MessageParticipantDao
     abstract fun roomMappingDao(): RoomMappingDao
     abstract fun mmsMediaDao(): MmsMediaDao
+    abstract fun inboundMatrixEventDao(): InboundMatrixEventDao
 
     companion object {
         private const val DATABASE_NAME = "junction.db"
 
+        /**
+         * Version 1 → 2: Add the inbound Matrix event queue.
+         */
+        internal val MIGRATION_1_2 = object : Migration(1, 2) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL(
+                    "CREATE TABLE IF NOT EXISTS `inbound_matrix_events` (" +
+                        "`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, " +
+                        "`event_id` TEXT NOT NULL, `room_id` TEXT NOT NULL, " +
+                        "`sender` TEXT NOT NULL, `body` TEXT NOT NULL, " +
+                        "`timestamp` INTEGER NOT NULL, `message_type` TEXT NOT NULL, " +
+                        "`queued_at` INTEGER NOT NULL)"
+                )
+                db.execSQL(
+                    "CREATE UNIQUE INDEX IF NOT EXISTS `index_inbound_matrix_events_event_id` " +
+                        "ON `inbound_matrix_events` (`event_id`)"
+                )
+            }
+        }
+
+        /**
+         * Version 2 → 3: Add the media content hash.
+         */
+        internal val MIGRATION_2_3 = object : Migration(2, 3) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL("ALTER TABLE `mms_media` ADD COLUMN `content_hash` TEXT")
+                db.execSQL(
+                    "CREATE INDEX IF NOT EXISTS `index_mms_media_content_hash` " +
+                        "ON `mms_media` (`content_hash`)"
+                )
+            }
+        }
+
+        /**
+         * Version 3 → 4: Add retry scheduling to bridged messages.
+         */
+        internal val MIGRATION_3_4 = object : Migration(3, 4) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL(
+                    "ALTER TABLE `bridged_messages` " +
+                        "ADD COLUMN `next_attempt_at` INTEGER NOT NULL DEFAULT 0"
+                )
+                db.execSQL("ALTER TABLE `bridged_messages` ADD COLUMN `payload` TEXT")
+                db.execSQL(
+                    "CREATE INDEX IF NOT EXISTS `index_bridged_messages_status_direction_next_attempt_at` " +
+                        "ON `bridged_messages` (`status`, `direction`, `next_attempt_at`)"
+                )
+            }
+        }
+
+        /**
+         * Version 4 → 5: Replace the bridged message indexes with ones matching its queries.
+         */
+        internal val MIGRATION_4_5 = object : Migration(4, 5) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                // Both are prefixes of the new indexes
+                db.execSQL("DROP INDEX IF EXISTS `index_bridged_messages_status`")
+                db.execSQL("DROP INDEX IF EXISTS `index_bridged_messages_direction_status`")
+
+                db.execSQL(
+                    "CREATE INDEX IF NOT EXISTS `index_bridged_messages_sms_message_id` " +
+                        "ON `bridged_messages` (`sms_message_id`)"
+                )
+                db.execSQL(
+                    "CREATE INDEX IF NOT EXISTS `index_bridged_messages_status_created_at` " +
+                        "ON `bridged_messages` (`status`, `created_at`)"
+                )
+                db.execSQL(
+                    "CREATE INDEX IF NOT EXISTS `index_bridged_messages_direction_status_created_at` " +
+                        "ON `bridged_messages` (`direction`, `status`, `created_at`)"
+                )
+                db.execSQL(
+                    "CREATE INDEX IF NOT EXISTS `index_bridged_messages_status_updated_at` " +
+                        "ON `bridged_messages` (`status`, `updated_at`)"
+                )
+            }
+        }
+
+        /**
+         * Version 5 → 6: Add the Matrix transaction ID.
+         */
+        internal val MIGRATION_5_6 = object : Migration(5, 6) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL("ALTER TABLE `bridged_messages` ADD COLUMN `matrix_txn_id` TEXT")
+                db.execSQL(
+                    "CREATE INDEX IF NOT EXISTS `index_bridged_messages_matrix_txn_id` " +
+                        "ON `bridged_messages` (`matrix_txn_id`)"
+                )
+            }
+        }
+
+        /**
+         * Version 6 → 7: Add per-recipient send state.
+         */
+        internal val MIGRATION_6_7 = object : Migration(6, 7) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL("ALTER TABLE `message_participants` ADD COLUMN `sent_at` INTEGER")
+            }
+        }
+
+        /**
+         * Version 7 → 8: Cover the pending queries' retry limit with their indexes.
+         */
+        internal val MIGRATION_7_8 = object : Migration(7, 8) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                // Both are prefixes of the new indexes
+                db.execSQL("DROP INDEX IF EXISTS `index_bridged_messages_status_created_at`")
+                db.execSQL(
+                    "DROP INDEX IF EXISTS `index_bridged_messages_direction_status_created_at`"
+                )
+
+                db.execSQL(
+                    "CREATE INDEX IF NOT EXISTS `index_bridged_messages_status_created_at_retry_count` " +
+                        "ON `bridged_messages` (`status`, `created_at`, `retry_count`)"
+                )
+                db.execSQL(
+                    "CREATE INDEX IF NOT EXISTS " +
+                        "`index_bridged_messages_direction_status_created_at_retry_count` " +
+                        "ON `bridged_messages` (`direction`, `status`, `created_at`, `retry_count`)"
+                )
+            }
+        }
+
+        /**
+         * Every migration, oldest first.
+         */
+        internal val ALL_MIGRATIONS = arrayOf(
+            MIGRATION_1_2,
+            MIGRATION_2_3,
+            MIGRATION_3_4,
+            MIGRATION_4_5,
+            MIGRATION_5_6,
+            MIGRATION_6_7,
+            MIGRATION_7_8
+        )
+
+        /**
+         * Creates new databases with incremental auto_vacuum, so RetentionCompactor can
+         * return freed pages in short steps.
+         *
+         * auto_vacuum only changes on a VACUUM once a table exists, and the framework creates
+         * android_metadata on open, before [onCreate]. VACUUM can't run in the creation
+         * transaction, so it runs in [onOpen], while the new database is still empty.
+         * Databases created before this are left as they are; converting them would take a
+         * full VACUUM of every message.
+         */
+        private class IncrementalAutoVacuumCallback : RoomDatabase.Callback() {
+            private var created = false
+
+            override fun onCreate(db: SupportSQLiteDatabase) {
+                created = true
+            }
+
+            override fun onOpen(db: SupportSQLiteDatabase) {
+                if (!created) return
+                created = false
+                db.execSQL("PRAGMA auto_vacuum = INCREMENTAL")
+                db.execSQL("VACUUM")
+            }
+        }
+
         @Volatile
         private var INSTANCE: JunctionDatabase? = null
 
@@ -53,16 +242,16 @@ abstract class JunctionDatabase : RoomDatabase() {
          */
         fun getInstance(context: Context): JunctionDatabase {
             return INSTANCE ?: synchronized(this) {
-                val instance = Room.databaseBuilder(
+                INSTANCE ?: Room.databaseBuilder(
                     context.applicationContext,
                     JunctionDatabase::class.java,
                     DATABASE_NAME
                 )
-                    .fallbackToDestructiveMigration()
+                    // Every version has a migration, so upgrades keep dedup history
+                    .addMigrations(*ALL_MIGRATIONS)
+                    .addCallback(IncrementalAutoVacuumCallback())
                     .build()
-
-                INSTANCE = instance
-                instance
+                    .also { INSTANCE = it }
             }
         }
 
@@ -19,8 +19,14 @@ import com.technicallyrural.junction.persistence.model.Status
  * - dedupKey: Unique constraint for duplicate detection
  * - conversationId + timestamp: Query messages in specific conversation
  * - matrixEventId: Lookup by Matrix event for reverse mapping
- * - status: Find pending/failed messages for retry
- * - direction + status: Find pending outbound Matrix sends
+ * - matrixTxnId: Match sync echoes of our own sends
+ * - smsMessageId: Lookup by AOSP message for outbound dedup
+ * - status + createdAt + retryCount: Pending messages oldest first, with the retry limit
+ *   checked in the index; status counts read the index only
+ * - direction + status + createdAt + retryCount: Pending messages in one direction, oldest
+ *   first, likewise
+ * - status + direction + nextAttemptAt: Find pending messages due for retry
+ * - status + updatedAt: Retention cleanup of old confirmed messages
  */
 @Entity(
     tableName = "bridged_messages",
@@ -28,8 +34,12 @@ import com.technicallyrural.junction.persistence.model.Status
         Index(value = ["dedup_key"], unique = true),
         Index(value = ["conversation_id", "timestamp"]),
         Index(value = ["matrix_event_id"]),
-        Index(value = ["status"]),
-        Index(value = ["direction", "status"])
+        Index(value = ["matrix_txn_id"]),
+        Index(value = ["sms_message_id"]),
+        Index(value = ["status", "created_at", "retry_count"]),
+        Index(value = ["direction", "status", "created_at", "retry_count"]),
+        Index(value = ["status", "direction", "next_attempt_at"]),
+        Index(value = ["status", "updated_at"])
     ]
 )
 data class BridgedMessageEntity(
@@ -91,6 +101,13 @@ data class BridgedMessageEntity(
     @ColumnInfo(name = "matrix_event_id")
     val matrixEventId: String? = null,
 
+    /**
+     * Matrix transaction ID for SMS→Matrix sends, derived from [dedupKey] and stored before
+     * the first attempt, so every retry reuses it and the homeserver drops duplicates.
+     */
+    @ColumnInfo(name = "matrix_txn_id")
+    val matrixTxnId: String? = null,
+
     /**
      * Matrix room ID where message was sent/received.
      */
@@ -115,6 +132,19 @@ data class BridgedMessageEntity(
     @ColumnInfo(name = "retry_count")
     val retryCount: Int = 0,
 
+    /**
+     * Earliest time (epoch milliseconds) the outbox may retry this message while PENDING.
+     */
+    @ColumnInfo(name = "next_attempt_at", defaultValue = "0")
+    val nextAttemptAt: Long = 0,
+
+    /**
+     * Message body kept for retry while PENDING, for directions whose body can't be read
+     * back from elsewhere (Matrix → SMS). Cleared once the message is confirmed or failed.
+     */
+    @ColumnInfo(name = "payload")
+    val payload: String? = null,
+
     /**
      * Record creation timestamp.
      */
@@ -0,0 +1,66 @@
+package com.technicallyrural.junction.persistence.entity
+
+import androidx.room.Entity
+import androidx.room.Index
+import androidx.room.PrimaryKey
+import androidx.room.ColumnInfo
+
+/**
+ * Matrix message waiting to be bridged to SMS.
+ *
+ * Durable inbound queue: messages are written here as they arrive from sync and deleted once
+ * the SMS side has processed them, so a stalled SMS side or process death doesn't lose them.
+ * Queue order is [id] order.
+ */
+@Entity(
+    tableName = "inbound_matrix_events",
+    indices = [
+        Index(value = ["event_id"], unique = true)
+    ]
+)
+data class InboundMatrixEventEntity(
+    @PrimaryKey(autoGenerate = true)
+    val id: Long = 0,
+
+    /**
+     * Matrix event ID. Unique, so an event delivered twice is only queued once.
+     */
+    @ColumnInfo(name = "event_id")
+    val eventId: String,
+
+    /**
+     * Matrix room ID the event was sent in.
+     */
+    @ColumnInfo(name = "room_id")
+    val roomId: String,
+
+    /**
+     * Matrix user ID of the sender.
+     */
+    @ColumnInfo(name = "sender")
+    val sender: String,
+
+    /**
+     * Message body.
+     */
+    @ColumnInfo(name = "body")
+    val body: String,
+
+    /**
+     * Matrix origin timestamp (milliseconds since epoch).
+     */
+    @ColumnInfo(name = "timestamp")
+    val timestamp: Long,
+
+    /**
+     * Message type name (e.g., TEXT, IMAGE).
+     */
+    @ColumnInfo(name = "message_type")
+    val messageType: String,
+
+    /**
+     * Time the event was queued.
+     */
+    @ColumnInfo(name = "queued_at")
+    val queuedAt: Long
+)
@@ -50,7 +50,14 @@ data class MessageParticipantEntity(
      * Participant role in this message.
      */
     @ColumnInfo(name = "participant_type")
-    val participantType: ParticipantType
+    val participantType: ParticipantType,
+
+    /**
+     * When the SMS to this recipient was accepted for sending, or null if it hasn't been yet.
+     * Lets a retry of a Matrix → SMS message skip the recipients who already got it.
+     */
+    @ColumnInfo(name = "sent_at")
+    val sentAt: Long? = null
 )
 
 enum class ParticipantType {
@@ -19,7 +19,8 @@ import androidx.room.ForeignKey
     indices = [
         Index(value = ["message_id"]),
         Index(value = ["mxc_uri"]),
-        Index(value = ["upload_status"])
+        Index(value = ["upload_status"]),
+        Index(value = ["content_hash"])
     ],
     foreignKeys = [
         ForeignKey(
@@ -52,6 +53,13 @@ data class MmsMediaEntity(
     @ColumnInfo(name = "mxc_uri")
     val mxcUri: String? = null,
 
+    /**
+     * SHA-256 of the media content (hex, nullable until hashed). Identical content is
+     * uploaded once and its mxc:// URI reused.
+     */
+    @ColumnInfo(name = "content_hash")
+    val contentHash: String? = null,
+
     /**
      * MIME type (e.g., image/jpeg, video/mp4).
      */
@@ -0,0 +1,14 @@
+package com.technicallyrural.junction.persistence.model
+
+import androidx.room.ColumnInfo
+
+/**
+ * Inclusive range of row ids; both ends are null if no rows matched.
+ */
+data class IdRange(
+    @ColumnInfo(name = "first_id")
+    val firstId: Long?,
+
+    @ColumnInfo(name = "last_id")
+    val lastId: Long?
+)
@@ -0,0 +1,62 @@
+package com.technicallyrural.junction.persistence.model
+
+/**
+ * A conversation ↔ Matrix room mapping with its participants already parsed.
+ */
+data class MappedConversation(
+    val conversationId: String,
+    val roomId: String,
+    val alias: String?,
+    val participants: List<String>,
+    val isGroup: Boolean
+)
+
+/**
+ * Immutable view of every room mapping, indexed both ways.
+ *
+ * Snapshots are never modified; [with] and [without] return a new snapshot, so a reader
+ * holding one always sees a consistent set of mappings.
+ */
+class RoomMappingSnapshot private constructor(
+    val byConversationId: Map<String, MappedConversation>,
+    val byRoomId: Map<String, MappedConversation>
+) {
+
+    companion object {
+        val EMPTY = RoomMappingSnapshot(emptyMap(), emptyMap())
+
+        fun of(mappings: Collection<MappedConversation>): RoomMappingSnapshot {
+            return RoomMappingSnapshot(
+                byConversationId = mappings.associateBy { it.conversationId },
+                byRoomId = mappings.associateBy { it.roomId }
+            )
+        }
+    }
+
+    /**
+     * Snapshot with [mapping] added. Like the table's unique indexes, it replaces any mapping
+     * with the same conversation or the same room.
+     */
+    fun with(mapping: MappedConversation): RoomMappingSnapshot {
+        val replaced = listOfNotNull(
+            byConversationId[mapping.conversationId],
+            byRoomId[mapping.roomId]
+        )
+        return RoomMappingSnapshot(
+            byConversationId = byConversationId - replaced.map { it.conversationId } +
+                (mapping.conversationId to mapping),
+            byRoomId = byRoomId - replaced.map { it.roomId } + (mapping.roomId to mapping)
+        )
+    }
+
+    /**
+     * Snapshot without the mapping for [conversationId].
+     */
+    fun without(conversationId: String): RoomMappingSnapshot {
+        val removed = byConversationId[conversationId] ?: return this
+        return RoomMappingSnapshot(
+            byConversationId = byConversationId - conversationId,
+            byRoomId = byRoomId - removed.roomId
+        )
+    }
+}
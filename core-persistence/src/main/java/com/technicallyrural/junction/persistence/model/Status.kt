@@ -21,3 +21,11 @@ enum class Status {
      */
     FAILED
 }
+
+/**
+ * Number of bridged messages with a status.
+ */
+data class StatusCount(
+    val status: Status,
+    val count: Int
+)
@@ -0,0 +1,72 @@
+package com.technicallyrural.junction.persistence.repository
+
+import android.content.Context
+import com.technicallyrural.junction.persistence.dao.InboundMatrixEventDao
+import com.technicallyrural.junction.persistence.database.JunctionDatabase
+import com.technicallyrural.junction.persistence.entity.InboundMatrixEventEntity
+import kotlinx.coroutines.flow.first
+
+/**
+ * Repository for the durable queue of Matrix messages waiting to be bridged to SMS.
+ *
+ * Delivery is at-least-once: a batch stays queued until it is [remove]d, so a batch that was
+ * being processed when the process died is returned again after restart.
+ */
+class InboundQueueRepository(context: Context) {
+
+    private val dao: InboundMatrixEventDao =
+        JunctionDatabase.getInstance(context).inboundMatrixEventDao()
+
+    companion object {
+        /** SQLite allows 999 bound arguments per statement */
+        const val MAX_BATCH_SIZE = 500
+
+        @Volatile
+        private var INSTANCE: InboundQueueRepository? = null
+
+        fun getInstance(context: Context): InboundQueueRepository {
+            return INSTANCE ?: synchronized(this) {
+                val instance = InboundQueueRepository(context.applicationContext)
+                INSTANCE = instance
+                instance
+            }
+        }
+    }
+
+    /**
+     * Queue events in one transaction. Events already queued are ignored.
+     */
+    suspend fun enqueue(events: List<InboundMatrixEventEntity>) {
+        if (events.isEmpty()) return
+        dao.insertAll(events)
+    }
+
+    /**
+     * Get up to [maxCount] of the oldest queued events, suspending until there is at least one.
+     * The events stay queued until they are removed.
+     */
+    suspend fun awaitBatch(maxCount: Int): List<InboundMatrixEventEntity> {
+        val limit = maxCount.coerceIn(1, MAX_BATCH_SIZE)
+        while (true) {
+            dao.observeCount().first { it > 0 }
+            val batch = dao.getOldest(limit)
+            if (batch.isNotEmpty()) return batch
+        }
+    }
+
+    /**
+     * Remove processed events from the queue.
+     */
+    suspend fun remove(eventIds: List<String>) {
+        eventIds.chunked(MAX_BATCH_SIZE).forEach { chunk ->
+            dao.deleteByEventIds(chunk)
+        }
+    }
+
+    /**
+     * Get number of queued events.
+     */
+    suspend fun size(): Int {
+        return dao.count()
+    }
+}
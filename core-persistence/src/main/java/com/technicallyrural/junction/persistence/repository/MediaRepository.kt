@@ -0,0 +1,73 @@
+package com.technicallyrural.junction.persistence.repository
+
+import android.content.Context
+import com.technicallyrural.junction.persistence.dao.MmsMediaDao
+import com.technicallyrural.junction.persistence.database.JunctionDatabase
+import com.technicallyrural.junction.persistence.entity.MmsMediaEntity
+import com.technicallyrural.junction.persistence.entity.UploadStatus
+
+/**
+ * Repository for MMS media upload state, keyed by content hash so identical media is
+ * uploaded to Matrix once.
+ *
+ * Only unencrypted uploads are recorded. Media sent to encrypted rooms is encrypted with a
+ * fresh key on every upload, so it is never reused, and a recorded mxc:// URI must never be
+ * sent to an encrypted room.
+ */
+class MediaRepository(context: Context) {
+
+    private val dao: MmsMediaDao =
+        JunctionDatabase.getInstance(context).mmsMediaDao()
+
+    companion object {
+        @Volatile
+        private var INSTANCE: MediaRepository? = null
+
+        fun getInstance(context: Context): MediaRepository {
+            return INSTANCE ?: synchronized(this) {
+                val instance = MediaRepository(context.applicationContext)
+                INSTANCE = instance
+                instance
+            }
+        }
+    }
+
+    /**
+     * Get the mxc:// URI of media with [contentHash] that was already uploaded, if any.
+     */
+    suspend fun findUploadedMxcUri(contentHash: String): String? {
+        return dao.findMxcUriByContentHash(contentHash)
+    }
+
+    /**
+     * Record the media of bridged message [messageId] before it is sent, so [recordUpload]
+     * can find it by its local URI once it is uploaded.
+     */
+    suspend fun recordPendingMedia(
+        messageId: Long,
+        localUri: String,
+        mimeType: String,
+        filename: String?,
+        fileSize: Long
+    ) {
+        dao.insert(
+            MmsMediaEntity(
+                messageId = messageId,
+                localUri = localUri,
+                mimeType = mimeType,
+                filename = filename,
+                fileSize = fileSize,
+                uploadStatus = UploadStatus.PENDING,
+                createdAt = System.currentTimeMillis()
+            )
+        )
+    }
+
+    /**
+     * Record that the media at [localUri] was uploaded as [mxcUri]. Updates the media rows
+     * recorded for that local URI, which makes the upload reusable by [findUploadedMxcUri].
+     */
+    suspend fun recordUpload(localUri: String, contentHash: String, mxcUri: String) {
+        dao.markUploadedByLocalUri(localUri, contentHash, mxcUri)
+    }
+}
@@ -10,6 +10,7 @@ import com.technicallyrural.junction.persistence.entity.ParticipantType
 import com.technicallyrural.junction.persistence.model.Direction
 import com.technicallyrural.junction.persistence.model.Status
 import com.technicallyrural.junction.persistence.util.DedupKeyGenerator
+import com.technicallyrural.junction.persistence.util.RetryBackoff
 
 /**
  * Repository for message bridging operations.
@@ -26,6 +27,19 @@ class MessageRepository(context: Context) {
         private const val MAX_RETRIES = 5
         private const val TAG = "MessageRepository"
 
+        /**
+         * How long a new message is left to its first send attempt before the outbox treats
+         * it as due, e.g. because the process died mid-send.
+         */
+        private const val FIRST_ATTEMPT_GRACE_MS = 2 * 60 * 1000L
+
+        /**
+         * How long a message claimed by [claimForSend] is left to its sender before the outbox
+         * treats it as due. The sender renews the claim before each recipient, so this only
+         * has to cover one rate-limited wait plus one send.
+         */
+        private const val SEND_LEASE_MS = 10 * 60 * 1000L
+
         @Volatile
         private var INSTANCE: MessageRepository? = null
 
@@ -67,7 +81,9 @@ class MessageRepository(context: Context) {
             direction = Direction.SMS_TO_MATRIX,
             isGroup = isGroup,
             smsMessageId = smsMessageId,
+            matrixTxnId = DedupKeyGenerator.transactionId(dedupKey),
             status = Status.PENDING,
+            nextAttemptAt = System.currentTimeMillis() + FIRST_ATTEMPT_GRACE_MS,
             createdAt = System.currentTimeMillis(),
             updatedAt = System.currentTimeMillis()
         )
@@ -118,23 +134,54 @@ class MessageRepository(context: Context) {
     }
 
     /**
-     * Record Matrix send failure.
+     * Confirm a Matrix send from the sync echo of its event, matched by transaction ID.
+     * Covers a send that reached the homeserver but whose response was lost.
+     *
+     * @return true if a pending message was confirmed
      */
-    suspend fun recordMatrixSendFailure(
-        dedupKey: String,
-        failureReason: String
-    ) {
-        val existing = messageDao.findByDedupKey(dedupKey) ?: return
-        val newRetryCount = existing.retryCount + 1
+    suspend fun confirmMatrixSendByTxnId(
+        txnId: String,
+        matrixEventId: String,
+        matrixRoomId: String
+    ): Boolean {
+        val existing = messageDao.findByMatrixTxnId(txnId) ?: return false
+        if (existing.status == Status.CONFIRMED) return false
 
         messageDao.update(
             existing.copy(
-                status = if (newRetryCount >= MAX_RETRIES) Status.FAILED else Status.PENDING,
-                retryCount = newRetryCount,
-                failureReason = failureReason,
+                status = Status.CONFIRMED,
+                matrixEventId = matrixEventId,
+                matrixRoomId = matrixRoomId,
                 updatedAt = System.currentTimeMillis()
             )
         )
+        return true
+    }
+
+    /**
+     * Get the message sent with Matrix transaction ID [txnId].
+     */
+    suspend fun findByMatrixTxnId(txnId: String): BridgedMessageEntity? {
+        return messageDao.findByMatrixTxnId(txnId)
+    }
+
+    /**
+     * Replace a message's Matrix transaction ID with the one its send actually used, so the
+     * sync echo and later retries match it. Trixnity's outbox chooses its own.
+     */
+    suspend fun replaceMatrixTxnId(txnId: String, newTxnId: String) {
+        messageDao.updateMatrixTxnId(txnId, newTxnId)
+    }
+
+    /**
+     * Record Matrix send failure.
+     */
+    suspend fun recordMatrixSendFailure(
+        dedupKey: String,
+        failureReason: String
+    ) {
+        val existing = messageDao.findByDedupKey(dedupKey) ?: return
+        recordFailure(existing, failureReason)
     }
 
     /**
@@ -169,6 +216,8 @@ class MessageRepository(context: Context) {
             matrixEventId = matrixEventId,
             matrixRoomId = matrixRoomId,
             status = Status.PENDING,
+            nextAttemptAt = System.currentTimeMillis() + FIRST_ATTEMPT_GRACE_MS,
+            payload = body,
             createdAt = System.currentTimeMillis(),
             updatedAt = System.currentTimeMillis()
         )
@@ -198,19 +247,51 @@ class MessageRepository(context: Context) {
         return entity.copy(id = messageId)
     }
 
+    /**
+     * Claim a pending message for a send attempt by moving its retry time [SEND_LEASE_MS]
+     * ahead, so the outbox doesn't send it again while the attempt is still running. Call
+     * again to renew the claim during a long attempt.
+     *
+     * @return true if the message is still pending and is now claimed
+     */
+    suspend fun claimForSend(messageId: Long): Boolean {
+        val leaseEnd = System.currentTimeMillis() + SEND_LEASE_MS
+        return messageDao.updateNextAttemptAt(messageId, leaseEnd) > 0
+    }
+
+    /**
+     * Get the recipients of a Matrix → SMS message that haven't been sent it yet.
+     */
+    suspend fun getUnsentRecipients(messageId: Long): List<String> {
+        return participantDao.getUnsentRecipients(messageId)
+    }
+
+    /**
+     * Record that a Matrix → SMS message was accepted for sending to [phoneNumbers], so
+     * retries leave them out.
+     */
+    suspend fun markRecipientsSent(messageId: Long, phoneNumbers: List<String>) {
+        if (phoneNumbers.isEmpty()) return
+        participantDao.markSent(messageId, phoneNumbers, System.currentTimeMillis())
+    }
+
     /**
      * Confirm SMS send with AOSP message ID.
+     *
+     * @param smsMessageId ID of the send; null keeps the one already recorded, e.g. when every
+     *   recipient was sent to by earlier attempts
      */
     suspend fun confirmSmsSend(
         matrixEventId: String,
-        smsMessageId: Long
+        smsMessageId: Long?
     ) {
         val existing = messageDao.findByMatrixEventId(matrixEventId) ?: return
 
         messageDao.update(
             existing.copy(
                 status = Status.CONFIRMED,
-                smsMessageId = smsMessageId,
+                smsMessageId = smsMessageId ?: existing.smsMessageId,
+                payload = null,
                 updatedAt = System.currentTimeMillis()
             )
         )
@@ -224,13 +305,48 @@ class MessageRepository(context: Context) {
         failureReason: String
     ) {
         val existing = messageDao.findByMatrixEventId(matrixEventId) ?: return
+        recordFailure(existing, failureReason)
+    }
+
+    /**
+     * Record a failed attempt: schedule the next one with [RetryBackoff], or mark the message
+     * FAILED once it has used [MAX_RETRIES] attempts.
+     */
+    private suspend fun recordFailure(existing: BridgedMessageEntity, failureReason: String) {
         val newRetryCount = existing.retryCount + 1
+        val now = System.currentTimeMillis()
+
+        messageDao.update(
+            if (newRetryCount >= MAX_RETRIES) {
+                existing.copy(
+                    status = Status.FAILED,
+                    retryCount = newRetryCount,
+                    failureReason = failureReason,
+                    payload = null,
+                    updatedAt = now
+                )
+            } else {
+                existing.copy(
+                    retryCount = newRetryCount,
+                    failureReason = failureReason,
+                    nextAttemptAt = now + RetryBackoff.delayMs(newRetryCount),
+                    updatedAt = now
+                )
+            }
+        )
+    }
+
+    /**
+     * Mark a message FAILED without further retries, e.g. because its content is gone.
+     */
+    suspend fun abandon(messageId: Long, failureReason: String) {
+        val existing = messageDao.findById(messageId) ?: return
 
         messageDao.update(
             existing.copy(
-                status = if (newRetryCount >= MAX_RETRIES) Status.FAILED else Status.PENDING,
-                retryCount = newRetryCount,
+                status = Status.FAILED,
                 failureReason = failureReason,
+                payload = null,
                 updatedAt = System.currentTimeMillis()
             )
         )
@@ -247,6 +363,24 @@ class MessageRepository(context: Context) {
         }
     }
 
+    /**
+     * Get pending [direction] messages whose retry time has come, soonest first.
+     */
+    suspend fun getDueMessages(
+        direction: Direction,
+        now: Long = System.currentTimeMillis(),
+        limit: Int = 100
+    ): List<BridgedMessageEntity> {
+        return messageDao.findDue(direction, now, limit)
+    }
+
+    /**
+     * Get the earliest retry time of pending [direction] messages, or null if there are none.
+     */
+    suspend fun getNextAttemptAt(direction: Direction): Long? {
+        return messageDao.findNextAttemptAt(direction)
+    }
+
     /**
      * Get messages for a conversation.
      */
@@ -264,24 +398,12 @@ class MessageRepository(context: Context) {
         return participantDao.getParticipantsForMessage(messageId)
     }
 
-    /**
-     * Cleanup old confirmed messages (retain last N days).
-     */
-    suspend fun cleanupOldMessages(retentionDays: Int = 30) {
-        val cutoff = System.currentTimeMillis() - (retentionDays * 24 * 60 * 60 * 1000L)
-        messageDao.deleteOldConfirmed(cutoff)
-    }
-
     /**
      * Get metrics (for monitoring).
      */
     suspend fun getMetrics(): Map<Status, Int> {
-        return mapOf(
-            Status.PENDING to messageDao.countByStatus(Status.PENDING),
-            Status.SENT to messageDao.countByStatus(Status.SENT),
-            Status.CONFIRMED to messageDao.countByStatus(Status.CONFIRMED),
-            Status.FAILED to messageDao.countByStatus(Status.FAILED)
-        )
+        val counts = messageDao.countGroupedByStatus().associate { it.status to it.count }
+        return Status.entries.associateWith { counts[it] ?: 0 }
     }
 
     /**
@@ -291,7 +413,8 @@ class MessageRepository(context: Context) {
      * bridged to Matrix. Different from recordSmsToMatrixSend() which handles
      * inbound SMS from external senders.
      *
-     * @param smsMessageId The AOSP telephony database message ID (primary dedup key)
+     * @param smsMessageId The AOSP telephony SMS ID (primary dedup key); null for MMS, which
+     *   are deduplicated by conversation, timestamp and body only
      * @param conversationId The AOSP thread ID
      * @param senderAddress Our phone number (self)
      * @param recipientAddresses Destination phone numbers
@@ -300,7 +423,7 @@ class MessageRepository(context: Context) {
      * @return Entity if created, null if duplicate
      */
     suspend fun recordPhoneToMatrixSend(
-        smsMessageId: Long,
+        smsMessageId: Long?,
         conversationId: String,
         senderAddress: String,
         recipientAddresses: List<String>,
@@ -309,7 +432,7 @@ class MessageRepository(context: Context) {
         isGroup: Boolean = recipientAddresses.size > 1
     ): BridgedMessageEntity? {
         // Primary deduplication: SMS message ID from AOSP database
-        if (messageDao.existsBySmsMessageId(smsMessageId)) {
+        if (smsMessageId != null && messageDao.existsBySmsMessageId(smsMessageId)) {
             android.util.Log.w(TAG, "Duplicate Phone → Matrix send detected: smsMessageId=$smsMessageId")
             return null
         }
@@ -330,7 +453,9 @@ class MessageRepository(context: Context) {
             direction = Direction.SMS_TO_MATRIX,
             isGroup = isGroup,
             smsMessageId = smsMessageId,
+            matrixTxnId = DedupKeyGenerator.transactionId(dedupKey),
             status = Status.PENDING,
+            nextAttemptAt = System.currentTimeMillis() + FIRST_ATTEMPT_GRACE_MS,
             createdAt = System.currentTimeMillis(),
             updatedAt = System.currentTimeMillis()
         )
@@ -0,0 +1,170 @@
+package com.technicallyrural.junction.persistence.repository
+
+import android.content.Context
+import android.net.Uri
+import android.util.Log
+import androidx.room.withTransaction
+import androidx.sqlite.db.SupportSQLiteDatabase
+import com.technicallyrural.junction.persistence.dao.BridgedMessageDao
+import com.technicallyrural.junction.persistence.dao.MmsMediaDao
+import com.technicallyrural.junction.persistence.database.JunctionDatabase
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.withContext
+import java.io.File
+
+/**
+ * What one [RetentionCompactor.compact] run removed.
+ *
+ * @param messagesDeleted Bridged messages deleted, with their participants and media rows
+ * @param mediaFilesDeleted Local media files deleted along with their messages
+ * @param bytesReclaimed Bytes returned to the filesystem: database pages plus media files
+ */
+data class CompactionResult(
+    val messagesDeleted: Int,
+    val mediaFilesDeleted: Int,
+    val bytesReclaimed: Long
+)
+
+/**
+ * Deletes finished (CONFIRMED or FAILED) bridged messages past retention and gives the
+ * space back, without holding the write lock long enough to stall the receive path.
+ *
+ * Messages are deleted in id ranges of [chunkSize] rows, one short transaction per range,
+ * pausing between ranges so other writers get the lock. Participants and media rows go with
+ * their message by foreign key cascade, and media files the app stored itself are deleted
+ * once no other media row refers to them. Freed pages are then returned with incremental
+ * vacuum, also in steps; databases created before incremental auto_vacuum keep their free
+ * pages for SQLite to reuse, since converting them would take a full VACUUM.
+ */
+class RetentionCompactor(
+    context: Context,
+    private val chunkSize: Int = DEFAULT_CHUNK_SIZE
+) {
+
+    private val appContext = context.applicationContext
+    private val database = JunctionDatabase.getInstance(context)
+    private val messageDao: BridgedMessageDao = database.bridgedMessageDao()
+    private val mediaDao: MmsMediaDao = database.mmsMediaDao()
+
+    companion object {
+        private const val TAG = "RetentionCompactor"
+
+        const val DEFAULT_CHUNK_SIZE = 500
+        const val DEFAULT_RETENTION_DAYS = 30
+
+        /** Pause between chunks, so queued writers get the lock */
+        private const val CHUNK_PAUSE_MS = 50L
+
+        /** Free pages returned per incremental vacuum step */
+        private const val VACUUM_STEP_PAGES = 256
+
+        private const val AUTO_VACUUM_INCREMENTAL = 2L
+
+        @Volatile
+        private var INSTANCE: RetentionCompactor? = null
+
+        fun getInstance(context: Context): RetentionCompactor {
+            return INSTANCE ?: synchronized(this) {
+                INSTANCE ?: RetentionCompactor(context.applicationContext).also {
+                    INSTANCE = it
+                }
+            }
+        }
+    }
+
+    /**
+     * Delete finished messages last updated more than [retentionDays] ago, then vacuum.
+     */
+    suspend fun compact(retentionDays: Int = DEFAULT_RETENTION_DAYS): CompactionResult {
+        val cutoff = System.currentTimeMillis() - (retentionDays * 24 * 60 * 60 * 1000L)
+        val range = messageDao.findExpiredIdRange(cutoff)
+        val firstId = range.firstId
+        val lastId = range.lastId
+
+        var messagesDeleted = 0
+        val localUris = mutableSetOf<String>()
+
+        if (firstId != null && lastId != null) {
+            var fromId = firstId
+            while (fromId <= lastId) {
+                val toId = fromId + chunkSize
+                database.withTransaction {
+                    localUris += mediaDao.findExpiredLocalUris(fromId, toId, cutoff)
+                    messagesDeleted += messageDao.deleteExpiredInRange(fromId, toId, cutoff)
+                }
+                fromId = toId
+                delay(CHUNK_PAUSE_MS)
+            }
+        }
+
+        var mediaFilesDeleted = 0
+        var mediaBytes = 0L
+        for (localUri in localUris) {
+            if (mediaDao.existsByLocalUri(localUri)) continue
+            val file = ownedFile(localUri) ?: continue
+            val size = file.length()
+            if (file.delete()) {
+                mediaFilesDeleted++
+                mediaBytes += size
+            }
+        }
+
+        val databaseBytes = vacuum()
+
+        Log.d(
+            TAG,
+            "Compacted $messagesDeleted message(s), $mediaFilesDeleted media file(s), " +
+                "${(databaseBytes + mediaBytes) / 1024} KB reclaimed"
+        )
+        return CompactionResult(messagesDeleted, mediaFilesDeleted, databaseBytes + mediaBytes)
+    }
+
+    /**
+     * The file behind [localUri] if it is in this app's own storage; content:// media belongs
+     * to the provider and is left alone.
+     */
+    private fun ownedFile(localUri: String): File? {
+        val uri = Uri.parse(localUri)
+        if (uri.scheme != "file") return null
+        val file = File(uri.path ?: return null).canonicalFile
+
+        val owned = listOfNotNull(appContext.filesDir, appContext.cacheDir)
+            .any { file.path.startsWith(it.canonicalPath + File.separator) }
+        return file.takeIf { owned && it.isFile }
+    }
+
+    /**
+     * Return free pages to the filesystem in short steps and report the bytes freed.
+     *
+     * Only databases created with incremental auto_vacuum (see JunctionDatabase) can do
+     * this; on older ones the free pages stay in the file and nothing is reported.
+     */
+    private suspend fun vacuum(): Long = withContext(Dispatchers.IO) {
+        val db = database.openHelper.writableDatabase
+        if (db.longPragma("auto_vacuum") != AUTO_VACUUM_INCREMENTAL) {
+            Log.d(TAG, "Incremental auto_vacuum is off, leaving free pages for reuse")
+            return@withContext 0L
+        }
+
+        val pageSize = db.longPragma("page_size")
+        val pagesBefore = db.longPragma("page_count")
+
+        while (db.longPragma("freelist_count") > 0) {
+            db.query("PRAGMA incremental_vacuum($VACUUM_STEP_PAGES)").use { cursor ->
+                while (cursor.moveToNext()) {
+                    // Each row is one freed page; stepping through them does the work
+                }
+            }
+            delay(CHUNK_PAUSE_MS)
+        }
+
+        (pagesBefore - db.longPragma("page_count")).coerceAtLeast(0) * pageSize
+    }
+
+    private fun SupportSQLiteDatabase.longPragma(name: String): Long {
+        return query("PRAGMA $name").use { cursor ->
+            if (cursor.moveToFirst()) cursor.getLong(0) else 0L
+        }
+    }
+}
@@ -4,19 +4,75 @@ import android.content.Context
 import com.technicallyrural.junction.persistence.dao.RoomMappingDao
 import com.technicallyrural.junction.persistence.database.JunctionDatabase
 import com.technicallyrural.junction.persistence.entity.RoomMappingEntity
+import com.technicallyrural.junction.persistence.model.MappedConversation
+import com.technicallyrural.junction.persistence.model.RoomMappingSnapshot
 import com.technicallyrural.junction.persistence.util.ParticipantsSerializer
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.flow.distinctUntilChanged
+import kotlinx.coroutines.flow.emitAll
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.flow.map
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import java.util.concurrent.ConcurrentHashMap
 
 /**
  * Repository for conversation ↔ Matrix room mappings.
  *
  * Conversation-based mapping (not phone-based).
+ *
+ * All mappings are loaded once into an immutable [RoomMappingSnapshot], which writes replace
+ * copy-on-write after updating the table. Lookups read the snapshot, so the per-message path
+ * does no SQLite reads and no participant parsing. This repository must be the only writer
+ * of the room_mappings table for the snapshot to stay current.
+ *
+ * Last-used timestamps are written behind: lookups record them in memory, rounded down to
+ * the minute, and they are written in one transaction at most every 30 seconds (or by
+ * [flushLastUsed]), so a burst of bridged messages costs one commit.
  */
 class RoomMappingRepository(context: Context) {
 
     private val dao: RoomMappingDao =
         JunctionDatabase.getInstance(context).roomMappingDao()
 
+    // Serializes loading and writes, so each write's snapshot update follows its table write
+    private val writeLock = Mutex()
+
+    @Volatile
+    private var loaded = false
+
+    private val _snapshot = MutableStateFlow(RoomMappingSnapshot.EMPTY)
+
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+
+    // Last-used timestamps not yet written, by conversation ID
+    private val pendingLastUsed = ConcurrentHashMap<String, Long>()
+    private var flushJob: Job? = null
+
+    /**
+     * Current mappings. Empty until the first lookup or write loads them; use
+     * [loadedSnapshot] to wait for that.
+     */
+    val snapshot: StateFlow<RoomMappingSnapshot> = _snapshot.asStateFlow()
+
     companion object {
+        private const val TAG = "RoomMappingRepository"
+
+        // Granularity of stored last-used timestamps
+        private const val LAST_USED_RESOLUTION_MS = 60 * 1000L
+
+        // Longest a last-used timestamp waits in memory before being written
+        private const val FLUSH_INTERVAL_MS = 30 * 1000L
+
         @Volatile
         private var INSTANCE: RoomMappingRepository? = null
 
@@ -29,30 +85,113 @@ class RoomMappingRepository(context: Context) {
         }
     }
 
+    /**
+     * The snapshot, loading it from the table first if this is the first use.
+     */
+    suspend fun loadedSnapshot(): RoomMappingSnapshot {
+        if (!loaded) {
+            writeLock.withLock {
+                if (!loaded) {
+                    val mappings = dao.getAllMappings().map { it.toMapped() }
+                    _snapshot.value = RoomMappingSnapshot.of(mappings)
+                    loaded = true
+                }
+            }
+        }
+        return _snapshot.value
+    }
+
     /**
      * Get Matrix room ID for conversation.
      */
     suspend fun getRoomForConversation(conversationId: String): String? {
-        val mapping = dao.findByConversationId(conversationId)
-        if (mapping != null) {
-            dao.updateLastUsed(conversationId, System.currentTimeMillis())
+        val mapping = loadedSnapshot().byConversationId[conversationId] ?: return null
+        recordLastUsed(conversationId)
+        return mapping.roomId
+    }
+
+    /**
+     * Write buffered last-used timestamps now.
+     */
+    suspend fun flushLastUsed() {
+        if (pendingLastUsed.isEmpty()) return
+
+        val batch = HashMap(pendingLastUsed)
+        dao.updateLastUsed(batch)
+        // Keep any timestamp that was updated while writing
+        batch.forEach { (conversationId, timestamp) ->
+            pendingLastUsed.remove(conversationId, timestamp)
+        }
+    }
+
+    /**
+     * Start writing buffered last-used timestamps on the repository's own scope, for callers
+     * shutting down whose scope is about to be cancelled.
+     */
+    fun flushLastUsedOnShutdown() {
+        scope.launch {
+            try {
+                flushLastUsed()
+            } catch (e: Exception) {
+                android.util.Log.w(TAG, "Failed to write last-used timestamps", e)
+            }
+        }
+    }
+
+    private fun recordLastUsed(conversationId: String) {
+        val now = System.currentTimeMillis()
+        val timestamp = now - now % LAST_USED_RESOLUTION_MS
+        pendingLastUsed.merge(conversationId, timestamp, ::maxOf)
+        scheduleFlush()
+    }
+
+    /**
+     * Schedule a write of the buffered timestamps unless one is already scheduled.
+     *
+     * A timestamp recorded while a flush is writing may miss its batch and finds that flush
+     * still scheduled, so each flush checks for leftovers when it finishes and schedules
+     * the next one itself.
+     */
+    private fun scheduleFlush() {
+        synchronized(pendingLastUsed) {
+            if (flushJob?.isActive == true) return
+            flushJob = scope.launch {
+                delay(FLUSH_INTERVAL_MS)
+                try {
+                    flushLastUsed()
+                } catch (e: Exception) {
+                    // Left pending; the next lookup schedules another flush
+                    android.util.Log.w(TAG, "Failed to write last-used timestamps", e)
+                    return@launch
+                }
+
+                synchronized(pendingLastUsed) { flushJob = null }
+                if (pendingLastUsed.isNotEmpty()) scheduleFlush()
+            }
         }
-        return mapping?.matrixRoomId
     }
 
     /**
      * Get conversation ID for Matrix room.
      */
     suspend fun getConversationForRoom(roomId: String): String? {
-        return dao.findByRoomId(roomId)?.conversationId
+        return loadedSnapshot().byRoomId[roomId]?.conversationId
+    }
+
+    /**
+     * Observe the set of mapped Matrix room IDs. Emits again whenever a mapping is added
+     * or removed, so callers can filter rooms in memory instead of querying per event.
+     */
+    fun observeMappedRoomIds(): Flow<Set<String>> = flow {
+        loadedSnapshot()
+        emitAll(snapshot.map { it.byRoomId.keys }.distinctUntilChanged())
     }
 
     /**
      * Get participants for a conversation.
      */
     suspend fun getParticipants(conversationId: String): List<String>? {
-        val mapping = dao.findByConversationId(conversationId) ?: return null
-        return ParticipantsSerializer.deserialize(mapping.participantsJson)
+        return loadedSnapshot().byConversationId[conversationId]?.participants
     }
 
     /**
@@ -65,39 +204,53 @@ class RoomMappingRepository(context: Context) {
         alias: String? = null,
         isGroup: Boolean = participants.size > 1
     ) {
-        val participantsJson = ParticipantsSerializer.serialize(participants)
-
-        dao.upsert(
-            RoomMappingEntity(
-                conversationId = conversationId,
-                participantsJson = participantsJson,
-                matrixRoomId = roomId,
-                matrixAlias = alias,
-                isGroup = isGroup,
-                lastUsed = System.currentTimeMillis(),
-                createdAt = System.currentTimeMillis()
-            )
+        val entity = RoomMappingEntity(
+            conversationId = conversationId,
+            participantsJson = ParticipantsSerializer.serialize(participants),
+            matrixRoomId = roomId,
+            matrixAlias = alias,
+            isGroup = isGroup,
+            lastUsed = System.currentTimeMillis(),
+            createdAt = System.currentTimeMillis()
         )
+
+        loadedSnapshot()
+        writeLock.withLock {
+            pendingLastUsed.remove(conversationId)
+            dao.upsert(entity)
+            _snapshot.value = _snapshot.value.with(entity.toMapped())
+        }
     }
 
     /**
      * Remove mapping for conversation.
      */
     suspend fun removeMapping(conversationId: String) {
-        dao.deleteByConversationId(conversationId)
+        loadedSnapshot()
+        writeLock.withLock {
+            pendingLastUsed.remove(conversationId)
+            dao.deleteByConversationId(conversationId)
+            _snapshot.value = _snapshot.value.without(conversationId)
+        }
     }
 
     /**
      * Remove all mappings (SIM swap scenario).
      */
     suspend fun clearAllMappings() {
-        dao.deleteAll()
+        writeLock.withLock {
+            pendingLastUsed.clear()
+            dao.deleteAll()
+            _snapshot.value = RoomMappingSnapshot.EMPTY
+            loaded = true
+        }
     }
 
     /**
      * Get all mappings (for export/debugging).
      */
     suspend fun getAllMappings(): List<RoomMappingEntity> {
+        flushLastUsed()
         return dao.getAllMappings()
     }
 
@@ -105,6 +258,16 @@ class RoomMappingRepository(context: Context) {
      * Get mapping count.
      */
     suspend fun getMappingCount(): Int {
-        return dao.count()
+        return loadedSnapshot().byConversationId.size
+    }
+
+    private fun RoomMappingEntity.toMapped(): MappedConversation {
+        return MappedConversation(
+            conversationId = conversationId,
+            roomId = matrixRoomId,
+            alias = matrixAlias,
+            participants = ParticipantsSerializer.deserialize(participantsJson),
+            isGroup = isGroup
+        )
     }
 }
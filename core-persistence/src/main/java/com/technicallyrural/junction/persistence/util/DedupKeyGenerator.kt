@@ -28,6 +28,14 @@ object DedupKeyGenerator {
         return sha256(composite)
     }
 
+    /**
+     * Matrix transaction ID for the message with [dedupKey]. The same message always gets
+     * the same ID, so the homeserver recognises a resend.
+     */
+    fun transactionId(dedupKey: String): String {
+        return "junction_$dedupKey"
+    }
+
     /**
      * Normalize message body for consistent hashing.
      */
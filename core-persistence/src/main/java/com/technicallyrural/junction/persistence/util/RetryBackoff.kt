@@ -0,0 +1,25 @@
+package com.technicallyrural.junction.persistence.util
+
+import kotlin.random.Random
+
+/**
+ * Jittered exponential backoff for retrying bridged message sends.
+ *
+ * The delay ceiling doubles with each failed attempt from [BASE_DELAY_MS] up to
+ * [MAX_DELAY_MS]. The delay is half the ceiling plus a random part of the other half, so
+ * messages that failed together (e.g. while the homeserver was down) don't all retry at once.
+ */
+object RetryBackoff {
+
+    const val BASE_DELAY_MS = 30 * 1000L
+    const val MAX_DELAY_MS = 60 * 60 * 1000L
+
+    /**
+     * Delay before the next attempt after [retryCount] failed attempts.
+     */
+    fun delayMs(retryCount: Int, random: Random = Random.Default): Long {
+        val doublings = (retryCount - 1).coerceIn(0, 16)
+        val ceiling = (BASE_DELAY_MS shl doublings).coerceAtMost(MAX_DELAY_MS)
+        return ceiling / 2 + random.nextLong(ceiling / 2 + 1)
+    }
+}
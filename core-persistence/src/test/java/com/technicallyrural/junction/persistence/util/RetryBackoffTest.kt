@@ -0,0 +1,70 @@
+package com.technicallyrural.junction.persistence.util
+
+import com.technicallyrural.junction.persistence.util.RetryBackoff.BASE_DELAY_MS
+import com.technicallyrural.junction.persistence.util.RetryBackoff.MAX_DELAY_MS
+import org.junit.Assert.*
+import org.junit.Test
+import kotlin.random.Random
+
+/**
+ * Unit tests for [RetryBackoff].
+ */
+class RetryBackoffTest {
+
+    /** Random whose every value is 0, so the delay is the bottom of its range */
+    private val lowest = object : Random() {
+        override fun nextBits(bitCount: Int) = 0
+    }
+
+    @Test
+    fun `ceiling doubles with each attempt`() {
+        val delays = (1..4).map { RetryBackoff.delayMs(it, lowest) }
+
+        assertEquals(
+            listOf(BASE_DELAY_MS / 2, BASE_DELAY_MS, 2 * BASE_DELAY_MS, 4 * BASE_DELAY_MS),
+            delays
+        )
+    }
+
+    @Test
+    fun `first attempt and below use the base delay`() {
+        assertEquals(BASE_DELAY_MS / 2, RetryBackoff.delayMs(0, lowest))
+        assertEquals(BASE_DELAY_MS / 2, RetryBackoff.delayMs(-1, lowest))
+    }
+
+    @Test
+    fun `ceiling stops at the maximum`() {
+        assertEquals(MAX_DELAY_MS / 2, RetryBackoff.delayMs(30, lowest))
+        assertEquals(MAX_DELAY_MS / 2, RetryBackoff.delayMs(Int.MAX_VALUE, lowest))
+    }
+
+    @Test
+    fun `delay stays between half the ceiling and the ceiling`() {
+        val random = Random(SEED)
+        for (retryCount in 1..20) {
+            val ceiling = (BASE_DELAY_MS shl (retryCount - 1).coerceAtMost(16))
+                .coerceAtMost(MAX_DELAY_MS)
+            repeat(SAMPLES) {
+                val delay = RetryBackoff.delayMs(retryCount, random)
+                assertTrue("$delay below range for attempt $retryCount", delay >= ceiling / 2)
+                assertTrue("$delay above range for attempt $retryCount", delay <= ceiling)
+            }
+        }
+    }
+
+    @Test
+    fun `jitter spreads over the whole range`() {
+        val random = Random(SEED)
+        val delays = List(SAMPLES) { RetryBackoff.delayMs(1, random) }
+
+        val half = BASE_DELAY_MS / 2
+        assertTrue("Lowest delay should be near the bottom", delays.min() < half + half / 10)
+        assertTrue("Highest delay should be near the top", delays.max() > BASE_DELAY_MS - half / 10)
+        assertTrue("Delays should differ", delays.toSet().size > SAMPLES / 2)
+    }
+
+    companion object {
+        private const val SEED = 42
+        private const val SAMPLES = 1000
+    }
+}
@@ -77,9 +77,21 @@ interface MessageStore {
 
     /**
      * Search messages by content.
+     * Emits the first page of matches, most recent first.
      */
     fun searchMessages(query: String): Flow<List<Message>>
 
+    /**
+     * Search messages by content and sender name, most recent first.
+     * Emits one page of at most [pageSize] results with highlighted snippets.
+     * Pass the previous page's [MessageSearchPage.nextPageKey] as [after] to get the next page.
+     */
+    fun searchMessages(
+        query: String,
+        pageSize: Int,
+        after: MessageSearchKey? = null
+    ): Flow<MessageSearchPage>
+
     // ========================================================================
     // Sync
     // ========================================================================
@@ -152,6 +164,31 @@ enum class MessageType {
     MMS
 }
 
+/**
+ * A message matching a search.
+ */
+data class MessageSearchResult(
+    val message: Message,
+    val snippet: String,              // Excerpt of the matching text
+    val highlights: List<IntRange>    // Ranges of the matched terms within snippet
+)
+
+/**
+ * Position of the last result of a search page, used to fetch the page after it.
+ */
+data class MessageSearchKey(
+    val timestamp: Long,
+    val partId: Long
+)
+
+/**
+ * One page of search results.
+ */
+data class MessageSearchPage(
+    val results: List<MessageSearchResult>,
+    val nextPageKey: MessageSearchKey?    // Null when this is the last page
+)
+
 /**
  * Information about an MMS part (attachment).
  */
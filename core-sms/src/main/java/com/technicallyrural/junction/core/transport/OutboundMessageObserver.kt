@@ -5,35 +5,31 @@ import android.net.Uri
 /**
  * Observer interface for outbound message send status callbacks.
  *
- * AOSP's SendStatusReceiver calls this observer after processing
- * MESSAGE_SENT_ACTION and MESSAGE_DELIVERED_ACTION broadcasts.
+ * AOSP calls this observer once a message sent from the phone has been
+ * processed (ProcessSentMessageAction), and after processing
+ * MESSAGE_DELIVERED_ACTION broadcasts (SendStatusReceiver).
  *
  * This enables app-layer bridging (e.g., to Matrix) without modifying
  * AOSP's core send/receive flow.
  *
  * Architecture:
  * - Defined in core-sms (interface layer)
- * - Called by sms-upstream SendStatusReceiver (minimal AOSP patch)
+ * - Called by sms-upstream ProcessSentMessageAction and SendStatusReceiver (minimal AOSP patch)
  * - Implemented by app module (Matrix bridging logic)
  * - Registered via CoreSmsRegistry
  */
 interface OutboundMessageObserver {
 
     /**
-     * Called when an SMS message send completes (success or failure).
+     * Called once when a message sent from the phone has been sent successfully.
      *
-     * This is invoked AFTER AOSP has processed the send result and
-     * updated the telephony database.
+     * This is invoked AFTER AOSP has updated the telephony database, with
+     * the message as AOSP already has it, so observers don't need to read
+     * it back from the telephony provider.
      *
-     * @param messageUri URI of the sent message (content://sms/<id>)
-     * @param resultCode Result from SmsManager (Activity.RESULT_OK or error)
-     * @param isSms true for SMS, false for MMS
+     * @param message The sent message
      */
-    fun onMessageSent(
-        messageUri: Uri,
-        resultCode: Int,
-        isSms: Boolean
-    )
+    fun onMessageSent(message: SentMessage)
 
     /**
      * Called when a delivery report is received for a sent message.
@@ -48,3 +44,41 @@ interface OutboundMessageObserver {
         status: Int
     )
 }
+
+/**
+ * A message sent from the phone.
+ *
+ * @param messageUri Telephony row of the message (content://sms/<id> or content://mms/<id>)
+ * @param threadId Telephony thread ID of the conversation
+ * @param recipients Recipient addresses
+ * @param selfNumber Phone number of the SIM it was sent from, if known
+ * @param body Message text; empty for MMS without text
+ * @param timestamp Time the message was sent
+ * @param isSms true for SMS, false for MMS
+ * @param attachments MMS attachments; empty for SMS
+ */
+data class SentMessage(
+    val messageUri: Uri?,
+    val threadId: Long,
+    val recipients: List<String>,
+    val selfNumber: String?,
+    val body: String,
+    val timestamp: Long,
+    val isSms: Boolean,
+    val attachments: List<SentAttachment> = emptyList()
+)
+
+/**
+ * An attachment of a sent MMS.
+ *
+ * @param contentUri URI of the attachment data
+ * @param contentType MIME type
+ * @param filename File name to show for the attachment
+ * @param size Size in bytes; 0 if unknown
+ */
+data class SentAttachment(
+    val contentUri: Uri,
+    val contentType: String,
+    val filename: String,
+    val size: Long
+)
@@ -58,6 +58,24 @@ interface SmsTransport {
         subscriptionId: Int = DEFAULT_SUBSCRIPTION
     ): SendResult
 
+    /**
+     * Split a message into the parts it would be sent as, for [sendMultipartSms].
+     *
+     * @param message The text message content
+     * @param subscriptionId The SIM subscription ID, whose carrier sets the part size
+     * @return The message parts, in order; a single part if the message fits in one SMS
+     */
+    fun divideMessage(
+        message: String,
+        subscriptionId: Int = DEFAULT_SUBSCRIPTION
+    ): List<String>
+
+    /**
+     * Check if messages to several recipients should be sent as one group MMS,
+     * rather than as separate SMS to each recipient.
+     */
+    fun isGroupMmsEnabled(subscriptionId: Int = DEFAULT_SUBSCRIPTION): Boolean
+
     /**
      * Get available subscription IDs (SIM cards).
      */
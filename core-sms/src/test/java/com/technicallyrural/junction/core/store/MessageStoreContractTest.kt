@@ -306,6 +306,43 @@ class MessageStoreContractTest {
         }
     }
 
+    @Test
+    fun `paged searchMessages returns key for the next page`() = runTest {
+        // Arrange
+        val message = Message(1L, 1L, "+1234567890", "Hello world", 1000L,
+            true, MessageStatus.RECEIVED, MessageType.SMS, -1)
+        val key = MessageSearchKey(timestamp = 1000L, partId = 7L)
+        val page = MessageSearchPage(
+            listOf(MessageSearchResult(message, "Hello world", listOf(0..4))),
+            nextPageKey = key
+        )
+        every { store.searchMessages("hello", 1, null) } returns flowOf(page)
+
+        // Act & Assert
+        store.searchMessages("hello", 1).test {
+            val result = awaitItem()
+            assertEquals("Should emit one result", 1, result.results.size)
+            assertEquals("Highlight should cover the match", "Hello",
+                result.results[0].snippet.substring(result.results[0].highlights[0]))
+            assertEquals("Should return key for the next page", key, result.nextPageKey)
+            awaitComplete()
+        }
+    }
+
+    @Test
+    fun `last search page has no next page key`() = runTest {
+        // Arrange
+        val after = MessageSearchKey(timestamp = 1000L, partId = 7L)
+        every { store.searchMessages("hello", 20, after) } returns
+            flowOf(MessageSearchPage(emptyList(), nextPageKey = null))
+
+        // Act & Assert
+        store.searchMessages("hello", 20, after).test {
+            assertNull("Last page should have no next page key", awaitItem().nextPageKey)
+            awaitComplete()
+        }
+    }
+
     // ========================================================================
     // Sync
     // ========================================================================
@@ -122,6 +122,32 @@ class SmsTransportContractTest {
         assertNotNull("sendMultipartSms should return a result for empty parts", result)
     }
 
+    @Test
+    fun `divideMessage returns the parts in order`() {
+        // Arrange
+        val message = "a".repeat(200)
+        val parts = listOf("a".repeat(153), "a".repeat(47))
+        every { transport.divideMessage(message, any()) } returns parts
+
+        // Act
+        val result = transport.divideMessage(message)
+
+        // Assert
+        assertEquals("Parts should join back into the message", message, result.joinToString(""))
+    }
+
+    @Test
+    fun `divideMessage returns one part for a short message`() {
+        // Arrange
+        every { transport.divideMessage("Hi", any()) } returns listOf("Hi")
+
+        // Act
+        val result = transport.divideMessage("Hi")
+
+        // Assert
+        assertEquals("Short message should be a single part", listOf("Hi"), result)
+    }
+
     // ========================================================================
     // MMS Sending
     // ========================================================================
@@ -279,6 +305,18 @@ class SmsTransportContractTest {
         assertFalse("canSendMms should return false when incapable", result)
     }
 
+    @Test
+    fun `isGroupMmsEnabled returns boolean`() {
+        // Arrange
+        every { transport.isGroupMmsEnabled(any()) } returns true
+
+        // Act
+        val result = transport.isGroupMmsEnabled()
+
+        // Assert
+        assertTrue("isGroupMmsEnabled should return true when enabled", result)
+    }
+
     // ========================================================================
     // SendResult Sealed Class Contract
     // ========================================================================
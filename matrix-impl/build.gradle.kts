@@ -64,6 +64,10 @@ dependencies {
     // ========================================================================
     implementation(libs.trixnity.client)
     implementation(libs.trixnity.crypto.driver.vodozemac)
+    // Persistent store for sync token, room state and crypto keys
+    implementation(libs.trixnity.client.repository.room)
+    // File-backed media store (see MatrixMediaCache)
+    implementation(libs.trixnity.client.media.okio)
 
     // Ktor HTTP client engine (required by Trixnity for network requests)
     implementation(libs.ktor.client.okhttp)
@@ -40,8 +40,8 @@ object MatrixBridgeInitializer {
         homeserverDomain: String,
         enableServiceGrouping: Boolean = true
     ): Boolean {
-        // Create client manager
-        val manager = TrixnityClientManager(context)
+        // Shared client manager, so only one client uses the Trixnity store
+        val manager = TrixnityClientManagerSingleton.getInstance(context)
         val success = manager.initializeFromStore(
             serverUrl = serverUrl,
             userId = userId,
@@ -68,8 +68,8 @@ object MatrixBridgeInitializer {
             roomMapper = mapper
         )
 
-        // Create presence service (stub for now)
-        val presence = StubPresenceService()
+        // Create presence service
+        val presence = TrixnityPresenceService(context, matrixBridge, manager.syncScheduler)
 
         // Register with MatrixRegistry
         MatrixRegistry.initialize(
@@ -101,7 +101,7 @@ object MatrixBridgeInitializer {
         homeserverDomain: String,
         enableServiceGrouping: Boolean = true
     ): TrixnityClientManager.LoginResult {
-        val manager = TrixnityClientManager(context)
+        val manager = TrixnityClientManagerSingleton.getInstance(context)
         val result = manager.login(serverUrl, username, password)
 
         if (result is TrixnityClientManager.LoginResult.Success) {
@@ -119,7 +119,7 @@ object MatrixBridgeInitializer {
                 roomMapper = mapper
             )
 
-            val presence = StubPresenceService()
+            val presence = TrixnityPresenceService(context, matrixBridge, manager.syncScheduler)
 
             MatrixRegistry.initialize(
                 matrixBridge = matrixBridge,
@@ -140,6 +140,7 @@ object MatrixBridgeInitializer {
      * Shutdown and clear all Matrix components.
      */
     suspend fun shutdown() {
+        presenceService?.stopMonitoring()
         clientManager?.stopSync()
         clientManager = null
 
@@ -155,44 +156,3 @@ object MatrixBridgeInitializer {
      */
     fun getClientManager(): TrixnityClientManager? = clientManager
 }
-
-/**
- * Stub implementation of MatrixPresenceService.
- * TODO: Implement real presence tracking.
- */
-private class StubPresenceService : MatrixPresenceService {
-
-    private val _deviceStatus = kotlinx.coroutines.flow.MutableStateFlow(
-        com.technicallyrural.junction.matrix.DeviceStatus(
-            dataConnected = false,
-            connectionType = com.technicallyrural.junction.matrix.ConnectionType.NONE,
-            cellSignal = 0,
-            wifiConnected = false,
-            lastUpdate = 0L
-        )
-    )
-
-    override val deviceStatus: kotlinx.coroutines.flow.Flow<com.technicallyrural.junction.matrix.DeviceStatus>
-        get() = _deviceStatus
-
-    override suspend fun startMonitoring() {
-        // Stub - real implementation would register connectivity listeners
-    }
-
-    override suspend fun stopMonitoring() {
-        // Stub
-    }
-
-    override suspend fun sendImmediateUpdate() {
-        // Stub - use MatrixBridge.updatePresence() for custom state events
-    }
-
-    override suspend fun getOrCreateControlRoom(): String? {
-        // Stub - returns null for now
-        return null
-    }
-
-    override fun isMonitoring(): Boolean {
-        return false
-    }
-}
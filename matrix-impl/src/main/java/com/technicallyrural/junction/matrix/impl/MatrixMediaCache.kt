@@ -0,0 +1,51 @@
+package com.technicallyrural.junction.matrix.impl
+
+import android.content.Context
+import android.util.Log
+import java.io.File
+
+/**
+ * On-disk location and size bound for Trixnity's media store.
+ *
+ * Trixnity streams media to and from files under [directory] (see the okio media store in
+ * [TrixnityClientManager]), so media never has to fit on the heap. Trixnity doesn't bound
+ * that directory, so [trim] evicts least recently written files until it fits in [maxBytes].
+ * Evicted media is downloaded again if it is needed.
+ *
+ * @param maxBytes Size the cache is trimmed to
+ */
+class MatrixMediaCache(
+    context: Context,
+    private val maxBytes: Long = DEFAULT_MAX_BYTES
+) {
+
+    companion object {
+        private const val TAG = "MatrixMediaCache"
+        private const val DIRECTORY_NAME = "matrix_media"
+
+        const val DEFAULT_MAX_BYTES = 100L * 1024 * 1024
+    }
+
+    val directory: File = File(context.cacheDir, DIRECTORY_NAME).apply { mkdirs() }
+
+    /**
+     * Evict the oldest files until the cache is within [maxBytes].
+     */
+    @Synchronized
+    fun trim() {
+        val files = directory.walkBottomUp().filter { it.isFile }.toList()
+        var total = files.sumOf { it.length() }
+        if (total <= maxBytes) return
+
+        var evicted = 0
+        for (file in files.sortedBy { it.lastModified() }) {
+            if (total <= maxBytes) break
+            val size = file.length()
+            if (file.delete()) {
+                total -= size
+                evicted++
+            }
+        }
+        Log.d(TAG, "Evicted $evicted media file(s), cache now ${total / 1024} KB")
+    }
+}
@@ -177,16 +177,15 @@ class SimpleRoomMapper(
      */
     private suspend fun findExistingServiceRoomForShortCode(normalizedNumber: String): String? {
         try {
-            val allMappings = roomRepo.getAllMappings()
+            val allMappings = roomRepo.loadedSnapshot().byConversationId.values
 
             // Find service rooms (conversationId = "service:$key")
             for (mapping in allMappings) {
                 if (mapping.conversationId.startsWith("service:")) {
-                    val participants = roomRepo.getParticipants(mapping.conversationId)
-                    if (participants?.contains(normalizedNumber) == true) {
+                    if (normalizedNumber in mapping.participants) {
                         Log.d(TAG, "Found existing service room for $normalizedNumber: " +
-                                "${mapping.conversationId} → ${mapping.matrixRoomId}")
-                        return mapping.matrixRoomId
+                                "${mapping.conversationId} → ${mapping.roomId}")
+                        return mapping.roomId
                     }
                 }
             }
@@ -0,0 +1,314 @@
+package com.technicallyrural.junction.matrix.impl
+
+import android.content.BroadcastReceiver
+import android.content.Context
+import android.content.Intent
+import android.content.IntentFilter
+import android.net.ConnectivityManager
+import android.net.NetworkCapabilities
+import android.os.PowerManager
+import android.os.SystemClock
+import android.util.Log
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.currentCoroutineContext
+import kotlinx.coroutines.channels.BufferOverflow
+import kotlinx.coroutines.flow.MutableSharedFlow
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.isActive
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withTimeoutOrNull
+
+/**
+ * Drives Matrix sync as a series of long-poll requests, choosing the poll timeout and the gap
+ * between polls from recent bridge traffic, screen and Doze state, and network type.
+ *
+ * - [SyncProfile.ACTIVE] (screen on) and [SyncProfile.BURST] (bridged traffic in the last
+ *   [BURST_MS]) poll back to back, so messages arrive as soon as the server has them.
+ * - [SyncProfile.IDLE] still long-polls, so anything arriving during a poll is delivered at
+ *   once, but waits between polls, doubling the gap after each quiet poll up to
+ *   [IDLE_MAX_GAP_MS].
+ * - [SyncProfile.DOZE] waits for Doze to end (the network is off anyway), with a quick sync
+ *   every [DOZE_GAP_MS] in case a maintenance window is open.
+ *
+ * Any bridged activity, screen change or Doze change cuts the current gap short. Other
+ * writers can batch their requests into the next poll with [awaitSyncWindow], so the radio
+ * only wakes once for both.
+ *
+ * @param sync Runs one sync request with the given long-poll timeout; returns false on error
+ */
+class SyncScheduler(
+    private val context: Context,
+    private val sync: suspend (timeoutMs: Long) -> Boolean
+) {
+
+    enum class SyncProfile { ACTIVE, BURST, IDLE, DOZE }
+
+    /**
+     * @param profile Profile the scheduler is currently in
+     * @param syncsLastHour Sync requests started in the last hour (radio wakeups)
+     * @param medianLatencyMs Median time from a bridged message's origin timestamp to its
+     *   arrival, over the last [LATENCY_SAMPLES] messages; null if none yet
+     * @param firstSyncMs Time from [start] to the first successful sync; null until then
+     * @param firstMessageMs Time from [start] to the first bridged message; null until then.
+     *   With [firstSyncMs], this is what a restart is measured by: a warm restart from a stored sync
+     *   token should reach both far sooner than a full initial sync.
+     */
+    data class SyncMetrics(
+        val profile: SyncProfile,
+        val syncsLastHour: Int,
+        val medianLatencyMs: Long?,
+        val firstSyncMs: Long? = null,
+        val firstMessageMs: Long? = null
+    )
+
+    internal data class SyncPlan(
+        val profile: SyncProfile,
+        val gapMs: Long,
+        val timeoutMs: Long
+    )
+
+    companion object {
+        private const val TAG = "SyncScheduler"
+
+        /** Back-to-back polls after bridged traffic */
+        private const val BURST_MS = 2 * 60 * 1000L
+
+        /** Long-poll timeout on unmetered networks (Trixnity's default sync timeout) */
+        private const val POLL_TIMEOUT_UNMETERED_MS = 30 * 1000L
+
+        /**
+         * Long-poll timeout on metered (cellular) networks. Each request keeps the radio up
+         * for its tail time, so polls are made as long as common 60s proxy timeouts allow.
+         */
+        private const val POLL_TIMEOUT_METERED_MS = 55 * 1000L
+
+        private const val IDLE_MIN_GAP_MS = 30 * 1000L
+        private const val IDLE_MAX_GAP_MS = 10 * 60 * 1000L
+
+        private const val DOZE_GAP_MS = 15 * 60 * 1000L
+
+        private const val ERROR_MIN_BACKOFF_MS = 5 * 1000L
+        private const val ERROR_MAX_BACKOFF_MS = 5 * 60 * 1000L
+
+        private const val HOUR_MS = 60 * 60 * 1000L
+        private const val LATENCY_SAMPLES = 100
+
+        /**
+         * Choose the next poll. [quietPolls] is the number of polls since the last activity.
+         */
+        internal fun plan(
+            screenOn: Boolean,
+            deviceIdle: Boolean,
+            metered: Boolean,
+            sinceActivityMs: Long,
+            quietPolls: Int
+        ): SyncPlan {
+            val timeoutMs = if (metered) POLL_TIMEOUT_METERED_MS else POLL_TIMEOUT_UNMETERED_MS
+            return when {
+                deviceIdle -> SyncPlan(SyncProfile.DOZE, DOZE_GAP_MS, 0)
+                sinceActivityMs < BURST_MS -> SyncPlan(SyncProfile.BURST, 0, timeoutMs)
+                screenOn -> SyncPlan(SyncProfile.ACTIVE, 0, timeoutMs)
+                else -> {
+                    val doublings = quietPolls.coerceIn(0, 16)
+                    val gapMs = (IDLE_MIN_GAP_MS shl doublings).coerceAtMost(IDLE_MAX_GAP_MS)
+                    SyncPlan(SyncProfile.IDLE, gapMs, timeoutMs)
+                }
+            }
+        }
+    }
+
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+    private var loopJob: Job? = null
+    private var receiver: BroadcastReceiver? = null
+
+    private val powerManager = context.getSystemService(PowerManager::class.java)
+    private val connectivityManager = context.getSystemService(ConnectivityManager::class.java)
+
+    // Wakes the loop out of a gap early
+    private val wakeups = MutableSharedFlow<Unit>(
+        extraBufferCapacity = 1,
+        onBufferOverflow = BufferOverflow.DROP_OLDEST
+    )
+
+    private val _inSyncWindow = MutableStateFlow(false)
+
+    @Volatile
+    private var lastActivity = 0L
+    @Volatile
+    private var quietPolls = 0
+
+    @Volatile
+    private var startedAt = 0L
+    @Volatile
+    private var firstSyncMs: Long? = null
+    @Volatile
+    private var firstMessageMs: Long? = null
+
+    private val syncTimes = ArrayDeque<Long>()
+    private val latencies = ArrayDeque<Long>()
+
+    private val _metrics = MutableStateFlow(SyncMetrics(SyncProfile.ACTIVE, 0, null))
+    val metrics: StateFlow<SyncMetrics> = _metrics.asStateFlow()
+
+    @Synchronized
+    fun start() {
+        if (loopJob?.isActive == true) return
+
+        startedAt = SystemClock.elapsedRealtime()
+        firstSyncMs = null
+        firstMessageMs = null
+
+        registerReceiver()
+        loopJob = scope.launch { runLoop() }
+    }
+
+    @Synchronized
+    fun stop() {
+        loopJob?.cancel()
+        loopJob = null
+        unregisterReceiver()
+    }
+
+    /**
+     * Note bridged traffic: switches to [SyncProfile.BURST] and ends any gap now.
+     */
+    fun onActivity() {
+        lastActivity = SystemClock.elapsedRealtime()
+        quietPolls = 0
+        wakeups.tryEmit(Unit)
+    }
+
+    /**
+     * Record how long a bridged message took from its origin timestamp to arriving here.
+     */
+    fun recordDeliveryLatency(latencyMs: Long) {
+        if (firstMessageMs == null) {
+            firstMessageMs = SystemClock.elapsedRealtime() - startedAt
+            Log.d(TAG, "First bridged message $firstMessageMs ms after sync start")
+        }
+        synchronized(latencies) {
+            latencies.addLast(latencyMs.coerceAtLeast(0))
+            while (latencies.size > LATENCY_SAMPLES) latencies.removeFirst()
+        }
+        publishMetrics(_metrics.value.profile)
+    }
+
+    /**
+     * Suspend until a sync request is in flight (so the radio is already up), or at most
+     * [maxWaitMs]. Returns true if a sync window opened in time.
+     */
+    suspend fun awaitSyncWindow(maxWaitMs: Long): Boolean {
+        return withTimeoutOrNull(maxWaitMs) { _inSyncWindow.first { it } } ?: false
+    }
+
+    private suspend fun runLoop() {
+        var errorBackoffMs = ERROR_MIN_BACKOFF_MS
+
+        while (currentCoroutineContext().isActive) {
+            val plan = plan(
+                screenOn = powerManager.isInteractive,
+                deviceIdle = powerManager.isDeviceIdleMode,
+                metered = isMetered(),
+                sinceActivityMs = SystemClock.elapsedRealtime() - lastActivity,
+                quietPolls = quietPolls
+            )
+            if (plan.profile != _metrics.value.profile) {
+                Log.d(TAG, "Sync profile ${_metrics.value.profile} -> ${plan.profile}")
+            }
+            publishMetrics(plan.profile)
+
+            if (plan.gapMs > 0) {
+                // Activity, screen or Doze changes end the gap early
+                withTimeoutOrNull(plan.gapMs) { wakeups.first() }
+            }
+
+            val activityBefore = lastActivity
+            val ok = try {
+                recordSync()
+                _inSyncWindow.value = true
+                sync(plan.timeoutMs)
+            } catch (e: CancellationException) {
+                throw e
+            } catch (e: Exception) {
+                Log.e(TAG, "Sync failed", e)
+                false
+            } finally {
+                _inSyncWindow.value = false
+            }
+
+            if (ok) {
+                if (firstSyncMs == null) {
+                    firstSyncMs = SystemClock.elapsedRealtime() - startedAt
+                    Log.d(TAG, "First sync completed $firstSyncMs ms after sync start")
+                }
+                errorBackoffMs = ERROR_MIN_BACKOFF_MS
+                if (lastActivity == activityBefore) quietPolls++
+            } else {
+                Log.w(TAG, "Sync error, retrying in ${errorBackoffMs / 1000}s")
+                withTimeoutOrNull(errorBackoffMs) { wakeups.first() }
+                errorBackoffMs = (errorBackoffMs * 2).coerceAtMost(ERROR_MAX_BACKOFF_MS)
+            }
+        }
+    }
+
+    private fun isMetered(): Boolean {
+        val capabilities = connectivityManager.getNetworkCapabilities(
+            connectivityManager.activeNetwork
+        ) ?: return true
+        return !capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED)
+    }
+
+    private fun recordSync() {
+        val now = SystemClock.elapsedRealtime()
+        synchronized(syncTimes) {
+            syncTimes.addLast(now)
+            while (syncTimes.isNotEmpty() && now - syncTimes.first() > HOUR_MS) {
+                syncTimes.removeFirst()
+            }
+        }
+    }
+
+    private fun publishMetrics(profile: SyncProfile) {
+        val syncsLastHour = synchronized(syncTimes) { syncTimes.size }
+        val median = synchronized(latencies) {
+            if (latencies.isEmpty()) null else latencies.sorted()[latencies.size / 2]
+        }
+        _metrics.value = SyncMetrics(profile, syncsLastHour, median, firstSyncMs, firstMessageMs)
+    }
+
+    private fun registerReceiver() {
+        val screenAndDoze = object : BroadcastReceiver() {
+            override fun onReceive(context: Context, intent: Intent) {
+                Log.d(TAG, "Power state changed: ${intent.action}")
+                wakeups.tryEmit(Unit)
+            }
+        }
+
+        val filter = IntentFilter().apply {
+            addAction(Intent.ACTION_SCREEN_ON)
+            addAction(Intent.ACTION_SCREEN_OFF)
+            addAction(PowerManager.ACTION_DEVICE_IDLE_MODE_CHANGED)
+        }
+
+        context.registerReceiver(screenAndDoze, filter)
+        receiver = screenAndDoze
+    }
+
+    private fun unregisterReceiver() {
+        receiver?.let {
+            try {
+                context.unregisterReceiver(it)
+            } catch (e: Exception) {
+                Log.w(TAG, "Error unregistering power state receiver", e)
+            }
+        }
+        receiver = null
+    }
+}
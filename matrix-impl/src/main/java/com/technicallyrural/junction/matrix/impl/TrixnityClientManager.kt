@@ -1,28 +1,35 @@
 package com.technicallyrural.junction.matrix.impl
 
 import android.content.Context
+import android.database.sqlite.SQLiteDatabase
+import android.os.SystemClock
+import android.util.Log
+import androidx.room.Room
 import io.ktor.http.*
-import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
-import kotlinx.coroutines.SupervisorJob
 import kotlinx.coroutines.flow.Flow
 import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.asStateFlow
-import kotlinx.coroutines.launch
+import kotlin.time.Duration.Companion.milliseconds
 import de.connect2x.trixnity.client.MatrixClient
+import de.connect2x.trixnity.client.MatrixClientConfiguration
 import de.connect2x.trixnity.client.create
 import de.connect2x.trixnity.client.CryptoDriverModule
 import de.connect2x.trixnity.client.MediaStoreModule
 import de.connect2x.trixnity.client.RepositoriesModule
-import de.connect2x.trixnity.client.media.inMemory
-import de.connect2x.trixnity.client.store.repository.inMemory
+import de.connect2x.trixnity.client.media.okio.okio
+import de.connect2x.trixnity.client.store.repository.room.TrixnityRoomDatabase
+import de.connect2x.trixnity.client.store.repository.room.room
 import de.connect2x.trixnity.clientserverapi.client.MatrixClientAuthProviderData
 import de.connect2x.trixnity.clientserverapi.client.classic
 import de.connect2x.trixnity.clientserverapi.client.classicLoginWithPassword
 import de.connect2x.trixnity.clientserverapi.model.authentication.IdentifierType
+import de.connect2x.trixnity.clientserverapi.model.users.Filters
 import de.connect2x.trixnity.crypto.driver.CryptoDriver
 import de.connect2x.trixnity.crypto.driver.vodozemac.VodozemacCryptoDriver
+import okio.Path.Companion.toOkioPath
 import org.koin.dsl.module
+import java.io.File
 
 /**
  * Real implementation of Matrix client manager using Trixnity SDK 5.x.
@@ -39,8 +46,6 @@ import org.koin.dsl.module
 class TrixnityClientManager(
     private val context: Context
 ) {
-    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
-
     private var _client: MatrixClient? = null
     val client: MatrixClient? get() = _client
 
@@ -50,23 +55,90 @@ class TrixnityClientManager(
     private val _isSyncing = MutableStateFlow(false)
     val isSyncing: Flow<Boolean> = _isSyncing.asStateFlow()
 
-    // Reusable modules - using new 5.x factory pattern
-    private val repositoriesModule = RepositoriesModule.inMemory()
-    private val mediaStoreModule = MediaStoreModule.inMemory()
+    // Reusable modules - using new 5.x factory pattern. Repositories are persisted in a
+    // Room database so restarts resume from the stored sync token.
+    private val repositoriesModule = RepositoriesModule.room(
+        Room.databaseBuilder(context, TrixnityRoomDatabase::class.java, STORE_DATABASE_NAME)
+    )
+    // Media is streamed through files in the cache directory; see MatrixMediaCache
+    val mediaCache = MatrixMediaCache(context)
+    private val mediaStoreModule = MediaStoreModule.okio(mediaCache.directory.toOkioPath())
     private val cryptoDriverModule = CryptoDriverModule {
         module { single<CryptoDriver> { VodozemacCryptoDriver } }
     }
 
+    private val clientConfiguration: MatrixClientConfiguration.() -> Unit = {
+        syncFilter = SYNC_FILTER
+        // The scheduler drives sync with syncOnce, which uses this filter
+        syncOnceFilter = SYNC_FILTER
+    }
+
     /**
-     * Initialize MatrixClient from stored credentials.
-     *
-     * In Trixnity 5.x, this uses MatrixClient.create() without authProviderData.
-     * The client will attempt to restore from stored session data.
+     * Decides when to sync; see [SyncScheduler].
+     */
+    val syncScheduler = SyncScheduler(context) { timeoutMs -> syncOnce(timeoutMs) }
+
+    companion object {
+        private const val TAG = "TrixnityClientManager"
+
+        private const val STORE_DATABASE_NAME = "trixnity_store.db"
+
+        /**
+         * Timeline events kept per room in the store. The bridge handles events as they
+         * arrive and never reads history, so older events only take up space.
+         */
+        private const val STORE_TIMELINE_EVENTS_PER_ROOM = 100
+
+        /** Trixnity's Room repository table holding timeline events, keyed by room and event */
+        private const val STORE_TIMELINE_TABLE = "TimelineEvent"
+
+        /** Timeline events per room in a sync response; older ones are fetched on demand */
+        private const val SYNC_TIMELINE_LIMIT = 20L
+
+        /**
+         * Event types the bridge needs in room timelines: messages (plain and encrypted)
+         * plus the state Trixnity needs to keep room membership and encryption current.
+         */
+        private val SYNC_TIMELINE_TYPES = setOf(
+            "m.room.message",
+            "m.room.encrypted",
+            "m.room.member",
+            "m.room.create",
+            "m.room.encryption",
+            "m.room.name",
+            "m.room.canonical_alias",
+            "m.room.power_levels",
+            "m.room.tombstone"
+        )
+
+        /**
+         * Server-side sync filter. Members are lazy loaded, timelines are limited to
+         * [SYNC_TIMELINE_TYPES], and presence, typing and receipts aren't synced at all
+         * since the bridge never uses them.
+         */
+        private val SYNC_FILTER = Filters(
+            presence = Filters.EventFilter(types = emptySet()),
+            room = Filters.RoomFilter(
+                ephemeral = Filters.RoomFilter.RoomEventFilter(types = emptySet()),
+                state = Filters.RoomFilter.StateFilter(lazyLoadMembers = true),
+                timeline = Filters.RoomFilter.RoomEventFilter(
+                    limit = SYNC_TIMELINE_LIMIT,
+                    types = SYNC_TIMELINE_TYPES,
+                    lazyLoadMembers = true
+                )
+            )
+        )
+    }
+
+    /**
+     * Initialize MatrixClient, restoring the session from the persistent store.
      *
-     * Note: The parameters are kept for interface compatibility but not used directly.
-     * Trixnity loads credentials from its internal AccountStore.
+     * A stored session keeps its sync token, room state and crypto keys, so the first sync
+     * after a restart only fetches what changed since the last one. If there is no stored
+     * session (first start, or the store belonged to another account) the client is created
+     * from the stored credentials instead, which needs a full initial sync.
      *
-     * @return true if initialization succeeded, false if no stored session exists
+     * @return true if initialization succeeded
      */
     suspend fun initializeFromStore(
         serverUrl: String,
@@ -74,35 +146,71 @@ class TrixnityClientManager(
         deviceId: String,
         accessToken: String
     ): Boolean {
-        return try {
-            // TEMPORARY WORKAROUND: Create auth data from stored credentials
-            // TODO: Replace with persistent RepositoriesModule (Room DB or file-based)
-            // Currently using inMemory() repositories which don't persist across restarts
+        // Already running for this account; a second client would share the store
+        _client?.let { existing ->
+            if (existing.userId.full == userId) return true
+        }
 
-            // Use .classic() helper to create auth provider data from stored credentials
-            val authProviderData = MatrixClientAuthProviderData.classic(
-                baseUrl = Url(serverUrl),
-                accessToken = accessToken
-            )
+        return try {
+            val startedAt = SystemClock.elapsedRealtime()
+            if (_client != null) {
+                // Switching accounts; the running client holds the store open
+                Log.d(TAG, "Switching Matrix account, clearing the previous session")
+                syncScheduler.stop()
+                closeClient()
+                context.deleteDatabase(STORE_DATABASE_NAME)
+            }
+            pruneStoreTimeline()
+            logStoreSize()
+            mediaCache.trim()
 
-            val result = MatrixClient.create(
+            // authProviderData = null restores the session from the store
+            var restored = MatrixClient.create(
                 repositoriesModule = repositoriesModule,
                 mediaStoreModule = mediaStoreModule,
                 cryptoDriverModule = cryptoDriverModule,
-                authProviderData = authProviderData, // Use stored credentials
-                coroutineContext = Dispatchers.IO
+                authProviderData = null,
+                coroutineContext = Dispatchers.IO,
+                configuration = clientConfiguration
             )
+            restored.getOrNull()?.let { stored ->
+                if (stored.userId.full != userId) {
+                    Log.d(TAG, "Stored session is for another account, clearing it")
+                    stored.closeSuspending()
+                    context.deleteDatabase(STORE_DATABASE_NAME)
+                    restored = Result.failure(IllegalStateException("Stored session mismatch"))
+                }
+            }
+
+            val result = if (restored.isSuccess) {
+                restored
+            } else {
+                Log.d(TAG, "No stored session, creating client from credentials")
+                val authProviderData = MatrixClientAuthProviderData.classic(
+                    baseUrl = Url(serverUrl),
+                    accessToken = accessToken
+                )
+                MatrixClient.create(
+                    repositoriesModule = repositoriesModule,
+                    mediaStoreModule = mediaStoreModule,
+                    cryptoDriverModule = cryptoDriverModule,
+                    authProviderData = authProviderData,
+                    coroutineContext = Dispatchers.IO,
+                    configuration = clientConfiguration
+                )
+            }
 
             result.fold(
                 onSuccess = { matrixClient ->
                     _client = matrixClient
                     _isInitialized.value = true
-                    android.util.Log.d("TrixnityClientManager", "Matrix client initialized successfully")
+                    val elapsed = SystemClock.elapsedRealtime() - startedAt
+                    val source = if (restored.isSuccess) "restored from store" else "created"
+                    Log.d(TAG, "Matrix client $source in $elapsed ms")
                     true
                 },
                 onFailure = { error ->
-                    android.util.Log.e("TrixnityClientManager", "Matrix client initialization failed", error)
-                    error.printStackTrace()
+                    Log.e(TAG, "Matrix client initialization failed", error)
                     _isInitialized.value = false
                     false
                 }
@@ -114,6 +222,86 @@ class TrixnityClientManager(
         }
     }
 
+    /**
+     * Trim each room's stored timeline to its newest [STORE_TIMELINE_EVENTS_PER_ROOM] events.
+     *
+     * Trixnity keeps every synced timeline event and has no API to prune them, so this trims
+     * its timeline table directly, newest by insertion order. It runs before the client is
+     * created, while nothing holds the store open or caches its rows. The store also holds the
+     * device's identity and olm/megolm keys, so it is trimmed rather than dropped.
+     */
+    private fun pruneStoreTimeline() {
+        val storeFile = context.getDatabasePath(STORE_DATABASE_NAME)
+        if (!storeFile.exists()) return
+
+        try {
+            SQLiteDatabase.openDatabase(storeFile.path, null, SQLiteDatabase.OPEN_READWRITE).use { db ->
+                // Trixnity's table layout isn't public API; skip pruning if it changed
+                val table = db.rawQuery(
+                    "SELECT name FROM sqlite_master WHERE type = 'table' AND name = ?",
+                    arrayOf(STORE_TIMELINE_TABLE)
+                ).use { it.moveToFirst() }
+                if (!table) {
+                    Log.w(TAG, "No $STORE_TIMELINE_TABLE table in the Matrix store, not pruning")
+                    return
+                }
+
+                val roomIds = db.rawQuery(
+                    "SELECT DISTINCT roomId FROM $STORE_TIMELINE_TABLE", null
+                ).use { cursor ->
+                    buildList { while (cursor.moveToNext()) add(cursor.getString(0)) }
+                }
+
+                var deleted = 0
+                db.beginTransaction()
+                try {
+                    for (roomId in roomIds) {
+                        deleted += db.delete(
+                            STORE_TIMELINE_TABLE,
+                            "rowid IN (SELECT rowid FROM $STORE_TIMELINE_TABLE WHERE roomId = ? " +
+                                "ORDER BY rowid DESC LIMIT -1 OFFSET $STORE_TIMELINE_EVENTS_PER_ROOM)",
+                            arrayOf(roomId)
+                        )
+                    }
+                    db.setTransactionSuccessful()
+                } finally {
+                    db.endTransaction()
+                }
+                if (deleted > 0) {
+                    Log.d(TAG, "Pruned $deleted timeline event(s) from ${roomIds.size} room(s)")
+                }
+            }
+        } catch (e: Exception) {
+            Log.w(TAG, "Failed to prune the Matrix store timeline", e)
+        }
+    }
+
+    /**
+     * Log the store's size on disk, write-ahead log included.
+     */
+    private fun logStoreSize() {
+        val storeFile = context.getDatabasePath(STORE_DATABASE_NAME)
+        val walFile = File(storeFile.path + "-wal")
+        val totalBytes = storeFile.length() + walFile.length()
+        Log.d(TAG, "Matrix store is ${totalBytes / 1024} KB")
+    }
+
+    /**
+     * Close the current client, if any, so its repositories and crypto store are released
+     * before the store is deleted or another client opens it.
+     */
+    private suspend fun closeClient() {
+        val existing = _client ?: return
+        _client = null
+        _isInitialized.value = false
+        _isSyncing.value = false
+        try {
+            existing.closeSuspending()
+        } catch (e: Exception) {
+            Log.w(TAG, "Error closing Matrix client", e)
+        }
+    }
+
     /**
      * Login with username and password.
      *
@@ -132,6 +320,11 @@ class TrixnityClientManager(
         password: String
     ): LoginResult {
         return try {
+            // A new login is a new device; don't restore the previous session's state
+            syncScheduler.stop()
+            closeClient()
+            context.deleteDatabase(STORE_DATABASE_NAME)
+
             // Step 1: Perform classic password login to get auth provider data
             val authProviderData = MatrixClientAuthProviderData.classicLoginWithPassword(
                 baseUrl = Url(serverUrl),
@@ -148,7 +341,8 @@ class TrixnityClientManager(
                 mediaStoreModule = mediaStoreModule,
                 cryptoDriverModule = cryptoDriverModule,
                 authProviderData = authProviderData,
-                coroutineContext = Dispatchers.IO
+                coroutineContext = Dispatchers.IO,
+                configuration = clientConfiguration
             ).getOrElse { error ->
                 return LoginResult.Error(error.message ?: "Client creation failed")
             }
@@ -168,31 +362,38 @@ class TrixnityClientManager(
     }
 
     /**
-     * Start the Matrix sync loop.
-     * This is a blocking call that should run in a background service.
+     * Start syncing. Requests are scheduled by [syncScheduler] rather than run back to back.
      */
     fun startSync() {
-        val matrixClient = _client ?: return
-
-        scope.launch {
-            try {
-                _isSyncing.value = true
-                matrixClient.startSync() // Blocking call - runs until stopped
-            } catch (e: Exception) {
-                e.printStackTrace()
-                _isSyncing.value = false
-            }
-        }
+        if (_client == null) return
+
+        syncScheduler.start()
+        _isSyncing.value = true
     }
 
     /**
-     * Stop the Matrix sync loop.
+     * Stop syncing.
      */
     fun stopSync() {
-        scope.launch {
-            _client?.stopSync()
-            _isSyncing.value = false
-        }
+        syncScheduler.stop()
+        _isSyncing.value = false
+    }
+
+    /**
+     * Run one sync request, long-polling for up to [timeoutMs].
+     *
+     * @return true if the sync succeeded
+     */
+    private suspend fun syncOnce(timeoutMs: Long): Boolean {
+        val matrixClient = _client ?: return false
+
+        return matrixClient.syncOnce(timeout = timeoutMs.milliseconds).fold(
+            onSuccess = { true },
+            onFailure = { error ->
+                Log.w(TAG, "Sync failed", error)
+                false
+            }
+        )
     }
 
     sealed class LoginResult {
@@ -5,10 +5,8 @@ import android.content.Context
 /**
  * Singleton wrapper for TrixnityClientManager.
  *
- * This ensures the same client manager instance (and its in-memory repositories)
- * is shared across the app (Activity and Service).
- *
- * This is a temporary workaround until we implement persistent Room-based repositories.
+ * This ensures the same client manager instance is shared across the app (Activity and
+ * Service), so only one client at a time uses the persistent Trixnity store.
  *
  * Usage:
  * ```
@@ -1,35 +1,61 @@
 package com.technicallyrural.junction.matrix.impl
 
 import android.content.Context
+import android.net.Uri
 import com.technicallyrural.junction.matrix.*
+import com.technicallyrural.junction.persistence.entity.InboundMatrixEventEntity
+import com.technicallyrural.junction.persistence.repository.InboundQueueRepository
+import com.technicallyrural.junction.persistence.repository.MediaRepository
+import com.technicallyrural.junction.persistence.repository.MessageRepository
+import com.technicallyrural.junction.persistence.repository.RoomMappingRepository
 import kotlinx.coroutines.CoroutineScope
 import de.connect2x.trixnity.client.MatrixClient
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
 import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.delay
 import kotlinx.coroutines.flow.Flow
-import kotlinx.coroutines.flow.MutableSharedFlow
 import kotlinx.coroutines.flow.MutableStateFlow
-import kotlinx.coroutines.flow.asSharedFlow
 import kotlinx.coroutines.flow.asStateFlow
 import kotlinx.coroutines.flow.filter
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.flow.flowOn
 import kotlinx.coroutines.flow.mapNotNull
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
+import kotlinx.coroutines.withTimeoutOrNull
+import de.connect2x.trixnity.client.media
 import de.connect2x.trixnity.client.room
+import de.connect2x.trixnity.client.room.message.MessageBuilder
+import de.connect2x.trixnity.client.room.message.audio
+import de.connect2x.trixnity.client.room.message.file
+import de.connect2x.trixnity.client.room.message.image
 import de.connect2x.trixnity.client.room.message.text
+import de.connect2x.trixnity.client.room.message.video
 import de.connect2x.trixnity.client.store.TimelineEvent
 import de.connect2x.trixnity.core.model.RoomAliasId
 import de.connect2x.trixnity.core.model.RoomId
 import de.connect2x.trixnity.core.model.events.StateEventContent
+import de.connect2x.trixnity.core.model.events.m.room.AudioInfo
+import de.connect2x.trixnity.core.model.events.m.room.FileInfo
+import de.connect2x.trixnity.core.model.events.m.room.ImageInfo
 import de.connect2x.trixnity.core.model.events.m.room.RoomMessageEventContent
+import de.connect2x.trixnity.core.model.events.m.room.VideoInfo
+import io.ktor.http.ContentType
 import kotlinx.serialization.SerialName
 import kotlinx.serialization.Serializable
+import java.io.FileNotFoundException
+import java.security.MessageDigest
 
 /**
  * Real implementation of MatrixBridge using Trixnity SDK.
  *
  * Handles bidirectional SMS↔Matrix message bridging:
  * - SMS → Matrix: Create/find room for phone number, send message
- * - Matrix → SMS: Subscribe to timeline events, emit for SMS sending
+ * - Matrix → SMS: Subscribe to timeline events, queue them durably for SMS sending
  */
 class TrixnityMatrixBridge(
     private val context: Context,
@@ -42,14 +68,51 @@ class TrixnityMatrixBridge(
     private val _connectionState = MutableStateFlow<ConnectionState>(ConnectionState.Disconnected)
     override val connectionState: Flow<ConnectionState> = _connectionState.asStateFlow()
 
-    private val _inboundMessages = MutableSharedFlow<MatrixInboundMessage>(
-        extraBufferCapacity = 64,
-        onBufferOverflow = kotlinx.coroutines.channels.BufferOverflow.DROP_OLDEST
-    )
+    private val inboundQueue = InboundQueueRepository.getInstance(context)
+    private val mediaRepository = MediaRepository.getInstance(context)
+    private val messageRepository = MessageRepository.getInstance(context)
+    private val roomMappings = RoomMappingRepository.getInstance(context)
+
+    // Timeline events waiting to be written to the inbound queue. When full, the timeline
+    // collector suspends until the writer catches up, rather than dropping events.
+    private val pendingInbound = Channel<InboundMatrixEventEntity>(INBOUND_BUFFER_SIZE)
+
+    // Rooms with a conversation mapping, kept current from the mapping table so timeline
+    // events from other rooms are dropped without a database lookup. Null until the first
+    // mapping snapshot arrives.
+    @Volatile
+    private var bridgedRoomIds: Set<String>? = null
 
     private var controlRoomIdCached: String? = null
 
+    companion object {
+        private const val TAG = "TrixnityMatrixBridge"
+
+        private const val INBOUND_BUFFER_SIZE = 256
+        private const val INBOUND_WRITE_RETRY_MS = 1000L
+
+        private const val MEDIA_BUFFER_SIZE = 8 * 1024
+
+        /** How long a send through Trixnity's outbox may take to get its event ID */
+        private const val OUTBOX_SEND_TIMEOUT_MS = 60_000L
+    }
+
+    // Writes pendingInbound to the inbound queue; finishes once the channel is closed and drained
+    private val inboundWriter: Job
+
     init {
+        // Write incoming messages to the durable queue
+        inboundWriter = scope.launch {
+            writeInboundMessages()
+        }
+
+        // Track which rooms are bridged
+        scope.launch {
+            roomMappings.observeMappedRoomIds().collect { roomIds ->
+                bridgedRoomIds = roomIds
+            }
+        }
+
         // Subscribe to sync state changes
         scope.launch {
             clientManager.isSyncing.collect { syncing ->
@@ -75,7 +138,8 @@ class TrixnityMatrixBridge(
         phoneNumber: String,
         messageBody: String,
         timestamp: Long,
-        isGroup: Boolean
+        isGroup: Boolean,
+        transactionId: String?
     ): MatrixSendResult {
         android.util.Log.e("TrixnityMatrixBridge", "sendToMatrix called for: $phoneNumber")
 
@@ -101,14 +165,23 @@ class TrixnityMatrixBridge(
         android.util.Log.e("TrixnityMatrixBridge", "Got room ID: $roomIdStr")
 
         return try {
-            // Send text message using Trixnity v4.22.7 API
-            // Returns transaction ID (String), not EventId
-            val transactionId = client.room.sendMessage(RoomId(roomIdStr)) {
-                text(messageBody)
+            val roomId = RoomId(roomIdStr)
+            val eventId = if (isEncrypted(client, roomId)) {
+                sendEncrypted(client, roomId, transactionId) {
+                    text(messageBody)
+                }
+            } else {
+                sendEvent(
+                    client,
+                    roomId,
+                    RoomMessageEventContent.TextBased.Text(messageBody),
+                    transactionId
+                )
             }
+            clientManager.syncScheduler.onActivity()
 
             MatrixSendResult.Success(
-                eventId = transactionId,
+                eventId = eventId,
                 roomId = roomIdStr
             )
         } catch (e: Exception) {
@@ -121,7 +194,8 @@ class TrixnityMatrixBridge(
         phoneNumber: String,
         messageBody: String?,
         attachments: List<MatrixAttachment>,
-        timestamp: Long
+        timestamp: Long,
+        transactionId: String?
     ): MatrixSendResult {
         val client = clientManager.client
             ?: return MatrixSendResult.Failure(MatrixSendError.NOT_CONNECTED)
@@ -135,48 +209,255 @@ class TrixnityMatrixBridge(
             ?: return MatrixSendResult.Failure(MatrixSendError.ROOM_CREATION_FAILED)
 
         return try {
+            val roomId = RoomId(roomIdStr)
+            val encrypted = isEncrypted(client, roomId)
+            val textBody = messageBody?.takeIf { it.isNotBlank() }
+            val partCount = attachments.size + if (textBody != null) 1 else 0
+            val eventIds = mutableListOf<String>()
+
+            // Each event gets its own transaction ID. The last uses the message's own, so its
+            // sync echo only confirms the message once every part has been sent
+            fun partTransactionId(): String? = transactionId?.let { base ->
+                if (eventIds.size == partCount - 1) base else "$base.${eventIds.size}"
+            }
+
             // Send text body first if present
-            if (!messageBody.isNullOrBlank()) {
-                client.room.sendMessage(RoomId(roomIdStr)) {
-                    text(messageBody)
+            if (textBody != null) {
+                eventIds += if (encrypted) {
+                    sendEncrypted(client, roomId, partTransactionId()) {
+                        text(textBody)
+                    }
+                } else {
+                    sendEvent(
+                        client,
+                        roomId,
+                        RoomMessageEventContent.TextBased.Text(textBody),
+                        partTransactionId()
+                    )
                 }
             }
 
             // Upload and send each attachment
             for (attachment in attachments) {
-                // Determine type from MIME type
-                when {
-                    attachment.mimeType.startsWith("image/") -> {
-                        // TODO: Implement image upload
-                        // Pattern:
-                        // 1. Read file content
-                        // 2. val cacheUri = client.media.prepareUploadMedia(content, contentType)
-                        // 3. val mxcUri = client.media.uploadMedia(cacheUri).getOrThrow()
-                        // 4. client.room.sendMessage(roomId) { image(mxcUri, ...) }
-                    }
-                    attachment.mimeType.startsWith("video/") -> {
-                        // TODO: Similar to image but with video() DSL
-                    }
-                    attachment.mimeType.startsWith("audio/") -> {
-                        // TODO: Similar with audio() DSL
-                    }
-                    else -> {
-                        // TODO: Generic file upload with file() DSL
-                    }
-                }
+                eventIds += sendAttachment(
+                    client,
+                    roomId,
+                    attachment,
+                    encrypted,
+                    partTransactionId()
+                )
+            }
+            if (attachments.isNotEmpty()) {
+                clientManager.mediaCache.trim()
             }
 
-            // Return success with placeholder transaction ID
-            // In production, should return the actual transaction IDs
-            MatrixSendResult.Success("mms_${System.currentTimeMillis()}")
+            clientManager.syncScheduler.onActivity()
+
+            // The last event's ID, matching what its sync echo confirms
+            val lastEventId = eventIds.lastOrNull()
+                ?: return MatrixSendResult.Failure(MatrixSendError.UNKNOWN)
+            MatrixSendResult.Success(eventId = lastEventId, roomId = roomIdStr)
         } catch (e: Exception) {
             e.printStackTrace()
             MatrixSendResult.Failure(MatrixSendError.SEND_FAILED)
         }
     }
 
-    override fun observeMatrixMessages(): Flow<MatrixInboundMessage> {
-        return _inboundMessages.asSharedFlow()
+    /**
+     * Send one MMS attachment as a file-based message. Content is streamed from its URI, both
+     * to hash it and to upload it, so large attachments never sit on the heap. Returns the
+     * event ID.
+     *
+     * In an unencrypted room, media with a hash that was already uploaded reuses that mxc://
+     * URI instead of uploading again, so a retried MMS doesn't upload its media twice. In an
+     * encrypted room the attachment goes through Trixnity's outbox, which uploads it encrypted
+     * with a fresh key; those uploads are neither reused nor recorded, so a recorded upload is
+     * always a plaintext one and only ever reused in unencrypted rooms.
+     */
+    private suspend fun sendAttachment(
+        client: MatrixClient,
+        roomId: RoomId,
+        attachment: MatrixAttachment,
+        encrypted: Boolean,
+        transactionId: String?
+    ): String {
+        val uri = Uri.parse(attachment.uri)
+        val body = attachment.filename ?: uri.lastPathSegment ?: "attachment"
+        val mimeType = attachment.mimeType
+        val size = attachment.size.takeIf { it > 0 }
+
+        if (encrypted) {
+            val type = ContentType.parse(mimeType)
+            return sendEncrypted(client, roomId, transactionId) {
+                when {
+                    mimeType.startsWith("image/") ->
+                        image(body = body, image = readContent(uri), type = type, size = size)
+                    mimeType.startsWith("video/") ->
+                        video(body = body, video = readContent(uri), type = type, size = size)
+                    mimeType.startsWith("audio/") ->
+                        audio(body = body, audio = readContent(uri), type = type, size = size)
+                    else -> file(
+                        body = body,
+                        file = readContent(uri),
+                        fileName = attachment.filename,
+                        type = type,
+                        size = size
+                    )
+                }
+            }
+        }
+
+        val contentHash = hashContent(uri)
+        val existing = mediaRepository.findUploadedMxcUri(contentHash)
+        val mxcUri = if (existing != null) {
+            android.util.Log.d(TAG, "Reusing uploaded media for ${attachment.uri}")
+            existing
+        } else {
+            val cacheUri = client.media.prepareUploadMedia(
+                readContent(uri),
+                ContentType.parse(mimeType)
+            )
+            client.media.uploadMedia(cacheUri).getOrThrow().also { uploaded ->
+                mediaRepository.recordUpload(
+                    localUri = attachment.uri,
+                    contentHash = contentHash,
+                    mxcUri = uploaded
+                )
+            }
+        }
+
+        val content = when {
+            mimeType.startsWith("image/") -> RoomMessageEventContent.FileBased.Image(
+                body = body,
+                info = ImageInfo(mimeType = mimeType, size = size),
+                url = mxcUri
+            )
+            mimeType.startsWith("video/") -> RoomMessageEventContent.FileBased.Video(
+                body = body,
+                info = VideoInfo(mimeType = mimeType, size = size),
+                url = mxcUri
+            )
+            mimeType.startsWith("audio/") -> RoomMessageEventContent.FileBased.Audio(
+                body = body,
+                info = AudioInfo(mimeType = mimeType, size = size),
+                url = mxcUri
+            )
+            else -> RoomMessageEventContent.FileBased.File(
+                body = body,
+                fileName = attachment.filename,
+                info = FileInfo(mimeType = mimeType, size = size),
+                url = mxcUri
+            )
+        }
+
+        return sendEvent(client, roomId, content, transactionId)
+    }
+
+    /**
+     * Send [content] to [roomId] and return its event ID. The homeserver returns the original
+     * event for a [transactionId] it has already seen from this device, so resending a message
+     * with its persisted transaction ID posts nothing new. Null sends with a fresh ID.
+     */
+    private suspend fun sendEvent(
+        client: MatrixClient,
+        roomId: RoomId,
+        content: RoomMessageEventContent,
+        transactionId: String?
+    ): String {
+        val eventId = if (transactionId != null) {
+            client.api.room.sendMessageEvent(roomId, content, transactionId).getOrThrow()
+        } else {
+            client.api.room.sendMessageEvent(roomId, content).getOrThrow()
+        }
+        return eventId.full
+    }
+
+    /**
+     * Send a message built by [builder] through Trixnity's outbox, which encrypts it, and
+     * return its event ID once the homeserver has accepted it.
+     *
+     * The outbox chooses its own transaction ID, so the bridged message sent with
+     * [transactionId] takes that ID instead: the sync echo then matches it, and a retry finds
+     * the message still in the outbox and waits for it rather than sending it twice.
+     *
+     * @throws IllegalStateException if the homeserver hasn't accepted the message within
+     *   [OUTBOX_SEND_TIMEOUT_MS]; the outbox keeps sending it, and its echo confirms it
+     */
+    private suspend fun sendEncrypted(
+        client: MatrixClient,
+        roomId: RoomId,
+        transactionId: String?,
+        builder: suspend MessageBuilder.() -> Unit
+    ): String {
+        val queued = transactionId?.takeIf { client.room.getOutbox(roomId, it).first() != null }
+        val outboxTransactionId = queued ?: client.room.sendMessage(roomId, builder = builder).also {
+            if (transactionId != null) messageRepository.replaceMatrixTxnId(transactionId, it)
+        }
+
+        val outcome = withTimeoutOrNull(OUTBOX_SEND_TIMEOUT_MS) {
+            client.room.getOutbox(roomId, outboxTransactionId)
+                .first { it == null || it.eventId != null }
+                // Trixnity drops the entry once its echo arrives, which has confirmed the message
+                ?.eventId?.full
+                ?: messageRepository.findByMatrixTxnId(outboxTransactionId)?.matrixEventId
+        }
+        return outcome
+            ?: throw IllegalStateException("No event ID for outbox message $outboxTransactionId")
+    }
+
+    private suspend fun isEncrypted(client: MatrixClient, roomId: RoomId): Boolean {
+        return client.room.getById(roomId).first()?.encrypted == true
+    }
+
+    /**
+     * SHA-256 of the content at [uri], read in [MEDIA_BUFFER_SIZE] chunks.
+     */
+    private suspend fun hashContent(uri: Uri): String = withContext(Dispatchers.IO) {
+        val digest = MessageDigest.getInstance("SHA-256")
+        val input = context.contentResolver.openInputStream(uri)
+            ?: throw FileNotFoundException("Cannot open $uri")
+        input.use {
+            val buffer = ByteArray(MEDIA_BUFFER_SIZE)
+            while (true) {
+                val read = it.read(buffer)
+                if (read < 0) break
+                digest.update(buffer, 0, read)
+            }
+        }
+        digest.digest().joinToString("") { byte -> "%02x".format(byte) }
+    }
+
+    /**
+     * Content at [uri] as a flow of chunks, for Trixnity to stream into its media store.
+     */
+    private fun readContent(uri: Uri): Flow<ByteArray> = flow {
+        val input = context.contentResolver.openInputStream(uri)
+            ?: throw FileNotFoundException("Cannot open $uri")
+        input.use {
+            val buffer = ByteArray(MEDIA_BUFFER_SIZE)
+            while (true) {
+                val read = it.read(buffer)
+                if (read < 0) break
+                emit(buffer.copyOf(read))
+            }
+        }
+    }.flowOn(Dispatchers.IO)
+
+    override suspend fun receiveMatrixMessages(maxCount: Int): List<MatrixInboundMessage> {
+        return inboundQueue.awaitBatch(maxCount).map { event ->
+            MatrixInboundMessage(
+                roomId = event.roomId,
+                eventId = event.eventId,
+                sender = event.sender,
+                body = event.body,
+                timestamp = event.timestamp,
+                messageType = MatrixMessageType.valueOf(event.messageType)
+            )
+        }
+    }
+
+    override suspend fun acknowledgeMatrixMessages(messages: List<MatrixInboundMessage>) {
+        inboundQueue.remove(messages.map { it.eventId })
     }
 
     override suspend fun updatePresence(dataConnected: Boolean, cellSignal: Int) {
@@ -285,6 +566,17 @@ class TrixnityMatrixBridge(
         return (_connectionState.value is ConnectionState.Connected)
     }
 
+    /**
+     * Stop collecting timeline events and cancel the bridge's coroutines, once the events
+     * already buffered have been written to the inbound queue. Call when the bridge is being
+     * replaced; it can't be used afterwards.
+     */
+    suspend fun close() {
+        pendingInbound.close()
+        inboundWriter.join()
+        scope.cancel()
+    }
+
     /**
      * Subscribe to incoming Matrix messages from all rooms using Trixnity API.
      *
@@ -317,30 +609,82 @@ class TrixnityMatrixBridge(
     }
 
     /**
-     * Process a single timeline event and emit if it's a relevant text message.
+     * Write buffered timeline events to the inbound queue. Everything buffered while the
+     * previous write ran goes in the next one, so a sync catch-up burst is written in a few
+     * large transactions instead of one per event.
+     */
+    private suspend fun writeInboundMessages() {
+        for (first in pendingInbound) {
+            val batch = mutableListOf(first)
+            while (batch.size < InboundQueueRepository.MAX_BATCH_SIZE) {
+                batch.add(pendingInbound.tryReceive().getOrNull() ?: break)
+            }
+
+            while (true) {
+                try {
+                    inboundQueue.enqueue(batch)
+                    break
+                } catch (e: Exception) {
+                    android.util.Log.e(TAG, "Failed to queue ${batch.size} inbound message(s)", e)
+                    delay(INBOUND_WRITE_RETRY_MS)
+                }
+            }
+        }
+    }
+
+    /**
+     * Confirm the bridged message sent with this event's transaction ID, if it is still pending.
+     * An MMS carries that ID on its last event, so it is only confirmed once fully sent.
+     */
+    private suspend fun confirmSendFromEcho(timelineEvent: TimelineEvent) {
+        val transactionId = timelineEvent.event.unsigned?.transactionId ?: return
+        val confirmed = messageRepository.confirmMatrixSendByTxnId(
+            txnId = transactionId,
+            matrixEventId = timelineEvent.event.id.full,
+            matrixRoomId = timelineEvent.event.roomId.full
+        )
+        if (confirmed) {
+            android.util.Log.d(TAG, "Confirmed send from sync echo: ${timelineEvent.event.id.full}")
+        }
+    }
+
+    /**
+     * Process a single timeline event and queue it if it's a relevant text message.
      */
     private suspend fun processTimelineEvent(timelineEvent: TimelineEvent) {
         val client = clientManager.client ?: return
 
-        // Skip messages from ourselves
-        if (timelineEvent.event.sender == client.userId) return
+        // Only process mapped rooms. Events that arrive before the first snapshot is collected
+        // read the mappings themselves rather than being dropped.
+        val roomIds = bridgedRoomIds ?: roomMappings.loadedSnapshot().byRoomId.keys
+        if (timelineEvent.event.roomId.full !in roomIds) return
 
-        // Get phone number for this room (only process mapped rooms)
-        val phoneNumber = roomMapper.getContactForRoom(timelineEvent.event.roomId.full) ?: return
+        // Our own messages are not bridged, but their echo confirms a send whose response
+        // was lost
+        if (timelineEvent.event.sender == client.userId) {
+            confirmSendFromEcho(timelineEvent)
+            return
+        }
 
         // Extract content from Result
         val content = timelineEvent.content?.getOrNull() ?: return
 
         // Filter for text messages
         if (content is RoomMessageEventContent.TextBased.Text) {
-            _inboundMessages.emit(
-                MatrixInboundMessage(
-                    roomId = timelineEvent.event.roomId.full,
+            clientManager.syncScheduler.onActivity()
+            clientManager.syncScheduler.recordDeliveryLatency(
+                System.currentTimeMillis() - timelineEvent.event.originTimestamp
+            )
+
+            pendingInbound.send(
+                InboundMatrixEventEntity(
                     eventId = timelineEvent.event.id.full,
+                    roomId = timelineEvent.event.roomId.full,
                     sender = timelineEvent.event.sender.full,
                     body = content.body,
                     timestamp = timelineEvent.event.originTimestamp,
-                    messageType = MatrixMessageType.TEXT
+                    messageType = MatrixMessageType.TEXT.name,
+                    queuedAt = System.currentTimeMillis()
                 )
             )
         }
@@ -0,0 +1,277 @@
+package com.technicallyrural.junction.matrix.impl
+
+import android.content.Context
+import android.net.ConnectivityManager
+import android.net.Network
+import android.net.NetworkCapabilities
+import android.os.Build
+import android.os.SystemClock
+import android.telephony.PhoneStateListener
+import android.telephony.SignalStrength
+import android.telephony.TelephonyCallback
+import android.telephony.TelephonyManager
+import android.util.Log
+import com.technicallyrural.junction.matrix.ConnectionType
+import com.technicallyrural.junction.matrix.DeviceStatus
+import com.technicallyrural.junction.matrix.MatrixBridge
+import com.technicallyrural.junction.matrix.MatrixPresenceService
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.FlowPreview
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.channels.awaitClose
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.flow.callbackFlow
+import kotlinx.coroutines.flow.combine
+import kotlinx.coroutines.flow.conflate
+import kotlinx.coroutines.flow.debounce
+import kotlinx.coroutines.flow.distinctUntilChanged
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.isActive
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import kotlinx.coroutines.withTimeoutOrNull
+import java.util.concurrent.Executors
+
+/**
+ * Real implementation of MatrixPresenceService.
+ *
+ * Observes connectivity (default network callback) and cell signal strength (telephony
+ * callback) as flows instead of polling. Changes are debounced so a flapping network or
+ * signal is coalesced into one status, and a status event is only published to the control
+ * room when it changes meaningfully or the last one is older than [MAX_STALENESS_MS].
+ * Those publishes wait (up to [SYNC_WINDOW_WAIT_MS]) for the next sync request so they share
+ * its radio wakeup.
+ */
+class TrixnityPresenceService(
+    private val context: Context,
+    private val bridge: MatrixBridge,
+    private val syncScheduler: SyncScheduler
+) : MatrixPresenceService {
+
+    companion object {
+        private const val TAG = "TrixnityPresenceService"
+
+        /** Quiet period before a changed status counts */
+        private const val STATUS_DEBOUNCE_MS = 10 * 1000L
+
+        /** Heartbeat: publish at least this often even without changes */
+        private const val MAX_STALENESS_MS = 30 * 60 * 1000L
+
+        /** Longest a publish waits to share a sync request's radio wakeup */
+        private const val SYNC_WINDOW_WAIT_MS = 2 * 60 * 1000L
+
+        /** Retry interval while nothing has been published yet (e.g. no control room) */
+        private const val PUBLISH_RETRY_MS = 60 * 1000L
+
+        /** Signal changes smaller than this many bars aren't published on their own */
+        private const val MIN_SIGNAL_CHANGE = 2
+
+        /**
+         * Whether [new] differs from the last published status in a way worth a state event.
+         * Only the published fields count: data connectivity, losing or regaining signal,
+         * and signal changes of at least [MIN_SIGNAL_CHANGE] bars.
+         */
+        internal fun isMeaningfulChange(published: DeviceStatus, new: DeviceStatus): Boolean {
+            if (published.dataConnected != new.dataConnected) return true
+            if ((published.cellSignal == 0) != (new.cellSignal == 0)) return true
+            return kotlin.math.abs(published.cellSignal - new.cellSignal) >= MIN_SIGNAL_CHANGE
+        }
+    }
+
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.Default)
+    private val monitorLock = Mutex()
+    private var monitorJob: Job? = null
+
+    private val _deviceStatus = MutableStateFlow(
+        DeviceStatus(
+            dataConnected = false,
+            connectionType = ConnectionType.NONE,
+            cellSignal = 0,
+            wifiConnected = false,
+            lastUpdate = 0L
+        )
+    )
+
+    override val deviceStatus: Flow<DeviceStatus> = _deviceStatus.asStateFlow()
+
+    @Volatile
+    private var publishedStatus: DeviceStatus? = null
+    @Volatile
+    private var publishedAt = 0L
+
+    override suspend fun startMonitoring() {
+        monitorLock.withLock {
+            if (monitorJob?.isActive != true) {
+                monitorJob = launchMonitor()
+            }
+        }
+    }
+
+    @OptIn(FlowPreview::class)
+    private fun launchMonitor(): Job {
+        return scope.launch {
+            // Keep the latest debounced status
+            launch {
+                combine(observeConnectivity(), observeSignalLevel()) { network, signal ->
+                    DeviceStatus(
+                        dataConnected = network.dataConnected,
+                        connectionType = network.connectionType,
+                        cellSignal = signal,
+                        wifiConnected = network.connectionType == ConnectionType.WIFI,
+                        lastUpdate = System.currentTimeMillis()
+                    )
+                }
+                    .distinctUntilChanged { old, new ->
+                        old.copy(lastUpdate = 0) == new.copy(lastUpdate = 0)
+                    }
+                    .debounce(STATUS_DEBOUNCE_MS)
+                    .conflate()
+                    .collect { _deviceStatus.value = it }
+            }
+
+            // Publish on meaningful change or when the last publish is stale
+            while (isActive) {
+                val status = _deviceStatus.value
+                val published = publishedStatus
+                val age = SystemClock.elapsedRealtime() - publishedAt
+                val due = published == null ||
+                    isMeaningfulChange(published, status) ||
+                    age >= MAX_STALENESS_MS
+                if (status.lastUpdate != 0L && due) {
+                    try {
+                        syncScheduler.awaitSyncWindow(SYNC_WINDOW_WAIT_MS)
+                        publish(_deviceStatus.value)
+                    } catch (e: CancellationException) {
+                        throw e
+                    } catch (e: Exception) {
+                        Log.e(TAG, "Error publishing device status", e)
+                    }
+                }
+
+                // Wait for the next status or the heartbeat, whichever comes first
+                val untilHeartbeat = if (publishedStatus == null) {
+                    PUBLISH_RETRY_MS
+                } else {
+                    MAX_STALENESS_MS - (SystemClock.elapsedRealtime() - publishedAt)
+                }
+                withTimeoutOrNull(untilHeartbeat.coerceAtLeast(1)) {
+                    _deviceStatus.first { it !== status }
+                }
+            }
+        }
+    }
+
+    override suspend fun stopMonitoring() {
+        monitorLock.withLock {
+            monitorJob?.cancel()
+            monitorJob = null
+        }
+    }
+
+    override suspend fun sendImmediateUpdate() {
+        publish(_deviceStatus.value)
+    }
+
+    override suspend fun getOrCreateControlRoom(): String? {
+        return bridge.getControlRoomId()
+    }
+
+    override fun isMonitoring(): Boolean {
+        return monitorJob?.isActive == true
+    }
+
+    private suspend fun publish(status: DeviceStatus) {
+        // updatePresence needs the control room to be resolved first
+        if (getOrCreateControlRoom() == null) {
+            Log.w(TAG, "No control room, status not published")
+            return
+        }
+
+        bridge.updatePresence(status.dataConnected, status.cellSignal)
+        publishedStatus = status
+        publishedAt = SystemClock.elapsedRealtime()
+        Log.d(TAG, "Published status: data=${status.dataConnected}, signal=${status.cellSignal}")
+    }
+
+    private data class NetworkState(
+        val dataConnected: Boolean,
+        val connectionType: ConnectionType
+    )
+
+    /**
+     * Default network state, from the connectivity manager's default network callback.
+     */
+    private fun observeConnectivity(): Flow<NetworkState> = callbackFlow {
+        val connectivityManager = context.getSystemService(ConnectivityManager::class.java)
+
+        val callback = object : ConnectivityManager.NetworkCallback() {
+            override fun onCapabilitiesChanged(network: Network, caps: NetworkCapabilities) {
+                val type = when {
+                    caps.hasTransport(NetworkCapabilities.TRANSPORT_WIFI) -> ConnectionType.WIFI
+                    caps.hasTransport(NetworkCapabilities.TRANSPORT_CELLULAR) -> ConnectionType.CELLULAR
+                    caps.hasTransport(NetworkCapabilities.TRANSPORT_ETHERNET) -> ConnectionType.ETHERNET
+                    else -> ConnectionType.UNKNOWN
+                }
+                trySend(
+                    NetworkState(
+                        dataConnected = caps.hasCapability(NetworkCapabilities.NET_CAPABILITY_VALIDATED),
+                        connectionType = type
+                    )
+                )
+            }
+
+            override fun onLost(network: Network) {
+                trySend(NetworkState(dataConnected = false, connectionType = ConnectionType.NONE))
+            }
+        }
+
+        // No callback arrives if there is no network at all
+        trySend(NetworkState(dataConnected = false, connectionType = ConnectionType.NONE))
+        connectivityManager.registerDefaultNetworkCallback(callback)
+        awaitClose { connectivityManager.unregisterNetworkCallback(callback) }
+    }
+
+    /**
+     * Cell signal level (0-4), from the telephony manager's signal strength callback.
+     */
+    private fun observeSignalLevel(): Flow<Int> = callbackFlow {
+        val telephonyManager = context.getSystemService(TelephonyManager::class.java)
+        val executor = Executors.newSingleThreadExecutor()
+
+        trySend(telephonyManager.signalStrength?.level ?: 0)
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+            val callback = object : TelephonyCallback(), TelephonyCallback.SignalStrengthsListener {
+                override fun onSignalStrengthsChanged(signalStrength: SignalStrength) {
+                    trySend(signalStrength.level)
+                }
+            }
+            telephonyManager.registerTelephonyCallback(executor, callback)
+            awaitClose {
+                telephonyManager.unregisterTelephonyCallback(callback)
+                executor.shutdown()
+            }
+        } else {
+            @Suppress("DEPRECATION")
+            val listener = object : PhoneStateListener(executor) {
+                @Deprecated("Deprecated in Java")
+                override fun onSignalStrengthsChanged(signalStrength: SignalStrength) {
+                    trySend(signalStrength.level)
+                }
+            }
+            @Suppress("DEPRECATION")
+            telephonyManager.listen(listener, PhoneStateListener.LISTEN_SIGNAL_STRENGTHS)
+            awaitClose {
+                @Suppress("DEPRECATION")
+                telephonyManager.listen(listener, PhoneStateListener.LISTEN_NONE)
+                executor.shutdown()
+            }
+        }
+    }
+}
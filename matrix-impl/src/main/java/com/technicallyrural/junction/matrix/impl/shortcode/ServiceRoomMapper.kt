@@ -167,9 +167,9 @@ class ServiceRoomMapper(
      */
     private suspend fun addShortCodeToService(conversationId: String, shortCode: String) {
         try {
-            val mapping = roomRepo.getAllMappings().find { it.conversationId == conversationId }
+            val mapping = roomRepo.loadedSnapshot().byConversationId[conversationId]
             if (mapping != null) {
-                val participants = roomRepo.getParticipants(conversationId) ?: emptyList()
+                val participants = mapping.participants
                 val shortCodeId = "short:$shortCode"
 
                 if (shortCodeId !in participants) {
@@ -177,8 +177,8 @@ class ServiceRoomMapper(
                     roomRepo.setMapping(
                         conversationId = conversationId,
                         participants = participants + shortCodeId,
-                        roomId = mapping.matrixRoomId,
-                        alias = mapping.matrixAlias,
+                        roomId = mapping.roomId,
+                        alias = mapping.alias,
                         isGroup = false
                     )
                 }
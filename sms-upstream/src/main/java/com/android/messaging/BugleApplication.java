@@ -199,6 +199,16 @@ public class BugleApplication extends Application implements UncaughtExceptionHa
         Factory.get().reclaimMemory();
     }
 
+    @Override
+    public void onTrimMemory(final int level) {
+        super.onTrimMemory(level);
+
+        if (LogUtil.isLoggable(TAG, LogUtil.DEBUG)) {
+            LogUtil.d(TAG, "BugleApplication.onTrimMemory level=" + level);
+        }
+        Factory.get().getMemoryCacheManager().trimMemory(level);
+    }
+
     @Override
     public void uncaughtException(final Thread thread, final Throwable ex) {
         final boolean background = getMainLooper().getThread() != thread;
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2026 Junction Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.adapter
+
+import android.util.LruCache
+import com.technicallyrural.junction.core.contacts.ContactInfo
+
+/**
+ * LRU cache of contact lookups keyed by normalized phone number. Numbers that didn't resolve
+ * to a contact are cached too, so unknown senders aren't looked up again on every message.
+ *
+ * Lookups run outside of the cache, so a lookup can finish after the contacts changed and the
+ * cache was invalidated. Callers take a [generation] before looking up and pass it to [put],
+ * which drops results from before the last [invalidate].
+ */
+internal class ContactCache(maxSize: Int) {
+
+    /**
+     * A cached lookup. [contact] is null if the number is not a contact.
+     */
+    class Entry(val contact: ContactInfo?)
+
+    private val entries = LruCache<String, Entry>(maxSize)
+    private var generation = 0L
+
+    /**
+     * Returns the cached lookup for [normalizedNumber], or null if it isn't cached.
+     */
+    @Synchronized
+    fun get(normalizedNumber: String): Entry? = entries.get(normalizedNumber)
+
+    /**
+     * Returns the current generation, to be passed to [put] with the results of a lookup.
+     */
+    @Synchronized
+    fun generation(): Long = generation
+
+    /**
+     * Caches the lookup of [normalizedNumber], unless the cache was invalidated since
+     * [lookupGeneration] was taken.
+     */
+    @Synchronized
+    fun put(lookupGeneration: Long, normalizedNumber: String, contact: ContactInfo?) {
+        if (lookupGeneration == generation) {
+            entries.put(normalizedNumber, Entry(contact))
+        }
+    }
+
+    /**
+     * Drops all cached lookups, and any lookup still in flight.
+     */
+    @Synchronized
+    fun invalidate() {
+        generation++
+        entries.evictAll()
+    }
+
+    @Synchronized
+    fun size(): Int = entries.size()
+
+    @Synchronized
+    fun hitCount(): Int = entries.hitCount()
+
+    @Synchronized
+    fun missCount(): Int = entries.missCount()
+}
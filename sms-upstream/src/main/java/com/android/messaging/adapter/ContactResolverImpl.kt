@@ -17,9 +17,13 @@
 package com.android.messaging.adapter
 
 import android.content.Context
+import android.database.ContentObserver
+import android.database.Cursor
 import android.net.Uri
 import android.provider.ContactsContract
+import android.provider.ContactsContract.CommonDataKinds.Phone
 import android.telephony.PhoneNumberUtils
+import com.android.messaging.util.LogUtil
 import com.android.messaging.util.PhoneUtils
 import com.technicallyrural.junction.core.contacts.ContactInfo
 import com.technicallyrural.junction.core.contacts.ContactResolver
@@ -32,78 +36,68 @@ import kotlinx.coroutines.withContext
  * Implementation of [ContactResolver] that uses Android's ContactsContract
  * and AOSP Messaging's phone number utilities.
  *
+ * Lookups are cached by normalized number, including numbers that aren't a contact, and the
+ * cache is dropped whenever the contacts change. Numbers that aren't cached are resolved
+ * together: one query matches them against [Phone.NORMALIZED_NUMBER] and one more loads all
+ * numbers of the matched contacts. Only numbers that don't match exactly (e.g. stored without
+ * a country code) fall back to a [ContactsContract.PhoneLookup] query each.
+ *
  * @param context Application context for content resolver access
  */
 class ContactResolverImpl(private val context: Context) : ContactResolver {
 
-    override suspend fun resolveContact(phoneNumber: String): ContactInfo? =
-        withContext(Dispatchers.IO) {
-            val normalizedNumber = normalizePhoneNumber(phoneNumber)
-            val uri = Uri.withAppendedPath(
-                ContactsContract.PhoneLookup.CONTENT_FILTER_URI,
-                Uri.encode(normalizedNumber)
-            )
+    private val cache = ContactCache(CACHE_SIZE)
 
-            context.contentResolver.query(
-                uri,
-                CONTACT_PROJECTION,
-                null, null, null
-            )?.use { cursor ->
-                if (cursor.moveToFirst()) {
-                    val contactId = cursor.getLong(
-                        cursor.getColumnIndexOrThrow(ContactsContract.PhoneLookup._ID)
-                    )
-                    val displayName = cursor.getString(
-                        cursor.getColumnIndexOrThrow(ContactsContract.PhoneLookup.DISPLAY_NAME)
-                    ) ?: ""
-                    val photoUri = cursor.getString(
-                        cursor.getColumnIndex(ContactsContract.PhoneLookup.PHOTO_URI)
-                    )
-                    val lookupKey = cursor.getString(
-                        cursor.getColumnIndexOrThrow(ContactsContract.PhoneLookup.LOOKUP_KEY)
-                    ) ?: ""
-
-                    // Load all phone numbers for this contact
-                    val phoneNumbers = loadPhoneNumbers(contactId)
-
-                    ContactInfo(
-                        contactId = contactId,
-                        displayName = displayName,
-                        photoUri = photoUri,
-                        phoneNumbers = phoneNumbers,
-                        lookupKey = lookupKey
-                    )
-                } else null
-            }
+    @Volatile
+    private var observingContacts = false
+
+    private val contactsObserver = object : ContentObserver(null) {
+        override fun onChange(selfChange: Boolean) {
+            cache.invalidate()
         }
+    }
+
+    override suspend fun resolveContact(phoneNumber: String): ContactInfo? =
+        resolveContacts(listOf(phoneNumber))[phoneNumber]
 
     override suspend fun resolveContacts(phoneNumbers: List<String>): Map<String, ContactInfo> =
         withContext(Dispatchers.IO) {
-            val result = mutableMapOf<String, ContactInfo>()
-            for (number in phoneNumbers) {
-                resolveContact(number)?.let { contact ->
-                    result[number] = contact
+            val cacheable = observeContacts()
+            val generation = cache.generation()
+            val normalizedByNumber =
+                phoneNumbers.distinct().associateWith { normalizePhoneNumber(it) }
+
+            // Serve what we can from the cache and look up the rest
+            val contactsByNormalized = mutableMapOf<String, ContactInfo?>()
+            val misses = mutableSetOf<String>()
+            for (normalized in normalizedByNumber.values) {
+                val entry = if (cacheable) cache.get(normalized) else null
+                if (entry != null) {
+                    contactsByNormalized[normalized] = entry.contact
+                } else {
+                    misses.add(normalized)
+                }
+            }
+            if (misses.isNotEmpty()) {
+                val found = lookUpContacts(misses)
+                for (normalized in misses) {
+                    val contact = found[normalized]
+                    contactsByNormalized[normalized] = contact
+                    if (cacheable) {
+                        cache.put(generation, normalized, contact)
+                    }
                 }
             }
+
+            val result = mutableMapOf<String, ContactInfo>()
+            for ((number, normalized) in normalizedByNumber) {
+                contactsByNormalized[normalized]?.let { contact -> result[number] = contact }
+            }
             result
         }
 
     override suspend fun isKnownContact(phoneNumber: String): Boolean =
-        withContext(Dispatchers.IO) {
-            val normalizedNumber = normalizePhoneNumber(phoneNumber)
-            val uri = Uri.withAppendedPath(
-                ContactsContract.PhoneLookup.CONTENT_FILTER_URI,
-                Uri.encode(normalizedNumber)
-            )
-
-            context.contentResolver.query(
-                uri,
-                arrayOf(ContactsContract.PhoneLookup._ID),
-                null, null, null
-            )?.use { cursor ->
-                cursor.count > 0
-            } ?: false
-        }
+        resolveContact(phoneNumber) != null
 
     override fun normalizePhoneNumber(phoneNumber: String): String {
         // Use AOSP's phone number utilities
@@ -114,61 +108,185 @@ class ContactResolverImpl(private val context: Context) : ContactResolver {
         return PhoneNumberUtils.compare(number1, number2)
     }
 
-    private fun loadPhoneNumbers(contactId: Long): List<PhoneNumber> {
-        val phoneNumbers = mutableListOf<PhoneNumber>()
+    /**
+     * Registers the contacts observer that invalidates the cache, if it isn't yet.
+     * @return whether lookups may be cached
+     */
+    private fun observeContacts(): Boolean {
+        if (observingContacts) {
+            return true
+        }
+        synchronized(contactsObserver) {
+            if (!observingContacts) {
+                try {
+                    context.contentResolver.registerContentObserver(
+                        ContactsContract.Contacts.CONTENT_URI, true, contactsObserver
+                    )
+                    observingContacts = true
+                } catch (e: SecurityException) {
+                    // Without the contacts permission there is nothing to invalidate the
+                    // cache, so don't cache; try again on the next lookup.
+                    LogUtil.w(LogUtil.BUGLE_TAG, "ContactResolverImpl: can't observe contacts")
+                }
+            }
+            return observingContacts
+        }
+    }
 
-        context.contentResolver.query(
-            ContactsContract.CommonDataKinds.Phone.CONTENT_URI,
-            PHONE_PROJECTION,
-            "${ContactsContract.CommonDataKinds.Phone.CONTACT_ID} = ?",
-            arrayOf(contactId.toString()),
-            null
+    /**
+     * Resolves [normalizedNumbers] to contacts.
+     * @return the contacts by normalized number, without the numbers that aren't a contact
+     */
+    private fun lookUpContacts(normalizedNumbers: Set<String>): Map<String, ContactInfo> {
+        // Normalized number -> contact, phone numbers are filled in below
+        val matches = mutableMapOf<String, ContactInfo>()
+        for (chunk in normalizedNumbers.chunked(MAX_QUERY_ARGS)) {
+            context.contentResolver.query(
+                Phone.CONTENT_URI,
+                CONTACT_PROJECTION,
+                "${Phone.NORMALIZED_NUMBER} IN (${placeholders(chunk.size)})",
+                chunk.toTypedArray(),
+                null
+            )?.use { cursor ->
+                while (cursor.moveToNext()) {
+                    val normalized = cursor.getString(
+                        cursor.getColumnIndexOrThrow(Phone.NORMALIZED_NUMBER)
+                    ) ?: continue
+                    if (normalized !in matches) {
+                        matches[normalized] = cursorToContact(cursor, Phone.CONTACT_ID)
+                    }
+                }
+            }
+        }
+
+        // Numbers stored in a form that doesn't normalize to the same E.164 number are still
+        // found by PhoneLookup's fuzzy matching.
+        for (normalized in normalizedNumbers) {
+            if (normalized !in matches) {
+                lookUpContact(normalized)?.let { contact -> matches[normalized] = contact }
+            }
+        }
+
+        if (matches.isEmpty()) {
+            return matches
+        }
+        val phoneNumbers = loadPhoneNumbers(matches.values.map { it.contactId }.toSet())
+        return matches.mapValues { (_, contact) ->
+            contact.copy(phoneNumbers = phoneNumbers[contact.contactId] ?: emptyList())
+        }
+    }
+
+    private fun lookUpContact(normalizedNumber: String): ContactInfo? {
+        val uri = Uri.withAppendedPath(
+            ContactsContract.PhoneLookup.CONTENT_FILTER_URI,
+            Uri.encode(normalizedNumber)
+        )
+        return context.contentResolver.query(
+            uri,
+            LOOKUP_PROJECTION,
+            null, null, null
         )?.use { cursor ->
-            while (cursor.moveToNext()) {
-                val number = cursor.getString(
-                    cursor.getColumnIndexOrThrow(ContactsContract.CommonDataKinds.Phone.NUMBER)
-                ) ?: continue
-
-                val normalizedNumber = cursor.getString(
-                    cursor.getColumnIndex(ContactsContract.CommonDataKinds.Phone.NORMALIZED_NUMBER)
-                )
-
-                val type = cursor.getInt(
-                    cursor.getColumnIndexOrThrow(ContactsContract.CommonDataKinds.Phone.TYPE)
-                )
-
-                val label = cursor.getString(
-                    cursor.getColumnIndex(ContactsContract.CommonDataKinds.Phone.LABEL)
-                )
-
-                phoneNumbers.add(
-                    PhoneNumber(
-                        number = number,
-                        normalizedNumber = normalizedNumber,
-                        type = mapPhoneType(type),
-                        label = label
+            if (cursor.moveToFirst()) {
+                cursorToContact(cursor, ContactsContract.PhoneLookup._ID)
+            } else null
+        }
+    }
+
+    private fun cursorToContact(cursor: Cursor, idColumn: String): ContactInfo {
+        return ContactInfo(
+            contactId = cursor.getLong(cursor.getColumnIndexOrThrow(idColumn)),
+            displayName = cursor.getString(
+                cursor.getColumnIndexOrThrow(ContactsContract.Contacts.DISPLAY_NAME)
+            ) ?: "",
+            photoUri = cursor.getString(
+                cursor.getColumnIndex(ContactsContract.Contacts.PHOTO_URI)
+            ),
+            phoneNumbers = emptyList(),
+            lookupKey = cursor.getString(
+                cursor.getColumnIndexOrThrow(ContactsContract.Contacts.LOOKUP_KEY)
+            ) ?: ""
+        )
+    }
+
+    /**
+     * Loads all phone numbers of [contactIds], grouped by contact id.
+     */
+    private fun loadPhoneNumbers(contactIds: Set<Long>): Map<Long, List<PhoneNumber>> {
+        val phoneNumbers = mutableMapOf<Long, MutableList<PhoneNumber>>()
+
+        for (chunk in contactIds.chunked(MAX_QUERY_ARGS)) {
+            context.contentResolver.query(
+                Phone.CONTENT_URI,
+                PHONE_PROJECTION,
+                "${Phone.CONTACT_ID} IN (${placeholders(chunk.size)})",
+                chunk.map { it.toString() }.toTypedArray(),
+                null
+            )?.use { cursor ->
+                while (cursor.moveToNext()) {
+                    val number = cursor.getString(
+                        cursor.getColumnIndexOrThrow(Phone.NUMBER)
+                    ) ?: continue
+
+                    val contactId = cursor.getLong(
+                        cursor.getColumnIndexOrThrow(Phone.CONTACT_ID)
+                    )
+
+                    val normalizedNumber = cursor.getString(
+                        cursor.getColumnIndex(Phone.NORMALIZED_NUMBER)
+                    )
+
+                    val type = cursor.getInt(
+                        cursor.getColumnIndexOrThrow(Phone.TYPE)
+                    )
+
+                    val label = cursor.getString(
+                        cursor.getColumnIndex(Phone.LABEL)
+                    )
+
+                    phoneNumbers.getOrPut(contactId) { mutableListOf() }.add(
+                        PhoneNumber(
+                            number = number,
+                            normalizedNumber = normalizedNumber,
+                            type = mapPhoneType(type),
+                            label = label
+                        )
                     )
-                )
+                }
             }
         }
 
         return phoneNumbers
     }
 
+    private fun placeholders(count: Int): String = List(count) { "?" }.joinToString(", ")
+
     private fun mapPhoneType(type: Int): PhoneNumberType {
         return when (type) {
-            ContactsContract.CommonDataKinds.Phone.TYPE_MOBILE -> PhoneNumberType.MOBILE
-            ContactsContract.CommonDataKinds.Phone.TYPE_HOME -> PhoneNumberType.HOME
-            ContactsContract.CommonDataKinds.Phone.TYPE_WORK,
-            ContactsContract.CommonDataKinds.Phone.TYPE_WORK_MOBILE,
-            ContactsContract.CommonDataKinds.Phone.TYPE_WORK_PAGER,
-            ContactsContract.CommonDataKinds.Phone.TYPE_COMPANY_MAIN -> PhoneNumberType.WORK
+            Phone.TYPE_MOBILE -> PhoneNumberType.MOBILE
+            Phone.TYPE_HOME -> PhoneNumberType.HOME
+            Phone.TYPE_WORK,
+            Phone.TYPE_WORK_MOBILE,
+            Phone.TYPE_WORK_PAGER,
+            Phone.TYPE_COMPANY_MAIN -> PhoneNumberType.WORK
             else -> PhoneNumberType.OTHER
         }
     }
 
     companion object {
+        private const val CACHE_SIZE = 1000
+
+        // Stay well below SQLite's limit on bound arguments per statement
+        private const val MAX_QUERY_ARGS = 500
+
         private val CONTACT_PROJECTION = arrayOf(
+            Phone.CONTACT_ID,
+            Phone.NORMALIZED_NUMBER,
+            ContactsContract.Contacts.DISPLAY_NAME,
+            ContactsContract.Contacts.PHOTO_URI,
+            ContactsContract.Contacts.LOOKUP_KEY
+        )
+
+        private val LOOKUP_PROJECTION = arrayOf(
             ContactsContract.PhoneLookup._ID,
             ContactsContract.PhoneLookup.DISPLAY_NAME,
             ContactsContract.PhoneLookup.PHOTO_URI,
@@ -176,10 +294,11 @@ class ContactResolverImpl(private val context: Context) : ContactResolver {
         )
 
         private val PHONE_PROJECTION = arrayOf(
-            ContactsContract.CommonDataKinds.Phone.NUMBER,
-            ContactsContract.CommonDataKinds.Phone.NORMALIZED_NUMBER,
-            ContactsContract.CommonDataKinds.Phone.TYPE,
-            ContactsContract.CommonDataKinds.Phone.LABEL
+            Phone.CONTACT_ID,
+            Phone.NUMBER,
+            Phone.NORMALIZED_NUMBER,
+            Phone.TYPE,
+            Phone.LABEL
         )
     }
 }
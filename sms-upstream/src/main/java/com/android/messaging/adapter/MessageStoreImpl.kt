@@ -27,22 +27,32 @@ import com.android.messaging.datamodel.BugleNotifications
 import com.android.messaging.datamodel.DataModel
 import com.android.messaging.datamodel.DatabaseHelper
 import com.android.messaging.datamodel.DatabaseHelper.ConversationColumns
+import com.android.messaging.datamodel.DatabaseHelper.ConversationParticipantsColumns
 import com.android.messaging.datamodel.DatabaseHelper.MessageColumns
 import com.android.messaging.datamodel.DatabaseHelper.ParticipantColumns
+import com.android.messaging.datamodel.MessageSearchIndex
 import com.android.messaging.datamodel.MessagingContentProvider
 import com.android.messaging.datamodel.data.MessageData
 import com.technicallyrural.junction.core.store.Conversation
 import com.technicallyrural.junction.core.store.Message
+import com.technicallyrural.junction.core.store.MessageSearchKey
+import com.technicallyrural.junction.core.store.MessageSearchPage
+import com.technicallyrural.junction.core.store.MessageSearchResult
 import com.technicallyrural.junction.core.store.MessageStatus
 import com.technicallyrural.junction.core.store.MessageStore
 import com.technicallyrural.junction.core.store.MessageType
 import com.technicallyrural.junction.core.store.MmsPartInfo
 import com.technicallyrural.junction.core.store.Participant
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.channels.Channel
 import kotlinx.coroutines.channels.awaitClose
+import kotlinx.coroutines.delay
 import kotlinx.coroutines.flow.Flow
 import kotlinx.coroutines.flow.callbackFlow
+import kotlinx.coroutines.flow.flow
 import kotlinx.coroutines.flow.flowOn
+import kotlinx.coroutines.flow.map
+import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
 
 /**
@@ -66,31 +76,45 @@ class MessageStoreImpl(private val context: Context) : MessageStore {
     override fun getConversations(): Flow<List<Conversation>> = callbackFlow {
         val uri = MessagingContentProvider.CONVERSATIONS_URI
 
-        // Initial load
-        trySend(loadConversations())
-
-        // Observe for changes
-        val observer = object : ContentObserver(Handler(Looper.getMainLooper())) {
+        // Changes are conflated: a burst of notifications leads to a single reload
+        val changes = Channel<Unit>(Channel.CONFLATED)
+        val observer = object : ContentObserver(null) {
             override fun onChange(selfChange: Boolean) {
-                trySend(loadConversations())
+                changes.trySend(Unit)
             }
         }
 
         contentResolver.registerContentObserver(uri, true, observer)
 
+        // Initial load
+        var current = loadConversations()
+        send(current)
+
+        // Reload once changes settle, and only emit if a conversation actually changed
+        launch {
+            for (change in changes) {
+                delay(RELOAD_DEBOUNCE_MS)
+                changes.tryReceive()
+                val updated = reuseUnchanged(current, loadConversations())
+                if (updated !== current) {
+                    current = updated
+                    send(updated)
+                }
+            }
+        }
+
         awaitClose {
             contentResolver.unregisterContentObserver(observer)
+            changes.close()
         }
     }.flowOn(Dispatchers.IO)
 
     override suspend fun getConversation(conversationId: Long): Conversation? =
         withContext(Dispatchers.IO) {
-            val uri = MessagingContentProvider.buildConversationMetadataUri(conversationId.toString())
-            contentResolver.query(uri, CONVERSATION_PROJECTION, null, null, null)?.use { cursor ->
-                if (cursor.moveToFirst()) {
-                    cursorToConversation(cursor, conversationId)
-                } else null
-            }
+            queryConversations(
+                "${DatabaseHelper.CONVERSATIONS_TABLE}.${ConversationColumns._ID} = ?",
+                arrayOf(conversationId.toString())
+            ).firstOrNull()
         }
 
     override suspend fun getOrCreateConversation(address: String): Conversation =
@@ -221,9 +245,15 @@ class MessageStoreImpl(private val context: Context) : MessageStore {
     // Search
     // ========================================================================
 
-    override fun searchMessages(query: String): Flow<List<Message>> = callbackFlow {
-        trySend(performSearch(query))
-        awaitClose { }
+    override fun searchMessages(query: String): Flow<List<Message>> =
+        searchMessages(query, SEARCH_PAGE_SIZE).map { page -> page.results.map { it.message } }
+
+    override fun searchMessages(
+        query: String,
+        pageSize: Int,
+        after: MessageSearchKey?
+    ): Flow<MessageSearchPage> = flow {
+        emit(performSearch(query, pageSize, after))
     }.flowOn(Dispatchers.IO)
 
     // ========================================================================
@@ -240,23 +270,69 @@ class MessageStoreImpl(private val context: Context) : MessageStore {
     // Private helpers - Loading
     // ========================================================================
 
-    private fun loadConversations(): List<Conversation> {
+    private fun loadConversations(): List<Conversation> = queryConversations(
+        "${DatabaseHelper.CONVERSATIONS_TABLE}.${ConversationColumns.ARCHIVE_STATUS} = 0",
+        null
+    )
+
+    /**
+     * Loads conversations with their participants and unread counts in a single query.
+     * The query returns one row per participant, grouped by conversation, and consecutive
+     * rows of the same conversation are folded into one [Conversation].
+     */
+    private fun queryConversations(
+        selection: String,
+        selectionArgs: Array<String>?
+    ): List<Conversation> {
         val conversations = mutableListOf<Conversation>()
-        contentResolver.query(
-            MessagingContentProvider.CONVERSATIONS_URI,
-            CONVERSATION_PROJECTION,
-            "${ConversationColumns.ARCHIVE_STATUS} = 0",
-            null,
-            "${ConversationColumns.SORT_TIMESTAMP} DESC"
-        )?.use { cursor ->
+        val db = DataModel.get().database
+        db.rawQuery(buildConversationListSql(selection), selectionArgs)?.use { cursor ->
+            val participantIdIndex =
+                cursor.getColumnIndexOrThrow(ConversationParticipantsColumns.PARTICIPANT_ID)
+            var conversation: Conversation? = null
+            var participants = mutableListOf<Participant>()
             while (cursor.moveToNext()) {
                 val id = cursor.getLong(cursor.getColumnIndexOrThrow(ConversationColumns._ID))
-                conversations.add(cursorToConversation(cursor, id))
+                if (conversation?.id != id) {
+                    conversation?.let { conversations.add(it.withParticipants(participants)) }
+                    conversation = cursorToConversation(cursor, id)
+                    participants = mutableListOf()
+                }
+                if (!cursor.isNull(participantIdIndex)) {
+                    participants.add(cursorToParticipant(cursor))
+                }
             }
+            conversation?.let { conversations.add(it.withParticipants(participants)) }
         }
         return conversations
     }
 
+    /**
+     * Returns [loaded], with every conversation that didn't change replaced by the instance
+     * from [previous], or [previous] itself if nothing changed at all. Collectors can then
+     * skip unchanged rows by reference.
+     */
+    private fun reuseUnchanged(
+        previous: List<Conversation>,
+        loaded: List<Conversation>
+    ): List<Conversation> {
+        val previousById = previous.associateBy { it.id }
+        var changed = previous.size != loaded.size
+        val merged = loaded.mapIndexed { index, conversation ->
+            val old = previousById[conversation.id]
+            if (old != null && old == conversation) {
+                if (!changed && previous[index] !== old) {
+                    changed = true
+                }
+                old
+            } else {
+                changed = true
+                conversation
+            }
+        }
+        return if (changed) merged else previous
+    }
+
     private fun loadMessages(conversationId: Long): List<Message> {
         val messages = mutableListOf<Message>()
         val db = DataModel.get().database
@@ -275,42 +351,123 @@ class MessageStoreImpl(private val context: Context) : MessageStore {
         return messages
     }
 
-    private fun performSearch(query: String): List<Message> {
-        // Note: Full-text search requires joining with parts table
-        // This is a simplified implementation
-        return emptyList()
+    private fun performSearch(
+        query: String,
+        pageSize: Int,
+        after: MessageSearchKey?
+    ): MessageSearchPage {
+        val match = MessageSearchIndex.buildMatchQuery(query)
+        if (match == null || pageSize <= 0) {
+            return MessageSearchPage(emptyList(), null)
+        }
+        val db = DataModel.get().database
+
+        // One row more than the page size tells whether there is a next page
+        val hits = mutableListOf<SearchHit>()
+        val afterTimestamp = (after?.timestamp ?: Long.MAX_VALUE).toString()
+        db.rawQuery(
+            MessageSearchIndex.SEARCH_SQL,
+            arrayOf(
+                match,
+                afterTimestamp,
+                afterTimestamp,
+                (after?.partId ?: Long.MAX_VALUE).toString(),
+                (pageSize + 1).toString()
+            )
+        )?.use { cursor ->
+            while (cursor.moveToNext()) {
+                hits.add(
+                    SearchHit(
+                        message = cursorToMessage(cursor).copy(
+                            body = cursor.getStringOrNull(MessageSearchIndex.RESULT_TEXT)
+                        ),
+                        key = MessageSearchKey(
+                            timestamp = cursor.getLongOrDefault(
+                                MessageSearchIndex.RESULT_TIMESTAMP, 0L
+                            ),
+                            partId = cursor.getLong(
+                                cursor.getColumnIndexOrThrow(MessageSearchIndex.RESULT_PART_ID)
+                            )
+                        )
+                    )
+                )
+            }
+        }
+        val page = hits.take(pageSize)
+        if (page.isEmpty()) {
+            return MessageSearchPage(emptyList(), null)
+        }
+
+        // Snippets only for this page, see MessageSearchIndex.buildSnippetSql
+        val snippets = mutableMapOf<Long, String>()
+        db.rawQuery(
+            MessageSearchIndex.buildSnippetSql(page.size),
+            arrayOf(match) + page.map { it.key.partId.toString() }
+        )?.use { cursor ->
+            while (cursor.moveToNext()) {
+                snippets[cursor.getLong(0)] = cursor.getString(1)
+            }
+        }
+
+        val results = page.distinctBy { it.message.id }.map { hit ->
+            val marked = snippets[hit.key.partId]
+            if (marked != null) {
+                val (snippet, highlights) = parseSnippet(marked)
+                MessageSearchResult(hit.message, snippet, highlights)
+            } else {
+                // The part went away between the two queries
+                MessageSearchResult(hit.message, hit.message.body ?: "", emptyList())
+            }
+        }
+        return MessageSearchPage(
+            results = results,
+            nextPageKey = if (hits.size > pageSize) page.last().key else null
+        )
+    }
+
+    /**
+     * Strips the match markers from an FTS snippet, returning the plain snippet and the ranges
+     * that were marked.
+     */
+    private fun parseSnippet(marked: String): Pair<String, List<IntRange>> {
+        val snippet = StringBuilder(marked.length)
+        val highlights = mutableListOf<IntRange>()
+        var start = -1
+        for (c in marked) {
+            when (c) {
+                MessageSearchIndex.SNIPPET_MATCH_START -> start = snippet.length
+                MessageSearchIndex.SNIPPET_MATCH_END -> {
+                    if (start >= 0 && snippet.length > start) {
+                        highlights.add(start until snippet.length)
+                    }
+                    start = -1
+                }
+                else -> snippet.append(c)
+            }
+        }
+        return snippet.toString() to highlights
     }
 
+    private data class SearchHit(val message: Message, val key: MessageSearchKey)
+
     // ========================================================================
     // Private helpers - Cursor mapping
     // ========================================================================
 
     private fun cursorToConversation(cursor: Cursor, id: Long): Conversation {
-        // Load participants for this conversation
-        val participants = loadParticipants(id)
-
         return Conversation(
             id = id,
-            participants = participants,
+            participants = emptyList(),
             snippet = cursor.getStringOrNull(ConversationColumns.SNIPPET_TEXT),
             snippetTimestamp = cursor.getLongOrDefault(ConversationColumns.SORT_TIMESTAMP, 0L),
-            unreadCount = 0, // Would need separate query
-            isGroup = participants.size > 1,
+            unreadCount = cursor.getIntOrDefault(UNREAD_COUNT, 0),
+            isGroup = false,
             isArchived = cursor.getIntOrDefault(ConversationColumns.ARCHIVE_STATUS, 0) != 0
         )
     }
 
-    private fun loadParticipants(conversationId: Long): List<Participant> {
-        val participants = mutableListOf<Participant>()
-        val uri = MessagingContentProvider.buildConversationParticipantsUri(conversationId.toString())
-
-        contentResolver.query(uri, PARTICIPANT_PROJECTION, null, null, null)?.use { cursor ->
-            while (cursor.moveToNext()) {
-                participants.add(cursorToParticipant(cursor))
-            }
-        }
-        return participants
-    }
+    private fun Conversation.withParticipants(participants: List<Participant>): Conversation =
+        copy(participants = participants, isGroup = participants.size > 1)
 
     private fun cursorToParticipant(cursor: Cursor): Participant {
         return Participant(
@@ -409,12 +566,50 @@ class MessageStoreImpl(private val context: Context) : MessageStore {
     }
 
     companion object {
-        private val CONVERSATION_PROJECTION = arrayOf(
-            ConversationColumns._ID,
-            ConversationColumns.SNIPPET_TEXT,
-            ConversationColumns.SORT_TIMESTAMP,
-            ConversationColumns.ARCHIVE_STATUS
-        )
+        private const val SEARCH_PAGE_SIZE = 50
+
+        /** How long observer-triggered reloads wait for a burst of changes to settle */
+        private const val RELOAD_DEBOUNCE_MS = 200L
+
+        private const val UNREAD_COUNT = "unread_count"
+
+        /**
+         * Conversations joined with their participants (one row each, self excluded) and
+         * their unread counts. Unread counts are aggregated once over the partial unread
+         * index instead of per conversation.
+         */
+        private fun buildConversationListSql(selection: String): String {
+            val conversations = DatabaseHelper.CONVERSATIONS_TABLE
+            val conversationParticipants = DatabaseHelper.CONVERSATION_PARTICIPANTS_TABLE
+            val participants = DatabaseHelper.PARTICIPANTS_TABLE
+            val messages = DatabaseHelper.MESSAGES_TABLE
+            return "SELECT " +
+                "$conversations.${ConversationColumns._ID}, " +
+                "$conversations.${ConversationColumns.SNIPPET_TEXT}, " +
+                "$conversations.${ConversationColumns.SORT_TIMESTAMP}, " +
+                "$conversations.${ConversationColumns.ARCHIVE_STATUS}, " +
+                "unread.$UNREAD_COUNT, " +
+                "$conversationParticipants.${ConversationParticipantsColumns.PARTICIPANT_ID}, " +
+                "$participants.${ParticipantColumns.NORMALIZED_DESTINATION}, " +
+                "$participants.${ParticipantColumns.FULL_NAME}, " +
+                "$participants.${ParticipantColumns.PROFILE_PHOTO_URI}, " +
+                "$participants.${ParticipantColumns.CONTACT_ID}" +
+                " FROM $conversations" +
+                " LEFT JOIN (SELECT ${MessageColumns.CONVERSATION_ID}, COUNT(*) AS $UNREAD_COUNT" +
+                " FROM $messages WHERE ${MessageColumns.READ} = 0" +
+                " GROUP BY ${MessageColumns.CONVERSATION_ID}) AS unread" +
+                " ON unread.${MessageColumns.CONVERSATION_ID} = " +
+                "$conversations.${ConversationColumns._ID}" +
+                " LEFT JOIN $conversationParticipants" +
+                " ON $conversationParticipants.${ConversationParticipantsColumns.CONVERSATION_ID}" +
+                " = $conversations.${ConversationColumns._ID}" +
+                " LEFT JOIN $participants ON $participants.${ParticipantColumns._ID} = " +
+                "$conversationParticipants.${ConversationParticipantsColumns.PARTICIPANT_ID}" +
+                " WHERE $selection" +
+                " ORDER BY $conversations.${ConversationColumns.SORT_TIMESTAMP} DESC, " +
+                "$conversations.${ConversationColumns._ID} DESC, " +
+                "$participants.${ParticipantColumns._ID}"
+        }
 
         private val MESSAGE_PROJECTION = arrayOf(
             MessageColumns._ID,
@@ -427,13 +622,5 @@ class MessageStoreImpl(private val context: Context) : MessageStore {
             MessageColumns.STATUS,
             MessageColumns.MMS_SUBJECT
         )
-
-        private val PARTICIPANT_PROJECTION = arrayOf(
-            ParticipantColumns._ID,
-            ParticipantColumns.NORMALIZED_DESTINATION,
-            ParticipantColumns.FULL_NAME,
-            ParticipantColumns.PROFILE_PHOTO_URI,
-            ParticipantColumns.CONTACT_ID
-        )
     }
 }
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2026 Junction Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.adapter
+
+import android.net.Uri
+import android.os.SystemClock
+import com.android.messaging.util.LogUtil
+
+/**
+ * Limits the number of MMS messages in flight at once. A message takes a slot from the moment
+ * its PDU is built until the platform reports it sent (or failed), since every send shares the
+ * one MMS APN and queuing more only holds more composed PDUs in memory.
+ *
+ * Slots are keyed by message URI, so a sent report for a message that didn't take a slot (such
+ * as one sent from the Bugle UI) doesn't free one. A slot whose report never arrives expires
+ * after [slotTimeoutMs]; expired slots are freed on the next [tryAcquire].
+ *
+ * Taking a slot never waits. When all slots are held the send fails as a temporary error and
+ * its caller retries later, rather than parking a thread until a report arrives.
+ */
+internal class MmsSendLimiter(
+    private val maxInFlight: Int,
+    private val slotTimeoutMs: Long,
+    private val clock: () -> Long = { SystemClock.elapsedRealtime() }
+) {
+
+    // Message URI -> time its slot expires. Guarded by this.
+    private val deadlines = HashMap<Uri, Long>()
+
+    /**
+     * Takes a slot for [messageUri] if one is free, after freeing any that expired.
+     *
+     * @return true if a slot was taken, false if all slots are held
+     */
+    @Synchronized
+    fun tryAcquire(messageUri: Uri): Boolean {
+        expireSlots()
+        if (deadlines.size >= maxInFlight) {
+            return false
+        }
+        deadlines[messageUri] = clock() + slotTimeoutMs
+        return true
+    }
+
+    /**
+     * Frees the slot held by [messageUri], if it holds one.
+     *
+     * @return true if a slot was freed
+     */
+    @Synchronized
+    fun release(messageUri: Uri): Boolean = deadlines.remove(messageUri) != null
+
+    @Synchronized
+    fun inFlightCount(): Int = deadlines.size
+
+    private fun expireSlots() {
+        val now = clock()
+        val iterator = deadlines.entries.iterator()
+        while (iterator.hasNext()) {
+            val entry = iterator.next()
+            if (now >= entry.value) {
+                LogUtil.w(LogUtil.BUGLE_TAG, "MmsSendLimiter: no sent report for ${entry.key}, " +
+                        "freeing its slot")
+                iterator.remove()
+            }
+        }
+    }
+}
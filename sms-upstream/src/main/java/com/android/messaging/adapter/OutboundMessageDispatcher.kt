@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2026 Junction Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.adapter
+
+import com.android.messaging.datamodel.BugleDatabaseOperations
+import com.android.messaging.datamodel.DatabaseWrapper
+import com.android.messaging.datamodel.data.MessageData
+import com.android.messaging.datamodel.data.MessagePartData
+import com.android.messaging.datamodel.data.ParticipantData
+import com.android.messaging.util.ContentType
+import com.android.messaging.util.UriUtil
+import com.technicallyrural.junction.core.CoreSmsRegistry
+import com.technicallyrural.junction.core.transport.SentAttachment
+import com.technicallyrural.junction.core.transport.SentMessage
+
+/**
+ * Dispatcher that bridges AOSP Messaging's sent message processing to the
+ * [CoreSmsRegistry] outbound message observer.
+ *
+ * Called from ProcessSentMessageAction with the message it already holds,
+ * so the observer gets the full message without querying telephony.
+ */
+object OutboundMessageDispatcher {
+
+    /**
+     * Dispatch a successfully sent message to the registered observer.
+     *
+     * @param db Bugle database, for the conversation's thread and recipients
+     * @param message The sent message
+     * @param isSms true for SMS, false for MMS
+     * @param timestamp Time the message was marked sent
+     */
+    @JvmStatic
+    fun dispatchMessageSent(
+        db: DatabaseWrapper,
+        message: MessageData,
+        isSms: Boolean,
+        timestamp: Long
+    ) {
+        val observer = CoreSmsRegistry.outboundMessageObserver ?: return
+
+        val conversationId = message.conversationId
+        val selfNumber = ParticipantData.getFromId(db, message.selfId)
+            ?.normalizedDestination
+            ?.takeIf { it.isNotEmpty() }
+
+        val attachments = if (isSms) {
+            emptyList()
+        } else {
+            message.parts
+                .filter { it.isAttachment && it.contentUri != null }
+                .mapIndexed { index, part -> part.toSentAttachment(index) }
+        }
+
+        observer.onMessageSent(
+            SentMessage(
+                messageUri = message.smsMessageUri,
+                threadId = BugleDatabaseOperations.getThreadId(db, conversationId),
+                recipients = BugleDatabaseOperations.getRecipientsForConversation(db, conversationId),
+                selfNumber = selfNumber,
+                body = message.messageText ?: "",
+                timestamp = timestamp,
+                isSms = isSms,
+                attachments = attachments
+            )
+        )
+    }
+
+    /**
+     * The attachment with its size and a file name. Parts have no file name, so it is built
+     * the way MmsUtils names the parts of an outgoing MMS, e.g. image000000.jpg.
+     */
+    private fun MessagePartData.toSentAttachment(index: Int): SentAttachment {
+        val prefix = when {
+            isImage -> "image"
+            isVideo -> "video"
+            isAudio -> "audio"
+            isVCard -> "contact"
+            else -> "file"
+        }
+        val extension = ContentType.getExtensionFromMimeType(contentType)
+        val filename = String.format("%s%06d", prefix, index) +
+            if (extension != null) ".$extension" else ""
+        val size = if (UriUtil.isLocalResourceUri(contentUri)) {
+            UriUtil.getContentSize(contentUri)
+        } else {
+            0L
+        }
+        return SentAttachment(
+            contentUri = contentUri,
+            contentType = contentType,
+            filename = filename,
+            size = size
+        )
+    }
+}
@@ -18,7 +18,11 @@ package com.android.messaging.adapter
 
 import android.content.Context
 import android.content.Intent
+import android.net.Uri
+import android.provider.Telephony.Sms
 import com.android.messaging.receiver.SmsReceiver
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.Deferred
 
 /**
  * Public adapter for app module to forward SMS/MMS to AOSP storage.
@@ -35,18 +39,55 @@ import com.android.messaging.receiver.SmsReceiver
  */
 object SmsStorageAdapter {
 
+    /**
+     * An incoming SMS as stored in the telephony database.
+     *
+     * @param uri Telephony row of the message
+     * @param address Sender address
+     * @param body Complete message body; multipart messages are already joined
+     * @param timestamp Time the message was received
+     */
+    data class StoredSms(
+        val uri: Uri,
+        val address: String,
+        val body: String,
+        val timestamp: Long
+    )
+
     /**
      * Forward an SMS_DELIVER intent to AOSP storage.
      *
      * This method extracts SMS messages from the intent and stores them
      * in the AOSP messaging database, making them visible in the UI.
      *
+     * Storing happens on AOSP's action service. The returned deferred completes once the
+     * message is stored, with its telephony row and body, or with null if it wasn't stored
+     * (invalid PDUs, class 0 messages, secondary users, or a failed insert).
+     *
      * @param context Application context
      * @param intent The SMS_DELIVER intent from system
+     * @return The stored message, once it is stored
      */
-    fun storeSmsFromIntent(context: Context, intent: Intent) {
+    fun storeSmsFromIntent(context: Context, intent: Intent): Deferred<StoredSms?> {
+        val stored = CompletableDeferred<StoredSms?>()
+
         // Forward to AOSP's SmsReceiver for database storage
-        SmsReceiver.deliverSmsIntent(context, intent)
+        SmsReceiver.deliverSmsIntent(context, intent) { messageValues, message ->
+            val uri = message?.smsMessageUri
+            stored.complete(
+                if (messageValues != null && uri != null) {
+                    StoredSms(
+                        uri = uri,
+                        address = messageValues.getAsString(Sms.ADDRESS) ?: "",
+                        body = messageValues.getAsString(Sms.BODY) ?: "",
+                        timestamp = message.receivedTimeStamp
+                    )
+                } else {
+                    null
+                }
+            )
+        }
+        return stored
     }
 
     /**
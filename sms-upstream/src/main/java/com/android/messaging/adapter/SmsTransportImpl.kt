@@ -18,9 +18,17 @@ package com.android.messaging.adapter
 
 import android.content.Context
 import android.net.Uri
+import android.os.Bundle
 import android.telephony.SubscriptionInfo as AndroidSubscriptionInfo
+import com.android.messaging.datamodel.action.SendMessageAction
+import com.android.messaging.datamodel.data.MessageData
+import com.android.messaging.datamodel.data.MessagePartData
 import com.android.messaging.sms.MmsConfig
+import com.android.messaging.sms.MmsFailureException
+import com.android.messaging.sms.MmsSender
+import com.android.messaging.sms.MmsUtils
 import com.android.messaging.sms.SmsSender
+import com.android.messaging.util.LogUtil
 import com.android.messaging.util.PhoneUtils
 import com.technicallyrural.junction.core.transport.MmsPart
 import com.technicallyrural.junction.core.transport.SendError
@@ -35,6 +43,7 @@ import java.util.concurrent.atomic.AtomicLong
  *
  * This adapter wraps:
  * - [SmsSender] for SMS sending
+ * - [MmsUtils] and [MmsSender] for MMS sending
  * - [PhoneUtils] for subscription management
  * - [MmsConfig] for capability checks
  *
@@ -96,10 +105,59 @@ class SmsTransportImpl(private val context: Context) : SmsTransport {
         parts: List<MmsPart>,
         subscriptionId: Int
     ): SendResult {
-        // MMS sending requires building a SendReq PDU and using MmsSender.
-        // This is more complex and will be implemented in a future iteration.
-        // For now, return a failure indicating MMS is not yet supported via this interface.
-        return SendResult.Failure(SendError.UNKNOWN)
+        if (destinationAddresses.isEmpty()) {
+            return SendResult.Failure(SendError.INVALID_DESTINATION)
+        }
+        val effectiveSubId = getEffectiveSubscriptionId(subscriptionId)
+        val messageUri = generateMessageUri()
+        val message = buildMmsMessage(subject, parts)
+
+        // Fails fast when the APN is busy; the caller's outbox retries with backoff.
+        if (!sendLimiter.tryAcquire(messageUri)) {
+            LogUtil.w(TAG, "SmsTransportImpl: too many MMS in flight, not sending")
+            return SendResult.Failure(SendError.NO_SERVICE)
+        }
+        return try {
+            // Images are only resized when the message doesn't fit the carrier limit as is.
+            val sendReq = MmsUtils.createMmsSendReq(
+                context,
+                effectiveSubId,
+                destinationAddresses.toTypedArray(),
+                message,
+                System.currentTimeMillis()
+            )
+            if (sendReq == null) {
+                sendLimiter.release(messageUri)
+                return SendResult.Failure(SendError.UNKNOWN)
+            }
+
+            val extras = Bundle()
+            extras.putInt(SendMessageAction.KEY_SUB_ID, effectiveSubId)
+            MmsSender.sendMms(context, effectiveSubId, messageUri, sendReq, extras)
+            SendResult.Success(messageUri.lastPathSegment?.toLongOrNull() ?: 0L)
+        } catch (e: MmsFailureException) {
+            sendLimiter.release(messageUri)
+            LogUtil.e(TAG, "SmsTransportImpl: failed to send MMS", e)
+            SendResult.Failure(mapMmsFailure(e))
+        } catch (e: Exception) {
+            sendLimiter.release(messageUri)
+            LogUtil.e(TAG, "SmsTransportImpl: failed to send MMS", e)
+            SendResult.Failure(mapException(e))
+        }
+    }
+
+    override fun divideMessage(message: String, subscriptionId: Int): List<String> {
+        val effectiveSubId = getEffectiveSubscriptionId(subscriptionId)
+        val parts = PhoneUtils.get(effectiveSubId).smsManager.divideMessage(message)
+        return if (parts.isNullOrEmpty()) listOf(message) else parts
+    }
+
+    override fun isGroupMmsEnabled(subscriptionId: Int): Boolean {
+        return try {
+            MmsUtils.groupMmsEnabled(getEffectiveSubscriptionId(subscriptionId))
+        } catch (e: Exception) {
+            false
+        }
     }
 
     override fun getAvailableSubscriptions(): List<SubscriptionInfo> {
@@ -148,6 +206,43 @@ class SmsTransportImpl(private val context: Context) : SmsTransport {
         return Uri.parse("content://mms-sms/pending/$messageId")
     }
 
+    /**
+     * Builds the message for [MmsUtils.makePduBody]. Attachments are referenced by URI, so their
+     * data is streamed into the PDU when it's composed rather than loaded up front.
+     */
+    private fun buildMmsMessage(subject: String?, parts: List<MmsPart>): MessageData {
+        val message = MessageData.createDraftMmsMessage(null, null, null, subject)
+        for (part in parts) {
+            message.addPart(
+                when (part) {
+                    is MmsPart.Text -> MessagePartData.createTextMessagePart(part.text)
+                    is MmsPart.Image -> createMediaPart(part.contentType, part.uri)
+                    is MmsPart.Video -> createMediaPart(part.contentType, part.uri)
+                    is MmsPart.Audio -> createMediaPart(part.contentType, part.uri)
+                }
+            )
+        }
+        return message
+    }
+
+    private fun createMediaPart(contentType: String, uri: String): MessagePartData {
+        return MessagePartData.createMediaMessagePart(
+            contentType,
+            Uri.parse(uri),
+            MessagePartData.UNSPECIFIED_SIZE,
+            MessagePartData.UNSPECIFIED_SIZE
+        )
+    }
+
+    private fun mapMmsFailure(e: MmsFailureException): SendError {
+        return when {
+            e.rawStatus == MessageData.RAW_TELEPHONY_STATUS_MESSAGE_TOO_BIG ->
+                SendError.MESSAGE_TOO_LONG
+            e.retryHint == MmsUtils.MMS_REQUEST_AUTO_RETRY -> SendError.NO_SERVICE
+            else -> SendError.UNKNOWN
+        }
+    }
+
     private fun handleSmsSendResult(
         result: SmsSender.SendResult,
         messageUri: Uri,
@@ -204,4 +299,29 @@ class SmsTransportImpl(private val context: Context) : SmsTransport {
             slotIndex = 0
         )
     }
+
+    companion object {
+        private const val TAG = LogUtil.BUGLE_TAG
+
+        /** MMS sends in flight at once; they all share the one MMS APN. */
+        private const val MAX_IN_FLIGHT_MMS = 2
+
+        /**
+         * How long a slot is held without a sent report before it's freed anyway, so a lost
+         * report can't block MMS for good. Well past the platform's own MMS send timeout.
+         */
+        private const val MMS_SLOT_TIMEOUT_MS = 10 * 60_000L
+
+        private val sendLimiter = MmsSendLimiter(MAX_IN_FLIGHT_MMS, MMS_SLOT_TIMEOUT_MS)
+
+        /**
+         * Called when the platform reports an MMS sent or failed, to free its in-flight slot.
+         */
+        @JvmStatic
+        fun onMmsSent(messageUri: Uri?) {
+            if (messageUri != null) {
+                sendLimiter.release(messageUri)
+            }
+        }
+    }
 }
@@ -13,9 +13,9 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
-
 package com.android.messaging.datamodel;
 
+import android.content.ComponentCallbacks2;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
@@ -23,22 +23,31 @@ import androidx.annotation.NonNull;
 import android.text.TextUtils;
 import android.util.SparseArray;
 
+import com.android.messaging.Factory;
 import com.android.messaging.datamodel.MemoryCacheManager.MemoryCache;
 import com.android.messaging.util.Assert;
 import com.android.messaging.util.LogUtil;
 
 import java.io.InputStream;
+import java.io.PrintWriter;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 
 /**
  * Class for creating / loading / reusing bitmaps. This class allow the user to create a new bitmap,
  * reuse an bitmap from the pool and to return a bitmap for future reuse.  The pool of bitmaps
  * allows for faster decode and more efficient memory usage.
- * Note: consumers should not create BitmapPool directly, but instead get the pool they want from
- * the BitmapPoolManager.
+ *
+ * Bitmaps are pooled by allocation size rather than by dimensions: any pooled bitmap whose
+ * allocation is large enough can be decoded into (via {@link BitmapFactory.Options#inBitmap}) or
+ * reconfigured to the requested dimensions. Size classes are powers of two, so a reused bitmap is
+ * at most four times as large as needed. The pool holds at most a fixed number of bytes, and drops
+ * the least recently returned bitmaps first.
+ *
+ * Note: consumers should not create BitmapPool directly, but instead use the shared pool from
+ * {@link com.android.messaging.datamodel.media.MediaCacheManager#getBitmapPool()}.
  */
 public class BitmapPool implements MemoryCache {
-    public static final int MAX_SUPPORTED_IMAGE_DIMENSION = 0xFFFF;
-
     protected static final boolean VERBOSE = false;
 
     /**
@@ -47,61 +56,63 @@ public class BitmapPool implements MemoryCache {
     private static final int FAILED_REPORTING_FREQUENCY = 100;
 
     /**
-     * Count of reuse failures which have occurred.
-     */
-    private static volatile int sFailedBitmapReuseCount = 0;
-
-    /**
-     * Overall pool data structure which currently only supports rectangular bitmaps. The size of
-     * one of the sides is used to index into the SparseArray.
+     * Bitmaps in the pool by size class, i.e. floor(log2(allocation byte count)). Each set is in
+     * the order the bitmaps were returned to the pool.
      */
-    private final SparseArray<SingleSizePool> mPool;
+    private final SparseArray<LinkedHashSet<Bitmap>> mSizeClasses;
+    /** All bitmaps in the pool, least recently returned first. */
+    private final LinkedHashSet<Bitmap> mLruOrder;
     private final Object mPoolLock = new Object();
     private final String mPoolName;
-    private final int mMaxSize;
+    private final int mMaxSizeInBytes;
+    // Guarded by mPoolLock.
+    private long mSizeInBytes;
 
-    /**
-     * Inner structure which holds a pool of bitmaps all the same size (i.e. all have the same
-     * width as each other and height as each other, but not necessarily the same).
-     */
-    private class SingleSizePool {
-        int mNumItems;
-        final Bitmap[] mBitmaps;
-
-        SingleSizePool(final int maxPoolSize) {
-            mNumItems = 0;
-            mBitmaps = new Bitmap[maxPoolSize];
-        }
-    }
+    // Instrumentation, guarded by mPoolLock.
+    private long mReuseCount;
+    private long mMissCount;
+    private long mFailedReuseCount;
+    private long mReturnedCount;
+    private long mDroppedCount;
 
     /**
      * Creates a pool of reused bitmaps with helper decode methods which will attempt to use the
      * reclaimed bitmaps. This will help speed up the creation of bitmaps by using already allocated
      * bitmaps.
-     * @param maxSize The overall max size of the pool. When the pool exceeds this size, all calls
-     * to reclaimBitmap(Bitmap) will result in recycling the bitmap.
+     * @param maxSizeInBytes The overall max size of the pool. When the pool exceeds this size, the
+     * least recently returned bitmaps are recycled.
      * @param name Name of the bitmap pool and only used for logging. Can not be null.
      */
-    BitmapPool(final int maxSize, @NonNull final String name) {
-        Assert.isTrue(maxSize > 0);
+    public BitmapPool(final int maxSizeInBytes, @NonNull final String name) {
+        Assert.isTrue(maxSizeInBytes > 0);
         Assert.isTrue(!TextUtils.isEmpty(name));
         mPoolName = name;
-        mMaxSize = maxSize;
-        mPool = new SparseArray<SingleSizePool>();
+        mMaxSizeInBytes = maxSizeInBytes;
+        mSizeClasses = new SparseArray<LinkedHashSet<Bitmap>>();
+        mLruOrder = new LinkedHashSet<Bitmap>();
     }
 
     @Override
     public void reclaim() {
         synchronized (mPoolLock) {
-            for (int p = 0; p < mPool.size(); p++) {
-                final SingleSizePool singleSizePool = mPool.valueAt(p);
-                for (int i = 0; i < singleSizePool.mNumItems; i++) {
-                    singleSizePool.mBitmaps[i].recycle();
-                    singleSizePool.mBitmaps[i] = null;
-                }
-                singleSizePool.mNumItems = 0;
+            trimToSizeLocked(0);
+        }
+    }
+
+    /**
+     * Trims the pool according to the {@link ComponentCallbacks2} trim level: to half its budget
+     * while memory is getting low, and entirely once it is critical or the UI is hidden, since
+     * the pool only helps while scrolling.
+     */
+    @Override
+    public void trim(final int level) {
+        synchronized (mPoolLock) {
+            if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN ||
+                    level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+                trimToSizeLocked(0);
+            } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+                trimToSizeLocked(mMaxSizeInBytes / 2);
             }
-            mPool.clear();
         }
     }
 
@@ -121,44 +132,85 @@ public class BitmapPool implements MemoryCache {
     }
 
     /**
-     * @return The pool key for the provided image dimensions or 0 if either width or height is
-     * greater than the max supported image dimension.
+     * @return the size class of a bitmap allocation, floor(log2(byteCount))
      */
-    private int getPoolKey(final int width, final int height) {
-        if (width > MAX_SUPPORTED_IMAGE_DIMENSION || height > MAX_SUPPORTED_IMAGE_DIMENSION) {
-            return 0;
+    private static int getSizeClass(final long byteCount) {
+        return 63 - Long.numberOfLeadingZeros(byteCount);
+    }
+
+    private static int getBytesPerPixel(final Bitmap.Config config) {
+        if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        } else if (config == Bitmap.Config.RGB_565) {
+            return 2;
+        } else if (config == Bitmap.Config.RGBA_F16) {
+            return 8;
         }
-        return (width << 16) | height;
+        return 4;
     }
 
     /**
-     *
-     * @return A bitmap in the pool with the specified dimensions or null if no bitmap with the
-     * specified dimension is available.
+     * @return A bitmap in the pool whose allocation can hold an image of the specified dimensions
+     * and config, or null if there's none.
      */
-    private Bitmap findPoolBitmap(final int width, final int height) {
-        final int poolKey = getPoolKey(width, height);
-        if (poolKey != 0) {
-            synchronized (mPoolLock) {
-                // Take a bitmap from the pool if one is available
-                final SingleSizePool singlePool = mPool.get(poolKey);
-                if (singlePool != null && singlePool.mNumItems > 0) {
-                    singlePool.mNumItems--;
-                    final Bitmap foundBitmap = singlePool.mBitmaps[singlePool.mNumItems];
-                    singlePool.mBitmaps[singlePool.mNumItems] = null;
-                    return foundBitmap;
-                }
+    private Bitmap findPoolBitmap(final int width, final int height, final Bitmap.Config config) {
+        final long requiredBytes = (long) width * height * getBytesPerPixel(config);
+        if (requiredBytes <= 0 || requiredBytes > mMaxSizeInBytes) {
+            return null;
+        }
+        final int sizeClass = getSizeClass(requiredBytes);
+        synchronized (mPoolLock) {
+            // The required size class may hold bitmaps that are slightly too small; anything in
+            // the next class up is large enough.
+            Bitmap foundBitmap = takeBitmapLocked(mSizeClasses.get(sizeClass), requiredBytes);
+            if (foundBitmap == null) {
+                foundBitmap = takeBitmapLocked(mSizeClasses.get(sizeClass + 1), requiredBytes);
+            }
+            if (foundBitmap != null) {
+                mReuseCount++;
+            } else {
+                mMissCount++;
             }
+            return foundBitmap;
+        }
+    }
+
+    private Bitmap takeBitmapLocked(final LinkedHashSet<Bitmap> bitmaps,
+            final long requiredBytes) {
+        if (bitmaps == null) {
+            return null;
+        }
+        // Prefer the most recently returned bitmap, its memory is most likely still warm.
+        Bitmap foundBitmap = null;
+        for (final Bitmap bitmap : bitmaps) {
+            if (bitmap.getAllocationByteCount() >= requiredBytes) {
+                foundBitmap = bitmap;
+            }
+        }
+        if (foundBitmap != null) {
+            bitmaps.remove(foundBitmap);
+            mLruOrder.remove(foundBitmap);
+            mSizeInBytes -= foundBitmap.getAllocationByteCount();
+        }
+        return foundBitmap;
+    }
+
+    private void trimToSizeLocked(final long maxSizeInBytes) {
+        final Iterator<Bitmap> iterator = mLruOrder.iterator();
+        while (mSizeInBytes > maxSizeInBytes && iterator.hasNext()) {
+            final Bitmap eldest = iterator.next();
+            iterator.remove();
+            final int byteCount = eldest.getAllocationByteCount();
+            mSizeClasses.get(getSizeClass(byteCount)).remove(eldest);
+            mSizeInBytes -= byteCount;
+            mDroppedCount++;
+            eldest.recycle();
         }
-        return null;
     }
 
     /**
-     * Internal function to try and find a bitmap in the pool which matches the desired width and
+     * Internal function to try and find a bitmap in the pool which can hold the desired width and
      * height and then set that in the bitmap options properly.
-     *
-     * TODO: Why do we take a width/height? Shouldn't this already be in the
-     * BitmapFactory.Options instance? Can we assert that they match?
      * @param optionsTmp The BitmapFactory.Options to update with the bitmap for the system to try
      * to reuse.
      * @param width The width of the reusable bitmap.
@@ -169,7 +221,23 @@ public class BitmapPool implements MemoryCache {
         if (optionsTmp.inJustDecodeBounds) {
             return;
         }
-        optionsTmp.inBitmap = findPoolBitmap(width, height);
+        optionsTmp.inBitmap = findPoolBitmap(width, height, optionsTmp.inPreferredConfig);
+    }
+
+    /**
+     * Called when decoding into the pool bitmap failed and the decode is retried without it.
+     */
+    private void onFailedToReuse(final BitmapFactory.Options optionsTmp) {
+        optionsTmp.inBitmap.recycle();
+        optionsTmp.inBitmap = null;
+        final long failedReuseCount;
+        synchronized (mPoolLock) {
+            failedReuseCount = ++mFailedReuseCount;
+        }
+        if (failedReuseCount % FAILED_REPORTING_FREQUENCY == 0) {
+            LogUtil.w(LogUtil.BUGLE_TAG,
+                    "Pooled bitmap consistently not being reused count = " + failedReuseCount);
+        }
     }
 
     /**
@@ -197,18 +265,12 @@ public class BitmapPool implements MemoryCache {
         } catch (final IllegalArgumentException e) {
             // BitmapFactory couldn't decode the file, try again without an inputBufferBitmap.
             if (optionsTmp.inBitmap != null) {
-                optionsTmp.inBitmap = null;
+                onFailedToReuse(optionsTmp);
                 b = BitmapFactory.decodeResource(resources, resourceId, optionsTmp);
-                sFailedBitmapReuseCount++;
-                if (sFailedBitmapReuseCount % FAILED_REPORTING_FREQUENCY == 0) {
-                    LogUtil.w(LogUtil.BUGLE_TAG,
-                            "Pooled bitmap consistently not being reused count = " +
-                            sFailedBitmapReuseCount);
-                }
             }
         } catch (final OutOfMemoryError e) {
             LogUtil.w(LogUtil.BUGLE_TAG, "Oom decoding resource " + resourceId);
-            reclaim();
+            Factory.get().reclaimMemory();
         }
         return b;
     }
@@ -236,18 +298,12 @@ public class BitmapPool implements MemoryCache {
         } catch (final IllegalArgumentException e) {
             // BitmapFactory couldn't decode the file, try again without an inputBufferBitmap.
             if (optionsTmp.inBitmap != null) {
-                optionsTmp.inBitmap = null;
+                onFailedToReuse(optionsTmp);
                 b = BitmapFactory.decodeStream(inputStream, null, optionsTmp);
-                sFailedBitmapReuseCount++;
-                if (sFailedBitmapReuseCount % FAILED_REPORTING_FREQUENCY == 0) {
-                    LogUtil.w(LogUtil.BUGLE_TAG,
-                            "Pooled bitmap consistently not being reused count = " +
-                            sFailedBitmapReuseCount);
-                }
             }
         } catch (final OutOfMemoryError e) {
             LogUtil.w(LogUtil.BUGLE_TAG, "Oom decoding inputStream");
-            reclaim();
+            Factory.get().reclaimMemory();
         }
         return b;
     }
@@ -281,14 +337,8 @@ public class BitmapPool implements MemoryCache {
             // BitmapFactory couldn't decode the file, try again without an inputBufferBitmap.
             // (i.e. without the bitmap from the pool)
             if (optionsTmp.inBitmap != null) {
-                optionsTmp.inBitmap = null;
+                onFailedToReuse(optionsTmp);
                 b = BitmapFactory.decodeByteArray(bytes, 0, bytes.length, optionsTmp);
-                sFailedBitmapReuseCount++;
-                if (sFailedBitmapReuseCount % FAILED_REPORTING_FREQUENCY == 0) {
-                    LogUtil.w(LogUtil.BUGLE_TAG,
-                            "Pooled bitmap consistently not being reused count = " +
-                            sFailedBitmapReuseCount);
-                }
             }
         }
         return b;
@@ -296,17 +346,29 @@ public class BitmapPool implements MemoryCache {
 
     /**
      * Creates a bitmap with the given size, this will reuse a bitmap in the pool, if one is
-     * available, otherwise this will create a new one.
+     * available, otherwise this will create a new one. The contents of a reused bitmap are
+     * undefined.
      * @param width The desired width of the bitmap.
      * @param height The desired height of the bitmap.
      * @return A bitmap with the desired width and height, this maybe a reused bitmap from the pool.
      */
     public Bitmap createOrReuseBitmap(final int width, final int height) {
-        Bitmap b = findPoolBitmap(width, height);
-        if (b == null) {
-            b = createBitmap(width, height);
+        final Bitmap b = findPoolBitmap(width, height, Bitmap.Config.ARGB_8888);
+        if (b != null) {
+            if (b.getWidth() == width && b.getHeight() == height &&
+                    b.getConfig() == Bitmap.Config.ARGB_8888) {
+                return b;
+            }
+            try {
+                b.reconfigure(width, height, Bitmap.Config.ARGB_8888);
+                return b;
+            } catch (final IllegalArgumentException e) {
+                LogUtil.w(LogUtil.BUGLE_TAG, "BitmapPool(" + mPoolName +
+                        ") Unable to reconfigure pool bitmap");
+                b.recycle();
+            }
         }
-        return b;
+        return createBitmap(width, height);
     }
 
     /**
@@ -326,39 +388,44 @@ public class BitmapPool implements MemoryCache {
      */
     public void reclaimBitmap(@NonNull final Bitmap b) {
         Assert.notNull(b);
-        final int poolKey = getPoolKey(b.getWidth(), b.getHeight());
-        if (poolKey == 0 || !b.isMutable()) {
-            // Unsupported image dimensions or a immutable bitmap.
+        if (b.isRecycled()) {
+            return;
+        }
+        final int byteCount = b.getAllocationByteCount();
+        if (!b.isMutable() || byteCount <= 0 || byteCount > mMaxSizeInBytes) {
+            // An immutable bitmap can't be reused, and one larger than the pool isn't kept.
             b.recycle();
             return;
         }
         synchronized (mPoolLock) {
-            SingleSizePool singleSizePool = mPool.get(poolKey);
-            if (singleSizePool == null) {
-                singleSizePool = new SingleSizePool(mMaxSize);
-                mPool.append(poolKey, singleSizePool);
+            if (!mLruOrder.add(b)) {
+                return; // Already in the pool
             }
-            if (singleSizePool.mNumItems < singleSizePool.mBitmaps.length) {
-                singleSizePool.mBitmaps[singleSizePool.mNumItems] = b;
-                singleSizePool.mNumItems++;
-            } else {
-                b.recycle();
+            final int sizeClass = getSizeClass(byteCount);
+            LinkedHashSet<Bitmap> bitmaps = mSizeClasses.get(sizeClass);
+            if (bitmaps == null) {
+                bitmaps = new LinkedHashSet<Bitmap>();
+                mSizeClasses.put(sizeClass, bitmaps);
             }
+            bitmaps.add(b);
+            mSizeInBytes += byteCount;
+            mReturnedCount++;
+            trimToSizeLocked(mMaxSizeInBytes);
         }
     }
 
     /**
-     * @return whether the pool is full for a given width and height.
+     * Writes the pool size and reuse counters to {@code writer}.
      */
-    public boolean isFull(final int width, final int height) {
-        final int poolKey = getPoolKey(width, height);
+    public void dump(final PrintWriter writer) {
         synchronized (mPoolLock) {
-            final SingleSizePool singleSizePool = mPool.get(poolKey);
-            if (singleSizePool != null &&
-                    singleSizePool.mNumItems >= singleSizePool.mBitmaps.length) {
-                return true;
-            }
-            return false;
+            final long requests = mReuseCount + mMissCount;
+            writer.println("BitmapPool(" + mPoolName + "): size=" + mSizeInBytes + "/" +
+                    mMaxSizeInBytes + " bitmaps=" + mLruOrder.size() +
+                    " reused=" + mReuseCount + "/" + requests +
+                    " failedReuse=" + mFailedReuseCount +
+                    " returned=" + mReturnedCount +
+                    " dropped=" + mDroppedCount);
         }
     }
 }
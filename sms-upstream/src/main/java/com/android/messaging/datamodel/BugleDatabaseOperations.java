@@ -53,6 +53,7 @@ import com.google.common.annotations.VisibleForTesting;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import javax.annotation.Nullable;
@@ -1161,20 +1162,65 @@ public class BugleDatabaseOperations {
     @DoesNotRunOnMainThread
     public static void insertNewMessageInTransaction(final DatabaseWrapper dbWrapper,
             final MessageData message) {
+        insertNewMessagesInTransaction(dbWrapper, Collections.singletonList(message));
+    }
+
+    /**
+     * Insert a batch of messages and their parts into the tables, binding every row to the same
+     * two cached insert statements.
+     */
+    @DoesNotRunOnMainThread
+    public static void insertNewMessagesInTransaction(final DatabaseWrapper dbWrapper,
+            final List<MessageData> messages) {
         Assert.isNotMainThread();
         Assert.isTrue(dbWrapper.getDatabase().inTransaction());
 
-        // Insert message row
-        final SQLiteStatement insert = message.getInsertStatement(dbWrapper);
-        final long rowNumber = insert.executeInsert();
+        // Insert message rows
+        dbWrapper.bulkInsertInTransaction(MessageData.getInsertSql(), messages,
+                MESSAGE_ROW_BINDER);
 
-        Assert.inRange(rowNumber, 0, Long.MAX_VALUE);
-        final String messageId = Long.toString(rowNumber);
-        message.updateMessageId(messageId);
         //  Insert new parts
-        for (final MessagePartData messagePart : message.getParts()) {
-            messagePart.updateMessageId(messageId);
-            insertNewMessagePartInTransaction(dbWrapper, messagePart, message.getConversationId());
+        for (final MessageData message : messages) {
+            final String messageId = message.getMessageId();
+            for (final MessagePartData messagePart : message.getParts()) {
+                messagePart.updateMessageId(messageId);
+            }
+            dbWrapper.bulkInsertInTransaction(MessagePartData.getInsertSql(),
+                    message.getParts(), new PartRowBinder(message.getConversationId()));
+        }
+    }
+
+    private static final DatabaseWrapper.RowBinder<MessageData> MESSAGE_ROW_BINDER =
+            new DatabaseWrapper.RowBinder<MessageData>() {
+        @Override
+        public void bind(final SQLiteStatement statement, final MessageData message) {
+            message.bindInsertStatement(statement);
+        }
+
+        @Override
+        public void onInserted(final MessageData message, final long rowId) {
+            Assert.inRange(rowId, 0, Long.MAX_VALUE);
+            message.updateMessageId(Long.toString(rowId));
+        }
+    };
+
+    private static class PartRowBinder implements DatabaseWrapper.RowBinder<MessagePartData> {
+        private final String mConversationId;
+
+        PartRowBinder(final String conversationId) {
+            mConversationId = conversationId;
+        }
+
+        @Override
+        public void bind(final SQLiteStatement statement, final MessagePartData messagePart) {
+            Assert.isTrue(!TextUtils.isEmpty(messagePart.getMessageId()));
+            messagePart.bindInsertStatement(statement, mConversationId);
+        }
+
+        @Override
+        public void onInserted(final MessagePartData messagePart, final long rowId) {
+            Assert.inRange(rowId, 0, Long.MAX_VALUE);
+            messagePart.updatePartId(Long.toString(rowId));
         }
     }
 
@@ -1410,7 +1456,6 @@ public class BugleDatabaseOperations {
             final DatabaseWrapper db, final String conversationId) {
         Assert.isNotMainThread();
         final SQLiteStatement query = db.getStatementInTransaction(
-                DatabaseWrapper.INDEX_QUERY_CONVERSATIONS_LATEST_MESSAGE,
                 QUERY_CONVERSATIONS_LATEST_MESSAGE_SQL);
         query.clearBindings();
         query.bindString(1, conversationId);
@@ -1432,7 +1477,6 @@ public class BugleDatabaseOperations {
             final DatabaseWrapper db, final String conversationId) {
         Assert.isNotMainThread();
         final SQLiteStatement query = db.getStatementInTransaction(
-                DatabaseWrapper.INDEX_QUERY_MESSAGES_LATEST_MESSAGE,
                 QUERY_MESSAGES_LATEST_MESSAGE_SQL);
         query.clearBindings();
         query.bindString(1, conversationId);
@@ -1639,7 +1683,7 @@ public class BugleDatabaseOperations {
         final ContentValues values = new ContentValues();
         values.put(ConversationParticipantsColumns.CONVERSATION_ID, conversationId);
         values.put(ConversationParticipantsColumns.PARTICIPANT_ID, participantId);
-        dbWrapper.insert(DatabaseHelper.CONVERSATION_PARTICIPANTS_TABLE, null, values);
+        dbWrapper.insertInTransaction(DatabaseHelper.CONVERSATION_PARTICIPANTS_TABLE, values);
     }
 
     /**
@@ -1759,8 +1803,8 @@ public class BugleDatabaseOperations {
 
         // Insert the participant into the participants table
         final ContentValues values = participant.toContentValues();
-        final long participantRow = dbWrapper.insert(DatabaseHelper.PARTICIPANTS_TABLE, null,
-                values);
+        final long participantRow = dbWrapper.insertInTransaction(
+                DatabaseHelper.PARTICIPANTS_TABLE, values);
         participantId = Long.toString(participantRow);
         Assert.notNull(canonicalRecipient);
 
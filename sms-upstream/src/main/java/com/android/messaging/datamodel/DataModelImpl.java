@@ -22,6 +22,7 @@ import android.net.Uri;
 import android.telephony.SubscriptionManager;
 
 import com.android.messaging.datamodel.action.ActionService;
+import com.android.messaging.datamodel.action.BackfillSearchIndexAction;
 import com.android.messaging.datamodel.action.BackgroundWorker;
 import com.android.messaging.datamodel.action.FixupMessageStatusOnStartupAction;
 import com.android.messaging.datamodel.action.ProcessPendingMessagesAction;
@@ -223,6 +224,7 @@ public class DataModelImpl extends DataModel {
         FixupMessageStatusOnStartupAction.fixupMessageStatus();
         ProcessPendingMessagesAction.processFirstPendingMessage();
         SyncManager.immediateSync();
+        BackfillSearchIndexAction.backfillIfNeeded();
 
         if (OsUtil.isAtLeastL_MR1()) {
             // Start listening for subscription change events for refreshing any data associated
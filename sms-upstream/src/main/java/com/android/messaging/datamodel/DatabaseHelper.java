@@ -311,6 +311,11 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                     + MessageColumns.STATUS + ", "
                     + MessageColumns.SEEN + ")";
 
+    // Partial index over unread messages only, for per-conversation unread counts.
+    static final String MESSAGES_TABLE_UNREAD_INDEX_SQL =
+            "CREATE INDEX index_" + MESSAGES_TABLE + "_unread ON " + MESSAGES_TABLE + "("
+                    + MessageColumns.CONVERSATION_ID + ") WHERE " + MessageColumns.READ + " = 0";
+
     // Parts table schema
     // A part may contain text or a media url, but not both.
     public static class PartColumns implements BaseColumns {
@@ -538,6 +543,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         CREATE_PARTS_TABLE_SQL,
         CREATE_PARTICIPANTS_TABLE_SQL,
         CREATE_CONVERSATION_PARTICIPANTS_TABLE_SQL,
+        MessageSearchIndex.CREATE_SEARCH_TABLE_SQL,
     };
 
     // List of all our indices
@@ -547,6 +553,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         CONVERSATIONS_TABLE_SORT_TIMESTAMP_INDEX_SQL,
         MESSAGES_TABLE_SORT_INDEX_SQL,
         MESSAGES_TABLE_STATUS_SEEN_INDEX_SQL,
+        MESSAGES_TABLE_UNREAD_INDEX_SQL,
         PARTS_TABLE_MESSAGE_INDEX_SQL,
         CONVERSATION_PARTICIPANTS_TABLE_CONVERSATION_ID_INDEX_SQL,
     };
@@ -803,6 +810,10 @@ public class DatabaseHelper extends SQLiteOpenHelper {
             db.execSQL(sql);
         }
 
+        for (final String sql : MessageSearchIndex.CREATE_SEARCH_TRIGGER_SQLS) {
+            db.execSQL(sql);
+        }
+
         // Enable foreign key constraints
         db.execSQL("PRAGMA foreign_keys=ON;");
 
@@ -20,6 +20,8 @@ import android.database.sqlite.SQLiteDatabase;
 
 import com.android.messaging.Factory;
 import com.android.messaging.util.Assert;
+import com.android.messaging.util.BuglePrefs;
+import com.android.messaging.util.BuglePrefsKeys;
 import com.android.messaging.util.LogUtil;
 
 public class DatabaseUpgradeHelper {
@@ -48,6 +50,12 @@ public class DatabaseUpgradeHelper {
         if (currentVersion < 2) {
             currentVersion = upgradeToVersion2(db);
         }
+        if (currentVersion < 3) {
+            currentVersion = upgradeToVersion3(db);
+        }
+        if (currentVersion < 4) {
+            currentVersion = upgradeToVersion4(db);
+        }
         // Rebuild all the views
         final Context context = Factory.get().getApplicationContext();
         DatabaseHelper.dropAllViews(db);
@@ -63,6 +71,23 @@ public class DatabaseUpgradeHelper {
         return 2;
     }
 
+    private int upgradeToVersion3(final SQLiteDatabase db) {
+        db.execSQL(MessageSearchIndex.CREATE_SEARCH_TABLE_SQL);
+        for (final String sql : MessageSearchIndex.CREATE_SEARCH_TRIGGER_SQLS) {
+            db.execSQL(sql);
+        }
+        // Existing messages are indexed in the background, see BackfillSearchIndexAction.
+        BuglePrefs.getApplicationPrefs().putLong(BuglePrefsKeys.SEARCH_INDEX_BACKFILL_POSITION, 0);
+        LogUtil.i(TAG, "Upgraded database to version 3");
+        return 3;
+    }
+
+    private int upgradeToVersion4(final SQLiteDatabase db) {
+        db.execSQL(DatabaseHelper.MESSAGES_TABLE_UNREAD_INDEX_SQL);
+        LogUtil.i(TAG, "Upgraded database to version 4");
+        return 4;
+    }
+
     /**
      * Checks db version correctness at the end of each milestone release. If target database
      * version lies beyond the version range that the current release may handle, we snap the
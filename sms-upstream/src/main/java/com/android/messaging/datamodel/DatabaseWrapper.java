@@ -20,11 +20,11 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteConstraintException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteFullException;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.database.sqlite.SQLiteStatement;
-import android.util.SparseArray;
 
 import com.android.messaging.Factory;
 import com.android.messaging.R;
@@ -52,12 +52,26 @@ public class DatabaseWrapper {
     private final String mExplainQueryPlanRegexp;
     private static final int sTimingThreshold = 50;        // in milliseconds
 
-    public static final int INDEX_INSERT_MESSAGE_PART = 0;
-    public static final int INDEX_INSERT_MESSAGE = 1;
-    public static final int INDEX_QUERY_CONVERSATIONS_LATEST_MESSAGE = 2;
-    public static final int INDEX_QUERY_MESSAGES_LATEST_MESSAGE = 3;
+    // Upper bound on compiled statements kept open; the message/part inserts and latest message
+    // queries plus one insert per table/column shape fit comfortably.
+    private static final int MAX_CACHED_STATEMENTS = 32;
 
-    private final SparseArray<SQLiteStatement> mCompiledStatements;
+    private final SqlStatementCache mCompiledStatements;
+
+    /**
+     * Binds the rows of a bulk insert, see {@link #bulkInsertInTransaction}.
+     */
+    public interface RowBinder<T> {
+        /**
+         * Bind the values of {@code row} to {@code statement}. Bindings are cleared beforehand.
+         */
+        void bind(SQLiteStatement statement, T row);
+
+        /**
+         * Called with the new row id once {@code row} was inserted.
+         */
+        void onInserted(T row, long rowId);
+    }
 
     static class TransactionData {
         long time;
@@ -85,19 +99,71 @@ public class DatabaseWrapper {
                 BugleGservicesKeys.EXPLAIN_QUERY_PLAN_REGEXP, null);
         mDatabase = db;
         mContext = context;
-        mCompiledStatements = new SparseArray<SQLiteStatement>();
+        mCompiledStatements = new SqlStatementCache(db, MAX_CACHED_STATEMENTS);
     }
 
-    public SQLiteStatement getStatementInTransaction(final int index, final String statement) {
+    /**
+     * Returns the cached compiled statement for {@code sql}, compiling it on first use.
+     * Note this is not thread safe so callers need to make sure they own the wrapper + statements
+     * while they call this and use the returned value.
+     */
+    public SQLiteStatement getStatementInTransaction(final String sql) {
         // Use transaction to serialize access to statements
         Assert.isTrue(mDatabase.inTransaction());
-        SQLiteStatement compiled = mCompiledStatements.get(index);
-        if (compiled == null) {
-            compiled = mDatabase.compileStatement(statement);
-            Assert.isTrue(compiled.toString().contains(statement.trim()));
-            mCompiledStatements.put(index, compiled);
+        return mCompiledStatements.get(sql);
+    }
+
+    /**
+     * Inserts many rows through a single cached statement in the current transaction, without
+     * building a {@link ContentValues} or SQL string per row.
+     * @return the number of rows inserted
+     */
+    public <T> int bulkInsertInTransaction(final String sql, final Iterable<T> rows,
+            final RowBinder<T> binder) {
+        Assert.isTrue(mDatabase.inTransaction());
+        long t1 = 0;
+        if (mLog) {
+            t1 = System.currentTimeMillis();
+        }
+        maybePlayDebugNoise();
+        // Failures propagate like a plain executeInsert() so the transaction is not committed
+        // with a partial batch.
+        final int count = mCompiledStatements.bulkInsert(sql, rows, binder);
+        if (mLog) {
+            printTiming(t1, String.format(Locale.US, "bulkInsert %d rows with %s", count, sql));
         }
-        return compiled;
+        return count;
+    }
+
+    /**
+     * Same as {@link #insert} but reuses a cached statement for rows of the same table and
+     * columns, so the SQL is not rebuilt for every row. Like {@link #insert}, a constraint
+     * violation (e.g. a UNIQUE ... ON CONFLICT FAIL row that already exists) returns -1 rather
+     * than throwing.
+     */
+    public long insertInTransaction(final String table, final ContentValues values) {
+        Assert.isTrue(mDatabase.inTransaction());
+        if (values == null || values.size() == 0) {
+            return insert(table, null, values);
+        }
+        long t1 = 0;
+        if (mLog) {
+            t1 = System.currentTimeMillis();
+        }
+        maybePlayDebugNoise();
+        long rowId = -1;
+        try {
+            rowId = mCompiledStatements.insert(table, values);
+        } catch (SQLiteConstraintException ex) {
+            LogUtil.e(TAG, "Error inserting into " + table, ex);
+        } catch (SQLiteFullException ex) {
+            LogUtil.e(TAG, "Database full, unable to insert", ex);
+            UiUtils.showToastAtBottom(R.string.db_full);
+        }
+        if (mLog) {
+            printTiming(t1, String.format(Locale.US, "insert to %s", table));
+        }
+        return rowId;
     }
 
     private void maybePlayDebugNoise() {
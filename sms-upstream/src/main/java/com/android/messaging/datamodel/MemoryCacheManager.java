@@ -16,6 +16,8 @@
 
 package com.android.messaging.datamodel;
 
+import android.content.ComponentCallbacks2;
+
 import com.android.messaging.Factory;
 
 import java.util.HashSet;
@@ -37,6 +39,16 @@ public class MemoryCacheManager {
      */
     public interface MemoryCache {
         void reclaim();
+
+        /**
+         * Releases memory according to a {@link ComponentCallbacks2} trim level. By default the
+         * whole cache is dropped once the app is in the background.
+         */
+        default void trim(final int level) {
+            if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+                reclaim();
+            }
+        }
     }
 
     /**
@@ -72,4 +84,19 @@ public class MemoryCacheManager {
             cache.reclaim();
         }
     }
+
+    /**
+     * Let all the memory caches in the application release as much memory as appropriate for the
+     * given {@link ComponentCallbacks2} trim level.
+     */
+    @SuppressWarnings("unchecked")
+    public void trimMemory(final int level) {
+        final HashSet<MemoryCache> shallowCopy;
+        synchronized (mMemoryCacheLock) {
+            shallowCopy = (HashSet<MemoryCache>) mMemoryCaches.clone();
+        }
+        for (final MemoryCache cache : shallowCopy) {
+            cache.trim(level);
+        }
+    }
 }
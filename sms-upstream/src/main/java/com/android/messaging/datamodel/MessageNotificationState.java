@@ -816,35 +816,178 @@ public abstract class MessageNotificationState extends NotificationState {
     }
 
     /**
-     * Performs a query on the database.
+     * Snapshot of the notification lines built for one conversation, together with the summary
+     * row it was built from. The entry stays valid until that summary changes (a message arrived,
+     * or some were seen or read), until the conversation's messages or metadata change, or until
+     * the cap on the number of lines changes. The summary alone can't see a message updated in
+     * place (a downloaded MMS replacing its placeholder, a status change), so any change to the
+     * conversation's messages drops the entry as well.
+     */
+    private static class CachedConversationLineInfo {
+        // Null when notifications are disabled for the conversation.
+        final ConversationLineInfo mConvInfo;
+        final int mUnseenCount;
+        final long mLatestReceivedTimestamp;
+        final long mLatestMessageId;
+        final int mMaxMessages;
+
+        CachedConversationLineInfo(final ConversationLineInfo convInfo, final int unseenCount,
+                final long latestReceivedTimestamp, final long latestMessageId,
+                final int maxMessages) {
+            mConvInfo = convInfo;
+            mUnseenCount = unseenCount;
+            mLatestReceivedTimestamp = latestReceivedTimestamp;
+            mLatestMessageId = latestMessageId;
+            mMaxMessages = maxMessages;
+        }
+
+        boolean matches(final int unseenCount, final long latestReceivedTimestamp,
+                final long latestMessageId, final int maxMessages) {
+            return mUnseenCount == unseenCount
+                    && mLatestReceivedTimestamp == latestReceivedTimestamp
+                    && mLatestMessageId == latestMessageId
+                    && mMaxMessages == maxMessages;
+        }
+    }
+
+    // In-memory notification model, keyed by conversation id. Guarded by sCacheLock.
+    private static final Object sCacheLock = new Object();
+    private static final Map<String, CachedConversationLineInfo> sConversationLineInfoCache =
+            new HashMap<>();
+    // First name counts from scanFirstNames, kept until the participants change.
+    private static final Map<String, HashMap<String, Integer>> sFirstNamesCache =
+            new HashMap<>();
+
+    /**
+     * Drops the cached notification lines for a conversation, e.g. because its name or
+     * notification settings changed, or one of its messages was added, updated or read.
+     */
+    public static void onConversationChanged(final String conversationId) {
+        synchronized (sCacheLock) {
+            sConversationLineInfoCache.remove(conversationId);
+        }
+    }
+
+    /**
+     * Drops the cached first names, and the lines built from them, for a conversation whose
+     * participants changed.
+     */
+    public static void onParticipantsChanged(final String conversationId) {
+        synchronized (sCacheLock) {
+            sFirstNamesCache.remove(conversationId);
+            sConversationLineInfoCache.remove(conversationId);
+        }
+    }
+
+    /**
+     * Drops the whole in-memory notification model, e.g. when all messages are marked as seen
+     * or after a full resync.
+     */
+    public static void resetCachedNotificationState() {
+        synchronized (sCacheLock) {
+            sFirstNamesCache.clear();
+            sConversationLineInfoCache.clear();
+        }
+    }
+
+    /**
+     * Builds the notification data structure. A cheap per-conversation aggregate over the unseen
+     * messages is compared against the in-memory model, and only conversations whose unseen
+     * messages changed since the last update are re-queried, each capped in SQL at the number of
+     * lines a notification can show.
      */
     private static ConversationInfoList createConversationInfoList() {
         // Map key is conversation id. We use LinkedHashMap to ensure that entries are iterated in
-        // the same order they were originally added. We scan unseen messages from newest to oldest,
-        // so the corresponding conversations are added in that order, too.
+        // the same order they were originally added. The summary is sorted by newest unseen
+        // message, so the corresponding conversations are added in that order, too.
         final Map<String, ConversationLineInfo> convLineInfos = new LinkedHashMap<>();
         int messageCount = 0;
 
-        Cursor convMessageCursor = null;
-        try {
+        synchronized (sCacheLock) {
             final Context context = Factory.get().getApplicationContext();
             final DatabaseWrapper db = DataModel.get().getDatabase();
+            final int maxMessages = getMaxMessagesInConversationNotification();
+            final HashSet<String> unseenConversationIds = new HashSet<>();
+
+            try (final Cursor summaryCursor = db.rawQuery(
+                    ConversationMessageData.getNotificationSummaryQuerySql(), null)) {
+                while (summaryCursor != null && summaryCursor.moveToNext()) {
+                    final String convId = summaryCursor.getString(
+                            ConversationMessageData.INDEX_SUMMARY_CONVERSATION_ID);
+                    final int unseenCount = summaryCursor.getInt(
+                            ConversationMessageData.INDEX_SUMMARY_UNSEEN_COUNT);
+                    final long latestReceivedTimestamp = summaryCursor.getLong(
+                            ConversationMessageData.INDEX_SUMMARY_LATEST_RECEIVED_TIMESTAMP);
+                    final long latestMessageId = summaryCursor.getLong(
+                            ConversationMessageData.INDEX_SUMMARY_LATEST_MESSAGE_ID);
+                    unseenConversationIds.add(convId);
+
+                    CachedConversationLineInfo cached = sConversationLineInfoCache.get(convId);
+                    if (cached == null || !cached.matches(unseenCount, latestReceivedTimestamp,
+                            latestMessageId, maxMessages)) {
+                        final ConversationLineInfo convInfo = createConversationLineInfo(
+                                context, db, convId, unseenCount, maxMessages);
+                        cached = new CachedConversationLineInfo(convInfo, unseenCount,
+                                latestReceivedTimestamp, latestMessageId, maxMessages);
+                        sConversationLineInfoCache.put(convId, cached);
+                    } else if (LogUtil.isLoggable(TAG, LogUtil.VERBOSE)) {
+                        LogUtil.v(TAG, "MessageNotificationState: Reusing notification lines for "
+                                + "conversation " + convId);
+                    }
+                    if (cached.mConvInfo == null) {
+                        // Skip conversations that have notifications disabled.
+                        continue;
+                    }
+                    convLineInfos.put(convId, cached.mConvInfo);
+                    messageCount += cached.mConvInfo.mTotalMessageCount;
+                }
+            }
+
+            // Everything else has been seen, read or deleted since the last update.
+            sConversationLineInfoCache.keySet().retainAll(unseenConversationIds);
+            sFirstNamesCache.keySet().retainAll(unseenConversationIds);
+        }
+        if (convLineInfos.isEmpty()) {
+            return null;
+        } else {
+            if (LogUtil.isLoggable(TAG, LogUtil.VERBOSE)) {
+                LogUtil.v(TAG, "MessageNotificationState: Found unseen message notifications.");
+            }
+            return new ConversationInfoList(messageCount,
+                    Lists.newLinkedList(convLineInfos.values()));
+        }
+    }
+
+    /**
+     * Queries the newest unseen messages of a single conversation and builds its notification
+     * lines.
+     * @return the line info, or null if notifications are disabled for the conversation or it
+     *     has no unseen messages left.
+     */
+    private static ConversationLineInfo createConversationLineInfo(final Context context,
+            final DatabaseWrapper db, final String convId, final int unseenCount,
+            final int maxMessages) {
+        final ConversationListItemData convData =
+                ConversationListItemData.getExistingConversation(db, convId);
+        if (!convData.getNotificationEnabled()) {
+            return null;
+        }
 
+        ConversationLineInfo currConvInfo = null;
+        Cursor convMessageCursor = null;
+        try {
+            // Even without lines to show, the newest message is needed for the avatar.
             convMessageCursor = db.rawQuery(
-                    ConversationMessageData.getNotificationQuerySql(),
-                    null);
+                    ConversationMessageData.getConversationNotificationQuerySql(
+                            Math.max(maxMessages, 1)),
+                    new String[] { convId });
 
             if (convMessageCursor != null && convMessageCursor.moveToFirst()) {
-                if (LogUtil.isLoggable(TAG, LogUtil.VERBOSE)) {
-                    LogUtil.v(TAG, "MessageNotificationState: Found unseen message notifications.");
-                }
                 final ConversationMessageData convMessageData =
                         new ConversationMessageData();
 
                 HashMap<String, Integer> firstNames = null;
-                String conversationIdForFirstNames = null;
-                String groupConversationName = null;
-                final int maxMessages = getMaxMessagesInConversationNotification();
+                final String groupConversationName = convData.getName();
 
                 do {
                     convMessageData.bind(convMessageCursor);
@@ -854,7 +997,6 @@ public abstract class MessageNotificationState extends NotificationState {
                     String authorFirstName = convMessageData.getSenderFirstName();
                     final String messageText = convMessageData.getText();
 
-                    final String convId = convMessageData.getConversationId();
                     final String messageId = convMessageData.getMessageId();
 
                     CharSequence text = messageText;
@@ -867,17 +1009,9 @@ public abstract class MessageNotificationState extends NotificationState {
                         text = context.getResources().getString(
                                 R.string.message_title_manual_download);
                     }
-                    ConversationLineInfo currConvInfo = convLineInfos.get(convId);
                     if (currConvInfo == null) {
-                        final ConversationListItemData convData =
-                                ConversationListItemData.getExistingConversation(db, convId);
-                        if (!convData.getNotificationEnabled()) {
-                            // Skip conversations that have notifications disabled.
-                            continue;
-                        }
                         final int subId = BugleDatabaseOperations.getSelfSubscriptionId(db,
                                 convData.getSelfId());
-                        groupConversationName = convData.getName();
                         final Uri avatarUri = AvatarUriUtil.createAvatarUri(
                                 convMessageData.getSenderProfilePhotoUri(),
                                 convMessageData.getSenderFullName(),
@@ -896,10 +1030,9 @@ public abstract class MessageNotificationState extends NotificationState {
                                 convMessageData.getSenderContactLookupUri(),
                                 subId,
                                 convData.getParticipantCount());
-                        convLineInfos.put(convId, currConvInfo);
                     }
                     // Prepare the message line
-                    if (currConvInfo.mTotalMessageCount < maxMessages) {
+                    if (currConvInfo.mLineInfos.size() < maxMessages) {
                         if (currConvInfo.mIsGroup) {
                             if (authorFirstName == null) {
                                 // authorFullName might be null as well. In that case, we won't
@@ -909,15 +1042,12 @@ public abstract class MessageNotificationState extends NotificationState {
                             }
                         } else {
                             // don't recompute this if we don't need to
-                            if (!TextUtils.equals(conversationIdForFirstNames, convId)) {
-                                firstNames = scanFirstNames(convId);
-                                conversationIdForFirstNames = convId;
+                            if (firstNames == null) {
+                                firstNames = getFirstNames(convId);
                             }
-                            if (firstNames != null) {
-                                final Integer count = firstNames.get(authorFirstName);
-                                if (count != null && count > 1) {
-                                    authorFirstName = authorFullName;
-                                }
+                            final Integer count = firstNames.get(authorFirstName);
+                            if (count != null && count > 1) {
+                                authorFirstName = authorFullName;
                             }
 
                             if (authorFullName == null) {
@@ -963,8 +1093,6 @@ public abstract class MessageNotificationState extends NotificationState {
                                 authorFullName, authorFirstName, text,
                                 attachmentUri, attachmentType, isManualDownloadNeeded, messageId));
                     }
-                    messageCount++;
-                    currConvInfo.mTotalMessageCount++;
                 } while (convMessageCursor.moveToNext());
             }
         } finally {
@@ -972,12 +1100,24 @@ public abstract class MessageNotificationState extends NotificationState {
                 convMessageCursor.close();
             }
         }
-        if (convLineInfos.isEmpty()) {
-            return null;
-        } else {
-            return new ConversationInfoList(messageCount,
-                    Lists.newLinkedList(convLineInfos.values()));
+        if (currConvInfo != null) {
+            // Only the newest messages were fetched; the total comes from the summary query.
+            currConvInfo.mTotalMessageCount = unseenCount;
         }
+        return currConvInfo;
+    }
+
+    /**
+     * Returns the first name counts for a conversation, scanning its participants only if they
+     * changed since the last scan. Must be called with sCacheLock held.
+     */
+    private static HashMap<String, Integer> getFirstNames(final String conversationId) {
+        HashMap<String, Integer> firstNames = sFirstNamesCache.get(conversationId);
+        if (firstNames == null) {
+            firstNames = scanFirstNames(conversationId);
+            sFirstNamesCache.put(conversationId, firstNames);
+        }
+        return firstNames;
     }
 
     /**
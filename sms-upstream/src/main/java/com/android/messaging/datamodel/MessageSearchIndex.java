@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2026 Junction Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.datamodel;
+
+import com.android.messaging.datamodel.DatabaseHelper.ConversationParticipantsColumns;
+import com.android.messaging.datamodel.DatabaseHelper.MessageColumns;
+import com.android.messaging.datamodel.DatabaseHelper.PartColumns;
+import com.android.messaging.datamodel.DatabaseHelper.ParticipantColumns;
+import com.android.messaging.datamodel.data.MessageData;
+import com.android.messaging.datamodel.data.ParticipantData;
+
+import java.util.Locale;
+
+/**
+ * Schema and queries for the full-text search index over message text.
+ *
+ * The index is an FTS4 table with one row per text part, keyed by the part's _id, holding the
+ * part text and the display name of the sender. Triggers on the parts table keep it in sync, and
+ * a trigger on the participants table follows contact name changes. Databases upgraded from a
+ * version without the index are filled in afterwards by
+ * {@link com.android.messaging.datamodel.action.BackfillSearchIndexAction}.
+ *
+ * Search results are the matching parts, most recent first, paged by (timestamp, part id) so that
+ * each page is a range scan instead of an OFFSET.
+ */
+public final class MessageSearchIndex {
+    private MessageSearchIndex() {}   // do not instantiate
+
+    public static final String SEARCH_TABLE = "parts_fts";
+
+    public static class SearchColumns {
+        /* text of the part */
+        public static final String TEXT = "text";
+
+        /* display name of the sender, null for messages sent from this device */
+        public static final String SENDER_NAME = "sender_name";
+    }
+
+    // Extra columns returned by SEARCH_SQL next to the columns of the messages table
+    public static final String RESULT_PART_ID = "search_part_id";
+    public static final String RESULT_TEXT = "search_text";
+    public static final String RESULT_TIMESTAMP = "search_timestamp";
+
+    /** Marks the start of a matched term in snippets */
+    public static final char SNIPPET_MATCH_START = '\uE000';
+    /** Marks the end of a matched term in snippets */
+    public static final char SNIPPET_MATCH_END = '\uE001';
+
+    private static final String SNIPPET_ELLIPSIS = "\u2026";
+    private static final int SNIPPET_TOKENS = 12;
+
+    static final String CREATE_SEARCH_TABLE_SQL =
+            "CREATE VIRTUAL TABLE " + SEARCH_TABLE + " USING fts4("
+                    + SearchColumns.TEXT + ", "
+                    + SearchColumns.SENDER_NAME + ", "
+                    + "tokenize=unicode61)";
+
+    // Name of the sender of the message with the given id, null for outgoing messages.
+    private static String senderNameSql(final String messageId) {
+        return "(SELECT COALESCE(" + ParticipantColumns.FULL_NAME + ", "
+                + ParticipantColumns.DISPLAY_DESTINATION + ")"
+                + " FROM " + DatabaseHelper.PARTICIPANTS_TABLE
+                + " WHERE " + ParticipantColumns._ID + " = (SELECT "
+                + MessageColumns.SENDER_PARTICIPANT_ID + " FROM " + DatabaseHelper.MESSAGES_TABLE
+                + " WHERE " + MessageColumns._ID + " = " + messageId + ")"
+                + " AND " + ParticipantColumns.SUB_ID + " = "
+                + ParticipantData.OTHER_THAN_SELF_SUB_ID + ")";
+    }
+
+    private static String insertSearchRowSql(final String row) {
+        return "INSERT INTO " + SEARCH_TABLE + "(docid, " + SearchColumns.TEXT + ", "
+                + SearchColumns.SENDER_NAME + ") SELECT " + row + "." + PartColumns._ID + ", "
+                + row + "." + PartColumns.TEXT + ", " + senderNameSql(row + "."
+                + PartColumns.MESSAGE_ID) + " WHERE " + row + "." + PartColumns.TEXT
+                + " IS NOT NULL;";
+    }
+
+    private static final String CREATE_SEARCH_INSERT_TRIGGER_SQL =
+            "CREATE TRIGGER " + SEARCH_TABLE + "_insert AFTER INSERT ON "
+                    + DatabaseHelper.PARTS_TABLE + " FOR EACH ROW BEGIN "
+                    + insertSearchRowSql("NEW")
+                    + " END;";
+
+    private static final String CREATE_SEARCH_UPDATE_TRIGGER_SQL =
+            "CREATE TRIGGER " + SEARCH_TABLE + "_update AFTER UPDATE OF " + PartColumns.TEXT
+                    + " ON " + DatabaseHelper.PARTS_TABLE + " FOR EACH ROW BEGIN "
+                    + "DELETE FROM " + SEARCH_TABLE + " WHERE docid = OLD." + PartColumns._ID + "; "
+                    + insertSearchRowSql("NEW")
+                    + " END;";
+
+    private static final String CREATE_SEARCH_DELETE_TRIGGER_SQL =
+            "CREATE TRIGGER " + SEARCH_TABLE + "_delete AFTER DELETE ON "
+                    + DatabaseHelper.PARTS_TABLE + " FOR EACH ROW BEGIN "
+                    + "DELETE FROM " + SEARCH_TABLE + " WHERE docid = OLD." + PartColumns._ID + "; "
+                    + "END;";
+
+    // Follows contact name changes of senders. Only fires when the name actually changes, and
+    // only looks at the messages of the conversations the participant is in.
+    private static final String CREATE_SEARCH_SENDER_TRIGGER_SQL =
+            "CREATE TRIGGER " + SEARCH_TABLE + "_sender AFTER UPDATE OF "
+                    + ParticipantColumns.FULL_NAME + ", " + ParticipantColumns.DISPLAY_DESTINATION
+                    + " ON " + DatabaseHelper.PARTICIPANTS_TABLE + " FOR EACH ROW"
+                    + " WHEN NEW." + ParticipantColumns.SUB_ID + " = "
+                    + ParticipantData.OTHER_THAN_SELF_SUB_ID
+                    + " AND COALESCE(NEW." + ParticipantColumns.FULL_NAME + ", NEW."
+                    + ParticipantColumns.DISPLAY_DESTINATION + ") IS NOT COALESCE(OLD."
+                    + ParticipantColumns.FULL_NAME + ", OLD."
+                    + ParticipantColumns.DISPLAY_DESTINATION + ")"
+                    + " BEGIN UPDATE " + SEARCH_TABLE + " SET " + SearchColumns.SENDER_NAME
+                    + " = COALESCE(NEW." + ParticipantColumns.FULL_NAME + ", NEW."
+                    + ParticipantColumns.DISPLAY_DESTINATION + ")"
+                    + " WHERE docid IN (SELECT " + DatabaseHelper.PARTS_TABLE + "."
+                    + PartColumns._ID + " FROM " + DatabaseHelper.PARTS_TABLE + " JOIN "
+                    + DatabaseHelper.MESSAGES_TABLE + " ON " + DatabaseHelper.MESSAGES_TABLE + "."
+                    + MessageColumns._ID + " = " + DatabaseHelper.PARTS_TABLE + "."
+                    + PartColumns.MESSAGE_ID
+                    + " WHERE " + DatabaseHelper.MESSAGES_TABLE + "."
+                    + MessageColumns.CONVERSATION_ID + " IN (SELECT "
+                    + ConversationParticipantsColumns.CONVERSATION_ID + " FROM "
+                    + DatabaseHelper.CONVERSATION_PARTICIPANTS_TABLE + " WHERE "
+                    + ConversationParticipantsColumns.PARTICIPANT_ID + " = NEW."
+                    + ParticipantColumns._ID + ")"
+                    + " AND " + DatabaseHelper.MESSAGES_TABLE + "."
+                    + MessageColumns.SENDER_PARTICIPANT_ID + " = NEW." + ParticipantColumns._ID
+                    + " AND " + DatabaseHelper.PARTS_TABLE + "." + PartColumns.TEXT
+                    + " IS NOT NULL); END;";
+
+    static final String[] CREATE_SEARCH_TRIGGER_SQLS = new String[] {
+            CREATE_SEARCH_INSERT_TRIGGER_SQL,
+            CREATE_SEARCH_UPDATE_TRIGGER_SQL,
+            CREATE_SEARCH_DELETE_TRIGGER_SQL,
+            CREATE_SEARCH_SENDER_TRIGGER_SQL,
+    };
+
+    /**
+     * Indexes the text parts with _id in the range (?, ?] that aren't in the index yet.
+     */
+    public static final String BACKFILL_SQL =
+            "INSERT INTO " + SEARCH_TABLE + "(docid, " + SearchColumns.TEXT + ", "
+                    + SearchColumns.SENDER_NAME + ") SELECT " + PartColumns._ID + ", "
+                    + PartColumns.TEXT + ", " + senderNameSql(DatabaseHelper.PARTS_TABLE + "."
+                    + PartColumns.MESSAGE_ID)
+                    + " FROM " + DatabaseHelper.PARTS_TABLE
+                    + " WHERE " + PartColumns._ID + " > ? AND " + PartColumns._ID + " <= ?"
+                    + " AND " + PartColumns.TEXT + " IS NOT NULL"
+                    + " AND NOT EXISTS (SELECT 1 FROM " + SEARCH_TABLE + " WHERE docid = "
+                    + DatabaseHelper.PARTS_TABLE + "." + PartColumns._ID + ")";
+
+    public static final String MAX_PART_ID_SQL =
+            "SELECT MAX(" + PartColumns._ID + ") FROM " + DatabaseHelper.PARTS_TABLE;
+
+    /**
+     * Returns all columns of the messages table plus RESULT_PART_ID, RESULT_TEXT and
+     * RESULT_TIMESTAMP for the matching parts, most recent first. Drafts are left out.
+     *
+     * Arguments: match expression, then the (timestamp, part id) of the last result of the
+     * previous page (twice the timestamp), then the page size. Use Long.MAX_VALUE for the first
+     * page.
+     */
+    public static final String SEARCH_SQL =
+            "SELECT " + DatabaseHelper.MESSAGES_TABLE + ".*, "
+                    + DatabaseHelper.PARTS_TABLE + "." + PartColumns._ID + " AS " + RESULT_PART_ID
+                    + ", " + DatabaseHelper.PARTS_TABLE + "." + PartColumns.TEXT + " AS "
+                    + RESULT_TEXT + ", " + DatabaseHelper.PARTS_TABLE + "." + PartColumns.TIMESTAMP
+                    + " AS " + RESULT_TIMESTAMP
+                    + " FROM " + SEARCH_TABLE
+                    + " JOIN " + DatabaseHelper.PARTS_TABLE + " ON " + DatabaseHelper.PARTS_TABLE
+                    + "." + PartColumns._ID + " = " + SEARCH_TABLE + ".docid"
+                    + " JOIN " + DatabaseHelper.MESSAGES_TABLE + " ON "
+                    + DatabaseHelper.MESSAGES_TABLE + "." + MessageColumns._ID + " = "
+                    + DatabaseHelper.PARTS_TABLE + "." + PartColumns.MESSAGE_ID
+                    + " WHERE " + SEARCH_TABLE + " MATCH ?"
+                    + " AND " + DatabaseHelper.MESSAGES_TABLE + "." + MessageColumns.STATUS
+                    + " != " + MessageData.BUGLE_STATUS_OUTGOING_DRAFT
+                    + " AND (" + DatabaseHelper.PARTS_TABLE + "." + PartColumns.TIMESTAMP + " < ?"
+                    + " OR (" + DatabaseHelper.PARTS_TABLE + "." + PartColumns.TIMESTAMP + " = ?"
+                    + " AND " + DatabaseHelper.PARTS_TABLE + "." + PartColumns._ID + " < ?))"
+                    + " ORDER BY " + DatabaseHelper.PARTS_TABLE + "." + PartColumns.TIMESTAMP
+                    + " DESC, " + DatabaseHelper.PARTS_TABLE + "." + PartColumns._ID + " DESC"
+                    + " LIMIT ?";
+
+    /**
+     * Builds the query for the snippets of {@code count} results. The snippets are computed in a
+     * separate query, after paging, because snippet() re-tokenizes the part text and is too
+     * expensive to run for every match.
+     *
+     * Returns the docid and the snippet. Arguments: match expression, then the part ids.
+     */
+    public static String buildSnippetSql(final int count) {
+        final StringBuilder sql = new StringBuilder("SELECT docid, snippet(").append(SEARCH_TABLE)
+                .append(", '").append(SNIPPET_MATCH_START).append("', '")
+                .append(SNIPPET_MATCH_END).append("', '").append(SNIPPET_ELLIPSIS)
+                .append("', -1, ").append(SNIPPET_TOKENS).append(") FROM ").append(SEARCH_TABLE)
+                .append(" WHERE ").append(SEARCH_TABLE).append(" MATCH ? AND docid IN (");
+        for (int i = 0; i < count; i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        return sql.append(')').toString();
+    }
+
+    /**
+     * Turns what the user typed into an FTS match expression: every word must match, as a
+     * prefix, in either column. Query syntax in the input is not interpreted.
+     * @return the match expression, or null if there are no words to search for
+     */
+    public static String buildMatchQuery(final String query) {
+        if (query == null) {
+            return null;
+        }
+        final StringBuilder match = new StringBuilder();
+        int start = -1;
+        for (int i = 0; i <= query.length(); i++) {
+            final boolean wordChar = i < query.length()
+                    && Character.isLetterOrDigit(query.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                if (match.length() > 0) {
+                    match.append(' ');
+                }
+                match.append('"').append(query.substring(start, i).toLowerCase(Locale.ROOT))
+                        .append("*\"");
+                start = -1;
+            }
+        }
+        return match.length() > 0 ? match.toString() : null;
+    }
+}
@@ -35,6 +35,8 @@ import com.android.messaging.datamodel.data.ConversationListItemData;
 import com.android.messaging.datamodel.data.ConversationMessageData;
 import com.android.messaging.datamodel.data.MessageData;
 import com.android.messaging.datamodel.data.ParticipantData;
+import com.android.messaging.datamodel.media.MediaCacheManager;
+import com.android.messaging.datamodel.media.MediaResourceManager;
 import com.android.messaging.util.Assert;
 import com.android.messaging.util.LogUtil;
 import com.android.messaging.util.OsUtil;
@@ -108,6 +110,7 @@ public class MessagingContentProvider extends ContentProvider {
         final Context context = Factory.get().getApplicationContext();
         final ContentResolver cr = context.getContentResolver();
         cr.notifyChange(uri, null);
+        MessageNotificationState.resetCachedNotificationState();
 
         // Notify any conversations widgets the conversation list has changed.
         BugleWidgetProvider.notifyConversationListChanged(context);
@@ -129,16 +132,19 @@ public class MessagingContentProvider extends ContentProvider {
         final Uri uri = buildConversationParticipantsUri(conversationId);
         final ContentResolver cr = Factory.get().getApplicationContext().getContentResolver();
         cr.notifyChange(uri, null);
+        MessageNotificationState.onParticipantsChanged(conversationId);
     }
 
     public static void notifyAllMessagesChanged() {
         final ContentResolver cr = Factory.get().getApplicationContext().getContentResolver();
         cr.notifyChange(CONVERSATION_MESSAGES_URI, null);
+        MessageNotificationState.resetCachedNotificationState();
     }
 
     public static void notifyAllParticipantsChanged() {
         final ContentResolver cr = Factory.get().getApplicationContext().getContentResolver();
         cr.notifyChange(CONVERSATION_PARTICIPANTS_URI, null);
+        MessageNotificationState.resetCachedNotificationState();
     }
 
     // Default value for unknown dimension of image
@@ -184,6 +190,7 @@ public class MessagingContentProvider extends ContentProvider {
         final Context context = Factory.get().getApplicationContext();
         final ContentResolver cr = context.getContentResolver();
         cr.notifyChange(uri, null);
+        MessageNotificationState.onConversationChanged(conversationId);
         notifyConversationListChanged();
 
         // Notify the widget the messages changed
@@ -203,6 +210,7 @@ public class MessagingContentProvider extends ContentProvider {
         final Uri uri = buildConversationMetadataUri(conversationId);
         final ContentResolver cr = Factory.get().getApplicationContext().getContentResolver();
         cr.notifyChange(uri, null);
+        MessageNotificationState.onConversationChanged(conversationId);
         notifyConversationListChanged();
     }
 
@@ -463,6 +471,8 @@ public class MessagingContentProvider extends ContentProvider {
             }
         }
         writer.println("Default SMS app: " + defaultSmsApp);
+        MediaResourceManager.get().dump(writer);
+        MediaCacheManager.get().dump(writer);
         // Now dump logs
         LogUtil.dump(writer);
     }
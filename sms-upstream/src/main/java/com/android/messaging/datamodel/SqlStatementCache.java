@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2026 Junction Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.datamodel;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.LruCache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * LRU cache of compiled {@link SQLiteStatement}s keyed by their SQL text. Statements are closed
+ * when evicted.
+ *
+ * Note this is not thread safe: statements are shared, so callers need to serialize access, e.g.
+ * by only using the cache from within a database transaction.
+ */
+class SqlStatementCache {
+    private final SQLiteDatabase mDatabase;
+    private final LruCache<String, SQLiteStatement> mStatements;
+
+    SqlStatementCache(final SQLiteDatabase db, final int maxStatements) {
+        mDatabase = db;
+        mStatements = new LruCache<String, SQLiteStatement>(maxStatements) {
+            @Override
+            protected void entryRemoved(final boolean evicted, final String sql,
+                    final SQLiteStatement oldValue, final SQLiteStatement newValue) {
+                oldValue.close();
+            }
+        };
+    }
+
+    /**
+     * Returns the compiled statement for {@code sql}, compiling it on a miss. Bindings of a
+     * cached statement are left as the previous user left them.
+     */
+    SQLiteStatement get(final String sql) {
+        SQLiteStatement compiled = mStatements.get(sql);
+        if (compiled == null) {
+            compiled = mDatabase.compileStatement(sql);
+            mStatements.put(sql, compiled);
+        }
+        return compiled;
+    }
+
+    /**
+     * Inserts {@code rows} one after another through the single cached statement for
+     * {@code sql}.
+     * @return the number of rows inserted
+     */
+    <T> int bulkInsert(final String sql, final Iterable<T> rows,
+            final DatabaseWrapper.RowBinder<T> binder) {
+        final SQLiteStatement insert = get(sql);
+        int count = 0;
+        for (final T row : rows) {
+            insert.clearBindings();
+            binder.bind(insert, row);
+            binder.onInserted(row, insert.executeInsert());
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Inserts {@code values} into {@code table} through a cached statement. The statement is
+     * keyed by the table and the set of columns, so rows with the same shape share it.
+     * @return the row id of the newly inserted row, or -1 if an error occurred
+     */
+    long insert(final String table, final ContentValues values) {
+        final List<String> columns = new ArrayList<>(values.keySet());
+        Collections.sort(columns);
+        final SQLiteStatement insert = get(buildInsertSql(table, columns));
+        insert.clearBindings();
+        for (int i = 0; i < columns.size(); i++) {
+            DatabaseUtils.bindObjectToProgram(insert, i + 1, values.get(columns.get(i)));
+        }
+        return insert.executeInsert();
+    }
+
+    /**
+     * Closes and drops all cached statements.
+     */
+    void clear() {
+        mStatements.evictAll();
+    }
+
+    int hitCount() {
+        return mStatements.hitCount();
+    }
+
+    int missCount() {
+        return mStatements.missCount();
+    }
+
+    private static String buildInsertSql(final String table, final List<String> columns) {
+        final StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" (");
+        final StringBuilder args = new StringBuilder();
+        for (int i = 0; i < columns.size(); i++) {
+            if (i > 0) {
+                sql.append(',');
+                args.append(',');
+            }
+            sql.append(columns.get(i));
+            args.append('?');
+        }
+        return sql.append(") VALUES (").append(args).append(')').toString();
+    }
+}
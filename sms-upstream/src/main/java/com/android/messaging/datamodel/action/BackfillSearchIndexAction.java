@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2026 Junction Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.datamodel.action;
+
+import android.database.Cursor;
+import android.os.Bundle;
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import com.android.messaging.datamodel.DataModel;
+import com.android.messaging.datamodel.DatabaseWrapper;
+import com.android.messaging.datamodel.MessageSearchIndex;
+import com.android.messaging.util.BuglePrefs;
+import com.android.messaging.util.BuglePrefsKeys;
+import com.android.messaging.util.LogUtil;
+
+/**
+ * Action used to add the messages that existed before the search index was created to the index.
+ * Each run indexes one batch of parts on the background worker and then queues the next batch,
+ * so other background work isn't held up. Progress is saved after every batch, and the backfill
+ * picks up where it left off on the next startup if the process dies.
+ */
+public class BackfillSearchIndexAction extends Action implements Parcelable {
+    private static final String TAG = LogUtil.BUGLE_DATAMODEL_TAG;
+
+    private static final int BATCH_SIZE = 1000;
+    private static final String BUNDLE_KEY_DONE = "done";
+
+    /**
+     * Continue backfilling the search index if there is anything left to backfill.
+     */
+    public static void backfillIfNeeded() {
+        final BackfillSearchIndexAction action = new BackfillSearchIndexAction();
+        action.start();
+    }
+
+    private BackfillSearchIndexAction() {
+    }
+
+    @Override
+    protected Object executeAction() {
+        final long position = BuglePrefs.getApplicationPrefs().getLong(
+                BuglePrefsKeys.SEARCH_INDEX_BACKFILL_POSITION,
+                BuglePrefsKeys.SEARCH_INDEX_BACKFILL_POSITION_DEFAULT);
+        if (position >= 0) {
+            requestBackgroundWork();
+        }
+        return null;
+    }
+
+    @Override
+    protected Bundle doBackgroundWork() {
+        final BuglePrefs prefs = BuglePrefs.getApplicationPrefs();
+        final long position = prefs.getLong(BuglePrefsKeys.SEARCH_INDEX_BACKFILL_POSITION,
+                BuglePrefsKeys.SEARCH_INDEX_BACKFILL_POSITION_DEFAULT);
+        final Bundle response = new Bundle();
+        if (position < 0) {
+            response.putBoolean(BUNDLE_KEY_DONE, true);
+            return response;
+        }
+
+        final DatabaseWrapper db = DataModel.get().getDatabase();
+        final long end = position + BATCH_SIZE;
+        final long maxPartId;
+        db.beginTransaction();
+        try {
+            // Parts added since the index was created are indexed by triggers, and are skipped.
+            db.execSQL(MessageSearchIndex.BACKFILL_SQL,
+                    new String[] { Long.toString(position), Long.toString(end) });
+            maxPartId = queryMaxPartId(db);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        final boolean done = end >= maxPartId;
+        prefs.putLong(BuglePrefsKeys.SEARCH_INDEX_BACKFILL_POSITION,
+                done ? BuglePrefsKeys.SEARCH_INDEX_BACKFILL_POSITION_DEFAULT : end);
+        if (done) {
+            LogUtil.i(TAG, "BackfillSearchIndexAction: search index complete");
+        }
+        response.putBoolean(BUNDLE_KEY_DONE, done);
+        return response;
+    }
+
+    @Override
+    protected Object processBackgroundResponse(final Bundle response) {
+        if (!response.getBoolean(BUNDLE_KEY_DONE)) {
+            requestBackgroundWork(new BackfillSearchIndexAction());
+        }
+        return null;
+    }
+
+    @Override
+    protected Object processBackgroundFailure() {
+        // Leave the saved position as is; the batch is retried on the next startup.
+        LogUtil.w(TAG, "BackfillSearchIndexAction: batch failed");
+        return null;
+    }
+
+    private static long queryMaxPartId(final DatabaseWrapper db) {
+        final Cursor cursor = db.rawQuery(MessageSearchIndex.MAX_PART_ID_SQL, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private BackfillSearchIndexAction(final Parcel in) {
+        super(in);
+    }
+
+    public static final Parcelable.Creator<BackfillSearchIndexAction> CREATOR
+            = new Parcelable.Creator<BackfillSearchIndexAction>() {
+        @Override
+        public BackfillSearchIndexAction createFromParcel(final Parcel in) {
+            return new BackfillSearchIndexAction(in);
+        }
+
+        @Override
+        public BackfillSearchIndexAction[] newArray(final int size) {
+            return new BackfillSearchIndexAction[size];
+        }
+    };
+
+    @Override
+    public void writeToParcel(final Parcel parcel, final int flags) {
+        writeActionToParcel(parcel, flags);
+    }
+}
@@ -167,11 +167,9 @@ public class InsertNewMessageAction extends Action implements Parcelable {
                 sendingConversationId = null;
             }
 
-            for (final String recipient : recipients) {
-                // Start actual sending
-                insertSendingSmsMessage(message, subId, recipient,
-                        timestamp, sendingConversationId);
-            }
+            // Start actual sending
+            insertSendingSmsMessages(message, subId, recipients,
+                    timestamp, sendingConversationId);
 
             // Can now clear draft from conversation (deleting attachments if necessary)
             BugleDatabaseOperations.updateDraftMessageData(db, conversationId,
@@ -344,10 +342,12 @@ public class InsertNewMessageAction extends Action implements Parcelable {
     }
 
     /**
-     * Insert SMS messaging into our database and telephony db.
+     * Insert SMS messages for each recipient into the telephony db, then into our database in a
+     * single transaction through the bulk insert path.
      */
-    private MessageData insertSendingSmsMessage(final MessageData content, final int subId,
-            final String recipient, final long timestamp, final String sendingConversationId) {
+    private void insertSendingSmsMessages(final MessageData content, final int subId,
+            final List<String> recipients, final long timestamp,
+            final String sendingConversationId) {
         sLastSentMessageTimestamp = timestamp;
 
         final Context context = Factory.get().getApplicationContext();
@@ -358,66 +358,74 @@ public class InsertNewMessageAction extends Action implements Parcelable {
 
         final DatabaseWrapper db = DataModel.get().getDatabase();
 
-        // Send a single message
-        long threadId;
-        String conversationId;
-        if (sendingConversationId == null) {
-            // For 1:1 message generated sending broadcast need to look up threadId+conversationId
-            threadId = MmsUtils.getOrCreateSmsThreadId(context, recipient);
-            conversationId = BugleDatabaseOperations.getOrCreateConversationFromRecipient(
-                    db, threadId, false /* sender blocked */,
-                    ParticipantData.getFromRawPhoneBySimLocale(recipient, subId));
-        } else {
-            // Otherwise just look up threadId
-            threadId = BugleDatabaseOperations.getThreadId(db, sendingConversationId);
-            conversationId = sendingConversationId;
-        }
-
         final String messageText = content.getMessageText();
+        final List<MessageData> messages = new ArrayList<>(recipients.size());
+        for (final String recipient : recipients) {
+            // Send a single message
+            long threadId;
+            String conversationId;
+            if (sendingConversationId == null) {
+                // For 1:1 message generated sending broadcast need to look up
+                // threadId+conversationId
+                threadId = MmsUtils.getOrCreateSmsThreadId(context, recipient);
+                conversationId = BugleDatabaseOperations.getOrCreateConversationFromRecipient(
+                        db, threadId, false /* sender blocked */,
+                        ParticipantData.getFromRawPhoneBySimLocale(recipient, subId));
+            } else {
+                // Otherwise just look up threadId
+                threadId = BugleDatabaseOperations.getThreadId(db, sendingConversationId);
+                conversationId = sendingConversationId;
+            }
 
-        // Insert message into telephony database sms message table
-        final Uri messageUri = MmsUtils.insertSmsMessage(context,
-                Telephony.Sms.CONTENT_URI,
-                subId,
-                recipient,
-                messageText,
-                timestamp,
-                Telephony.Sms.STATUS_NONE,
-                Telephony.Sms.MESSAGE_TYPE_SENT, threadId);
-
-        MessageData message = null;
-        if (messageUri != null && !TextUtils.isEmpty(messageUri.toString())) {
-            db.beginTransaction();
-            try {
-                message = MessageData.createDraftSmsMessage(conversationId,
+            // Insert message into telephony database sms message table
+            final Uri messageUri = MmsUtils.insertSmsMessage(context,
+                    Telephony.Sms.CONTENT_URI,
+                    subId,
+                    recipient,
+                    messageText,
+                    timestamp,
+                    Telephony.Sms.STATUS_NONE,
+                    Telephony.Sms.MESSAGE_TYPE_SENT, threadId);
+
+            if (messageUri != null && !TextUtils.isEmpty(messageUri.toString())) {
+                final MessageData message = MessageData.createDraftSmsMessage(conversationId,
                         content.getSelfId(), messageText);
                 message.updateSendingMessage(conversationId, messageUri, timestamp);
+                messages.add(message);
+            } else {
+                LogUtil.e(TAG, "InsertNewMessageAction: No uri for SMS inserted into telephony DB");
+            }
+        }
+        if (messages.isEmpty()) {
+            return;
+        }
 
-                BugleDatabaseOperations.insertNewMessageInTransaction(db, message);
+        db.beginTransaction();
+        try {
+            BugleDatabaseOperations.insertNewMessagesInTransaction(db, messages);
 
-                // Do not update the conversation summary to reflect autogenerated 1:1 messages
-                if (sendingConversationId != null) {
+            // Do not update the conversation summary to reflect autogenerated 1:1 messages
+            if (sendingConversationId != null) {
+                for (final MessageData message : messages) {
                     BugleDatabaseOperations.updateConversationMetadataInTransaction(db,
-                            conversationId, message.getMessageId(), timestamp,
+                            message.getConversationId(), message.getMessageId(), timestamp,
                             false /* senderBlocked */, false /* shouldAutoSwitchSelfId */);
                 }
-                db.setTransactionSuccessful();
-            } finally {
-                db.endTransaction();
             }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
 
+        for (final MessageData message : messages) {
             if (LogUtil.isLoggable(TAG, LogUtil.DEBUG)) {
                 LogUtil.d(TAG, "InsertNewMessageAction: Inserted SMS message "
                         + message.getMessageId() + " (uri = " + message.getSmsMessageUri()
                         + ", timestamp = " + message.getReceivedTimeStamp() + ")");
             }
-            MessagingContentProvider.notifyMessagesChanged(conversationId);
-            MessagingContentProvider.notifyPartsChanged();
-        } else {
-            LogUtil.e(TAG, "InsertNewMessageAction: No uri for SMS inserted into telephony DB");
+            MessagingContentProvider.notifyMessagesChanged(message.getConversationId());
         }
-
-        return message;
+        MessagingContentProvider.notifyPartsChanged();
     }
 
     /**
@@ -26,6 +26,7 @@ import android.telephony.PhoneNumberUtils;
 import android.telephony.SmsManager;
 
 import com.android.messaging.Factory;
+import com.android.messaging.adapter.OutboundMessageDispatcher;
 import com.android.messaging.datamodel.BugleDatabaseOperations;
 import com.android.messaging.datamodel.BugleNotifications;
 import com.android.messaging.datamodel.DataModel;
@@ -153,7 +154,9 @@ public class ProcessSentMessageAction extends Action {
             final int resultCode = actionParameters.getInt(KEY_RESULT_CODE);
             final boolean responseImportant = actionParameters.getBoolean(KEY_RESPONSE_IMPORTANT);
             if (resultCode == Activity.RESULT_OK) {
-                if (responseImportant) {
+                // PATCH: MMS sent through SmsTransport have no message id and aren't in
+                // telephony, so there's no status to update for them
+                if (responseImportant && messageId != null) {
                     // Get the status from the response PDU and update telephony
                     final byte[] response = actionParameters.getByteArray(KEY_RESPONSE);
                     final SendConf sendConf = MmsSender.parseSendConf(response, subId);
@@ -278,6 +281,11 @@ public class ProcessSentMessageAction extends Action {
                     conversationId, !failed, status, isSms, subId, true/*isSend*/);
         }
 
+        // PATCH: Notify outbound message observer (for Matrix bridging)
+        if (status == MmsUtils.MMS_REQUEST_SUCCEEDED) {
+            OutboundMessageDispatcher.dispatchMessageSent(db, message, isSms, timestamp);
+        }
+
         LogUtil.i(TAG, "ProcessSentMessageAction: Done sending " + (isSms ? "SMS" : "MMS")
                 + " message " + message.getMessageId()
                 + " in conversation " + conversationId
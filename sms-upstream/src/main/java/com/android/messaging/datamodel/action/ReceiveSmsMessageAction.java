@@ -34,6 +34,7 @@ import com.android.messaging.datamodel.SyncManager;
 import com.android.messaging.datamodel.data.MessageData;
 import com.android.messaging.datamodel.data.ParticipantData;
 import com.android.messaging.sms.MmsSmsUtils;
+import com.android.messaging.util.Assert.RunsOnMainThread;
 import com.android.messaging.util.LogUtil;
 import com.android.messaging.util.OsUtil;
 
@@ -46,6 +47,34 @@ public class ReceiveSmsMessageAction extends Action implements Parcelable {
     private static final String KEY_MESSAGE_VALUES = "message_values";
     private static final String KEY_SUB_ID = "sub_id";
 
+    /**
+     * Interface for ReceiveSmsMessageAction listeners
+     */
+    public interface ReceiveSmsMessageActionListener {
+        /**
+         * @param messageValues the values the message was received with, or null if the
+         *                      broadcast held no valid message
+         * @param message the stored message, or null if it wasn't stored
+         */
+        @RunsOnMainThread
+        abstract void onReceiveSmsMessageCompleted(final ContentValues messageValues,
+                final MessageData message);
+    }
+
+    /**
+     * Receive a message and notify the listener once it is stored, so the caller can use the
+     * stored message directly instead of querying for it.
+     */
+    public static ReceiveSmsMessageActionMonitor receiveSmsMessage(
+            final ContentValues messageValues, final ReceiveSmsMessageActionListener listener) {
+        final ReceiveSmsMessageActionMonitor monitor =
+                new ReceiveSmsMessageActionMonitor(messageValues, listener);
+        final ReceiveSmsMessageAction action =
+                new ReceiveSmsMessageAction(messageValues, monitor.getActionKey());
+        action.start(monitor);
+        return monitor;
+    }
+
     /**
      * Create a message received from a particular number in a particular conversation
      */
@@ -53,6 +82,11 @@ public class ReceiveSmsMessageAction extends Action implements Parcelable {
         actionParameters.putParcelable(KEY_MESSAGE_VALUES, messageValues);
     }
 
+    private ReceiveSmsMessageAction(final ContentValues messageValues, final String actionKey) {
+        super(actionKey);
+        actionParameters.putParcelable(KEY_MESSAGE_VALUES, messageValues);
+    }
+
     @Override
     protected Object executeAction() {
         final Context context = Factory.get().getApplicationContext();
@@ -176,6 +210,34 @@ public class ReceiveSmsMessageAction extends Action implements Parcelable {
         return message;
     }
 
+    /**
+     * A monitor that notifies a listener upon completion
+     */
+    public static class ReceiveSmsMessageActionMonitor extends ActionMonitor
+            implements ActionMonitor.ActionCompletedListener {
+        private final ReceiveSmsMessageActionListener mListener;
+
+        ReceiveSmsMessageActionMonitor(final ContentValues messageValues,
+                final ReceiveSmsMessageActionListener listener) {
+            super(STATE_CREATED, generateUniqueActionKey("ReceiveSmsMessageAction"),
+                    messageValues);
+            setCompletedListener(this);
+            mListener = listener;
+        }
+
+        @Override
+        public void onActionSucceeded(final ActionMonitor monitor,
+                final Action action, final Object data, final Object result) {
+            mListener.onReceiveSmsMessageCompleted((ContentValues) data, (MessageData) result);
+        }
+
+        @Override
+        public void onActionFailed(final ActionMonitor monitor,
+                final Action action, final Object data, final Object result) {
+            mListener.onReceiveSmsMessageCompleted((ContentValues) data, null);
+        }
+    }
+
     private ReceiveSmsMessageAction(final Parcel in) {
         super(in);
     }
@@ -648,6 +648,52 @@ public class ConversationMessageData {
                 + NOTIFICATION_QUERY_SQL_GROUP_BY;
     }
 
+    /**
+     * Same rows as {@link #getNotificationQuerySql()} but restricted to a single conversation
+     * (bound as the only argument) and capped at {@code limit} newest messages, so that
+     * notification lines are only ever materialized for messages that will be displayed.
+     */
+    public static final String getConversationNotificationQuerySql(final int limit) {
+        return CONVERSATION_MESSAGES_QUERY_SQL
+                + " AND "
+                // Inject the conversation id
+                + DatabaseHelper.MESSAGES_TABLE + "." + MessageColumns.CONVERSATION_ID + "=?"
+                + " AND "
+                + "(" + DatabaseHelper.MessageColumns.STATUS + " in ("
+                + MessageData.BUGLE_STATUS_INCOMING_COMPLETE + ", "
+                + MessageData.BUGLE_STATUS_INCOMING_YET_TO_MANUAL_DOWNLOAD + ")"
+                + " AND "
+                + DatabaseHelper.MessageColumns.SEEN + " = 0)"
+                + ")"
+                + NOTIFICATION_QUERY_SQL_GROUP_BY
+                + " LIMIT " + limit;
+    }
+
+    /**
+     * Aggregate over the unseen incoming messages, one row per conversation: conversation id,
+     * unseen message count, newest received timestamp and newest message id. Rows are ordered
+     * newest conversation first, the same order {@link #getNotificationQuerySql()} yields them.
+     */
+    public static final String getNotificationSummaryQuerySql() {
+        return "SELECT "
+                + MessageColumns.CONVERSATION_ID + ", "
+                + "count(*), "
+                + "max(" + MessageColumns.RECEIVED_TIMESTAMP + "), "
+                + "max(" + MessageColumns._ID + ")"
+                + " FROM " + DatabaseHelper.MESSAGES_TABLE
+                + " WHERE " + MessageColumns.STATUS + " in ("
+                + MessageData.BUGLE_STATUS_INCOMING_COMPLETE + ", "
+                + MessageData.BUGLE_STATUS_INCOMING_YET_TO_MANUAL_DOWNLOAD + ")"
+                + " AND " + MessageColumns.SEEN + " = 0"
+                + " GROUP BY " + MessageColumns.CONVERSATION_ID
+                + " ORDER BY max(" + MessageColumns.RECEIVED_TIMESTAMP + ") DESC";
+    }
+
+    public static final int INDEX_SUMMARY_CONVERSATION_ID = 0;
+    public static final int INDEX_SUMMARY_UNSEEN_COUNT = 1;
+    public static final int INDEX_SUMMARY_LATEST_RECEIVED_TIMESTAMP = 2;
+    public static final int INDEX_SUMMARY_LATEST_MESSAGE_ID = 3;
+
     public static final String getWearableQuerySql() {
         return CONVERSATION_MESSAGES_QUERY_SQL
                 + " AND "
@@ -442,9 +442,23 @@ public class MessageData implements Parcelable {
      * while they call this and use the returned value.
      */
     public SQLiteStatement getInsertStatement(final DatabaseWrapper db) {
-        final SQLiteStatement insert = db.getStatementInTransaction(
-                DatabaseWrapper.INDEX_INSERT_MESSAGE, INSERT_MESSAGE_SQL);
+        final SQLiteStatement insert = db.getStatementInTransaction(INSERT_MESSAGE_SQL);
         insert.clearBindings();
+        bindInsertStatement(insert);
+        return insert;
+    }
+
+    /**
+     * SQL of the statement that {@link #bindInsertStatement} binds to.
+     */
+    public static String getInsertSql() {
+        return INSERT_MESSAGE_SQL;
+    }
+
+    /**
+     * Binds this message's columns to a cleared statement compiled from {@link #getInsertSql()}.
+     */
+    public void bindInsertStatement(final SQLiteStatement insert) {
         insert.bindString(INDEX_CONVERSATION_ID, mConversationId);
         insert.bindString(INDEX_PARTICIPANT_ID, mParticipantId);
         insert.bindString(INDEX_SELF_ID, mSelfId);
@@ -471,7 +485,6 @@ public class MessageData implements Parcelable {
         }
         insert.bindLong(INDEX_RAW_TELEPHONY_STATUS, mRawStatus);
         insert.bindLong(INDEX_RETRY_START_TIMESTAMP, mRetryStartTimestamp);
-        return insert;
     }
 
     public final String getMessageId() {
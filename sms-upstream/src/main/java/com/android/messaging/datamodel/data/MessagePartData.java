@@ -266,9 +266,23 @@ public class MessagePartData implements Parcelable {
      */
     public SQLiteStatement getInsertStatement(final DatabaseWrapper db,
                                               final String conversationId) {
-        final SQLiteStatement insert = db.getStatementInTransaction(
-                DatabaseWrapper.INDEX_INSERT_MESSAGE_PART, INSERT_MESSAGE_PART_SQL);
+        final SQLiteStatement insert = db.getStatementInTransaction(INSERT_MESSAGE_PART_SQL);
         insert.clearBindings();
+        bindInsertStatement(insert, conversationId);
+        return insert;
+    }
+
+    /**
+     * SQL of the statement that {@link #bindInsertStatement} binds to.
+     */
+    public static String getInsertSql() {
+        return INSERT_MESSAGE_PART_SQL;
+    }
+
+    /**
+     * Binds this part's columns to a cleared statement compiled from {@link #getInsertSql()}.
+     */
+    public void bindInsertStatement(final SQLiteStatement insert, final String conversationId) {
         insert.bindString(INDEX_MESSAGE_ID, mMessageId);
         if (mText != null) {
             insert.bindString(INDEX_TEXT, mText);
@@ -282,7 +296,6 @@ public class MessagePartData implements Parcelable {
         insert.bindLong(INDEX_WIDTH, mWidth);
         insert.bindLong(INDEX_HEIGHT, mHeight);
         insert.bindString(INDEX_CONVERSATION_ID, conversationId);
-        return insert;
     }
 
     public final String getPartId() {
@@ -28,6 +28,8 @@ public abstract class BindableMediaRequest<T extends RefCountedMediaResource>
         extends BindableOnceData
         implements MediaRequest<T>, MediaResourceLoadListener<T> {
     private MediaResourceLoadListener<T> mListener;
+    // Set by MediaResourceManager while the request waits for a load, to cancel it on unbind.
+    private volatile Runnable mOnUnboundCallback;
 
     public BindableMediaRequest(final MediaResourceLoadListener<T> listener) {
         mListener = listener;
@@ -59,5 +61,13 @@ public abstract class BindableMediaRequest<T extends RefCountedMediaResource>
     @Override
     protected void unregisterListeners() {
         mListener = null;
+        final Runnable onUnboundCallback = mOnUnboundCallback;
+        if (onUnboundCallback != null) {
+            onUnboundCallback.run();
+        }
+    }
+
+    void setOnUnboundCallback(final Runnable onUnboundCallback) {
+        mOnUnboundCallback = onUnboundCallback;
     }
 }
@@ -31,16 +31,17 @@ public class BugleMediaCacheManager extends MediaCacheManager {
 
     // VCard cache size - we compute the size by count, not by bytes.
     private static final int VCARD_CACHE_SIZE = 5;
-    private static final int SHARED_IMAGE_CACHE_SIZE = 1024 * 10;   // 10MB
+    private static final int SHARED_IMAGE_CACHE_SIZE = 1024 * 1024 * 10;   // 10MB
 
     @Override
     protected MediaCache<?> createMediaCacheById(final int id) {
         switch (id) {
             case DEFAULT_IMAGE_CACHE:
-                return new PoolableImageCache(SHARED_IMAGE_CACHE_SIZE, id, "DefaultImageCache");
+                return new PoolableImageCache(SHARED_IMAGE_CACHE_SIZE, id, "DefaultImageCache",
+                        getBitmapPool());
 
             case AVATAR_IMAGE_CACHE:
-                return new PoolableImageCache(id, "AvatarImageCache");
+                return new PoolableImageCache(id, "AvatarImageCache", getBitmapPool());
 
             case VCARD_CACHE:
                 return new MediaCache<VCardResource>(VCARD_CACHE_SIZE, id, "VCardCache");
@@ -119,12 +119,16 @@ public class DecodedImageResource extends ImageResource {
         }
     }
 
+    /**
+     * Hands the bitmap to the shared bitmap pool, which keeps it for reuse if it's mutable and
+     * recycles it otherwise.
+     */
     @Override
     protected void close() {
         acquireLock();
         try {
             if (mBitmap != null) {
-                mBitmap.recycle();
+                MediaCacheManager.get().getBitmapPool().reclaimBitmap(mBitmap);
                 mBitmap = null;
             }
         } finally {
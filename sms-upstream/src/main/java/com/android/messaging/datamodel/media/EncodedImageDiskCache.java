@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2026 Junction Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.messaging.datamodel.media;
+
+import com.android.messaging.util.Assert;
+import com.android.messaging.util.Assert.DoesNotRunOnMainThread;
+import com.android.messaging.util.LogUtil;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Second, disk-backed tier below the in-memory {@link MediaCache} for compressed image
+ * thumbnails ({@link EncodedImageResource}). Entries are keyed by the image request descriptor
+ * key and stored one file per entry, named by a hash of the key so that no URIs or phone numbers
+ * end up in file names. The total size is bounded, and the least recently used entries are
+ * deleted first.
+ *
+ * The in-memory index is guarded by this object's lock; file reads and writes happen outside of
+ * it. Entries are written to a temp file and renamed into place, so readers never see a partial
+ * entry.
+ */
+public class EncodedImageDiskCache {
+    private static final String TAG = LogUtil.BUGLE_IMAGE_TAG;
+
+    private static final int FILE_FORMAT_VERSION = 1;
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+    private final File mDirectory;
+    private final long mMaxSizeInBytes;
+
+    // File name -> file length in bytes, in access order.
+    private final LinkedHashMap<String, Long> mEntries =
+            new LinkedHashMap<String, Long>(16, 0.75f, true /* accessOrder */);
+    private long mSizeInBytes;
+    private boolean mIndexLoaded;
+
+    public EncodedImageDiskCache(final File directory, final long maxSizeInBytes) {
+        mDirectory = directory;
+        mMaxSizeInBytes = maxSizeInBytes;
+    }
+
+    /**
+     * Reads the entry for {@code key}.
+     * @return an encoded image resource with no refs on it, or null on a miss
+     */
+    @DoesNotRunOnMainThread
+    public EncodedImageResource get(final String key) {
+        Assert.isNotMainThread();
+        final String fileName = getFileName(key);
+        if (fileName == null) {
+            return null;
+        }
+        synchronized (this) {
+            loadIndexIfNeeded();
+            if (mEntries.get(fileName) == null) {
+                return null;
+            }
+        }
+        final File file = new File(mDirectory, fileName);
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != FILE_FORMAT_VERSION || !key.equals(in.readUTF())) {
+                // Stale format or a hash collision; either way this entry can't serve the key.
+                throw new IOException("Entry doesn't match request");
+            }
+            final int orientation = in.readInt();
+            final int length = in.readInt();
+            if (length < 0 || length > file.length()) {
+                // A truncated or corrupt header; don't size an allocation from it.
+                throw new IOException("Invalid entry length " + length);
+            }
+            final byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            file.setLastModified(System.currentTimeMillis());
+            return new EncodedImageResource(key, bytes, orientation);
+        } catch (final IOException e) {
+            LogUtil.w(TAG, "EncodedImageDiskCache: dropping unreadable entry", e);
+            removeEntry(fileName);
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Writes {@code bytes} as the entry for {@code key}, replacing any existing entry, then trims
+     * the cache back under its size limit.
+     */
+    @DoesNotRunOnMainThread
+    public void put(final String key, final byte[] bytes, final int orientation) {
+        Assert.isNotMainThread();
+        final String fileName = getFileName(key);
+        if (fileName == null || bytes.length > mMaxSizeInBytes) {
+            return;
+        }
+        synchronized (this) {
+            loadIndexIfNeeded();
+        }
+        final File file = new File(mDirectory, fileName);
+        final File tempFile = new File(mDirectory, fileName + "." + Thread.currentThread().getId()
+                + TEMP_FILE_SUFFIX);
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            out.writeInt(FILE_FORMAT_VERSION);
+            out.writeUTF(key);
+            out.writeInt(orientation);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+            out.close();
+            out = null;
+            synchronized (this) {
+                if (!tempFile.renameTo(file)) {
+                    throw new IOException("Unable to rename cache entry");
+                }
+                final Long previousLength = mEntries.put(fileName, file.length());
+                mSizeInBytes += file.length() - (previousLength == null ? 0 : previousLength);
+                trimToSize(mMaxSizeInBytes);
+            }
+        } catch (final IOException e) {
+            LogUtil.w(TAG, "EncodedImageDiskCache: failed to write entry", e);
+            tempFile.delete();
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    /**
+     * Deletes all entries.
+     */
+    public synchronized void clear() {
+        loadIndexIfNeeded();
+        trimToSize(0);
+    }
+
+    public synchronized long size() {
+        return mSizeInBytes;
+    }
+
+    private synchronized void removeEntry(final String fileName) {
+        final Long length = mEntries.remove(fileName);
+        if (length != null) {
+            mSizeInBytes -= length;
+        }
+        new File(mDirectory, fileName).delete();
+    }
+
+    private void trimToSize(final long maxSizeInBytes) {
+        final Iterator<Map.Entry<String, Long>> iterator = mEntries.entrySet().iterator();
+        while (mSizeInBytes > maxSizeInBytes && iterator.hasNext()) {
+            final Map.Entry<String, Long> eldest = iterator.next();
+            new File(mDirectory, eldest.getKey()).delete();
+            mSizeInBytes -= eldest.getValue();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Builds the index from the files on disk the first time the cache is used, oldest first.
+     * Must be called with the lock held.
+     */
+    private void loadIndexIfNeeded() {
+        if (mIndexLoaded) {
+            return;
+        }
+        mIndexLoaded = true;
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            LogUtil.w(TAG, "EncodedImageDiskCache: unable to create " + mDirectory);
+            return;
+        }
+        final File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(final File lhs, final File rhs) {
+                return Long.compare(lhs.lastModified(), rhs.lastModified());
+            }
+        });
+        for (final File file : files) {
+            if (file.getName().endsWith(TEMP_FILE_SUFFIX)) {
+                // Left behind by a write that didn't finish.
+                file.delete();
+                continue;
+            }
+            mEntries.put(file.getName(), file.length());
+            mSizeInBytes += file.length();
+        }
+        trimToSize(mMaxSizeInBytes);
+    }
+
+    private static String getFileName(final String key) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-1")
+                    .digest(key.getBytes(StandardCharsets.UTF_8));
+            final StringBuilder name = new StringBuilder(digest.length * 2);
+            for (final byte b : digest) {
+                name.append(Character.forDigit((b >> 4) & 0xF, 16))
+                        .append(Character.forDigit(b & 0xF, 16));
+            }
+            return name.toString();
+        } catch (final NoSuchAlgorithmException e) {
+            LogUtil.w(TAG, "EncodedImageDiskCache: SHA-1 unavailable", e);
+            return null;
+        }
+    }
+
+    private static void closeQuietly(final Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (final IOException e) {
+                // Nothing to do, the entry has already been read or written.
+            }
+        }
+    }
+}
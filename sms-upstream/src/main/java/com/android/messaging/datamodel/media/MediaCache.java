@@ -19,34 +19,60 @@ import android.util.LruCache;
 
 import com.android.messaging.util.LogUtil;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * A modified LruCache that is able to hold RefCountedMediaResource instances. It releases
  * ref on the entries as they are evicted from the cache, and it uses the media resource
- * size in kilobytes, instead of the entry count, as the size of the cache.
+ * size in bytes, instead of the entry count, as the size of the cache.
+ *
+ * The cache can be split into a number of stripes, each an independent LruCache holding an equal
+ * share of the total size. Keys are spread over the stripes by hash, so concurrent loads of
+ * different keys mostly contend on different locks. LRU order is kept per stripe.
  *
  * This class is used by the MediaResourceManager class to maintain a number of caches for
  * holding different types of {@link RefCountedMediaResource}
  */
-public class MediaCache<T extends RefCountedMediaResource> extends LruCache<String, T> {
+public class MediaCache<T extends RefCountedMediaResource> {
     private static final String TAG = LogUtil.BUGLE_IMAGE_TAG;
 
-    // Default memory cache size in kilobytes
-    protected static final int DEFAULT_MEDIA_RESOURCE_CACHE_SIZE_IN_KILOBYTES = 1024 * 5;  // 5MB
+    // Default memory cache size in bytes
+    protected static final int DEFAULT_MEDIA_RESOURCE_CACHE_SIZE_IN_BYTES = 1024 * 1024 * 5;  // 5MB
 
     // Unique identifier for the cache.
     private final int mId;
     // Descriptive name given to the cache for debugging purposes.
     private final String mName;
+    // Independently locked LRU stripes; the count is always a power of two.
+    private final List<Stripe> mStripes;
 
     // Convenience constructor that uses the default cache size.
     public MediaCache(final int id, final String name) {
-        this(DEFAULT_MEDIA_RESOURCE_CACHE_SIZE_IN_KILOBYTES, id, name);
+        this(DEFAULT_MEDIA_RESOURCE_CACHE_SIZE_IN_BYTES, id, name);
+    }
+
+    public MediaCache(final int maxSizeInBytes, final int id, final String name) {
+        this(maxSizeInBytes, 1 /* stripeCount */, id, name);
     }
 
-    public MediaCache(final int maxSize, final int id, final String name) {
-        super(maxSize);
+    /**
+     * @param maxSizeInBytes total size of the cache, split evenly between the stripes
+     * @param stripeCount number of independently locked stripes, rounded up to a power of two
+     */
+    public MediaCache(final int maxSizeInBytes, final int stripeCount, final int id,
+            final String name) {
         mId = id;
         mName = name;
+        int stripes = 1;
+        while (stripes < stripeCount) {
+            stripes <<= 1;
+        }
+        final int stripeSize = Math.max(1, maxSizeInBytes / stripes);
+        mStripes = new ArrayList<Stripe>(stripes);
+        for (int i = 0; i < stripes; i++) {
+            mStripes.add(new Stripe(stripeSize));
+        }
     }
 
     public void destroy() {
@@ -65,18 +91,20 @@ public class MediaCache<T extends RefCountedMediaResource> extends LruCache<Stri
      * Gets a media resource from this cache. Must use this method to get resource instead of get()
      * to ensure addRef() on the resource.
      */
-    public synchronized T fetchResourceFromCache(final String key) {
-        final T ret = get(key);
-        if (ret != null) {
-            if (LogUtil.isLoggable(TAG, LogUtil.VERBOSE)) {
-                LogUtil.v(TAG, "cache hit in mediaCache @ " + getName() +
-                        ", total cache hit = " + hitCount() +
-                        ", total cache miss = " + missCount());
+    public T fetchResourceFromCache(final String key) {
+        final Stripe stripe = stripeFor(key);
+        final T ret;
+        // Hold the stripe lock until the ref is added, so that the entry can't be evicted and
+        // released in between.
+        synchronized (stripe) {
+            ret = stripe.get(key);
+            if (ret != null) {
+                ret.addRef();
             }
-            ret.addRef();
-        } else if (LogUtil.isLoggable(TAG, LogUtil.VERBOSE)) {
-            LogUtil.v(TAG, "cache miss in mediaCache @ " + getName() +
-                    ", total cache hit = " + hitCount() +
+        }
+        if (LogUtil.isLoggable(TAG, LogUtil.VERBOSE)) {
+            LogUtil.v(TAG, "cache " + (ret != null ? "hit" : "miss") + " in mediaCache @ " +
+                    getName() + ", total cache hit = " + hitCount() +
                     ", total cache miss = " + missCount());
         }
         return ret;
@@ -86,28 +114,112 @@ public class MediaCache<T extends RefCountedMediaResource> extends LruCache<Stri
      * Add a media resource to this cache. Must use this method to add resource instead of put()
      * to ensure addRef() on the resource.
      */
-    public synchronized T addResourceToCache(final String key, final T mediaResource) {
+    public T addResourceToCache(final String key, final T mediaResource) {
         mediaResource.addRef();
-        return put(key, mediaResource);
+        // LruCache calls entryRemoved() for any displaced entries after it drops its own lock, so
+        // this never holds a stripe lock while releasing other resources.
+        return stripeFor(key).put(key, mediaResource);
+    }
+
+    /**
+     * Removes the entry for {@code key} from the cache, releasing the cache's ref on it.
+     * @return the removed resource, or null if there was none
+     */
+    public T remove(final String key) {
+        return stripeFor(key).remove(key);
+    }
+
+    /**
+     * Evicts the least recently used entries until the cache holds at most
+     * {@code maxSizeInBytes}, split evenly between the stripes.
+     */
+    public void trimToSize(final int maxSizeInBytes) {
+        final int stripeSize = maxSizeInBytes / mStripes.size();
+        for (final Stripe stripe : mStripes) {
+            stripe.trimToSize(stripeSize);
+        }
+    }
+
+    public void evictAll() {
+        for (final Stripe stripe : mStripes) {
+            stripe.evictAll();
+        }
+    }
+
+    /**
+     * @return total size of the cached resources in bytes
+     */
+    public int size() {
+        int size = 0;
+        for (final Stripe stripe : mStripes) {
+            size += stripe.size();
+        }
+        return size;
+    }
+
+    public int maxSize() {
+        int maxSize = 0;
+        for (final Stripe stripe : mStripes) {
+            maxSize += stripe.maxSize();
+        }
+        return maxSize;
+    }
+
+    public int hitCount() {
+        int hits = 0;
+        for (final Stripe stripe : mStripes) {
+            hits += stripe.hitCount();
+        }
+        return hits;
+    }
+
+    public int missCount() {
+        int misses = 0;
+        for (final Stripe stripe : mStripes) {
+            misses += stripe.missCount();
+        }
+        return misses;
     }
 
     /**
-     * Notify the removed entry that is no longer being cached
+     * Notify the removed entry that is no longer being cached. Called without holding the stripe
+     * lock.
      */
-    @Override
-    protected synchronized void entryRemoved(final boolean evicted, final String key,
+    protected void entryRemoved(final boolean evicted, final String key,
             final T oldValue, final T newValue) {
         oldValue.release();
     }
 
     /**
-     * Measure item size in kilobytes rather than units which is more practical
-     * for a media resource cache
+     * Measure item size in bytes rather than units which is more practical for a media resource
+     * cache
      */
-    @Override
     protected int sizeOf(final String key, final T value) {
-        final int mediaSizeInKilobytes = value.getMediaSize() / 1024;
-        // Never zero-count any resource, count as at least 1KB.
-        return mediaSizeInKilobytes == 0 ? 1 : mediaSizeInKilobytes;
+        // Never zero-count any resource, so resources that don't report a size (e.g. VCards)
+        // are effectively counted by number.
+        return Math.max(1, value.getMediaSize());
+    }
+
+    private Stripe stripeFor(final String key) {
+        // Spread the hash so that keys differing only in high bits don't share a stripe.
+        final int hash = key.hashCode();
+        return mStripes.get((hash ^ (hash >>> 16)) & (mStripes.size() - 1));
+    }
+
+    private class Stripe extends LruCache<String, T> {
+        Stripe(final int maxSize) {
+            super(maxSize);
+        }
+
+        @Override
+        protected void entryRemoved(final boolean evicted, final String key,
+                final T oldValue, final T newValue) {
+            MediaCache.this.entryRemoved(evicted, key, oldValue, newValue);
+        }
+
+        @Override
+        protected int sizeOf(final String key, final T value) {
+            return MediaCache.this.sizeOf(key, value);
+        }
     }
-}
\ No newline at end of file
+}
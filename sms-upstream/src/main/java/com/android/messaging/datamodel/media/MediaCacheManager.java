@@ -15,35 +15,98 @@
  */
 package com.android.messaging.datamodel.media;
 
+import android.content.ComponentCallbacks2;
 import android.util.SparseArray;
 
 import com.android.messaging.Factory;
+import com.android.messaging.datamodel.BitmapPool;
 import com.android.messaging.datamodel.MemoryCacheManager;
 import com.android.messaging.datamodel.MemoryCacheManager.MemoryCache;
 import com.android.messaging.datamodel.media.PoolableImageCache.ReusableImageResourcePool;
 
+import java.io.PrintWriter;
+
 /**
- * Manages a set of media caches by id.
+ * Manages a set of media caches by id, and the bitmap pool shared by the image caches.
  */
 public abstract class MediaCacheManager implements MemoryCache {
+    // The bitmap pool takes a sixteenth of the heap, up to 16MB.
+    private static final int MAX_BITMAP_POOL_SIZE_IN_BYTES = 1024 * 1024 * 16;
+    private static final int BITMAP_POOL_HEAP_FRACTION = 16;
+
     public static MediaCacheManager get() {
         return Factory.get().getMediaCacheManager();
     }
 
     protected final SparseArray<MediaCache<?>> mCaches;
+    private final BitmapPool mBitmapPool;
 
     public MediaCacheManager() {
         mCaches = new SparseArray<MediaCache<?>>();
+        mBitmapPool = new BitmapPool((int) Math.min(MAX_BITMAP_POOL_SIZE_IN_BYTES,
+                Runtime.getRuntime().maxMemory() / BITMAP_POOL_HEAP_FRACTION), "SharedBitmapPool");
         MemoryCacheManager.get().registerMemoryCache(this);
     }
 
     @Override
-    public void reclaim() {
+    public synchronized void reclaim() {
         final int count = mCaches.size();
         for (int i = 0; i < count; i++) {
             mCaches.valueAt(i).destroy();
         }
         mCaches.clear();
+        // After the caches so that the bitmaps released by them don't stay around in the pool.
+        mBitmapPool.reclaim();
+    }
+
+    /**
+     * Trims the caches by how much memory pressure the trim level indicates: half of each cache
+     * while running low, three quarters when critical, and everything in the background. The
+     * bitmap pool is trimmed first, as it's cheaper to refill than the caches.
+     */
+    @Override
+    public synchronized void trim(final int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            reclaim();
+            return;
+        }
+        mBitmapPool.trim(level);
+        final int divisor;
+        if (level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            divisor = 4;
+        } else if (level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            divisor = 2;
+        } else {
+            return;
+        }
+        final int count = mCaches.size();
+        for (int i = 0; i < count; i++) {
+            final MediaCache<?> cache = mCaches.valueAt(i);
+            cache.trimToSize(cache.maxSize() / divisor);
+        }
+        // Bitmaps evicted above go back to the pool; don't let them undo its trim.
+        mBitmapPool.trim(level);
+    }
+
+    /**
+     * Returns the bitmap pool shared by all image caches.
+     */
+    public BitmapPool getBitmapPool() {
+        return mBitmapPool;
+    }
+
+    /**
+     * Writes cache and bitmap pool usage to {@code writer}.
+     */
+    public synchronized void dump(final PrintWriter writer) {
+        final int count = mCaches.size();
+        for (int i = 0; i < count; i++) {
+            final MediaCache<?> cache = mCaches.valueAt(i);
+            writer.println("MediaCache(" + cache.getName() + "): size=" + cache.size() + "/" +
+                    cache.maxSize() + " hits=" + cache.hitCount() +
+                    " misses=" + cache.missCount());
+        }
+        mBitmapPool.dump(writer);
     }
 
     public synchronized MediaCache<?> getOrCreateMediaCacheById(final int id) {
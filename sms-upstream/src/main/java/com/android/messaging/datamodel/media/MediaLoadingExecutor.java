@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2026 Junction Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.messaging.datamodel.media;
+
+import android.os.SystemClock;
+
+import java.io.PrintWriter;
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fixed-size thread pool for media loading work that runs higher priority tasks first and,
+ * within a priority, the most recently submitted task first. When the UI flings through a list,
+ * the rows that are currently visible were bound last, so their loads overtake the backlog of
+ * rows that scrolled past. Queued tasks can be cancelled or re-prioritized.
+ *
+ * Keeps counters for queue depth, queue wait and run time, which {@link #dump(PrintWriter)}
+ * writes out.
+ */
+class MediaLoadingExecutor implements Executor {
+    /** Work that nobody is waiting on, e.g. encoding a loaded image for the cache. */
+    static final int PRIORITY_BACKGROUND = 0;
+    /** Loads without a bound listener, e.g. prefetching into the cache. */
+    static final int PRIORITY_PREFETCH = 1;
+    /** Loads for a bound UI element. */
+    static final int PRIORITY_VISIBLE = 2;
+
+    /**
+     * A unit of work queued on the executor.
+     */
+    static final class Task implements Runnable, Comparable<Task> {
+        private final Runnable mWork;
+        private final MediaLoadingExecutor mExecutor;
+        private volatile int mPriority;
+        private volatile long mSequence;
+        private volatile long mEnqueueTime;
+
+        private Task(final MediaLoadingExecutor executor, final Runnable work,
+                final int priority) {
+            mExecutor = executor;
+            mWork = work;
+            mPriority = priority;
+        }
+
+        @Override
+        public void run() {
+            final long startTime = SystemClock.elapsedRealtime();
+            mExecutor.onTaskStarted(startTime - mEnqueueTime);
+            try {
+                mWork.run();
+            } finally {
+                mExecutor.onTaskFinished(SystemClock.elapsedRealtime() - startTime);
+            }
+        }
+
+        @Override
+        public int compareTo(final Task other) {
+            if (mPriority != other.mPriority) {
+                return mPriority > other.mPriority ? -1 : 1;
+            }
+            // Last in, first out within the same priority.
+            return Long.compare(other.mSequence, mSequence);
+        }
+    }
+
+    private final String mName;
+    private final PriorityBlockingQueue<Runnable> mQueue;
+    private final ThreadPoolExecutor mExecutor;
+    private final AtomicLong mNextSequence = new AtomicLong();
+
+    // Metrics
+    private final AtomicLong mSubmittedCount = new AtomicLong();
+    private final AtomicLong mCancelledCount = new AtomicLong();
+    private final AtomicLong mCompletedCount = new AtomicLong();
+    private final AtomicLong mTotalQueueTimeMs = new AtomicLong();
+    private final AtomicLong mMaxQueueTimeMs = new AtomicLong();
+    private final AtomicLong mTotalRunTimeMs = new AtomicLong();
+    private final AtomicLong mMaxRunTimeMs = new AtomicLong();
+    private final AtomicInteger mMaxQueueDepth = new AtomicInteger();
+
+    MediaLoadingExecutor(final String name, final int threadCount, final int threadPriority) {
+        mName = name;
+        mQueue = new PriorityBlockingQueue<Runnable>();
+        mExecutor = new ThreadPoolExecutor(threadCount, threadCount, 0L, TimeUnit.MILLISECONDS,
+                mQueue, new ThreadFactory() {
+                    private final AtomicInteger mThreadCount = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(final Runnable runnable) {
+                        final Thread thread = new Thread(runnable,
+                                mName + "-" + mThreadCount.incrementAndGet());
+                        thread.setPriority(threadPriority);
+                        return thread;
+                    }
+                });
+    }
+
+    /**
+     * Queues {@code work} at background priority.
+     */
+    @Override
+    public void execute(final Runnable work) {
+        submit(work, PRIORITY_BACKGROUND);
+    }
+
+    /**
+     * Queues {@code work} at the given priority.
+     * @return a handle that can be passed to {@link #cancel(Task)} or {@link #raisePriority}
+     */
+    Task submit(final Runnable work, final int priority) {
+        final Task task = new Task(this, work, priority);
+        mSubmittedCount.incrementAndGet();
+        enqueue(task);
+        return task;
+    }
+
+    /**
+     * Removes {@code task} from the queue if it hasn't started yet.
+     * @return true if the task was removed and will not run
+     */
+    boolean cancel(final Task task) {
+        if (mExecutor.remove(task)) {
+            mCancelledCount.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Moves a queued {@code task} to the front of the tasks with the given priority, raising its
+     * priority if needed. Does nothing if the task has already started.
+     */
+    void raisePriority(final Task task, final int priority) {
+        if (mExecutor.remove(task)) {
+            task.mPriority = Math.max(task.mPriority, priority);
+            enqueue(task);
+        }
+    }
+
+    private void enqueue(final Task task) {
+        task.mSequence = mNextSequence.incrementAndGet();
+        task.mEnqueueTime = SystemClock.elapsedRealtime();
+        mExecutor.execute(task);
+        updateMax(mMaxQueueDepth, mQueue.size());
+    }
+
+    private void onTaskStarted(final long queueTimeMs) {
+        mTotalQueueTimeMs.addAndGet(queueTimeMs);
+        updateMax(mMaxQueueTimeMs, queueTimeMs);
+    }
+
+    private void onTaskFinished(final long runTimeMs) {
+        mCompletedCount.incrementAndGet();
+        mTotalRunTimeMs.addAndGet(runTimeMs);
+        updateMax(mMaxRunTimeMs, runTimeMs);
+    }
+
+    int getQueueDepth() {
+        return mQueue.size();
+    }
+
+    long getCancelledCount() {
+        return mCancelledCount.get();
+    }
+
+    void dump(final PrintWriter writer) {
+        final long completed = mCompletedCount.get();
+        writer.println(mName + ": submitted=" + mSubmittedCount.get() +
+                " completed=" + completed +
+                " cancelled=" + mCancelledCount.get() +
+                " queued=" + mQueue.size() +
+                " active=" + mExecutor.getActiveCount() +
+                " maxQueued=" + mMaxQueueDepth.get());
+        writer.println(mName + ": queueTimeMs avg=" + average(mTotalQueueTimeMs.get(), completed) +
+                " max=" + mMaxQueueTimeMs.get() +
+                ", runTimeMs avg=" + average(mTotalRunTimeMs.get(), completed) +
+                " max=" + mMaxRunTimeMs.get());
+    }
+
+    private static long average(final long total, final long count) {
+        return count == 0 ? 0 : total / count;
+    }
+
+    private static void updateMax(final AtomicLong max, final long value) {
+        long current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            // Retry until the max is at least value.
+        }
+    }
+
+    private static void updateMax(final AtomicInteger max, final int value) {
+        int current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            // Retry until the max is at least value.
+        }
+    }
+}
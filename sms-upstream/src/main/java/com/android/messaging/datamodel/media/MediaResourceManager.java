@@ -15,24 +15,26 @@
  */
 package com.android.messaging.datamodel.media;
 
-import android.os.AsyncTask;
-
 import com.android.messaging.Factory;
 import com.android.messaging.util.Assert;
 import com.android.messaging.util.Assert.RunsOnAnyThread;
+import com.android.messaging.util.Assert.RunsOnMainThread;
 import com.android.messaging.util.LogUtil;
+import com.android.messaging.util.ThreadUtil;
 import com.google.common.annotations.VisibleForTesting;
 
+import java.io.File;
+import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * <p>Loads and maintains a set of in-memory LRU caches for different types of media resources.
- * Right now we don't utilize any disk cache as all media urls are expected to be resolved to
- * local content.<p/>
+ * All media urls are expected to be resolved to local content, so the only disk cache is
+ * {@link EncodedImageDiskCache}, which keeps compressed image thumbnails so they don't have to be
+ * decoded from the source again once they fall out of memory.<p/>
  *
  * <p>The MediaResourceManager takes media loading requests through one of two ways:</p>
  *
@@ -44,12 +46,16 @@ import java.util.concurrent.ThreadFactory;
  *  returns the loaded result, or null if failed.</li>
  * </ol>
  *
- * <p>For each media loading task, MediaResourceManager starts an AsyncTask that runs on a
- * dedicated thread, which calls MediaRequest.loadMediaBlocking() to perform the actual media
- * loading work. As the media resources are loaded, MediaResourceManager notifies the callers
- * (which must implement the MediaResourceLoadListener interface) via onMediaResourceLoaded()
- * callback. Meanwhile, MediaResourceManager also pushes the loaded resource onto its dedicated
- * cache.</p>
+ * <p>For each media loading task, MediaResourceManager queues a task on a dedicated thread pool,
+ * which calls MediaRequest.loadMediaBlocking() to perform the actual media loading work. As the
+ * media resources are loaded, MediaResourceManager notifies the callers (which must implement the
+ * MediaResourceLoadListener interface) via onMediaResourceLoaded() callback. Meanwhile,
+ * MediaResourceManager also pushes the loaded resource onto its dedicated cache.</p>
+ *
+ * <p>Requests for bound UI run before fire-and-forget requests, and the most recent request runs
+ * first, so that the items on screen load before the ones scrolled past. A queued request is
+ * dropped when its {@link BindableMediaRequest} is unbound, and concurrent requests with the same
+ * key share a single load.</p>
  *
  * <p>The media resource caches ({@link MediaCache}) are maintained as a set of LRU caches. They are
  * created on demand by the incoming MediaRequest's getCacheId() method. The implementations of
@@ -97,21 +103,27 @@ public class MediaResourceManager {
 
     // We use a fixed thread pool for handling media loading tasks. Using a cached thread pool
     // allows for unlimited thread creation which can lead to OOMs so we limit the threads here.
-    private static final Executor MEDIA_LOADING_EXECUTOR = Executors.newFixedThreadPool(10);
+    private static final MediaLoadingExecutor MEDIA_LOADING_EXECUTOR =
+            new MediaLoadingExecutor("MediaLoading", 10, Thread.NORM_PRIORITY);
 
     // A dedicated single thread executor for performing background task after loading the resource
     // on the media loading executor. This includes work such as encoding loaded media to be cached.
     // These tasks are run on a single worker thread with low priority so as not to contend with the
     // media loading tasks.
-    private static final Executor MEDIA_BACKGROUND_EXECUTOR = Executors.newSingleThreadExecutor(
-            new ThreadFactory() {
-                @Override
-                public Thread newThread(final Runnable runnable) {
-                    final Thread encodingThread = new Thread(runnable);
-                    encodingThread.setPriority(Thread.MIN_PRIORITY);
-                    return encodingThread;
-                }
-            });
+    private static final MediaLoadingExecutor MEDIA_BACKGROUND_EXECUTOR =
+            new MediaLoadingExecutor("MediaBackground", 1, Thread.MIN_PRIORITY);
+
+    // Directory under the app's cache dir and size limit for the encoded image disk cache.
+    private static final String ENCODED_IMAGE_DISK_CACHE_DIR = "encoded_images";
+    private static final long ENCODED_IMAGE_DISK_CACHE_SIZE_IN_BYTES = 1024 * 1024 * 20; // 20MB
+
+    private EncodedImageDiskCache mEncodedImageDiskCache;
+
+    // Loads that are queued or running, keyed by request type and key. Guarded by itself.
+    private final HashMap<String, PendingLoad<?>> mPendingLoads =
+            new HashMap<String, PendingLoad<?>>();
+    // Number of requests that joined a pending load instead of starting their own.
+    private final AtomicLong mJoinedLoadCount = new AtomicLong();
 
     /**
      * Requests a media resource asynchronously. Upon completion of the media loading task,
@@ -125,7 +137,10 @@ public class MediaResourceManager {
      */
     public <T extends RefCountedMediaResource> void requestMediaResourceAsync(
             final MediaRequest<T> mediaRequest) {
-        scheduleAsyncMediaRequest(mediaRequest, MEDIA_LOADING_EXECUTOR);
+        scheduleAsyncMediaRequest(mediaRequest, MEDIA_LOADING_EXECUTOR,
+                mediaRequest instanceof BindableMediaRequest<?> ?
+                        MediaLoadingExecutor.PRIORITY_VISIBLE :
+                        MediaLoadingExecutor.PRIORITY_PREFETCH);
     }
 
     /**
@@ -196,9 +211,82 @@ public class MediaResourceManager {
                 return mediaResource;
             }
         }
+        return loadMediaFromDiskCache(mediaRequest);
+    }
+
+    /**
+     * Looks up an encoded image for the request in the disk cache after an in-memory cache miss.
+     * A hit is put back into the memory cache in its compact encoded form, and is decoded by the
+     * caller like any other encoded cache hit.
+     */
+    @SuppressWarnings("unchecked")
+    private <T extends RefCountedMediaResource> T loadMediaFromDiskCache(
+            final MediaRequest<T> mediaRequest) {
+        final String diskCacheKey = getDiskCacheKey(mediaRequest);
+        if (diskCacheKey == null) {
+            return null;
+        }
+        final T mediaResource = (T) getEncodedImageDiskCache().get(diskCacheKey);
+        if (mediaResource != null) {
+            // Reserve a ref for the caller, same as a memory cache hit.
+            mediaResource.addRef();
+            addResourceToMemoryCache(mediaRequest, mediaResource);
+            if (LogUtil.isLoggable(TAG, LogUtil.VERBOSE)) {
+                LogUtil.v(TAG, "disk cache hit, key=" +
+                        LogUtil.sanitizePII(diskCacheKey) /* key can contain phone# */);
+            }
+        }
+        return mediaResource;
+    }
+
+    /**
+     * Queues a freshly encoded image to be written to the disk cache on the background executor.
+     */
+    private <T extends RefCountedMediaResource> void writeToDiskCacheAsync(
+            final MediaRequest<T> mediaRequest, final T mediaResource) {
+        final String diskCacheKey = getDiskCacheKey(mediaRequest);
+        if (diskCacheKey == null || !(mediaResource instanceof EncodedImageResource)) {
+            return;
+        }
+        final EncodedImageResource encodedResource = (EncodedImageResource) mediaResource;
+        // Hold a ref until the write is done.
+        encodedResource.addRef();
+        MEDIA_BACKGROUND_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    getEncodedImageDiskCache().put(diskCacheKey, encodedResource.getBytes(),
+                            encodedResource.getOrientation());
+                } finally {
+                    encodedResource.release();
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the disk cache key for requests whose images get compressed for caching, which is
+     * the key of the request descriptor, or null if the request doesn't use the disk cache.
+     */
+    private static String getDiskCacheKey(final MediaRequest<?> mediaRequest) {
+        final MediaRequestDescriptor<?> descriptor = mediaRequest.getDescriptor();
+        if (descriptor instanceof UriImageRequestDescriptor &&
+                ((UriImageRequestDescriptor) descriptor).allowCompression) {
+            return ((UriImageRequestDescriptor) descriptor).getKey();
+        }
         return null;
     }
 
+    private synchronized EncodedImageDiskCache getEncodedImageDiskCache() {
+        if (mEncodedImageDiskCache == null) {
+            final File directory = new File(Factory.get().getApplicationContext().getCacheDir(),
+                    ENCODED_IMAGE_DISK_CACHE_DIR);
+            mEncodedImageDiskCache = new EncodedImageDiskCache(directory,
+                    ENCODED_IMAGE_DISK_CACHE_SIZE_IN_BYTES);
+        }
+        return mEncodedImageDiskCache;
+    }
+
     private <T extends RefCountedMediaResource> T loadMediaFromRequest(
             final MediaRequest<T> mediaRequest, final List<MediaRequest<T>> chainedRequests)
                     throws Exception {
@@ -216,74 +304,214 @@ public class MediaResourceManager {
         // Don't cache the media request if it is defined as non-cacheable.
         if (resource.isCacheable()) {
             addResourceToMemoryCache(mediaRequest, resource);
+            if (mediaRequest.getRequestType() == MediaRequest.REQUEST_ENCODE_MEDIA) {
+                writeToDiskCacheAsync(mediaRequest, resource);
+            }
         }
         return resource;
     }
 
     /**
-     * Schedule an async media request on the given <code>executor</code>.
+     * Schedule an async media request on the given <code>executor</code>. If a load for the same
+     * request type and key is already pending, the request joins it instead.
      * @param mediaRequest the media request to be processed asynchronously. May be either an
      * {@link AsyncMediaRequestWrapper} for listening for event callbacks, or a regular media
      * request for fire-and-forget type of behavior.
      */
+    @SuppressWarnings("unchecked")
     private <T extends RefCountedMediaResource> void scheduleAsyncMediaRequest(
-            final MediaRequest<T> mediaRequest, final Executor executor) {
-        final BindableMediaRequest<T> bindableRequest =
-                (mediaRequest instanceof BindableMediaRequest<?>) ?
-                        (BindableMediaRequest<T>) mediaRequest : null;
+            final MediaRequest<T> mediaRequest, final MediaLoadingExecutor executor,
+            final int priority) {
+        final BindableMediaRequest<T> bindableRequest = asBindableRequest(mediaRequest);
         if (bindableRequest != null && !bindableRequest.isBound()) {
             return; // Request is obsolete
         }
-        // We don't use SafeAsyncTask here since it enforces the shared thread pool executor
-        // whereas we want a dedicated thread pool executor.
-        AsyncTask<Void, Void, MediaLoadingResult<T>> mediaLoadingTask =
-                new AsyncTask<Void, Void, MediaLoadingResult<T>>() {
-            private Exception mException;
+        final String loadKey = mediaRequest.getRequestType() + ":" + mediaRequest.getKey();
+        synchronized (mPendingLoads) {
+            PendingLoad<T> load = (PendingLoad<T>) mPendingLoads.get(loadKey);
+            if (load != null) {
+                mJoinedLoadCount.incrementAndGet();
+                load.addRequest(mediaRequest);
+                // The newest request goes first; this is a no-op if the load already started.
+                load.mExecutor.raisePriority(load.mTask, priority);
+                return;
+            }
+            load = new PendingLoad<T>(loadKey, executor);
+            load.addRequest(mediaRequest);
+            mPendingLoads.put(loadKey, load);
+            load.mTask = executor.submit(load, priority);
+        }
+    }
 
-            @Override
-            protected MediaLoadingResult<T> doInBackground(Void... params) {
+    /**
+     * Called when a request waiting on {@code load} is unbound. Cancels the load if it hasn't
+     * started and no one else is waiting on it.
+     */
+    @RunsOnMainThread
+    private void onRequestUnbound(final PendingLoad<?> load,
+            final BindableMediaRequest<?> bindableRequest) {
+        synchronized (mPendingLoads) {
+            if (mPendingLoads.get(load.mLoadKey) != load) {
+                return; // Already finished or cancelled
+            }
+            load.mRequests.remove(bindableRequest);
+            if (load.getLiveRequest() == null && load.mExecutor.cancel(load.mTask)) {
+                mPendingLoads.remove(load.mLoadKey);
+                if (LogUtil.isLoggable(TAG, LogUtil.VERBOSE)) {
+                    LogUtil.v(TAG, "media request cancelled, no longer bound; key=" +
+                            LogUtil.sanitizePII(bindableRequest.getKey()) /* key with phone# */);
+                }
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends RefCountedMediaResource> BindableMediaRequest<T> asBindableRequest(
+            final MediaRequest<T> mediaRequest) {
+        return (mediaRequest instanceof BindableMediaRequest<?>) ?
+                (BindableMediaRequest<T>) mediaRequest : null;
+    }
+
+    /**
+     * Writes media loading queue and latency counters to {@code writer}.
+     */
+    public void dump(final PrintWriter writer) {
+        synchronized (mPendingLoads) {
+            writer.println("MediaResourceManager: pendingLoads=" + mPendingLoads.size() +
+                    " joinedLoads=" + mJoinedLoadCount.get());
+        }
+        MEDIA_LOADING_EXECUTOR.dump(writer);
+        MEDIA_BACKGROUND_EXECUTOR.dump(writer);
+    }
+
+    /**
+     * A queued or running load, shared by all requests with the same type and key that arrive
+     * before it finishes.
+     */
+    private class PendingLoad<T extends RefCountedMediaResource> implements Runnable {
+        private final String mLoadKey;
+        private final MediaLoadingExecutor mExecutor;
+        // Requests waiting on this load, in arrival order. Guarded by mPendingLoads.
+        private final List<MediaRequest<T>> mRequests = new ArrayList<MediaRequest<T>>();
+        // Guarded by mPendingLoads.
+        private MediaLoadingExecutor.Task mTask;
+
+        PendingLoad(final String loadKey, final MediaLoadingExecutor executor) {
+            mLoadKey = loadKey;
+            mExecutor = executor;
+        }
+
+        private void addRequest(final MediaRequest<T> mediaRequest) {
+            mRequests.add(mediaRequest);
+            final BindableMediaRequest<T> bindableRequest = asBindableRequest(mediaRequest);
+            if (bindableRequest != null) {
+                bindableRequest.setOnUnboundCallback(new Runnable() {
+                    @Override
+                    public void run() {
+                        onRequestUnbound(PendingLoad.this, bindableRequest);
+                    }
+                });
+            }
+        }
+
+        /**
+         * @return the first request that still wants the result: a fire-and-forget request, or
+         * one that is still bound. Null if there's none.
+         */
+        private MediaRequest<T> getLiveRequest() {
+            for (final MediaRequest<T> mediaRequest : mRequests) {
+                final BindableMediaRequest<T> bindableRequest = asBindableRequest(mediaRequest);
+                if (bindableRequest == null || bindableRequest.isBound()) {
+                    return mediaRequest;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public void run() {
+            final MediaRequest<T> mediaRequest;
+            synchronized (mPendingLoads) {
                 // Double check the request is still valid by the time we start processing it
-                if (bindableRequest != null && !bindableRequest.isBound()) {
-                    return null; // Request is obsolete
+                mediaRequest = getLiveRequest();
+                if (mediaRequest == null) {
+                    finishLocked();
                 }
+            }
+            MediaLoadingResult<T> result = null;
+            Exception exception = null;
+            if (mediaRequest != null) {
                 try {
-                    return processMediaRequestInternal(mediaRequest);
-                } catch (Exception e) {
-                    mException = e;
-                    return null;
+                    result = processMediaRequestInternal(mediaRequest);
+                } catch (final Exception e) {
+                    exception = e;
                 }
             }
+            final List<MediaRequest<T>> requests;
+            synchronized (mPendingLoads) {
+                requests = finishLocked();
+            }
+            final MediaLoadingResult<T> loadResult = result;
+            final Exception loadException = exception;
+            ThreadUtil.getMainThreadHandler().post(new Runnable() {
+                @Override
+                public void run() {
+                    onLoadFinished(requests, loadResult, loadException);
+                }
+            });
+        }
 
-            @Override
-            protected void onPostExecute(final MediaLoadingResult<T> result) {
-                if (result != null) {
-                    Assert.isNull(mException);
-                    Assert.isTrue(result.loadedResource.getRefCount() > 0);
-                    try {
+        /**
+         * Stops accepting new requests for this load.
+         * @return the requests that were waiting on it
+         */
+        private List<MediaRequest<T>> finishLocked() {
+            if (mPendingLoads.get(mLoadKey) == this) {
+                mPendingLoads.remove(mLoadKey);
+            }
+            for (final MediaRequest<T> mediaRequest : mRequests) {
+                final BindableMediaRequest<T> bindableRequest = asBindableRequest(mediaRequest);
+                if (bindableRequest != null) {
+                    bindableRequest.setOnUnboundCallback(null);
+                }
+            }
+            return new ArrayList<MediaRequest<T>>(mRequests);
+        }
+
+        @RunsOnMainThread
+        private void onLoadFinished(final List<MediaRequest<T>> requests,
+                final MediaLoadingResult<T> result, final Exception exception) {
+            if (result != null) {
+                Assert.isNull(exception);
+                Assert.isTrue(result.loadedResource.getRefCount() > 0);
+                try {
+                    for (final MediaRequest<T> mediaRequest : requests) {
+                        final BindableMediaRequest<T> bindableRequest =
+                                asBindableRequest(mediaRequest);
                         if (bindableRequest != null) {
                             bindableRequest.onMediaResourceLoaded(
                                     bindableRequest, result.loadedResource, result.fromCache);
                         }
-                    } finally {
-                        result.loadedResource.release();
-                        result.scheduleChainedRequests();
                     }
-                } else if (mException != null) {
-                    LogUtil.e(LogUtil.BUGLE_TAG, "Asynchronous media loading failed, key=" +
-                            mediaRequest.getKey(), mException);
+                } finally {
+                    result.loadedResource.release();
+                    result.scheduleChainedRequests();
+                }
+            } else if (exception != null) {
+                LogUtil.e(LogUtil.BUGLE_TAG, "Asynchronous media loading failed, key=" +
+                        requests.get(0).getKey(), exception);
+                for (final MediaRequest<T> mediaRequest : requests) {
+                    final BindableMediaRequest<T> bindableRequest =
+                            asBindableRequest(mediaRequest);
                     if (bindableRequest != null) {
-                        bindableRequest.onMediaResourceLoadError(bindableRequest, mException);
-                    }
-                } else {
-                    Assert.isTrue(bindableRequest == null || !bindableRequest.isBound());
-                    if (LogUtil.isLoggable(TAG, LogUtil.VERBOSE)) {
-                        LogUtil.v(TAG, "media request not processed, no longer bound; key=" +
-                                LogUtil.sanitizePII(mediaRequest.getKey()) /* key with phone# */);
+                        bindableRequest.onMediaResourceLoadError(bindableRequest, exception);
                     }
                 }
+            } else if (LogUtil.isLoggable(TAG, LogUtil.VERBOSE)) {
+                LogUtil.v(TAG, "media request not processed, no longer bound; key=" +
+                        LogUtil.sanitizePII(mLoadKey) /* key with phone# */);
             }
-        };
-        mediaLoadingTask.executeOnExecutor(executor, (Void) null);
+        }
     }
 
     @VisibleForTesting
@@ -318,7 +546,8 @@ public class MediaResourceManager {
          */
         public void scheduleChainedRequests() {
             for (final MediaRequest<T> mediaRequest : mChainedRequests) {
-                scheduleAsyncMediaRequest(mediaRequest, MEDIA_BACKGROUND_EXECUTOR);
+                scheduleAsyncMediaRequest(mediaRequest, MEDIA_BACKGROUND_EXECUTOR,
+                        MediaLoadingExecutor.PRIORITY_BACKGROUND);
             }
         }
     }
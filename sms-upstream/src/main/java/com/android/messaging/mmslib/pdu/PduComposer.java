@@ -26,6 +26,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.Arrays;
 
 public class PduComposer {
@@ -151,41 +152,51 @@ public class PduComposer {
      * the PDU is invalid.
      */
     public byte[] make() {
+        if (!compose()) {
+            return null;
+        }
+        return mMessage.toByteArray();
+    }
+
+    /**
+     * Make the message without copying it out of the composer. Use {@link #getMessageSize()}
+     * and {@link #writeTo(OutputStream)} to get at the result.
+     *
+     * @return true if the message was made, false if the PDU is invalid.
+     */
+    public boolean compose() {
         // Get Message-type.
         final int type = mPdu.getMessageType();
 
         /* make the message */
         switch (type) {
             case PduHeaders.MESSAGE_TYPE_SEND_REQ:
-                if (makeSendReqPdu() != PDU_COMPOSE_SUCCESS) {
-                    return null;
-                }
-                break;
+                return makeSendReqPdu() == PDU_COMPOSE_SUCCESS;
             case PduHeaders.MESSAGE_TYPE_NOTIFYRESP_IND:
-                if (makeNotifyResp() != PDU_COMPOSE_SUCCESS) {
-                    return null;
-                }
-                break;
+                return makeNotifyResp() == PDU_COMPOSE_SUCCESS;
             case PduHeaders.MESSAGE_TYPE_ACKNOWLEDGE_IND:
-                if (makeAckInd() != PDU_COMPOSE_SUCCESS) {
-                    return null;
-                }
-                break;
+                return makeAckInd() == PDU_COMPOSE_SUCCESS;
             case PduHeaders.MESSAGE_TYPE_READ_REC_IND:
-                if (makeReadRecInd() != PDU_COMPOSE_SUCCESS) {
-                    return null;
-                }
-                break;
+                return makeReadRecInd() == PDU_COMPOSE_SUCCESS;
             case PduHeaders.MESSAGE_TYPE_NOTIFICATION_IND:
-                if (makeNotificationInd() != PDU_COMPOSE_SUCCESS) {
-                    return null;
-                }
-                break;
+                return makeNotificationInd() == PDU_COMPOSE_SUCCESS;
             default:
-                return null;
+                return false;
         }
+    }
 
-        return mMessage.toByteArray();
+    /**
+     * Get the size of the message made by {@link #compose()}, in bytes.
+     */
+    public int getMessageSize() {
+        return mMessage.size();
+    }
+
+    /**
+     * Write the message made by {@link #compose()} to the given stream.
+     */
+    public void writeTo(final OutputStream out) throws IOException {
+        mMessage.writeTo(out);
     }
 
     /**
@@ -23,6 +23,7 @@ import android.net.Uri;
 import android.provider.Telephony.Sms;
 import android.telephony.SmsMessage;
 
+import com.android.messaging.adapter.SmsTransportImpl;
 import com.android.messaging.datamodel.action.ProcessDeliveryReportAction;
 import com.android.messaging.datamodel.action.ProcessDownloadedMmsAction;
 import com.android.messaging.datamodel.action.ProcessSentMessageAction;
@@ -69,22 +70,15 @@ public class SendStatusReceiver extends BroadcastReceiver {
                     intent.getIntExtra(EXTRA_ERROR_CODE, NO_ERROR_CODE),
                     intent.getIntExtra(EXTRA_PART_ID, NO_PART_ID),
                     intent.getIntExtra(EXTRA_SUB_ID, ParticipantData.DEFAULT_SELF_SUB_ID));
-
-            // PATCH: Notify outbound message observer (for Matrix bridging)
-            if (CoreSmsRegistry.INSTANCE.getOutboundMessageObserver() != null) {
-                CoreSmsRegistry.INSTANCE.getOutboundMessageObserver().onMessageSent(
-                        requestId, resultCode, true /* isSms */);
-            }
+            // PATCH: Sent messages are reported to the outbound message observer once, from
+            // ProcessSentMessageAction, rather than here for every part
         } else if (MMS_SENT_ACTION.equals(action)) {
             final Uri messageUri = intent.getData();
             ProcessSentMessageAction.processMmsSent(resultCode, messageUri,
                     intent.getExtras());
 
-            // PATCH: Notify outbound message observer (for Matrix bridging)
-            if (CoreSmsRegistry.INSTANCE.getOutboundMessageObserver() != null) {
-                CoreSmsRegistry.INSTANCE.getOutboundMessageObserver().onMessageSent(
-                        messageUri, resultCode, false /* isSms */);
-            }
+            // PATCH: Free the in-flight slot of MMS sent through SmsTransport
+            SmsTransportImpl.onMmsSent(messageUri);
         } else if (MMS_DOWNLOADED_ACTION.equals(action)) {
             ProcessDownloadedMmsAction.processMessageDownloaded(resultCode,
                     intent.getExtras());
@@ -42,6 +42,7 @@ import com.android.messaging.datamodel.BugleNotifications;
 import com.android.messaging.datamodel.MessageNotificationState;
 import com.android.messaging.datamodel.NoConfirmationSmsSendService;
 import com.android.messaging.datamodel.action.ReceiveSmsMessageAction;
+import com.android.messaging.datamodel.action.ReceiveSmsMessageAction.ReceiveSmsMessageActionListener;
 import com.android.messaging.sms.MmsUtils;
 import com.android.messaging.ui.UIIntents;
 import com.android.messaging.util.BugleGservices;
@@ -178,11 +179,24 @@ public final class SmsReceiver extends BroadcastReceiver {
     private static final String EXTRA_SUB_ID = "subscription";
 
     public static void deliverSmsIntent(final Context context, final Intent intent) {
+        deliverSmsIntent(context, intent, null);
+    }
+
+    /**
+     * Deliver an SMS_DELIVER intent, notifying {@code listener} (if not null) once the message
+     * is stored. The platform reassembles multipart messages by their concatenation reference
+     * before broadcasting, so the intent holds every part of one message.
+     */
+    public static void deliverSmsIntent(final Context context, final Intent intent,
+            final ReceiveSmsMessageActionListener listener) {
         final android.telephony.SmsMessage[] messages = getMessagesFromIntent(intent);
 
         // Check messages for validity
         if (messages == null || messages.length < 1) {
             LogUtil.e(TAG, "processReceivedSms: null or zero or ignored message");
+            if (listener != null) {
+                listener.onReceiveSmsMessageCompleted(null, null);
+            }
             return;
         }
 
@@ -191,7 +205,7 @@ public final class SmsReceiver extends BroadcastReceiver {
         // Always convert negative subIds into -1
         int subId = PhoneUtils.getDefault().getEffectiveIncomingSubIdFromSystem(
                 intent, EXTRA_SUB_ID);
-        deliverSmsMessages(context, subId, errorCode, messages);
+        deliverSmsMessages(context, subId, errorCode, messages, listener);
         if (MmsUtils.isDumpSmsEnabled()) {
             final String format = intent.getStringExtra("format");
             DebugUtils.dumpSms(messages[0].getTimestampMillis(), messages, format);
@@ -200,6 +214,12 @@ public final class SmsReceiver extends BroadcastReceiver {
 
     public static void deliverSmsMessages(final Context context, final int subId,
             final int errorCode, final android.telephony.SmsMessage[] messages) {
+        deliverSmsMessages(context, subId, errorCode, messages, null);
+    }
+
+    private static void deliverSmsMessages(final Context context, final int subId,
+            final int errorCode, final android.telephony.SmsMessage[] messages,
+            final ReceiveSmsMessageActionListener listener) {
         final ContentValues messageValues =
                 MmsUtils.parseReceivedSmsMessage(context, messages, errorCode);
 
@@ -220,6 +240,12 @@ public final class SmsReceiver extends BroadcastReceiver {
         if (messages[0].getMessageClass() == android.telephony.SmsMessage.MessageClass.CLASS_0 ||
                 DebugUtils.debugClassZeroSmsEnabled()) {
             Factory.get().getUIIntents().launchClassZeroActivity(context, messageValues);
+            if (listener != null) {
+                // Class 0 messages are shown, not stored
+                listener.onReceiveSmsMessageCompleted(messageValues, null);
+            }
+        } else if (listener != null) {
+            ReceiveSmsMessageAction.receiveSmsMessage(messageValues, listener);
         } else {
             final ReceiveSmsMessageAction action = new ReceiveSmsMessageAction(messageValues);
             action.start();
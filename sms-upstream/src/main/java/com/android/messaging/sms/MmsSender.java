@@ -179,17 +179,19 @@ public class MmsSender {
             // Ensure rawmms directory exists
             tempFile.getParentFile().mkdirs();
             writer = new FileOutputStream(tempFile);
-            final byte[] pduBytes = new PduComposer(context, pdu).make();
-            if (pduBytes == null) {
+            // Write the composed PDU straight from the composer's buffer; attachments can make it
+            // large enough that a second copy of it matters.
+            final PduComposer composer = new PduComposer(context, pdu);
+            if (!composer.compose()) {
                 throw new MmsFailureException(
                         MmsUtils.MMS_REQUEST_NO_RETRY, "Failed to compose PDU");
             }
-            if (pduBytes.length > MmsConfig.get(subId).getMaxMessageSize()) {
+            if (composer.getMessageSize() > MmsConfig.get(subId).getMaxMessageSize()) {
                 throw new MmsFailureException(
                         MmsUtils.MMS_REQUEST_NO_RETRY,
                         MessageData.RAW_TELEPHONY_STATUS_MESSAGE_TOO_BIG);
             }
-            writer.write(pduBytes);
+            composer.writeTo(writer);
         } catch (final IOException e) {
             if (tempFile != null) {
                 tempFile.delete();
@@ -2337,6 +2337,22 @@ public class MmsUtils {
         return message;
     }
 
+    /**
+     * Create the M-Send.req for a message that is sent without being stored in the telephony
+     * provider first, using the default report, expiry and priority settings.
+     *
+     * @return the M-Send.req, or null if it couldn't be created
+     */
+    public static SendReq createMmsSendReq(final Context context, final int subId,
+            final String[] recipients, final MessageData message, final long timestampMillis) {
+        return createMmsSendReq(context, subId, recipients, message,
+                DEFAULT_DELIVERY_REPORT_MODE,
+                DEFAULT_READ_REPORT_MODE,
+                DEFAULT_EXPIRY_TIME_IN_SECONDS,
+                DEFAULT_PRIORITY,
+                timestampMillis);
+    }
+
     /**
      * Create an MMS message with subject, text and image
      *
@@ -68,4 +68,13 @@ public final class BuglePrefsKeys {
     public static final String PROCESS_PENDING_MESSAGES_RETRY_COUNT
             = BuglePrefs.SHARED_PREFERENCES_PER_SUBSCRIPTION_PREFIX + "process_pending_retry";
 
+    /**
+     * Highest part id covered by the search index backfill, -1 once there is nothing left to
+     * backfill
+     */
+    public static final String SEARCH_INDEX_BACKFILL_POSITION
+            = "search_index_backfill_position";
+    public static final long SEARCH_INDEX_BACKFILL_POSITION_DEFAULT
+            = -1;
+
 }
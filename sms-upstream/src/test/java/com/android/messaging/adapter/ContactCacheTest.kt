@@ -0,0 +1,80 @@
+package com.android.messaging.adapter
+
+import com.technicallyrural.junction.core.contacts.ContactInfo
+import org.junit.Assert.*
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+
+/**
+ * Robolectric tests for [ContactCache].
+ */
+@RunWith(RobolectricTestRunner::class)
+@Config(sdk = [33])
+class ContactCacheTest {
+
+    private val alice = ContactInfo(1L, "Alice", null, emptyList(), "alice")
+
+    @Test
+    fun `cached contact is returned`() {
+        val cache = ContactCache(10)
+
+        cache.put(cache.generation(), "+15550100", alice)
+
+        assertEquals(alice, cache.get("+15550100")?.contact)
+    }
+
+    @Test
+    fun `unknown number is cached as a negative entry`() {
+        val cache = ContactCache(10)
+
+        cache.put(cache.generation(), "+15550199", null)
+
+        val entry = cache.get("+15550199")
+        assertNotNull("Negative lookup should be cached", entry)
+        assertNull(entry?.contact)
+    }
+
+    @Test
+    fun `uncached number returns null`() {
+        assertNull(ContactCache(10).get("+15550100"))
+    }
+
+    @Test
+    fun `invalidate drops cached lookups`() {
+        val cache = ContactCache(10)
+        cache.put(cache.generation(), "+15550100", alice)
+        cache.put(cache.generation(), "+15550199", null)
+
+        cache.invalidate()
+
+        assertNull(cache.get("+15550100"))
+        assertNull(cache.get("+15550199"))
+        assertEquals(0, cache.size())
+    }
+
+    @Test
+    fun `lookup started before invalidate is not cached`() {
+        val cache = ContactCache(10)
+        val generation = cache.generation()
+
+        cache.invalidate()
+        cache.put(generation, "+15550100", alice)
+
+        assertNull("Stale lookup should be dropped", cache.get("+15550100"))
+    }
+
+    @Test
+    fun `least recently used number is evicted`() {
+        val cache = ContactCache(2)
+        cache.put(cache.generation(), "+15550100", alice)
+        cache.put(cache.generation(), "+15550101", null)
+        cache.get("+15550100")
+
+        cache.put(cache.generation(), "+15550102", null)
+
+        assertNotNull(cache.get("+15550100"))
+        assertNull(cache.get("+15550101"))
+    }
+}
@@ -2,7 +2,11 @@ package com.android.messaging.adapter
 
 import android.content.Context
 import androidx.test.core.app.ApplicationProvider
+import com.technicallyrural.junction.core.store.Message
+import com.technicallyrural.junction.core.store.MessageSearchKey
+import com.technicallyrural.junction.core.store.MessageSearchPage
 import com.technicallyrural.junction.core.store.MessageStore
+import kotlinx.coroutines.flow.Flow
 import org.junit.Assert.*
 import org.junit.Before
 import org.junit.Test
@@ -62,7 +66,11 @@ class MessageStoreImplTest {
         assertNotNull("insertMessage exists", store::insertMessage)
         assertNotNull("updateMessageStatus exists", store::updateMessageStatus)
         assertNotNull("deleteMessage exists", store::deleteMessage)
-        assertNotNull("searchMessages exists", store::searchMessages)
+        val search: (String) -> Flow<List<Message>> = store::searchMessages
+        assertNotNull("searchMessages exists", search)
+        val pagedSearch: (String, Int, MessageSearchKey?) -> Flow<MessageSearchPage> =
+            store::searchMessages
+        assertNotNull("paged searchMessages exists", pagedSearch)
         assertNotNull("syncWithSystemProvider exists", store::syncWithSystemProvider)
     }
 
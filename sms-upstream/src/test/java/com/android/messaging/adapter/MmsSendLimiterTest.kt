@@ -0,0 +1,103 @@
+package com.android.messaging.adapter
+
+import android.net.Uri
+import org.junit.Assert.*
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+
+/**
+ * Robolectric tests for [MmsSendLimiter].
+ */
+@RunWith(RobolectricTestRunner::class)
+@Config(sdk = [33])
+class MmsSendLimiterTest {
+
+    private val first = Uri.parse("content://mms-sms/pending/1")
+    private val second = Uri.parse("content://mms-sms/pending/2")
+    private val third = Uri.parse("content://mms-sms/pending/3")
+
+    private var now = 0L
+
+    private fun limiter(maxInFlight: Int) = MmsSendLimiter(maxInFlight, SLOT_TIMEOUT_MS) { now }
+
+    @Test
+    fun `sends up to the limit take a slot`() {
+        val limiter = limiter(2)
+
+        assertTrue(limiter.tryAcquire(first))
+        assertTrue(limiter.tryAcquire(second))
+
+        assertEquals(2, limiter.inFlightCount())
+    }
+
+    @Test
+    fun `send over the limit is refused`() {
+        val limiter = limiter(1)
+        limiter.tryAcquire(first)
+
+        assertFalse("No slot should be free", limiter.tryAcquire(second))
+        assertEquals(1, limiter.inFlightCount())
+    }
+
+    @Test
+    fun `released slot can be taken again`() {
+        val limiter = limiter(1)
+        limiter.tryAcquire(first)
+
+        assertTrue(limiter.release(first))
+
+        assertTrue(limiter.tryAcquire(second))
+    }
+
+    @Test
+    fun `releasing a message without a slot frees nothing`() {
+        val limiter = limiter(1)
+        limiter.tryAcquire(first)
+
+        assertFalse(limiter.release(third))
+        assertFalse("Slot should still be held", limiter.tryAcquire(second))
+    }
+
+    @Test
+    fun `message is only released once`() {
+        val limiter = limiter(2)
+        limiter.tryAcquire(first)
+        limiter.tryAcquire(second)
+
+        assertTrue(limiter.release(first))
+        assertFalse(limiter.release(first))
+
+        assertTrue(limiter.tryAcquire(third))
+        assertFalse("Double release should not free an extra slot", limiter.tryAcquire(first))
+    }
+
+    @Test
+    fun `slot without a sent report expires`() {
+        val limiter = limiter(1)
+        limiter.tryAcquire(first)
+
+        now += SLOT_TIMEOUT_MS - 1
+        assertFalse("Slot should be held until its deadline", limiter.tryAcquire(second))
+
+        now += 1
+        assertTrue("Expired slot should be freed on the next acquire", limiter.tryAcquire(second))
+        assertEquals(1, limiter.inFlightCount())
+    }
+
+    @Test
+    fun `late report for an expired slot frees nothing`() {
+        val limiter = limiter(1)
+        limiter.tryAcquire(first)
+        now += SLOT_TIMEOUT_MS
+        limiter.tryAcquire(second)
+
+        assertFalse(limiter.release(first))
+        assertFalse("Second message should keep its slot", limiter.tryAcquire(third))
+    }
+
+    companion object {
+        private const val SLOT_TIMEOUT_MS = 60_000L
+    }
+}
@@ -0,0 +1,114 @@
+package com.android.messaging.datamodel
+
+import android.content.ComponentCallbacks2
+import android.graphics.Bitmap
+import org.junit.Assert.*
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+
+/**
+ * Robolectric tests for the size-class [BitmapPool].
+ */
+@RunWith(RobolectricTestRunner::class)
+@Config(sdk = [33])
+class BitmapPoolTest {
+
+    // ========================================================================
+    // Reuse
+    // ========================================================================
+
+    @Test
+    fun `returned bitmap is reused for the same size`() {
+        val pool = BitmapPool(POOL_SIZE, "test")
+        val bitmap = mutableBitmap(100, 100)
+
+        pool.reclaimBitmap(bitmap)
+
+        assertSame(bitmap, pool.createOrReuseBitmap(100, 100))
+    }
+
+    @Test
+    fun `reused bitmap is taken out of the pool`() {
+        val pool = BitmapPool(POOL_SIZE, "test")
+        val bitmap = mutableBitmap(100, 100)
+        pool.reclaimBitmap(bitmap)
+
+        pool.createOrReuseBitmap(100, 100)
+
+        assertNotSame(bitmap, pool.createOrReuseBitmap(100, 100))
+    }
+
+    @Test
+    fun `bitmap from a much smaller size class is not reused`() {
+        val pool = BitmapPool(POOL_SIZE, "test")
+        val small = mutableBitmap(10, 10)
+        pool.reclaimBitmap(small)
+
+        assertNotSame(small, pool.createOrReuseBitmap(100, 100))
+    }
+
+    @Test
+    fun `immutable bitmap is recycled instead of pooled`() {
+        val pool = BitmapPool(POOL_SIZE, "test")
+        val bitmap = mutableBitmap(100, 100).copy(Bitmap.Config.ARGB_8888, false)
+
+        pool.reclaimBitmap(bitmap)
+
+        assertTrue(bitmap.isRecycled)
+    }
+
+    // ========================================================================
+    // Budget and trimming
+    // ========================================================================
+
+    @Test
+    fun `least recently returned bitmap is dropped when over budget`() {
+        val bitmapBytes = mutableBitmap(100, 100).allocationByteCount
+        val pool = BitmapPool(bitmapBytes * 2, "test")
+        val first = mutableBitmap(100, 100)
+        val second = mutableBitmap(100, 100)
+        val third = mutableBitmap(100, 100)
+
+        pool.reclaimBitmap(first)
+        pool.reclaimBitmap(second)
+        pool.reclaimBitmap(third)
+
+        assertTrue("Eldest bitmap should be recycled", first.isRecycled)
+        assertFalse(second.isRecycled)
+        assertFalse(third.isRecycled)
+    }
+
+    @Test
+    fun `moderate trim keeps half of the budget`() {
+        val bitmapBytes = mutableBitmap(100, 100).allocationByteCount
+        val pool = BitmapPool(bitmapBytes * 4, "test")
+        val bitmaps = List(4) { mutableBitmap(100, 100) }
+        bitmaps.forEach { pool.reclaimBitmap(it) }
+
+        pool.trim(ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE)
+
+        assertEquals(2, bitmaps.count { it.isRecycled })
+        assertTrue(bitmaps[0].isRecycled)
+        assertTrue(bitmaps[1].isRecycled)
+    }
+
+    @Test
+    fun `ui hidden trim empties the pool`() {
+        val pool = BitmapPool(POOL_SIZE, "test")
+        val bitmaps = List(3) { mutableBitmap(100, 100) }
+        bitmaps.forEach { pool.reclaimBitmap(it) }
+
+        pool.trim(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN)
+
+        assertTrue(bitmaps.all { it.isRecycled })
+    }
+
+    private fun mutableBitmap(width: Int, height: Int): Bitmap =
+        Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888)
+
+    companion object {
+        private const val POOL_SIZE = 4 * 1024 * 1024
+    }
+}
@@ -0,0 +1,233 @@
+package com.android.messaging.datamodel
+
+import android.database.DatabaseUtils
+import android.database.sqlite.SQLiteDatabase
+import com.android.messaging.datamodel.data.MessageData
+import com.android.messaging.datamodel.data.ParticipantData
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+
+/**
+ * Robolectric tests for the [MessageSearchIndex] schema, triggers and queries.
+ *
+ * Runs against a plain in-memory database with just the Bugle columns the index touches, so
+ * the tests don't need [DatabaseHelper] (and with it the Factory singleton).
+ */
+@RunWith(RobolectricTestRunner::class)
+@Config(sdk = [33])
+class MessageSearchIndexTest {
+
+    private lateinit var db: SQLiteDatabase
+
+    @Before
+    fun setUp() {
+        db = SQLiteDatabase.create(null)
+        db.execSQL(
+            "CREATE TABLE messages (_id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                "conversation_id INT, sender_id INT, received_timestamp INT, " +
+                "message_status INT DEFAULT(0))"
+        )
+        db.execSQL(
+            "CREATE TABLE parts (_id INTEGER PRIMARY KEY AUTOINCREMENT, message_id INT, " +
+                "text TEXT, timestamp INT, conversation_id INT)"
+        )
+        db.execSQL(
+            "CREATE TABLE participants (_id INTEGER PRIMARY KEY AUTOINCREMENT, sub_id INT, " +
+                "full_name TEXT, display_destination TEXT)"
+        )
+        db.execSQL(
+            "CREATE TABLE conversation_participants (_id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                "conversation_id INT, participant_id INT)"
+        )
+        db.execSQL(
+            "INSERT INTO participants VALUES (1, ?, 'Alice Smith', '555-0100')",
+            arrayOf<Any>(ParticipantData.OTHER_THAN_SELF_SUB_ID)
+        )
+        db.execSQL("INSERT INTO conversation_participants VALUES (1, 1, 1)")
+    }
+
+    @After
+    fun tearDown() {
+        db.close()
+    }
+
+    private fun createIndex() {
+        db.execSQL(MessageSearchIndex.CREATE_SEARCH_TABLE_SQL)
+        MessageSearchIndex.CREATE_SEARCH_TRIGGER_SQLS.forEach { db.execSQL(it) }
+    }
+
+    // ========================================================================
+    // Triggers
+    // ========================================================================
+
+    @Test
+    fun `inserted text part is searchable by text and sender`() {
+        createIndex()
+        addMessage(1, "Lunch tomorrow?", timestamp = 100)
+
+        assertEquals(listOf(1L), search("lunch"))
+        assertEquals(listOf(1L), search("alice"))
+    }
+
+    @Test
+    fun `updated part text replaces the indexed text`() {
+        createIndex()
+        addMessage(1, "Lunch tomorrow?", timestamp = 100)
+
+        db.execSQL("UPDATE parts SET text = 'Dinner tonight' WHERE _id = 1")
+
+        assertTrue(search("lunch").isEmpty())
+        assertEquals(listOf(1L), search("dinner"))
+    }
+
+    @Test
+    fun `deleted part is removed from the index`() {
+        createIndex()
+        addMessage(1, "Lunch tomorrow?", timestamp = 100)
+
+        db.execSQL("DELETE FROM parts WHERE _id = 1")
+
+        assertTrue(search("lunch").isEmpty())
+        assertEquals(0L, DatabaseUtils.queryNumEntries(db, MessageSearchIndex.SEARCH_TABLE))
+    }
+
+    @Test
+    fun `sender rename is followed by the index`() {
+        createIndex()
+        addMessage(1, "Lunch tomorrow?", timestamp = 100)
+
+        db.execSQL("UPDATE participants SET full_name = 'Alice Jones' WHERE _id = 1")
+
+        assertTrue(search("smith").isEmpty())
+        assertEquals(listOf(1L), search("jones"))
+    }
+
+    // ========================================================================
+    // Search
+    // ========================================================================
+
+    @Test
+    fun `results are most recent first and keyset paged`() {
+        createIndex()
+        for (i in 1..5) {
+            addMessage(i.toLong(), "meeting number $i", timestamp = i * 100L)
+        }
+
+        val firstPage = search("meeting", pageSize = 2)
+        assertEquals(listOf(5L, 4L), firstPage)
+
+        // Continue after the (timestamp, part id) of the last result of the first page
+        val secondPage = search("meeting", pageSize = 2, afterTimestamp = 400, afterPartId = 4)
+        assertEquals(listOf(3L, 2L), secondPage)
+    }
+
+    @Test
+    fun `drafts are left out of results`() {
+        createIndex()
+        addMessage(
+            1, "draft reply", timestamp = 100, status = MessageData.BUGLE_STATUS_OUTGOING_DRAFT
+        )
+
+        assertTrue(search("draft").isEmpty())
+    }
+
+    @Test
+    fun `snippet marks the matched terms`() {
+        createIndex()
+        addMessage(1, "See you at the station", timestamp = 100)
+        val match = MessageSearchIndex.buildMatchQuery("stat")
+
+        db.rawQuery(MessageSearchIndex.buildSnippetSql(1), arrayOf(match, "1")).use { cursor ->
+            assertTrue(cursor.moveToFirst())
+            assertTrue(
+                cursor.getString(1).contains(
+                    "${MessageSearchIndex.SNIPPET_MATCH_START}station" +
+                        "${MessageSearchIndex.SNIPPET_MATCH_END}"
+                )
+            )
+        }
+    }
+
+    // ========================================================================
+    // Backfill
+    // ========================================================================
+
+    @Test
+    fun `backfill indexes existing parts once`() {
+        addMessage(1, "older message", timestamp = 100)
+        addMessage(2, "another older message", timestamp = 200)
+        createIndex()
+        addMessage(3, "newer message", timestamp = 300)
+
+        db.execSQL(MessageSearchIndex.BACKFILL_SQL, arrayOf<Any>(0L, 1000L))
+        db.execSQL(MessageSearchIndex.BACKFILL_SQL, arrayOf<Any>(0L, 1000L))
+
+        assertEquals(listOf(3L, 2L, 1L), search("message"))
+        assertEquals(3L, DatabaseUtils.queryNumEntries(db, MessageSearchIndex.SEARCH_TABLE))
+    }
+
+    // ========================================================================
+    // Match expression
+    // ========================================================================
+
+    @Test
+    fun `match query quotes each word as a prefix`() {
+        assertEquals("\"lunch*\" \"at*\" \"noon*\"",
+            MessageSearchIndex.buildMatchQuery("Lunch at  noon!"))
+    }
+
+    @Test
+    fun `match query ignores query syntax`() {
+        assertEquals("\"a*\" \"or*\" \"b*\"", MessageSearchIndex.buildMatchQuery("a OR \"b\"*"))
+    }
+
+    @Test
+    fun `match query without words is null`() {
+        assertNull(MessageSearchIndex.buildMatchQuery("  ?! "))
+        assertNull(MessageSearchIndex.buildMatchQuery(null))
+    }
+
+    private fun addMessage(id: Long, text: String, timestamp: Long, status: Int = 0) {
+        db.execSQL(
+            "INSERT INTO messages (_id, conversation_id, sender_id, received_timestamp, " +
+                "message_status) VALUES (?, 1, 1, ?, ?)",
+            arrayOf<Any>(id, timestamp, status)
+        )
+        db.execSQL(
+            "INSERT INTO parts (_id, message_id, text, timestamp, conversation_id) " +
+                "VALUES (?, ?, ?, ?, 1)",
+            arrayOf<Any>(id, id, text, timestamp)
+        )
+    }
+
+    private fun search(
+        query: String,
+        pageSize: Int = 50,
+        afterTimestamp: Long = Long.MAX_VALUE,
+        afterPartId: Long = Long.MAX_VALUE
+    ): List<Long> {
+        val ids = mutableListOf<Long>()
+        db.rawQuery(
+            MessageSearchIndex.SEARCH_SQL,
+            arrayOf(
+                MessageSearchIndex.buildMatchQuery(query),
+                afterTimestamp.toString(),
+                afterTimestamp.toString(),
+                afterPartId.toString(),
+                pageSize.toString()
+            )
+        ).use { cursor ->
+            while (cursor.moveToNext()) {
+                ids.add(
+                    cursor.getLong(cursor.getColumnIndexOrThrow(MessageSearchIndex.RESULT_PART_ID))
+                )
+            }
+        }
+        return ids
+    }
+}